@@ -21,56 +21,105 @@
 package org.matsim.prepare.population;
 
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
-import org.matsim.core.gbl.MatsimRandom;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.population.io.StreamingPopulationWriter;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
 import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
 
-import java.util.Random;
-
+/**
+ * Assigns an income from an {@link IncomeDistribution} to all persons of a subpopulation which do not have one yet.
+ *
+ * Every person's income only depends on its id and the seed, so the persons are processed in parallel and the result is
+ * the same for any number of threads. The same holds for the streaming variant, which assigns incomes while copying a
+ * plans file and thus never holds more than one person in memory.
+ */
 public class AssignIncome {
 
 	private static final Logger log = Logger.getLogger(AssignIncome.class);
 
-	public static void assignIncomeToPersonSubpopulationAccordingToGermanyAverage(Population population){
-		// https://de.wikipedia.org/wiki/Einkommensverteilung_in_Deutschland
-		// besser https://www.destatis.de/DE/Themen/Gesellschaft-Umwelt/Einkommen-Konsum-Lebensbedingungen/Einkommen-Einnahmen-Ausgaben/Publikationen/Downloads-Einkommen/einkommensverteilung-2152606139004.pdf?__blob=publicationFile
-		// Anteil der Personen (%) an allen Personen 10 20 30 40 50 60 70 80 90 100
-		// Nettoäquivalenzeinkommen(€) 826 1.142 1.399 1.630 1.847 2.070 2.332 2.659 3.156 4.329
+	private static final String PERSON_SUBPOPULATION = "person";
+	// same as the default seed of MatsimRandom
+	private static final long DEFAULT_SEED = 4711L;
 
-		log.info("start assigning income to persons according to german average");
+	private final IncomeDistribution distribution;
+	private final String subpopulation;
+	private final long seed;
+
+	/**
+	 * @param subpopulation only persons of this subpopulation get an income (not freight etc.)
+	 */
+	public AssignIncome(IncomeDistribution distribution, String subpopulation, long seed) {
+		this.distribution = distribution;
+		this.subpopulation = subpopulation;
+		this.seed = seed;
+	}
 
-		final Random rnd = MatsimRandom.getLocalInstance();
-
-		population.getPersons().values().stream()
-				.filter(person ->  {
-					String subpopulation = PopulationUtils.getSubpopulation(person);
-					return subpopulation != null && subpopulation.equals("person"); //only assign income to person subpopulation (not to freight etc.)
-				})
-				//don't overwrite income attribute (input plans may have income attributes already)
-				.filter(person -> person.getAttributes().getAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME) == null)
-				.forEach(person -> {
-						double income = 0.;
-						double rndDouble = rnd.nextDouble();
-
-						if (rndDouble <= 0.1) income = 826.;
-						else if (rndDouble > 0.1 && rndDouble <= 0.2) income = 1142.;
-						else if (rndDouble > 0.2 && rndDouble <= 0.3) income = 1399.;
-						else if (rndDouble > 0.3 && rndDouble <= 0.4) income = 1630.;
-						else if (rndDouble > 0.4 && rndDouble <= 0.5) income = 1847.;
-						else if (rndDouble > 0.5 && rndDouble <= 0.6) income = 2070.;
-						else if (rndDouble > 0.6 && rndDouble <= 0.7) income = 2332.;
-						else if (rndDouble > 0.7 && rndDouble <= 0.8) income = 2659.;
-						else if (rndDouble > 0.8 && rndDouble <= 0.9) income = 3156.;
-						else if (rndDouble > 0.9) income = 4329.;
-						else {
-							throw new RuntimeException("Aborting..." + rndDouble);
-						}
-						person.getAttributes().putAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME, income);
-				});
+	/**
+	 * Arguments: input plans file, output plans file and optionally a seed and an income distribution table (see
+	 * {@link IncomeDistribution#readTable(java.net.URL)}). Without a table, {@link IncomeDistribution#GERMANY_AVERAGE} is used.
+	 */
+	public static void main(String[] args) {
+		final String inputPlansFile = args[0];
+		final String outputPlansFile = args[1];
+		final long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+		final IncomeDistribution distribution = args.length > 3 ?
+				IncomeDistribution.readTable(IOUtils.resolveFileOrResource(args[3])) : IncomeDistribution.GERMANY_AVERAGE;
 
+		new AssignIncome(distribution, PERSON_SUBPOPULATION, seed).runStreaming(inputPlansFile, outputPlansFile);
+	}
+
+	public static void assignIncomeToPersonSubpopulationAccordingToGermanyAverage(Population population) {
+		assignIncomeToPersonSubpopulationAccordingToGermanyAverage(population, DEFAULT_SEED);
+	}
+
+	public static void assignIncomeToPersonSubpopulationAccordingToGermanyAverage(Population population, long seed) {
+		// https://de.wikipedia.org/wiki/Einkommensverteilung_in_Deutschland
+		log.info("start assigning income to persons according to german average");
+		assignIncomeToPersonSubpopulation(population, IncomeDistribution.GERMANY_AVERAGE, seed);
 		log.info("finished");
 	}
 
-}
+	public static void assignIncomeToPersonSubpopulation(Population population, IncomeDistribution distribution, long seed) {
+		new AssignIncome(distribution, PERSON_SUBPOPULATION, seed).run(population);
+	}
+
+	public void run(Population population) {
+		population.getPersons().values().parallelStream().forEach(this::assign);
+	}
 
+	/**
+	 * Reads the input plans file person by person, assigns the incomes and writes the persons to the output plans file.
+	 */
+	public void runStreaming(String inputPlansFile, String outputPlansFile) {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		StreamingPopulationReader reader = new StreamingPopulationReader(scenario);
+		StreamingPopulationWriter writer = new StreamingPopulationWriter();
+		writer.startStreaming(outputPlansFile);
+		reader.addAlgorithm(this::assign);
+		reader.addAlgorithm(writer);
+		reader.readFile(inputPlansFile);
+		writer.closeStreaming();
+	}
+
+	/**
+	 * Assigns an income if the person is in the subpopulation and does not have an income yet (input plans may have
+	 * income attributes already).
+	 */
+	public void assign(Person person) {
+		if (!subpopulation.equals(PopulationUtils.getSubpopulation(person))) {
+			return;
+		}
+		if (person.getAttributes().getAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME) != null) {
+			return;
+		}
+		person.getAttributes().putAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME,
+				distribution.getIncome(person, seed));
+	}
+
+}
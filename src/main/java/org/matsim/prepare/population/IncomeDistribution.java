@@ -0,0 +1,133 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.prepare.population;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.run.IdHashing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Discrete income distribution given as a table of cumulative population shares and incomes: a person is in row i if
+ * cumulativeShare(i-1) &lt; u &lt;= cumulativeShare(i), where u is a uniform number in [0,1). The row is found by binary
+ * search, so finer distributions cost log(rows) per person.
+ *
+ * u is derived from a hash of the person id and the seed ({@link IdHashing}). The income of a person thus neither depends
+ * on the other persons nor on the order or the number of threads in which persons are processed. The seed is salted, so
+ * that u is independent of the value by which the population is downsampled (which uses the same seed).
+ */
+public final class IncomeDistribution {
+
+	/**
+	 * Net equivalised income in Germany per decile, see
+	 * https://www.destatis.de/DE/Themen/Gesellschaft-Umwelt/Einkommen-Konsum-Lebensbedingungen/Einkommen-Einnahmen-Ausgaben/Publikationen/Downloads-Einkommen/einkommensverteilung-2152606139004.pdf?__blob=publicationFile
+	 */
+	public static final IncomeDistribution GERMANY_AVERAGE = new IncomeDistribution(
+			new double[]{0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 1.0},
+			new double[]{826., 1142., 1399., 1630., 1847., 2070., 2332., 2659., 3156., 4329.});
+
+	private static final long SEED_SALT = 0x696e636f6d65L; // "income"
+
+	private final double[] cumulativeShares;
+	private final double[] incomes;
+
+	public IncomeDistribution(double[] cumulativeShares, double[] incomes) {
+		if (cumulativeShares.length == 0 || cumulativeShares.length != incomes.length) {
+			throw new IllegalArgumentException("Need the same (positive) number of cumulative shares and incomes.");
+		}
+		for (int i = 1; i < cumulativeShares.length; i++) {
+			if (cumulativeShares[i] <= cumulativeShares[i - 1]) {
+				throw new IllegalArgumentException("Cumulative shares have to be strictly increasing: " + Arrays.toString(cumulativeShares));
+			}
+		}
+		if (Math.abs(cumulativeShares[cumulativeShares.length - 1] - 1.) > 1e-9) {
+			throw new IllegalArgumentException("The last cumulative share has to be 1.0: " + Arrays.toString(cumulativeShares));
+		}
+		this.cumulativeShares = cumulativeShares.clone();
+		this.cumulativeShares[cumulativeShares.length - 1] = 1.;
+		this.incomes = incomes.clone();
+	}
+
+	/**
+	 * Reads a table with one row per income level: the cumulative share and the income, separated by a tab, a semicolon
+	 * or a comma. Empty lines, lines starting with '#' and a non-numeric header line are skipped. Shares may be given in
+	 * percent, as in the published statistics, if the last share is 100.
+	 */
+	public static IncomeDistribution readTable(URL url) {
+		List<double[]> rows = new ArrayList<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(url)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("[\\t;,]");
+				try {
+					rows.add(new double[]{Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())});
+				} catch (NumberFormatException e) {
+					if (!rows.isEmpty()) {
+						throw new IllegalArgumentException("Could not parse line '" + line + "' of " + url, e);
+					}
+					// header
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		double[] cumulativeShares = new double[rows.size()];
+		double[] incomes = new double[rows.size()];
+		double scale = !rows.isEmpty() && rows.get(rows.size() - 1)[0] > 1. + 1e-9 ? 0.01 : 1.;
+		for (int i = 0; i < rows.size(); i++) {
+			cumulativeShares[i] = rows.get(i)[0] * scale;
+			incomes[i] = rows.get(i)[1];
+		}
+		return new IncomeDistribution(cumulativeShares, incomes);
+	}
+
+	/**
+	 * @param u uniform number in [0,1)
+	 */
+	public double getIncome(double u) {
+		int index = Arrays.binarySearch(cumulativeShares, u);
+		if (index < 0) {
+			// insertion point, i.e. the first row with a cumulative share larger than u
+			index = -index - 1;
+		}
+		return incomes[Math.min(index, incomes.length - 1)];
+	}
+
+	public double getIncome(Person person, long seed) {
+		return getIncome(IdHashing.uniform(person.getId(), seed ^ SEED_SALT));
+	}
+
+	public int getNumberOfLevels() {
+		return incomes.length;
+	}
+
+}
@@ -19,6 +19,7 @@
 
 package org.matsim.run;
 
+import java.net.URL;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,6 +36,19 @@ public class BerlinExperimentalConfigGroup extends ReflectiveConfigGroup {
 
     private static final String POPULATION_DOWNSAMPLE_FACTOR = "populationDownsampleFactor";
     private static final String TAG_DRT_LINKS_BUFFER_AROUND_SERVICE_AREA_SHP = "tagDrtLinksBufferAroundServiceAreaShp";
+    private static final String CONCURRENT_SCENARIO_LOADING = "concurrentScenarioLoading";
+    private static final String SCENARIO_SNAPSHOT_DIRECTORY = "scenarioSnapshotDirectory";
+    private static final String POPULATION_DOWNSAMPLE_STRATIFICATION = "populationDownsampleStratification";
+    private static final String RESCALE_TO_POPULATION_SAMPLE = "rescaleToPopulationSample";
+    private static final String RESCALED_POPULATION_SAMPLE = "rescaledPopulationSample";
+    private static final String INPUT_POPULATION_SAMPLE_SIZE = "inputPopulationSampleSize";
+    private static final String INCOME_DISTRIBUTION_TABLE = "incomeDistributionTable";
+
+    public enum DownsampleStratification { none, subpopulationAndHomeZone }
+    private static final String WARM_UP_ITERATIONS = "warmUpIterations";
+    private static final String WARM_UP_POPULATION_SAMPLE = "warmUpPopulationSample";
+    private static final String CHECKPOINT_INTERVAL = "checkpointInterval";
+    private static final String RESUME_CHECKPOINT = "resumeCheckpoint";
 	
 	public BerlinExperimentalConfigGroup() {
 		super(GROUP_NAME);
@@ -43,9 +57,51 @@ public class BerlinExperimentalConfigGroup extends ReflectiveConfigGroup {
 	public BerlinExperimentalConfigGroup( boolean storeUnknownParametersAsStrings ){
             super( GROUP_NAME, storeUnknownParametersAsStrings ) ;
         }
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put(POPULATION_DOWNSAMPLE_FACTOR, "Share of persons to keep. Persons are sampled while the plans file is read, based on a hash "
+				+ "of the person id and global.randomSeed, so the sample is the same across runs and machines.");
+		map.put(CONCURRENT_SCENARIO_LOADING, "If true, the plans file is parsed in chunks of persons on global.numberOfThreads "
+				+ "threads. The network is read while the plans file is cut into chunks, and the transit schedule and the vehicles "
+				+ "are read while the last chunks are parsed. Ids are created in the same order as with sequential loading.");
+		map.put(SCENARIO_SNAPSHOT_DIRECTORY, "Directory for snapshots of the prepared scenario (after downsampling, income assignment "
+				+ "and network adjustments). A snapshot is keyed by the input files and the preparation settings and is reused by "
+				+ "later runs. Remove the directory after changes to the preparation code. 'null' disables snapshots.");
+		map.put(POPULATION_DOWNSAMPLE_STRATIFICATION, "Use 'subpopulationAndHomeZone' to keep the same share of persons in every combination of subpopulation and home zone, "
+				+ "instead of sampling by a hash of the person id. The home zone is the zoneId attribute of the home activity or, if it has none (as in the "
+				+ "Berlin 5.5 plans), the 2 km grid cell of its coordinate.");
+		map.put(RESCALE_TO_POPULATION_SAMPLE, "If true and the population is downsampled, the qsim flow and storage capacity factors and the counts scale factors are "
+				+ "multiplied with the " + POPULATION_DOWNSAMPLE_FACTOR + ", consistent with the scaling factor of the analysis. On by default; set "
+				+ "to false to use the factors of the config as they are, e.g. if they are already tuned to the downsampled population.");
+		map.put(RESCALED_POPULATION_SAMPLE, "Population sample which the capacity and counts scale factors of this config are already scaled to. Set by "
+				+ "RunBerlinScenario.rescaleToPopulationSample(...) and not by hand; it keeps the factors from being scaled twice.");
+		map.put(INPUT_POPULATION_SAMPLE_SIZE, "Sample size of the input plans file, e.g. 0.1 for the 10pct scenario. Together with the " + POPULATION_DOWNSAMPLE_FACTOR
+				+ ", this determines the scaling factor of the analysis.");
+		map.put(INCOME_DISTRIBUTION_TABLE, "Table of cumulative population shares and incomes (see IncomeDistribution.readTable(...)) from which persons "
+				+ "without an income attribute get one. 'null' uses the German average net equivalised income per decile.");
+		map.put(WARM_UP_ITERATIONS, "Number of iterations to run on a stratified sample of the population (see " + WARM_UP_POPULATION_SAMPLE + ") before the learned "
+				+ "plans are expanded to the full population. 0 disables the warm-up.");
+		map.put(WARM_UP_POPULATION_SAMPLE, "Share of the (possibly downsampled) population which is used for the warm-up iterations.");
+		map.put(CHECKPOINT_INTERVAL, "Writes a checkpoint (plans after replanning and the state of the registered listeners) to <output>/checkpoints every n iterations. 0 means no checkpoints.");
+		map.put(RESUME_CHECKPOINT, "Checkpoint directory from which the run is resumed. Usually set by RunBerlinScenario.resume(...) and not by hand.");
+		return map;
+	}
 	
 	private double populationDownsampleFactor = 1.0;
     private double tagDrtLinksBufferAroundServiceAreaShp = 2000.0;
+    private boolean concurrentScenarioLoading = false;
+    private String scenarioSnapshotDirectory = null;
+    private DownsampleStratification populationDownsampleStratification = DownsampleStratification.none;
+    private boolean rescaleToPopulationSample = true;
+    private double rescaledPopulationSample = 1.0;
+    private double inputPopulationSampleSize = 0.1;
+    private String incomeDistributionTable = null;
+    private int warmUpIterations = 0;
+    private double warmUpPopulationSample = 0.1;
+    private int checkpointInterval = 0;
+    private String resumeCheckpoint = null;
 	
     @StringGetter(POPULATION_DOWNSAMPLE_FACTOR)
     public double getPopulationDownsampleFactor() {
@@ -66,6 +122,123 @@ public class BerlinExperimentalConfigGroup extends ReflectiveConfigGroup {
     public void setTagDrtLinksBufferAroundServiceAreaShp(double tagDrtLinksBufferAroundServiceAreaShp) {
         this.tagDrtLinksBufferAroundServiceAreaShp = tagDrtLinksBufferAroundServiceAreaShp;
     }
+
+    @StringGetter(CONCURRENT_SCENARIO_LOADING)
+    public boolean isConcurrentScenarioLoading() {
+        return concurrentScenarioLoading;
+    }
+
+    @StringSetter(CONCURRENT_SCENARIO_LOADING)
+    public void setConcurrentScenarioLoading(boolean concurrentScenarioLoading) {
+        this.concurrentScenarioLoading = concurrentScenarioLoading;
+    }
+
+    @StringGetter(SCENARIO_SNAPSHOT_DIRECTORY)
+    public String getScenarioSnapshotDirectory() {
+        return scenarioSnapshotDirectory;
+    }
+
+    @StringSetter(SCENARIO_SNAPSHOT_DIRECTORY)
+    public void setScenarioSnapshotDirectory(String scenarioSnapshotDirectory) {
+        this.scenarioSnapshotDirectory = scenarioSnapshotDirectory;
+    }
+
+    @StringGetter(POPULATION_DOWNSAMPLE_STRATIFICATION)
+    public DownsampleStratification getPopulationDownsampleStratification() {
+        return populationDownsampleStratification;
+    }
+
+    @StringSetter(POPULATION_DOWNSAMPLE_STRATIFICATION)
+    public void setPopulationDownsampleStratification(DownsampleStratification populationDownsampleStratification) {
+        this.populationDownsampleStratification = populationDownsampleStratification;
+    }
+
+    @StringGetter(RESCALE_TO_POPULATION_SAMPLE)
+    public boolean isRescaleToPopulationSample() {
+        return rescaleToPopulationSample;
+    }
+
+    @StringSetter(RESCALE_TO_POPULATION_SAMPLE)
+    public void setRescaleToPopulationSample(boolean rescaleToPopulationSample) {
+        this.rescaleToPopulationSample = rescaleToPopulationSample;
+    }
+
+    @StringGetter(RESCALED_POPULATION_SAMPLE)
+    public double getRescaledPopulationSample() {
+        return rescaledPopulationSample;
+    }
+
+    @StringSetter(RESCALED_POPULATION_SAMPLE)
+    public void setRescaledPopulationSample(double rescaledPopulationSample) {
+        this.rescaledPopulationSample = rescaledPopulationSample;
+    }
+
+    @StringGetter(INPUT_POPULATION_SAMPLE_SIZE)
+    public double getInputPopulationSampleSize() {
+        return inputPopulationSampleSize;
+    }
+
+    @StringSetter(INPUT_POPULATION_SAMPLE_SIZE)
+    public void setInputPopulationSampleSize(double inputPopulationSampleSize) {
+        this.inputPopulationSampleSize = inputPopulationSampleSize;
+    }
+
+    @StringGetter(INCOME_DISTRIBUTION_TABLE)
+    public String getIncomeDistributionTable() {
+        return incomeDistributionTable;
+    }
+
+    @StringSetter(INCOME_DISTRIBUTION_TABLE)
+    public void setIncomeDistributionTable(String incomeDistributionTable) {
+        this.incomeDistributionTable = incomeDistributionTable;
+    }
+
+    /**
+     * @return the income distribution table, relative to the config file, or null if none is set
+     */
+    public URL getIncomeDistributionTableURL(URL context) {
+        return incomeDistributionTable == null ? null : getInputFileURL(context, incomeDistributionTable);
+    }
+
+    @StringGetter(WARM_UP_ITERATIONS)
+    public int getWarmUpIterations() {
+        return warmUpIterations;
+    }
+
+    @StringSetter(WARM_UP_ITERATIONS)
+    public void setWarmUpIterations(int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    @StringGetter(WARM_UP_POPULATION_SAMPLE)
+    public double getWarmUpPopulationSample() {
+        return warmUpPopulationSample;
+    }
+
+    @StringSetter(WARM_UP_POPULATION_SAMPLE)
+    public void setWarmUpPopulationSample(double warmUpPopulationSample) {
+        this.warmUpPopulationSample = warmUpPopulationSample;
+    }
+
+    @StringGetter(CHECKPOINT_INTERVAL)
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    @StringSetter(CHECKPOINT_INTERVAL)
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @StringGetter(RESUME_CHECKPOINT)
+    public String getResumeCheckpoint() {
+        return resumeCheckpoint;
+    }
+
+    @StringSetter(RESUME_CHECKPOINT)
+    public void setResumeCheckpoint(String resumeCheckpoint) {
+        this.resumeCheckpoint = resumeCheckpoint;
+    }
 			
 }
 
@@ -0,0 +1,202 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitScheduleWriter;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.MatsimVehicleWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Stores the fully prepared scenario (network, population incl. attributes, transit schedule, transit vehicles and
+ * vehicles) in {@link BerlinExperimentalConfigGroup#getScenarioSnapshotDirectory()} and reads it back in later runs
+ * instead of reading and preparing the input files again.
+ *
+ * A snapshot is keyed by a hash over the input file locations (plus size and modification time for local files), the
+ * random seed, the coordinate system, the Berlin preparation settings and a variant string provided by the caller (e.g.
+ * the drt settings). The network and the population, which take most of the loading time, are written in the compact
+ * {@link BinaryScenarioFormat}; the transit schedule and the vehicles are written in the MATSim file formats.
+ *
+ * Changes to the preparation code itself are not part of the key; the snapshot directory has to be cleared after such changes.
+ */
+public final class BerlinScenarioSnapshot {
+
+	private static final Logger log = Logger.getLogger(BerlinScenarioSnapshot.class);
+
+	private static final String NETWORK = "network.bin.gz";
+	private static final String PLANS = "plans.bin.gz";
+	private static final String TRANSIT_SCHEDULE = "transitSchedule.xml.gz";
+	private static final String TRANSIT_VEHICLES = "transitVehicles.xml.gz";
+	private static final String VEHICLES = "vehicles.xml.gz";
+	// part of the key, so that snapshots in an older format are not read
+	private static final String FORMAT_VERSION = "binary-1";
+
+	private BerlinScenarioSnapshot() {
+	}
+
+	/**
+	 * Returns the scenario from the snapshot matching the config and variant if there is one. Otherwise, prepares the
+	 * scenario with the given preparer and stores a new snapshot. If no snapshot directory is configured, this just
+	 * calls the preparer.
+	 */
+	public static Scenario loadOrPrepare(Config config, String variant, Function<Config, Scenario> preparer) {
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+		String snapshotDirectory = berlinCfg.getScenarioSnapshotDirectory();
+		if (snapshotDirectory == null || snapshotDirectory.equals("") || snapshotDirectory.equals("null")) {
+			return preparer.apply(config);
+		}
+
+		Path snapshot = Paths.get(snapshotDirectory, computeKey(config, variant));
+		if (Files.isDirectory(snapshot)) {
+			log.info("Loading prepared scenario from snapshot " + snapshot);
+			return read(config, snapshot);
+		}
+
+		Scenario scenario = preparer.apply(config);
+		write(scenario, snapshot);
+		return scenario;
+	}
+
+	static String computeKey(Config config, String variant) {
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+
+		StringBuilder key = new StringBuilder(variant);
+		key.append('|').append(FORMAT_VERSION);
+		key.append('|').append(config.global().getCoordinateSystem());
+		key.append('|').append(config.global().getRandomSeed());
+		key.append('|').append(berlinCfg.getPopulationDownsampleFactor());
+		key.append('|').append(berlinCfg.getPopulationDownsampleStratification());
+		key.append('|').append(berlinCfg.getTagDrtLinksBufferAroundServiceAreaShp());
+		key.append('|').append(describeInput(berlinCfg.getIncomeDistributionTableURL(config.getContext())));
+		key.append('|').append(describeInput(config.network().getInputFile() == null ? null : config.network().getInputFileURL(config.getContext())));
+		key.append('|').append(describeInput(config.plans().getInputFile() == null ? null : config.plans().getInputFileURL(config.getContext())));
+		key.append('|').append(config.transit().isUseTransit());
+		key.append('|').append(describeInput(config.transit().getTransitScheduleFile() == null ? null : config.transit().getTransitScheduleFileURL(config.getContext())));
+		key.append('|').append(describeInput(config.transit().getVehiclesFile() == null ? null : config.transit().getVehiclesFileURL(config.getContext())));
+		key.append('|').append(describeInput(config.vehicles().getVehiclesFile() == null ? null : config.vehicles().getVehiclesFileURL(config.getContext())));
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest(key.toString().getBytes(StandardCharsets.UTF_8))) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.substring(0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Describes an input file for the snapshot key. Remote files are identified by their url only, local files
+	 * additionally by their size and modification time.
+	 */
+	public static String describeInput(URL url) {
+		if (url == null) {
+			return "null";
+		}
+		if ("file".equals(url.getProtocol())) {
+			File file = new File(url.getPath());
+			return url + "#" + file.length() + "#" + file.lastModified();
+		}
+		return url.toString();
+	}
+
+	private static Scenario read(Config config, Path snapshot) {
+		Scenario scenario = RunBerlinScenario.createScenario(config);
+
+		try {
+			BinaryScenarioFormat.readNetwork(scenario.getNetwork(), snapshot.resolve(NETWORK));
+			// the schedule before the population, whose pt routes reference its ids, see ConcurrentScenarioLoader
+			if (Files.exists(snapshot.resolve(TRANSIT_SCHEDULE))) {
+				new MatsimVehicleReader(scenario.getTransitVehicles()).readFile(snapshot.resolve(TRANSIT_VEHICLES).toString());
+				new TransitScheduleReader(scenario).readFile(snapshot.resolve(TRANSIT_SCHEDULE).toString());
+			}
+			new MatsimVehicleReader(scenario.getVehicles()).readFile(snapshot.resolve(VEHICLES).toString());
+			BinaryScenarioFormat.readPopulation(scenario.getPopulation(), snapshot.resolve(PLANS));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return scenario;
+	}
+
+	private static void write(Scenario scenario, Path snapshot) {
+		log.info("Writing prepared scenario to snapshot " + snapshot);
+		Path tmp = null;
+		try {
+			Files.createDirectories(snapshot.getParent());
+			// unique, so that runs preparing the same snapshot at the same time do not write into each other's files
+			tmp = Files.createTempDirectory(snapshot.getParent(), snapshot.getFileName() + ".");
+
+			BinaryScenarioFormat.writeNetwork(scenario.getNetwork(), tmp.resolve(NETWORK));
+			BinaryScenarioFormat.writePopulation(scenario.getPopulation(), tmp.resolve(PLANS));
+			if (scenario.getConfig().transit().isUseTransit()) {
+				new TransitScheduleWriter(scenario.getTransitSchedule()).writeFile(tmp.resolve(TRANSIT_SCHEDULE).toString());
+				new MatsimVehicleWriter(scenario.getTransitVehicles()).writeFile(tmp.resolve(TRANSIT_VEHICLES).toString());
+			}
+			new MatsimVehicleWriter(scenario.getVehicles()).writeFile(tmp.resolve(VEHICLES).toString());
+
+			// only complete snapshots become visible to other runs
+			try {
+				Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+				tmp = null;
+			} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+				log.info("Snapshot " + snapshot + " has been written by another run in the meantime, keeping that one");
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (tmp != null) {
+				deleteRecursively(tmp);
+			}
+		}
+	}
+
+	private static void deleteRecursively(Path directory) {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (IOException e) {
+			log.warn("Could not delete " + directory, e);
+		}
+	}
+
+}
@@ -0,0 +1,293 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.SubtourModeChoiceConfigGroup;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.population.PersonUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.StageActivityHandling;
+import org.matsim.core.router.TripStructureUtils.Subtour;
+import org.matsim.core.router.TripStructureUtils.Trip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Multi-resolution warm-up: runs the first iterations on a stratified sample of the population with capacities scaled
+ * accordingly, then expands what the sample has learned to the full population, which continues from there.
+ *
+ * The expansion works as follows:
+ * <ul>
+ * <li>persons of the sample get all their plans (incl. scores) from the warm-up run;</li>
+ * <li>every other person is assigned a donor from the sample with the same subpopulation, home zone and sequence of
+ * activity types, and the trip modes of the donor's selected plan are copied onto the person's selected plan, subtour
+ * by subtour, as far as subtour mode choice could have chosen them: only modes of subtour mode choice are exchanged,
+ * chain-based modes have to start where the vehicle is and bring it back, and persons without a car (carAvail "never" or
+ * no license) do not get car trips. Trips with a changed mode lose their route and are routed again before the first
+ * iteration at full scale.</li>
+ * </ul>
+ * Persons without a matching donor keep their input plans.
+ *
+ * Iterations are numbered through: the full run starts at firstIteration + warmUpIterations. The fraction of iterations
+ * after which innovation is switched off is adjusted so that innovation ends in the same absolute iteration as without
+ * warm-up.
+ */
+public final class BerlinWarmUp {
+
+	private static final Logger log = Logger.getLogger(BerlinWarmUp.class);
+
+	private BerlinWarmUp() {
+	}
+
+	/**
+	 * Runs the warm-up and returns the full scenario with the expanded plans. The given config is adjusted to start after
+	 * the warm-up iterations.
+	 *
+	 * @param args the arguments which were used to create the config; needed for a separate config for the warm-up run
+	 */
+	public static Scenario runWarmUpAndExpand(Config config, String[] args) {
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+		final int warmUpIterations = berlinCfg.getWarmUpIterations();
+		final int firstIteration = config.controler().getFirstIteration();
+		final int lastIteration = config.controler().getLastIteration();
+		if (warmUpIterations >= lastIteration - firstIteration) {
+			throw new IllegalArgumentException("The warm-up (" + warmUpIterations + " iterations) has to be shorter than the run ("
+					+ (lastIteration - firstIteration) + " iterations).");
+		}
+
+		Config warmUpConfig = RunBerlinScenario.prepareConfig(args);
+		BerlinExperimentalConfigGroup warmUpBerlinCfg = ConfigUtils.addOrGetModule(warmUpConfig, BerlinExperimentalConfigGroup.class);
+		warmUpBerlinCfg.setWarmUpIterations(0);
+		warmUpBerlinCfg.setPopulationDownsampleFactor(berlinCfg.getPopulationDownsampleFactor() * berlinCfg.getWarmUpPopulationSample());
+		warmUpBerlinCfg.setPopulationDownsampleStratification(BerlinExperimentalConfigGroup.DownsampleStratification.subpopulationAndHomeZone);
+		warmUpBerlinCfg.setRescaleToPopulationSample(true);
+		if (!berlinCfg.isRescaleToPopulationSample()) {
+			// the factors of the config are meant for the downsampled population, the warm-up only scales them to its share of it
+			warmUpBerlinCfg.setRescaledPopulationSample(berlinCfg.getPopulationDownsampleFactor());
+		}
+		warmUpConfig.controler().setLastIteration(firstIteration + warmUpIterations);
+		warmUpConfig.controler().setOutputDirectory(config.controler().getOutputDirectory() + "-warmUp");
+		warmUpConfig.strategy().setFractionOfIterationsToDisableInnovation(1.0);
+
+		log.info("Warm-up: running iterations " + firstIteration + " to " + (firstIteration + warmUpIterations) + " with a "
+				+ warmUpBerlinCfg.getPopulationDownsampleFactor() + " sample.");
+		Scenario warmUpScenario = RunBerlinScenario.prepareScenario(warmUpConfig);
+		Controler warmUpControler = RunBerlinScenario.prepareControler(warmUpScenario);
+		warmUpControler.run();
+
+		int innovationDisableIteration = (int) ((lastIteration - firstIteration) * config.strategy().getFractionOfIterationsToDisableInnovation() + firstIteration);
+		config.controler().setFirstIteration(firstIteration + warmUpIterations);
+		double fractionToDisableInnovation = (double) (innovationDisableIteration - firstIteration - warmUpIterations) / (lastIteration - firstIteration - warmUpIterations);
+		if (fractionToDisableInnovation < 0.) {
+			log.warn("Innovation would have been switched off in iteration " + innovationDisableIteration + ", during the warm-up. It is switched off "
+					+ "right away in the full run.");
+			fractionToDisableInnovation = 0.;
+		}
+		config.strategy().setFractionOfIterationsToDisableInnovation(fractionToDisableInnovation);
+
+		Scenario scenario = RunBerlinScenario.prepareScenario(config);
+		expand(warmUpScenario.getPopulation(), scenario.getPopulation(), config.subtourModeChoice(), config.global().getRandomSeed());
+		return scenario;
+	}
+
+	static void expand(Population sample, Population population, SubtourModeChoiceConfigGroup subtourModeChoice, long seed) {
+		Map<String, List<Person>> donors = new HashMap<>();
+		for (Person person : sample.getPersons().values()) {
+			Person original = population.getPersons().get(person.getId());
+			if (original != null) {
+				// the key is based on the input plan, the selected plan of the sample may have a different activity sequence by now
+				donors.computeIfAbsent(getDonorKey(original), k -> new ArrayList<>()).add(person);
+			}
+		}
+
+		int copied = 0;
+		int modesTransferred = 0;
+		int unchanged = 0;
+		for (Person person : population.getPersons().values()) {
+			Person learned = sample.getPersons().get(person.getId());
+			if (learned != null) {
+				copyPlans(learned, person);
+				copied++;
+				continue;
+			}
+
+			List<Person> candidates = donors.get(getDonorKey(person));
+			if (candidates == null) {
+				unchanged++;
+				continue;
+			}
+			Person donor = candidates.get((int) Math.floorMod(IdHashing.hash(person.getId().toString(), seed), (long) candidates.size()));
+			if (transferModes(donor.getSelectedPlan(), person, subtourModeChoice)) {
+				modesTransferred++;
+			} else {
+				unchanged++;
+			}
+		}
+
+		log.info("Warm-up expansion: " + copied + " persons with learned plans, " + modesTransferred
+				+ " persons with modes from a donor, " + unchanged + " persons unchanged.");
+	}
+
+	private static String getDonorKey(Person person) {
+		StringBuilder key = new StringBuilder(StratifiedDownsampling.getStratum(person));
+		for (Activity act : TripStructureUtils.getActivities(person.getSelectedPlan(), StageActivityHandling.ExcludeStageActivities)) {
+			key.append('|').append(act.getType().split("_")[0]);
+		}
+		return key.toString();
+	}
+
+	private static void copyPlans(Person from, Person to) {
+		for (Plan plan : new ArrayList<>(to.getPlans())) {
+			to.removePlan(plan);
+		}
+		for (Plan plan : from.getPlans()) {
+			Plan copy = PopulationUtils.createPlan(to);
+			PopulationUtils.copyFromTo(plan, copy);
+			to.addPlan(copy);
+			if (plan == from.getSelectedPlan()) {
+				to.setSelectedPlan(copy);
+			}
+		}
+	}
+
+	/**
+	 * Copies the modes of the donor's trips onto the trips of the person's selected plan. Subtours are taken over as a
+	 * whole or not at all; a subtour is not taken over if one of its trips has, or would get, a mode which is not a mode
+	 * of subtour mode choice, or if its chain-based modes would not conserve the vehicles. Subtours are tried again as long
+	 * as one more can be taken over, since a subtour may only become possible after its parent subtour got a vehicle.
+	 *
+	 * @return true if at least one trip mode was changed
+	 */
+	static boolean transferModes(Plan donorPlan, Person person, SubtourModeChoiceConfigGroup subtourModeChoice) {
+		Plan plan = person.getSelectedPlan();
+		List<Trip> donorTrips = TripStructureUtils.getTrips(donorPlan);
+		List<Trip> trips = TripStructureUtils.getTrips(plan);
+		if (donorTrips.size() != trips.size() || trips.isEmpty()) {
+			return false;
+		}
+
+		Set<String> modes = Set.of(subtourModeChoice.getModes());
+		Set<String> chainBasedModes = Set.of(subtourModeChoice.getChainBasedModes());
+		boolean carAvailable = !"never".equals(PersonUtils.getCarAvail(person)) && !"no".equals(PersonUtils.getLicense(person));
+
+		Map<Activity, Integer> tripIndexByOrigin = new IdentityHashMap<>();
+		String[] currentModes = new String[trips.size()];
+		for (int i = 0; i < trips.size(); i++) {
+			tripIndexByOrigin.put(trips.get(i).getOriginActivity(), i);
+			currentModes[i] = TripStructureUtils.getRoutingMode(trips.get(i).getLegsOnly().get(0));
+		}
+
+		String[] newModes = currentModes.clone();
+		List<Subtour> remainingSubtours = new ArrayList<>(TripStructureUtils.getSubtours(plan));
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (Subtour subtour : new ArrayList<>(remainingSubtours)) {
+				String[] candidate = newModes.clone();
+				boolean possible = true;
+				for (Trip trip : subtour.getTripsWithoutSubSubtours()) {
+					int i = tripIndexByOrigin.get(trip.getOriginActivity());
+					String donorMode = TripStructureUtils.getRoutingMode(donorTrips.get(i).getLegsOnly().get(0));
+					if (donorMode == null || !modes.contains(donorMode) || !modes.contains(currentModes[i])
+							|| (!carAvailable && donorMode.equals(TransportMode.car))) {
+						possible = false;
+						break;
+					}
+					candidate[i] = donorMode;
+				}
+				if (possible && conservesVehicles(trips, candidate, chainBasedModes)) {
+					newModes = candidate;
+					remainingSubtours.remove(subtour);
+					progress = true;
+				} else if (!possible) {
+					remainingSubtours.remove(subtour);
+				}
+			}
+		}
+
+		if (Arrays.equals(newModes, currentModes)) {
+			return false;
+		}
+		for (int i = 0; i < trips.size(); i++) {
+			if (newModes[i].equals(currentModes[i])) {
+				continue;
+			}
+			Leg leg = PopulationUtils.createLeg(newModes[i]);
+			TripStructureUtils.setRoutingMode(leg, newModes[i]);
+			TripRouter.insertTrip(plan, trips.get(i).getOriginActivity(), List.of(leg), trips.get(i).getDestinationActivity());
+		}
+		plan.setScore(null);
+		return true;
+	}
+
+	/**
+	 * @return true if every chain-based mode only departs where its vehicle is, and brings the vehicle back to the start of
+	 * the plan if the plan ends there
+	 */
+	private static boolean conservesVehicles(List<Trip> trips, String[] modes, Set<String> chainBasedModes) {
+		Object start = getLocation(trips.get(0).getOriginActivity());
+		boolean closedPlan = start.equals(getLocation(trips.get(trips.size() - 1).getDestinationActivity()));
+		for (String chainBasedMode : chainBasedModes) {
+			Object vehicleLocation = start;
+			for (int i = 0; i < trips.size(); i++) {
+				if (!chainBasedMode.equals(modes[i])) {
+					continue;
+				}
+				if (!getLocation(trips.get(i).getOriginActivity()).equals(vehicleLocation)) {
+					return false;
+				}
+				vehicleLocation = getLocation(trips.get(i).getDestinationActivity());
+			}
+			if (closedPlan && !vehicleLocation.equals(start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the facility, or else the link, or else the coordinate of the activity, as subtours are determined
+	 */
+	private static Object getLocation(Activity activity) {
+		if (activity.getFacilityId() != null) {
+			return activity.getFacilityId();
+		}
+		return activity.getLinkId() != null ? activity.getLinkId() : activity.getCoord();
+	}
+
+}
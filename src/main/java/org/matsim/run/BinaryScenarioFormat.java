@@ -0,0 +1,412 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.utils.objectattributes.ObjectAttributesConverter;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact binary format of the network and the population for {@link BerlinScenarioSnapshot}. Reading it skips the XML
+ * parsing, the time and coordinate parsing and the per element attribute handling of the MATSim readers.
+ *
+ * The files are gzipped streams of {@link DataOutputStream} primitives, written in the iteration order of the containers,
+ * so that reading a file creates the ids in the same order as the scenario it was written from. Undefined times are
+ * stored as NaN. Attribute values are stored as class name and string, converted by the same
+ * {@link ObjectAttributesConverter} as in the MATSim file formats; values which it cannot convert are skipped, as there.
+ * Routes are stored as route type and route description and are recreated by the {@link RouteFactories} of the
+ * population.
+ */
+final class BinaryScenarioFormat {
+
+	private static final int NETWORK_MAGIC = 0x424e5731; // "BNW1"
+	private static final int POPULATION_MAGIC = 0x42504f31; // "BPO1"
+
+	private static final byte ACTIVITY = 0;
+	private static final byte LEG = 1;
+
+	private BinaryScenarioFormat() {
+	}
+
+	static void writeNetwork(Network network, Path file) throws IOException {
+		ObjectAttributesConverter converter = new ObjectAttributesConverter();
+		try (DataOutputStream out = openOutput(file)) {
+			out.writeInt(NETWORK_MAGIC);
+			writeNullableString(out, network.getName());
+			out.writeDouble(network.getCapacityPeriod());
+			out.writeDouble(network.getEffectiveCellSize());
+			out.writeDouble(network.getEffectiveLaneWidth());
+			writeAttributes(out, network.getAttributes(), converter);
+
+			out.writeInt(network.getNodes().size());
+			for (Node node : network.getNodes().values()) {
+				out.writeUTF(node.getId().toString());
+				writeCoord(out, node.getCoord());
+				writeAttributes(out, node.getAttributes(), converter);
+			}
+			out.writeInt(network.getLinks().size());
+			for (Link link : network.getLinks().values()) {
+				out.writeUTF(link.getId().toString());
+				out.writeUTF(link.getFromNode().getId().toString());
+				out.writeUTF(link.getToNode().getId().toString());
+				out.writeDouble(link.getLength());
+				out.writeDouble(link.getFreespeed());
+				out.writeDouble(link.getCapacity());
+				out.writeDouble(link.getNumberOfLanes());
+				out.writeInt(link.getAllowedModes().size());
+				for (String mode : link.getAllowedModes()) {
+					out.writeUTF(mode);
+				}
+				writeAttributes(out, link.getAttributes(), converter);
+			}
+		}
+	}
+
+	static void readNetwork(Network network, Path file) throws IOException {
+		ObjectAttributesConverter converter = new ObjectAttributesConverter();
+		NetworkFactory factory = network.getFactory();
+		try (DataInputStream in = openInput(file, NETWORK_MAGIC)) {
+			network.setName(readNullableString(in));
+			network.setCapacityPeriod(in.readDouble());
+			network.setEffectiveCellSize(in.readDouble());
+			network.setEffectiveLaneWidth(in.readDouble());
+			readAttributes(in, network.getAttributes(), converter);
+
+			int nodes = in.readInt();
+			for (int i = 0; i < nodes; i++) {
+				Node node = factory.createNode(Id.createNodeId(in.readUTF()), readCoord(in));
+				readAttributes(in, node.getAttributes(), converter);
+				network.addNode(node);
+			}
+			int links = in.readInt();
+			for (int i = 0; i < links; i++) {
+				Id<Link> linkId = Id.createLinkId(in.readUTF());
+				Node fromNode = network.getNodes().get(Id.createNodeId(in.readUTF()));
+				Node toNode = network.getNodes().get(Id.createNodeId(in.readUTF()));
+				Link link = factory.createLink(linkId, fromNode, toNode);
+				link.setLength(in.readDouble());
+				link.setFreespeed(in.readDouble());
+				link.setCapacity(in.readDouble());
+				link.setNumberOfLanes(in.readDouble());
+				int modes = in.readInt();
+				Set<String> allowedModes = new HashSet<>();
+				for (int j = 0; j < modes; j++) {
+					allowedModes.add(in.readUTF());
+				}
+				link.setAllowedModes(allowedModes);
+				readAttributes(in, link.getAttributes(), converter);
+				network.addLink(link);
+			}
+		}
+	}
+
+	static void writePopulation(Population population, Path file) throws IOException {
+		ObjectAttributesConverter converter = new ObjectAttributesConverter();
+		try (DataOutputStream out = openOutput(file)) {
+			out.writeInt(POPULATION_MAGIC);
+			writeNullableString(out, population.getName());
+			writeAttributes(out, population.getAttributes(), converter);
+
+			out.writeInt(population.getPersons().size());
+			for (Person person : population.getPersons().values()) {
+				out.writeUTF(person.getId().toString());
+				writeAttributes(out, person.getAttributes(), converter);
+				out.writeInt(person.getPlans().size());
+				for (Plan plan : person.getPlans()) {
+					out.writeBoolean(plan == person.getSelectedPlan());
+					out.writeDouble(plan.getScore() == null ? Double.NaN : plan.getScore());
+					writeNullableString(out, plan.getType());
+					writeAttributes(out, plan.getAttributes(), converter);
+					out.writeInt(plan.getPlanElements().size());
+					for (PlanElement element : plan.getPlanElements()) {
+						if (element instanceof Activity) {
+							writeActivity(out, (Activity) element, converter);
+						} else {
+							writeLeg(out, (Leg) element, converter);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void writeActivity(DataOutputStream out, Activity activity, ObjectAttributesConverter converter) throws IOException {
+		out.writeByte(ACTIVITY);
+		out.writeUTF(activity.getType());
+		writeNullableString(out, activity.getLinkId() == null ? null : activity.getLinkId().toString());
+		writeNullableString(out, activity.getFacilityId() == null ? null : activity.getFacilityId().toString());
+		out.writeBoolean(activity.getCoord() != null);
+		if (activity.getCoord() != null) {
+			writeCoord(out, activity.getCoord());
+		}
+		out.writeDouble(toDouble(activity.getStartTime()));
+		out.writeDouble(toDouble(activity.getEndTime()));
+		out.writeDouble(toDouble(activity.getMaximumDuration()));
+		writeAttributes(out, activity.getAttributes(), converter);
+	}
+
+	private static void writeLeg(DataOutputStream out, Leg leg, ObjectAttributesConverter converter) throws IOException {
+		out.writeByte(LEG);
+		out.writeUTF(leg.getMode());
+		writeNullableString(out, TripStructureUtils.getRoutingMode(leg));
+		out.writeDouble(toDouble(leg.getDepartureTime()));
+		out.writeDouble(toDouble(leg.getTravelTime()));
+		writeAttributes(out, leg.getAttributes(), converter);
+		Route route = leg.getRoute();
+		out.writeBoolean(route != null);
+		if (route != null) {
+			out.writeUTF(route.getRouteType());
+			writeNullableString(out, route.getStartLinkId() == null ? null : route.getStartLinkId().toString());
+			writeNullableString(out, route.getEndLinkId() == null ? null : route.getEndLinkId().toString());
+			writeLongString(out, route.getRouteDescription());
+			out.writeDouble(route.getDistance());
+			out.writeDouble(toDouble(route.getTravelTime()));
+			Id<Vehicle> vehicleId = route instanceof NetworkRoute ? ((NetworkRoute) route).getVehicleId() : null;
+			writeNullableString(out, vehicleId == null ? null : vehicleId.toString());
+		}
+	}
+
+	static void readPopulation(Population population, Path file) throws IOException {
+		ObjectAttributesConverter converter = new ObjectAttributesConverter();
+		PopulationFactory factory = population.getFactory();
+		try (DataInputStream in = openInput(file, POPULATION_MAGIC)) {
+			population.setName(readNullableString(in));
+			readAttributes(in, population.getAttributes(), converter);
+
+			int persons = in.readInt();
+			for (int i = 0; i < persons; i++) {
+				Person person = factory.createPerson(Id.createPersonId(in.readUTF()));
+				readAttributes(in, person.getAttributes(), converter);
+				int plans = in.readInt();
+				for (int j = 0; j < plans; j++) {
+					boolean selected = in.readBoolean();
+					Plan plan = factory.createPlan();
+					double score = in.readDouble();
+					plan.setScore(Double.isNaN(score) ? null : score);
+					plan.setType(readNullableString(in));
+					readAttributes(in, plan.getAttributes(), converter);
+					int elements = in.readInt();
+					for (int k = 0; k < elements; k++) {
+						byte type = in.readByte();
+						if (type == ACTIVITY) {
+							plan.addActivity(readActivity(in, factory, converter));
+						} else if (type == LEG) {
+							plan.addLeg(readLeg(in, factory, converter));
+						} else {
+							throw new IOException("Unknown plan element type " + type + " in " + file);
+						}
+					}
+					person.addPlan(plan);
+					if (selected) {
+						person.setSelectedPlan(plan);
+					}
+				}
+				population.addPerson(person);
+			}
+		}
+	}
+
+	private static Activity readActivity(DataInputStream in, PopulationFactory factory, ObjectAttributesConverter converter) throws IOException {
+		String type = in.readUTF();
+		String linkId = readNullableString(in);
+		String facilityId = readNullableString(in);
+		Coord coord = in.readBoolean() ? readCoord(in) : null;
+		Activity activity = linkId == null ? factory.createActivityFromCoord(type, coord)
+				: factory.createActivityFromLinkId(type, Id.createLinkId(linkId));
+		activity.setCoord(coord);
+		if (facilityId != null) {
+			activity.setFacilityId(Id.create(facilityId, ActivityFacility.class));
+		}
+		setTime(in.readDouble(), activity::setStartTime, activity::setStartTimeUndefined);
+		setTime(in.readDouble(), activity::setEndTime, activity::setEndTimeUndefined);
+		setTime(in.readDouble(), activity::setMaximumDuration, activity::setMaximumDurationUndefined);
+		readAttributes(in, activity.getAttributes(), converter);
+		return activity;
+	}
+
+	private static Leg readLeg(DataInputStream in, PopulationFactory factory, ObjectAttributesConverter converter) throws IOException {
+		Leg leg = factory.createLeg(in.readUTF());
+		String routingMode = readNullableString(in);
+		setTime(in.readDouble(), leg::setDepartureTime, leg::setDepartureTimeUndefined);
+		setTime(in.readDouble(), leg::setTravelTime, leg::setTravelTimeUndefined);
+		readAttributes(in, leg.getAttributes(), converter);
+		if (routingMode != null) {
+			TripStructureUtils.setRoutingMode(leg, routingMode);
+		}
+		if (in.readBoolean()) {
+			RouteFactories routeFactories = factory.getRouteFactories();
+			String routeType = in.readUTF();
+			String startLinkId = readNullableString(in);
+			String endLinkId = readNullableString(in);
+			Route route = routeFactories.createRoute(routeFactories.getRouteClassForType(routeType),
+					startLinkId == null ? null : Id.createLinkId(startLinkId), endLinkId == null ? null : Id.createLinkId(endLinkId));
+			String routeDescription = readLongString(in);
+			if (routeDescription != null) {
+				route.setRouteDescription(routeDescription);
+			}
+			route.setDistance(in.readDouble());
+			setTime(in.readDouble(), route::setTravelTime, route::setTravelTimeUndefined);
+			String vehicleId = readNullableString(in);
+			if (vehicleId != null) {
+				((NetworkRoute) route).setVehicleId(Id.createVehicleId(vehicleId));
+			}
+			leg.setRoute(route);
+		}
+		return leg;
+	}
+
+	private static DataOutputStream openOutput(Path file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), 1 << 16)));
+	}
+
+	private static DataInputStream openInput(Path file, int magic) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16)));
+		if (in.readInt() != magic) {
+			in.close();
+			throw new IOException(file + " is not in the expected snapshot format");
+		}
+		return in;
+	}
+
+	private static void writeAttributes(DataOutputStream out, Attributes attributes, ObjectAttributesConverter converter) throws IOException {
+		List<String[]> converted = new ArrayList<>();
+		for (Map.Entry<String, Object> entry : attributes.getAsMap().entrySet()) {
+			String value = converter.convertToString(entry.getValue());
+			if (value != null) {
+				converted.add(new String[]{entry.getKey(), entry.getValue().getClass().getName(), value});
+			}
+		}
+		out.writeInt(converted.size());
+		for (String[] attribute : converted) {
+			out.writeUTF(attribute[0]);
+			out.writeUTF(attribute[1]);
+			writeLongString(out, attribute[2]);
+		}
+	}
+
+	private static void readAttributes(DataInputStream in, Attributes attributes, ObjectAttributesConverter converter) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			String name = in.readUTF();
+			String className = in.readUTF();
+			Object value = converter.convert(className, readLongString(in));
+			if (value != null) {
+				attributes.putAttribute(name, value);
+			}
+		}
+	}
+
+	private static void writeCoord(DataOutputStream out, Coord coord) throws IOException {
+		out.writeDouble(coord.getX());
+		out.writeDouble(coord.getY());
+		out.writeDouble(coord.hasZ() ? coord.getZ() : Double.NaN);
+	}
+
+	private static Coord readCoord(DataInputStream in) throws IOException {
+		double x = in.readDouble();
+		double y = in.readDouble();
+		double z = in.readDouble();
+		return Double.isNaN(z) ? new Coord(x, y) : new Coord(x, y, z);
+	}
+
+	private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * For strings which may exceed the 64 KiB of {@link DataOutputStream#writeUTF(String)}, e.g. long network routes. Null
+	 * is stored as length -1.
+	 */
+	private static void writeLongString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readLongString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static double toDouble(OptionalTime time) {
+		return time.isDefined() ? time.seconds() : Double.NaN;
+	}
+
+	private static void setTime(double value, DoubleConsumer setter, Runnable undefinedSetter) {
+		if (Double.isNaN(value)) {
+			undefinedSetter.run();
+		} else {
+			setter.accept(value);
+		}
+	}
+
+}
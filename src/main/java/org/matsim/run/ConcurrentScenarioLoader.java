@@ -0,0 +1,518 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.groups.FacilitiesConfigGroup;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.gbl.Gbl;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.utils.objectattributes.attributable.AttributesImpl;
+import org.matsim.vehicles.MatsimVehicleReader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the input files of a scenario on a bounded thread pool instead of one after the other.
+ *
+ * Most of the time goes into parsing the plans file. The calling thread only reads the plans file line by line and cuts
+ * it into chunks of persons; the chunks are parsed on the pool and their persons are added to the population in the
+ * order of the file. Meanwhile, the network is read on the pool, and once the plans file has been read to its end, the
+ * transit schedule, the transit vehicles and the vehicles (in this sequence) are read on the pool while the last chunks
+ * are still being parsed.
+ *
+ * {@link org.matsim.api.core.v01.Id}s are indexed per type in the order of their creation, and most containers iterate in
+ * index order. To keep this order identical to {@link ScenarioUtils#loadScenario(Scenario)} (network, population,
+ * transit schedule, transit vehicles, vehicles), the calling thread creates the ids which the population introduces -
+ * persons, facilities, vehicles and the stops, lines and routes of pt routes - while it cuts the file, i.e. in the order
+ * of the file, before any chunk is parsed. The chunks are only parsed once the network is loaded, since their routes
+ * reference links, and the transit schedule and the vehicles only start when all ids of the population exist. Link ids
+ * are not created ahead, they are expected to exist in the network.
+ *
+ * Only the inputs used by the Berlin scenario are supported. For anything else (facilities, households, lanes, time
+ * variant networks, separate person attribute files, plans files in a format before population_v5) the loader falls back
+ * to the sequential {@link ScenarioUtils} path; with a single thread, the files are read one after the other.
+ *
+ * Route factories must be installed on the scenario before calling this, same as for the sequential path.
+ *
+ * Optionally, a person filter is applied while the plans file is parsed: persons which do not pass the filter are
+ * dropped right after they are read and are never added to the population. The filter is applied on the calling thread in
+ * the order of the file. Peak memory thus scales with the sample (plus a few chunks in flight) rather than with the full
+ * plans file.
+ */
+public final class ConcurrentScenarioLoader {
+
+	private static final Logger log = Logger.getLogger(ConcurrentScenarioLoader.class);
+
+	private static final int PERSONS_PER_CHUNK = 1000;
+	private static final Pattern ATTRIBUTE = Pattern.compile("\\s(\\w+)=\"([^\"]*)\"");
+	private static final Pattern JSON_ID = Pattern.compile("\"(transitRouteId|transitLineId|accessFacilityId|egressFacilityId)\"\\s*:\\s*\"([^\"]*)\"");
+
+	private ConcurrentScenarioLoader() {
+	}
+
+	public static void loadScenario(Scenario scenario, int numberOfThreads) {
+		loadScenario(scenario, numberOfThreads, null);
+	}
+
+	/**
+	 * @param personFilter persons for which this returns false are not added to the population; may be null
+	 */
+	public static void loadScenario(Scenario scenario, int numberOfThreads, Predicate<Person> personFilter) {
+		loadScenario(scenario, numberOfThreads, personFilter, PERSONS_PER_CHUNK);
+	}
+
+	static void loadScenario(Scenario scenario, int numberOfThreads, Predicate<Person> personFilter, int personsPerChunk) {
+		Gbl.assertNotNull(scenario);
+		Config config = scenario.getConfig();
+
+		if (!isSupported(config)) {
+			log.warn("Config contains inputs which are not supported by the concurrent scenario loader. Loading sequentially...");
+			ScenarioUtils.loadScenario(scenario);
+			if (personFilter != null) {
+				scenario.getPopulation().getPersons().values().removeIf(personFilter.negate());
+			}
+			return;
+		}
+
+		if (numberOfThreads <= 1 || config.plans().getInputFile() == null || !isChunkable(config.plans().getInputFileURL(config.getContext()))) {
+			if (config.network().getInputFile() != null) {
+				loadNetwork(scenario);
+			}
+			if (config.plans().getInputFile() != null) {
+				loadPopulation(scenario, personFilter);
+			}
+			loadTransitAndVehicles(scenario);
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+			Thread thread = new Thread(runnable, "scenario-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Future<?> network = executor.submit(() -> {
+				if (config.network().getInputFile() != null) {
+					loadNetwork(scenario);
+				}
+			});
+			loadPopulationInChunks(scenario, personFilter, personsPerChunk, executor, 4 * numberOfThreads, network);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean isSupported(Config config) {
+		return config.facilities().getInputFile() == null
+				&& config.facilities().getFacilitiesSource() == FacilitiesConfigGroup.FacilitiesSource.none
+				&& config.households().getInputFile() == null
+				&& config.network().getLaneDefinitionsFile() == null
+				&& !config.network().isTimeVariantNetwork()
+				&& config.plans().getInputPersonAttributeFile() == null;
+	}
+
+	private static void loadNetwork(Scenario scenario) {
+		Config config = scenario.getConfig();
+		log.info("loading network from " + config.network().getInputFileURL(config.getContext()));
+		new MatsimNetworkReader(config.network().getInputCRS(), config.global().getCoordinateSystem(), scenario.getNetwork())
+				.readURL(config.network().getInputFileURL(config.getContext()));
+	}
+
+	private static void loadPopulation(Scenario scenario, Predicate<Person> personFilter) {
+		Config config = scenario.getConfig();
+		log.info("loading population from " + config.plans().getInputFileURL(config.getContext()));
+
+		Scenario target = scenario;
+		if (personFilter != null) {
+			target = new ScenarioUtils.ScenarioBuilder(config)
+					.setNetwork(scenario.getNetwork())
+					.setPopulation(new FilteringPopulation(scenario.getPopulation(), personFilter))
+					.build();
+		}
+		new PopulationReader(config.plans().getInputCRS(), config.global().getCoordinateSystem(), target)
+				.readURL(config.plans().getInputFileURL(config.getContext()));
+		PopulationUtils.printPlansCount(scenario.getPopulation());
+	}
+
+	private static void loadTransitAndVehicles(Scenario scenario) {
+		Config config = scenario.getConfig();
+		if (config.transit().isUseTransit()) {
+			loadTransitSchedule(scenario);
+			loadTransitVehicles(scenario);
+		}
+		if (config.qsim().getVehiclesSource() != QSimConfigGroup.VehiclesSource.defaultVehicle) {
+			loadVehicles(scenario);
+		}
+	}
+
+	/**
+	 * @return true if the plans file has a population root element, i.e. is in the population_v5 format or later
+	 */
+	private static boolean isChunkable(URL plansFile) {
+		try (BufferedReader reader = IOUtils.getBufferedReader(plansFile)) {
+			String line;
+			while ((line = reader.readLine()) != null && !isPersonStart(line)) {
+				if (line.contains("<population")) {
+					return true;
+				}
+			}
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Cuts the plans file into chunks of persons, which are parsed on the executor once the network is loaded, and adds
+	 * their persons to the population in the order of the file. The header of the file (everything up to the first person,
+	 * incl. the population attributes and thus the coordinate reference system) is prepended to every chunk. When the file
+	 * is read to its end, the transit schedule and the vehicles are loaded on the executor, too.
+	 */
+	private static void loadPopulationInChunks(Scenario scenario, Predicate<Person> personFilter, int personsPerChunk,
+											   ExecutorService executor, int maxChunksInFlight, Future<?> network) {
+		Config config = scenario.getConfig();
+		URL plansFile = config.plans().getInputFileURL(config.getContext());
+		log.info("loading population from " + plansFile + " in chunks of " + personsPerChunk + " persons");
+
+		Deque<Future<List<Person>>> chunks = new ArrayDeque<>();
+		int[] personsRead = {0};
+		try (BufferedReader reader = IOUtils.getBufferedReader(plansFile)) {
+			StringBuilder header = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null && !isPersonStart(line)) {
+				header.append(line).append('\n');
+			}
+			String headerText = header.toString();
+			// the population attributes, e.g. the coordinate reference system, go to the population itself
+			parse(scenario, headerText, "");
+
+			StringBuilder chunk = new StringBuilder();
+			int personsInChunk = 0;
+			for (; line != null && !line.trim().startsWith("</population"); line = reader.readLine()) {
+				createIds(line);
+				chunk.append(line).append('\n');
+				if (line.trim().equals("</person>") && ++personsInChunk == personsPerChunk) {
+					chunks.add(submitChunk(scenario, headerText, chunk.toString(), executor, network));
+					chunk.setLength(0);
+					personsInChunk = 0;
+					while (chunks.size() > maxChunksInFlight) {
+						addPersons(scenario.getPopulation(), await(chunks.poll()), personFilter, personsRead);
+					}
+				}
+			}
+			if (personsInChunk > 0) {
+				chunks.add(submitChunk(scenario, headerText, chunk.toString(), executor, network));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		// all ids of the population exist now, so the ids of the transit schedule and the vehicles come after them
+		Future<?> transitAndVehicles = executor.submit(() -> {
+			await(network);
+			loadTransitAndVehicles(scenario);
+		});
+		while (!chunks.isEmpty()) {
+			addPersons(scenario.getPopulation(), await(chunks.poll()), personFilter, personsRead);
+		}
+		await(transitAndVehicles);
+		log.info("persons read: " + personsRead[0] + ", persons kept: " + scenario.getPopulation().getPersons().size());
+		PopulationUtils.printPlansCount(scenario.getPopulation());
+	}
+
+	private static Future<List<Person>> submitChunk(Scenario scenario, String header, String persons, ExecutorService executor,
+													Future<?> network) {
+		return executor.submit(() -> {
+			await(network);
+			ChunkPopulation chunk = new ChunkPopulation(scenario.getPopulation().getFactory());
+			parse(new ScenarioUtils.ScenarioBuilder(scenario.getConfig()).setNetwork(scenario.getNetwork()).setPopulation(chunk).build(),
+					header, persons);
+			return chunk.persons;
+		});
+	}
+
+	private static void parse(Scenario target, String header, String persons) {
+		Config config = target.getConfig();
+		byte[] document = (header + persons + "</population>\n").getBytes(StandardCharsets.UTF_8);
+		new PopulationReader(config.plans().getInputCRS(), config.global().getCoordinateSystem(), target)
+				.parse(new ByteArrayInputStream(document));
+	}
+
+	private static void addPersons(Population population, List<Person> persons, Predicate<Person> personFilter, int[] personsRead) {
+		for (Person person : persons) {
+			personsRead[0]++;
+			if (personFilter == null || personFilter.test(person)) {
+				population.addPerson(person);
+			}
+			if (personsRead[0] % 100000 == 0) {
+				log.info("persons read: " + personsRead[0] + ", persons kept: " + population.getPersons().size());
+			}
+		}
+	}
+
+	private static boolean isPersonStart(String line) {
+		String trimmed = line.trim();
+		return trimmed.startsWith("<person ") || trimmed.startsWith("<person>");
+	}
+
+	/**
+	 * Creates the ids of a line of the plans file in the order in which {@link PopulationReader} would create them.
+	 */
+	private static void createIds(String line) {
+		String trimmed = line.trim();
+		if (line.indexOf('=') < 0 && !trimmed.startsWith("<route")) {
+			return;
+		}
+		Matcher attributes = ATTRIBUTE.matcher(line);
+		while (attributes.find()) {
+			String name = attributes.group(1);
+			String value = unescape(attributes.group(2));
+			if (name.equals("id") && trimmed.startsWith("<person")) {
+				Id.createPersonId(value);
+			} else if (name.equals("facility")) {
+				Id.create(value, ActivityFacility.class);
+			} else if (name.equals("vehicleRefId") && !value.equals("null")) {
+				Id.createVehicleId(value);
+			}
+		}
+		if (!trimmed.startsWith("<route")) {
+			return;
+		}
+		int start = trimmed.indexOf('>') + 1;
+		int end = trimmed.lastIndexOf("</route>");
+		if (start <= 0 || end < start) {
+			return;
+		}
+		String description = unescape(trimmed.substring(start, end)).trim();
+		if (description.startsWith("PT1===")) {
+			// PT1===accessStop===line===route===egressStop
+			String[] parts = description.split("===");
+			if (parts.length >= 5) {
+				createTransitIds(parts[1], parts[2], parts[3], parts[4]);
+			}
+		} else if (description.startsWith("{")) {
+			Map<String, String> ids = new LinkedHashMap<>();
+			Matcher json = JSON_ID.matcher(description);
+			while (json.find()) {
+				ids.put(json.group(1), json.group(2));
+			}
+			createTransitIds(ids.get("accessFacilityId"), ids.get("transitLineId"), ids.get("transitRouteId"), ids.get("egressFacilityId"));
+		}
+	}
+
+	private static void createTransitIds(String accessStop, String line, String route, String egressStop) {
+		if (accessStop != null) {
+			Id.create(accessStop, TransitStopFacility.class);
+		}
+		if (line != null) {
+			Id.create(line, TransitLine.class);
+		}
+		if (route != null) {
+			Id.create(route, TransitRoute.class);
+		}
+		if (egressStop != null) {
+			Id.create(egressStop, TransitStopFacility.class);
+		}
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('&') < 0) {
+			return value;
+		}
+		return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+	}
+
+	private static void loadTransitSchedule(Scenario scenario) {
+		Config config = scenario.getConfig();
+		if (config.transit().getTransitScheduleFile() != null) {
+			log.info("loading transit schedule from " + config.transit().getTransitScheduleFileURL(config.getContext()));
+			new TransitScheduleReader(config.transit().getInputScheduleCRS(), config.global().getCoordinateSystem(), scenario)
+					.readURL(config.transit().getTransitScheduleFileURL(config.getContext()));
+		}
+	}
+
+	private static void loadTransitVehicles(Scenario scenario) {
+		Config config = scenario.getConfig();
+		if (config.transit().getVehiclesFile() != null) {
+			log.info("loading transit vehicles from " + config.transit().getVehiclesFileURL(config.getContext()));
+			new MatsimVehicleReader(scenario.getTransitVehicles()).readURL(config.transit().getVehiclesFileURL(config.getContext()));
+		}
+	}
+
+	private static void loadVehicles(Scenario scenario) {
+		Config config = scenario.getConfig();
+		if (config.vehicles().getVehiclesFile() != null) {
+			log.info("loading vehicles from " + config.vehicles().getVehiclesFileURL(config.getContext()));
+			new MatsimVehicleReader(scenario.getVehicles()).readURL(config.vehicles().getVehiclesFileURL(config.getContext()));
+		}
+	}
+
+	/**
+	 * Passes everything through to the delegate, but only adds persons which pass the filter.
+	 */
+	private static final class FilteringPopulation implements Population {
+		private final Population delegate;
+		private final Predicate<Person> filter;
+		private int personsRead = 0;
+
+		FilteringPopulation(Population delegate, Predicate<Person> filter) {
+			this.delegate = delegate;
+			this.filter = filter;
+		}
+
+		@Override
+		public PopulationFactory getFactory() {
+			return delegate.getFactory();
+		}
+
+		@Override
+		public String getName() {
+			return delegate.getName();
+		}
+
+		@Override
+		public void setName(String name) {
+			delegate.setName(name);
+		}
+
+		@Override
+		public Map<Id<Person>, ? extends Person> getPersons() {
+			return delegate.getPersons();
+		}
+
+		@Override
+		public void addPerson(Person person) {
+			personsRead++;
+			if (filter.test(person)) {
+				delegate.addPerson(person);
+			}
+			if (personsRead % 100000 == 0) {
+				log.info("persons read: " + personsRead + ", persons kept: " + delegate.getPersons().size());
+			}
+		}
+
+		@Override
+		public Person removePerson(Id<Person> personId) {
+			return delegate.removePerson(personId);
+		}
+
+		@Override
+		public Attributes getAttributes() {
+			return delegate.getAttributes();
+		}
+	}
+
+	/**
+	 * Collects the persons of one chunk in the order of the file. The population attributes in the header of the chunk are
+	 * read into attributes of its own, they are already on the real population.
+	 */
+	private static final class ChunkPopulation implements Population {
+		private final PopulationFactory factory;
+		private final List<Person> persons = new ArrayList<>();
+		private final Attributes attributes = new AttributesImpl();
+
+		ChunkPopulation(PopulationFactory factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public PopulationFactory getFactory() {
+			return factory;
+		}
+
+		@Override
+		public String getName() {
+			return null;
+		}
+
+		@Override
+		public void setName(String name) {
+		}
+
+		@Override
+		public Map<Id<Person>, ? extends Person> getPersons() {
+			Map<Id<Person>, Person> map = new LinkedHashMap<>();
+			persons.forEach(person -> map.put(person.getId(), person));
+			return map;
+		}
+
+		@Override
+		public void addPerson(Person person) {
+			persons.add(person);
+		}
+
+		@Override
+		public Person removePerson(Id<Person> personId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Attributes getAttributes() {
+			return attributes;
+		}
+	}
+
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not load scenario", e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.matsim.api.core.v01.Id;
+
+/**
+ * Pseudo-random numbers derived from an id (and a seed) only. In contrast to a shared {@link java.util.Random}, the
+ * result neither depends on the order in which ids are processed nor on the number of threads, and it is the same on
+ * every machine.
+ */
+public final class IdHashing {
+
+	private IdHashing() {
+	}
+
+	/**
+	 * @return a uniformly distributed value in [0,1) for the given id and seed
+	 */
+	public static double uniform(Id<?> id, long seed) {
+		return (hash(id.toString(), seed) >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the given string, mixed with the seed and scrambled with the SplitMix64 finalizer.
+	 */
+	public static long hash(String key, long seed) {
+		long h = 0xcbf29ce484222325L ^ seed;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+}
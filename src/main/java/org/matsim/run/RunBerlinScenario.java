@@ -24,7 +24,6 @@ import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorModule;
 import com.google.inject.Singleton;
 import org.apache.log4j.Logger;
 import org.matsim.analysis.RunPersonTripAnalysis;
-import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.Person;
@@ -41,21 +40,26 @@ import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryLogging;
 import org.matsim.core.gbl.Gbl;
-import org.matsim.core.gbl.MatsimRandom;
 import org.matsim.core.population.routes.RouteFactories;
 import org.matsim.core.router.AnalysisMainModeIdentifier;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.scoring.functions.ScoringParametersForPerson;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
 import org.matsim.prepare.population.AssignIncome;
+import org.matsim.prepare.population.IncomeDistribution;
+import org.matsim.run.BerlinExperimentalConfigGroup.DownsampleStratification;
+import org.matsim.run.checkpoint.CheckpointModule;
+import org.matsim.run.checkpoint.Checkpoints;
 import org.matsim.run.drt.OpenBerlinIntermodalPtDrtRouterModeIdentifier;
 import org.matsim.run.drt.RunDrtOpenBerlinScenario;
-import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
+import org.matsim.run.metrics.PhaseMetricsModule;
+import org.matsim.run.scoring.IndexedIncomeDependentScoringParameters;
 
 import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Random;
+import java.util.function.Predicate;
 
 import static org.matsim.core.config.groups.ControlerConfigGroup.RoutingAlgorithmType.FastAStarLandmarks;
 
@@ -78,7 +82,23 @@ public final class RunBerlinScenario {
 		}
 
 		Config config = prepareConfig( args ) ;
-		Scenario scenario = prepareScenario( config ) ;
+		Scenario scenario;
+		if (ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class).getWarmUpIterations() > 0) {
+			scenario = BerlinWarmUp.runWarmUpAndExpand( config, args ) ;
+		} else {
+			scenario = prepareScenario( config ) ;
+		}
+		Controler controler = prepareControler( scenario ) ;
+		controler.run();
+	}
+
+	/**
+	 * Continues an interrupted run from the latest checkpoint in its output directory. Takes the same arguments as the
+	 * original run.
+	 */
+	public static void resume(String[] args) {
+		Config config = prepareConfig( args ) ;
+		Scenario scenario = prepareScenarioFromCheckpoint( config ) ;
 		Controler controler = prepareControler( scenario ) ;
 		controler.run();
 	}
@@ -115,20 +135,109 @@ public final class RunBerlinScenario {
 				bind(AnalysisMainModeIdentifier.class).to(OpenBerlinIntermodalPtDrtRouterModeIdentifier.class);
 				
 				//use income-dependent marginal utility of money for scoring
-				bind(ScoringParametersForPerson.class).to(IncomeDependentUtilityOfMoneyPersonScoringParameters.class).in(Singleton.class);
+				bind(ScoringParametersForPerson.class).to(IndexedIncomeDependentScoringParameters.class).in(Singleton.class);
 			}
 		} );
 
+		// wall time, cpu time, allocation and gc per controler phase, see phaseMetrics.csv
+		controler.addOverridingModule( new PhaseMetricsModule() );
+
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(controler.getConfig(), BerlinExperimentalConfigGroup.class);
+		if (berlinCfg.getCheckpointInterval() > 0 || berlinCfg.getResumeCheckpoint() != null) {
+			controler.addOverridingModule( new CheckpointModule() );
+		}
+
 		return controler;
 	}
 	
 	public static Scenario prepareScenario( Config config ) {
 		Gbl.assertNotNull( config );
+		rescaleToPopulationSample( config );
+		return BerlinScenarioSnapshot.loadOrPrepare( config, "berlin", RunBerlinScenario::prepareScenarioFromInputFiles );
+	}
+
+	/**
+	 * Loads the scenario with the plans of the latest checkpoint in the output directory and adjusts the config to
+	 * continue with the iteration of that checkpoint. The plans are read as they are, i.e. they are neither downsampled
+	 * again nor get new incomes.
+	 */
+	public static Scenario prepareScenarioFromCheckpoint( Config config ) {
+		Gbl.assertNotNull( config );
+		Path checkpoint = Checkpoints.findLatest( config.controler().getOutputDirectory() )
+				.orElseThrow( () -> new IllegalStateException( "No checkpoint found in " + config.controler().getOutputDirectory() ) );
+		log.info( "Resuming from checkpoint " + checkpoint );
+		Checkpoints.prepareConfigForResume( config, checkpoint );
+		rescaleToPopulationSample( config );
+
+		final Scenario scenario = createScenario( config );
+		ScenarioUtils.loadScenario( scenario );
+		return scenario;
+	}
+
+	/**
+	 * Same as {@link #prepareScenario(Config)}, but always reads and prepares the input files, i.e. ignores
+	 * {@link BerlinExperimentalConfigGroup#getScenarioSnapshotDirectory()}. Meant for scenario variants which do their
+	 * own snapshot handling on top of the Berlin preparation steps.
+	 */
+	public static Scenario prepareScenarioFromInputFiles( Config config ) {
+		Gbl.assertNotNull( config );
 		
 		// note that the path for this is different when run from GUI (path of original config) vs.
 		// when run from command line/IDE (java root).  :-(    See comment in method.  kai, jul'18
 		// yy Does this comment still apply?  kai, jul'19
 
+		final Scenario scenario = createScenario( config );
+
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+		if (berlinCfg.getPopulationDownsampleFactor() != 1.0) {
+			// persons are sampled while the plans file is read, so that the full population is never kept in memory
+			Predicate<Person> sample = berlinCfg.getPopulationDownsampleStratification() == DownsampleStratification.subpopulationAndHomeZone ?
+					new StratifiedDownsampling(berlinCfg.getPopulationDownsampleFactor(), config.global().getRandomSeed()) :
+					downsampleFilter(berlinCfg.getPopulationDownsampleFactor(), config.global().getRandomSeed());
+			int numberOfThreads = berlinCfg.isConcurrentScenarioLoading() ? config.global().getNumberOfThreads() : 1;
+			ConcurrentScenarioLoader.loadScenario(scenario, numberOfThreads, sample);
+			log.warn( "Population downsampled to " + scenario.getPopulation().getPersons().size() + " agents." ) ;
+		} else if (berlinCfg.isConcurrentScenarioLoading()) {
+			ConcurrentScenarioLoader.loadScenario(scenario, config.global().getNumberOfThreads());
+		} else {
+			ScenarioUtils.loadScenario(scenario);
+		}
+
+		if (berlinCfg.getIncomeDistributionTable() == null) {
+			AssignIncome.assignIncomeToPersonSubpopulationAccordingToGermanyAverage(scenario.getPopulation(), config.global().getRandomSeed());
+		} else {
+			URL incomeDistributionTable = berlinCfg.getIncomeDistributionTableURL(config.getContext());
+			log.info("Assigning incomes according to " + incomeDistributionTable);
+			AssignIncome.assignIncomeToPersonSubpopulation(scenario.getPopulation(), IncomeDistribution.readTable(incomeDistributionTable),
+					config.global().getRandomSeed());
+		}
+		return scenario;
+	}
+
+	/**
+	 * If {@link BerlinExperimentalConfigGroup#isRescaleToPopulationSample()} (the default), scales the qsim capacity factors and the
+	 * counts scale factors to the population downsample factor, so that a downsampled population meets a network which
+	 * is scaled accordingly. The sample the factors are scaled to is recorded in the config, so calling this again (e.g.
+	 * by {@link #prepareScenario(Config)} and a scenario variant, or on a written output config) does not scale twice.
+	 */
+	public static void rescaleToPopulationSample( Config config ) {
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+		final double sample = berlinCfg.isRescaleToPopulationSample() ? berlinCfg.getPopulationDownsampleFactor() : berlinCfg.getRescaledPopulationSample();
+		final double factor = sample / berlinCfg.getRescaledPopulationSample();
+		if (factor == 1.0) {
+			return;
+		}
+		config.qsim().setFlowCapFactor( config.qsim().getFlowCapFactor() * factor );
+		config.qsim().setStorageCapFactor( config.qsim().getStorageCapFactor() * factor );
+		config.counts().setCountsScaleFactor( config.counts().getCountsScaleFactor() / factor );
+		config.ptCounts().setCountsScaleFactor( config.ptCounts().getCountsScaleFactor() / factor );
+		berlinCfg.setRescaledPopulationSample( sample );
+		log.info( "Rescaled to population sample " + sample + ": flowCapacityFactor=" + config.qsim().getFlowCapFactor()
+				+ ", storageCapacityFactor=" + config.qsim().getStorageCapFactor()
+				+ ", countsScaleFactor=" + config.counts().getCountsScaleFactor() );
+	}
+
+	static Scenario createScenario( Config config ) {
 		/*
 		 * We need to set the DrtRouteFactory before loading the scenario. Otherwise DrtRoutes in input plans are loaded
 		 * as GenericRouteImpls and will later cause exceptions in DrtRequestCreator. So we do this here, although this
@@ -138,15 +247,6 @@ public final class RunBerlinScenario {
 
 		RouteFactories routeFactories = scenario.getPopulation().getFactory().getRouteFactories();
 		routeFactories.setRouteFactory(DrtRoute.class, new DrtRouteFactory());
-		
-		ScenarioUtils.loadScenario(scenario);
-
-		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
-		if (berlinCfg.getPopulationDownsampleFactor() != 1.0) {
-			downsample(scenario.getPopulation().getPersons(), berlinCfg.getPopulationDownsampleFactor());
-		}
-
-		AssignIncome.assignIncomeToPersonSubpopulationAccordingToGermanyAverage(scenario.getPopulation());
 		return scenario;
 	}
 
@@ -215,6 +315,9 @@ public final class RunBerlinScenario {
 	
 	public static void runAnalysis(Controler controler) {
 		Config config = controler.getConfig();
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
+		// e.g. 10 for the 10pct scenario, 100 for the 10pct scenario downsampled to 1pct
+		int scalingFactor = (int) Math.round( 1. / (berlinCfg.getInputPopulationSampleSize() * berlinCfg.getPopulationDownsampleFactor()) );
 		
 		String modesString = "";
 		for (String mode: config.planCalcScore().getAllModes()) {
@@ -238,7 +341,7 @@ public final class RunBerlinScenario {
 				TransformationFactory.DHDN_GK4,
 				"SCHLUESSEL",
 				"home",
-				"10", // TODO: scaling factor, should be 10 for 10pct scenario and 100 for 1pct scenario
+				String.valueOf(scalingFactor),
 				"null", // visualizationScriptInputDirectory
 				modesString
 		};
@@ -251,12 +354,12 @@ public final class RunBerlinScenario {
 		}
 	}
 	
-	private static void downsample( final Map<Id<Person>, ? extends Person> map, final double sample ) {
-		final Random rnd = MatsimRandom.getLocalInstance();
-		log.warn( "Population downsampled from " + map.size() + " agents." ) ;
-		map.values().removeIf( person -> rnd.nextDouble() > sample ) ;
-		log.warn( "Population downsampled to " + map.size() + " agents." ) ;
+	/**
+	 * Keeps a person if a hash of its id (and the random seed) is below the sample size. The sample thus does not depend
+	 * on the order of the persons in the plans file, and it is the same for every run with the same seed.
+	 */
+	static Predicate<Person> downsampleFilter( final double sample, final long seed ) {
+		return person -> IdHashing.uniform( person.getId(), seed ) < sample ;
 	}
 
 }
-
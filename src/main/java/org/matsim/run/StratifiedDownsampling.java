@@ -0,0 +1,112 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Draws a sample which has the same share of persons in every stratum, a stratum being the combination of subpopulation
+ * ("person", "freight", ...) and home zone. The home zone is the zoneId attribute of the first home activity; the Berlin 5.5
+ * plans do not have it, so otherwise the square grid cell of {@value #HOME_ZONE_CELL_SIZE} m which contains the home
+ * activity is used.
+ *
+ * Within a stratum, persons are drawn systematically: every (1/sample)-th person is kept, starting at an offset derived
+ * from a hash of the stratum and the seed. Each stratum is thus represented with its share up to a rounding error of one
+ * person, which a purely random draw does not achieve for small strata. The result depends on the order in which persons
+ * are tested, i.e. on the plans file, but not on the machine. Persons have to be tested by one thread at a time.
+ */
+final class StratifiedDownsampling implements Predicate<Person> {
+
+	static final String HOME_ACTIVITY_PREFIX = "home";
+	static final String ZONE_ID_ATTRIBUTE = "zoneId";
+	static final double HOME_ZONE_CELL_SIZE = 2000.;
+	private static final String NO_HOME_ZONE = "noHomeZone";
+
+	private static final Logger log = Logger.getLogger(StratifiedDownsampling.class);
+	private static final AtomicBoolean loggedGridCells = new AtomicBoolean(false);
+
+	private final double sample;
+	private final long seed;
+	private final Map<String, double[]> positionPerStratum = new HashMap<>();
+
+	StratifiedDownsampling(double sample, long seed) {
+		this.sample = sample;
+		this.seed = seed;
+	}
+
+	@Override
+	public synchronized boolean test(Person person) {
+		String stratum = getStratum(person);
+		double[] position = positionPerStratum.computeIfAbsent(stratum,
+				k -> new double[]{(IdHashing.hash(k, seed) >>> 11) * 0x1.0p-53});
+		position[0] += sample;
+		if (position[0] >= 1.) {
+			position[0] -= 1.;
+			return true;
+		}
+		return false;
+	}
+
+	static String getStratum(Person person) {
+		return PopulationUtils.getSubpopulation(person) + "|" + getHomeZone(person);
+	}
+
+	private static String getHomeZone(Person person) {
+		Plan plan = person.getSelectedPlan() != null ? person.getSelectedPlan() :
+				person.getPlans().isEmpty() ? null : person.getPlans().get(0);
+		if (plan == null) {
+			return NO_HOME_ZONE;
+		}
+		for (PlanElement pe : plan.getPlanElements()) {
+			if (pe instanceof Activity && ((Activity) pe).getType().startsWith(HOME_ACTIVITY_PREFIX)) {
+				Activity home = (Activity) pe;
+				Object zoneId = home.getAttributes().getAttribute(ZONE_ID_ATTRIBUTE);
+				if (zoneId != null) {
+					return zoneId.toString();
+				}
+				return getGridCell(home.getCoord(), person);
+			}
+		}
+		return NO_HOME_ZONE;
+	}
+
+	private static String getGridCell(Coord coord, Person person) {
+		if (coord == null) {
+			return NO_HOME_ZONE;
+		}
+		if (!loggedGridCells.getAndSet(true)) {
+			log.info("Home activity of person " + person.getId() + " has no " + ZONE_ID_ATTRIBUTE + " attribute. The grid cell of "
+					+ HOME_ZONE_CELL_SIZE + " m which contains the home activity is used as home zone. Further messages of this type are not shown.");
+		}
+		return "cell" + (long) Math.floor(coord.getX() / HOME_ZONE_CELL_SIZE) + "_" + (long) Math.floor(coord.getY() / HOME_ZONE_CELL_SIZE);
+	}
+
+}
@@ -0,0 +1,207 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.run.BerlinExperimentalConfigGroup;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a checkpoint before the mobsim of every n-th iteration, i.e. after replanning. The population and the state of
+ * the registered {@link Checkpointable}s are copied on the controler thread and written by a background thread while the
+ * mobsim runs. The copy of the population is made before the mobsim, so scoring cannot interfere with it; the background
+ * task is nevertheless awaited after the mobsim, so that at most one checkpoint is being written at any time and an error
+ * shows up in the iteration which caused it.
+ *
+ * A checkpoint directory only becomes visible under its final name once it is complete.
+ *
+ * The plans file rounds times to seconds, so the exact scores and times of the plans are saved next to it in
+ * {@link PlanValues} and written back at startup of the resumed run.
+ *
+ * The link travel times are not part of a checkpoint. The travel time calculator is reset before every mobsim and only
+ * read by replanning, which the plans of the checkpoint already went through, so the resumed run does not need the
+ * travel times of the iteration before the checkpoint. DVRP however smooths the travel times over the iterations, so a
+ * run with DVRP cannot be resumed.
+ */
+final class CheckpointControlerListener implements StartupListener, BeforeMobsimListener, AfterMobsimListener, ShutdownListener {
+
+	private static final Logger log = Logger.getLogger(CheckpointControlerListener.class);
+
+	private final Scenario scenario;
+	private final OutputDirectoryHierarchy controlerIO;
+	private final Set<Checkpointable> checkpointables;
+	private final BerlinExperimentalConfigGroup berlinCfg;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "checkpoint-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private Future<?> pending = null;
+
+	@Inject
+	CheckpointControlerListener(Scenario scenario, OutputDirectoryHierarchy controlerIO, Set<Checkpointable> checkpointables) {
+		this.scenario = scenario;
+		this.controlerIO = controlerIO;
+		this.checkpointables = checkpointables;
+		this.berlinCfg = ConfigUtils.addOrGetModule(scenario.getConfig(), BerlinExperimentalConfigGroup.class);
+	}
+
+	@Override
+	public void notifyStartup(StartupEvent event) {
+		String resumeCheckpoint = berlinCfg.getResumeCheckpoint();
+		if (resumeCheckpoint == null || resumeCheckpoint.equals("") || resumeCheckpoint.equals("null")) {
+			return;
+		}
+		if (scenario.getConfig().getModules().containsKey(DvrpConfigGroup.GROUP_NAME)) {
+			throw new IllegalStateException("Cannot resume from checkpoint " + resumeCheckpoint + ": the DVRP travel time "
+					+ "estimates of the earlier iterations are not part of the checkpoint");
+		}
+		Path checkpoint = Paths.get(resumeCheckpoint);
+		log.info("Resuming from checkpoint " + checkpoint);
+		PlanValues.read(scenario.getPopulation(), checkpoint.resolve(Checkpoints.PLAN_VALUES));
+		for (Checkpointable checkpointable : checkpointables) {
+			checkpointable.readCheckpoint(checkpoint);
+		}
+	}
+
+	@Override
+	public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+		final int interval = berlinCfg.getCheckpointInterval();
+		final int iteration = event.getIteration();
+		if (interval <= 0 || iteration % interval != 0 || iteration == scenario.getConfig().controler().getFirstIteration()) {
+			// nothing new to save in the first iteration, the input plans are the checkpoint
+			return;
+		}
+
+		Path checkpoint = Checkpoints.getCheckpointDirectory(controlerIO.getOutputPath(), iteration);
+		Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + Checkpoints.TMP_SUFFIX);
+
+		Population population = copyPopulation(scenario.getPopulation());
+		List<Runnable> tasks = new ArrayList<>();
+		for (Checkpointable checkpointable : checkpointables) {
+			tasks.add(checkpointable.prepareCheckpoint(tmp));
+		}
+
+		log.info("Writing checkpoint of iteration " + iteration + " to " + checkpoint + " in the background...");
+		pending = executor.submit(() -> {
+			try {
+				Files.createDirectories(tmp);
+				new PopulationWriter(population).write(tmp.resolve(Checkpoints.PLANS).toString());
+				PlanValues.write(population, tmp.resolve(Checkpoints.PLAN_VALUES));
+				for (Runnable task : tasks) {
+					task.run();
+				}
+				Files.move(tmp, checkpoint, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public void notifyAfterMobsim(AfterMobsimEvent event) {
+		awaitPending();
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		try {
+			awaitPending();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void awaitPending() {
+		if (pending == null) {
+			return;
+		}
+		try {
+			pending.get();
+			log.info("Checkpoint written.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not write checkpoint", e.getCause());
+		} finally {
+			pending = null;
+		}
+	}
+
+	/**
+	 * Copies all persons with all plans, scores and the plan selection, so that the writer does not see later changes.
+	 */
+	private static Population copyPopulation(Population population) {
+		Population copy = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (String name : population.getAttributes().getAsMap().keySet()) {
+			copy.getAttributes().putAttribute(name, population.getAttributes().getAttribute(name));
+		}
+		for (Person person : population.getPersons().values()) {
+			Person personCopy = copy.getFactory().createPerson(person.getId());
+			for (String name : person.getAttributes().getAsMap().keySet()) {
+				personCopy.getAttributes().putAttribute(name, person.getAttributes().getAttribute(name));
+			}
+			for (Plan plan : person.getPlans()) {
+				Plan planCopy = PopulationUtils.createPlan(personCopy);
+				PopulationUtils.copyFromTo(plan, planCopy);
+				personCopy.addPlan(planCopy);
+				if (plan == person.getSelectedPlan()) {
+					personCopy.setSelectedPlan(planCopy);
+				}
+			}
+			copy.addPerson(personCopy);
+		}
+		return copy;
+	}
+
+}
@@ -0,0 +1,51 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import com.google.inject.Binder;
+import com.google.inject.Singleton;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.multibindings.Multibinder;
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Writes a checkpoint every {@link org.matsim.run.BerlinExperimentalConfigGroup#getCheckpointInterval()} iterations and
+ * restores the registered {@link Checkpointable}s when a run is resumed.
+ */
+public final class CheckpointModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		// makes sure that the set exists even if nothing is registered
+		Multibinder.newSetBinder(binder(), Checkpointable.class);
+
+		this.bind(CheckpointControlerListener.class).in(Singleton.class);
+		this.addControlerListenerBinding().to(CheckpointControlerListener.class);
+
+		this.bind(StatsHistoryCheckpoint.class).in(Singleton.class);
+		this.addControlerListenerBinding().to(StatsHistoryCheckpoint.class);
+		addCheckpointableBinding(binder()).to(StatsHistoryCheckpoint.class);
+	}
+
+	public static LinkedBindingBuilder<Checkpointable> addCheckpointableBinding(Binder binder) {
+		return Multibinder.newSetBinder(binder, Checkpointable.class).addBinding();
+	}
+
+}
@@ -0,0 +1,42 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import java.nio.file.Path;
+
+/**
+ * State of a controler listener which has to survive a checkpoint/resume cycle. Implementations are registered with
+ * {@link CheckpointModule#addCheckpointableBinding(com.google.inject.Binder)}.
+ */
+public interface Checkpointable {
+
+	/**
+	 * Called on the controler thread before the mobsim of a checkpoint iteration. Copies the state which is needed to
+	 * continue the run and returns a task which writes that copy into the given directory. The task is executed in the
+	 * background, so it must not access the live state.
+	 */
+	Runnable prepareCheckpoint(Path directory);
+
+	/**
+	 * Restores the state from the given checkpoint directory. Called at startup of a resumed run.
+	 */
+	void readCheckpoint(Path directory);
+
+}
@@ -0,0 +1,101 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.run.BerlinExperimentalConfigGroup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the checkpoints in the output directory and preparation of a config for resuming from one.
+ *
+ * A checkpoint of iteration i holds the population after replanning of iteration i. A resumed run starts with
+ * firstIteration = i; since MATSim does not replan in the first iteration, it continues with the mobsim of iteration i.
+ */
+public final class Checkpoints {
+
+	static final String CHECKPOINTS = "checkpoints";
+	static final String PREFIX = "it.";
+	static final String PLANS = "plans.xml.gz";
+	static final String PLAN_VALUES = "planValues.bin.gz";
+	static final String TMP_SUFFIX = ".tmp";
+
+	private Checkpoints() {
+	}
+
+	static Path getCheckpointDirectory(String outputDirectory, int iteration) {
+		return Paths.get(outputDirectory, CHECKPOINTS, PREFIX + iteration);
+	}
+
+	/**
+	 * @return the checkpoint with the highest iteration in the output directory, if any. Incomplete checkpoints are ignored.
+	 */
+	public static Optional<Path> findLatest(String outputDirectory) {
+		Path checkpoints = Paths.get(outputDirectory, CHECKPOINTS);
+		if (!Files.isDirectory(checkpoints)) {
+			return Optional.empty();
+		}
+		try (Stream<Path> dirs = Files.list(checkpoints)) {
+			return dirs.filter(Files::isDirectory)
+					.filter(dir -> dir.getFileName().toString().startsWith(PREFIX))
+					.filter(dir -> !dir.getFileName().toString().endsWith(TMP_SUFFIX))
+					.max(Comparator.comparingInt(Checkpoints::getIteration));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static int getIteration(Path checkpoint) {
+		return Integer.parseInt(checkpoint.getFileName().toString().substring(PREFIX.length()));
+	}
+
+	/**
+	 * Reads the plans from the checkpoint and continues the run with the checkpoint iteration. Innovation is switched off
+	 * in the same absolute iteration as in the original run.
+	 */
+	public static void prepareConfigForResume(Config config, Path checkpoint) {
+		final int iteration = getIteration(checkpoint);
+		final int firstIteration = config.controler().getFirstIteration();
+		final int lastIteration = config.controler().getLastIteration();
+		if (iteration >= lastIteration) {
+			throw new IllegalArgumentException("Checkpoint " + checkpoint + " is not before the last iteration " + lastIteration);
+		}
+
+		int innovationDisableIteration = (int) ((lastIteration - firstIteration) * config.strategy().getFractionOfIterationsToDisableInnovation() + firstIteration);
+		config.strategy().setFractionOfIterationsToDisableInnovation(
+				Math.max(0., (double) (innovationDisableIteration - iteration) / (lastIteration - iteration)));
+		config.controler().setFirstIteration(iteration);
+
+		config.plans().setInputFile(checkpoint.resolve(PLANS).toAbsolutePath().toString());
+		config.controler().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.overwriteExistingFiles);
+		ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class).setResumeCheckpoint(checkpoint.toAbsolutePath().toString());
+	}
+
+}
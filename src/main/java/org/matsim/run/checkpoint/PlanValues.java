@@ -0,0 +1,159 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.utils.misc.OptionalTime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The exact scores and times of all plans, which the plans file of a checkpoint only holds rounded to seconds.
+ *
+ * The file is binary: for every person its id and number of plans, for every plan its score and number of elements, for
+ * every activity its start time, end time and maximum duration and for every leg its departure time, travel time and
+ * route travel time. Undefined values are stored as NaN. The values are written back into the population read from the
+ * plans file of the same checkpoint, which must have the same persons, plans and plan elements.
+ */
+final class PlanValues {
+
+	private static final byte ACTIVITY = 0;
+	private static final byte LEG = 1;
+
+	private PlanValues() {
+	}
+
+	static void write(Population population, Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+			for (Person person : population.getPersons().values()) {
+				out.writeUTF(person.getId().toString());
+				out.writeInt(person.getPlans().size());
+				for (Plan plan : person.getPlans()) {
+					out.writeDouble(plan.getScore() == null ? Double.NaN : plan.getScore());
+					out.writeInt(plan.getPlanElements().size());
+					for (PlanElement element : plan.getPlanElements()) {
+						if (element instanceof Activity) {
+							Activity activity = (Activity) element;
+							out.writeByte(ACTIVITY);
+							out.writeDouble(toDouble(activity.getStartTime()));
+							out.writeDouble(toDouble(activity.getEndTime()));
+							out.writeDouble(toDouble(activity.getMaximumDuration()));
+						} else {
+							Leg leg = (Leg) element;
+							out.writeByte(LEG);
+							out.writeDouble(toDouble(leg.getDepartureTime()));
+							out.writeDouble(toDouble(leg.getTravelTime()));
+							out.writeDouble(leg.getRoute() == null ? Double.NaN : toDouble(leg.getRoute().getTravelTime()));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if the population does not match the one the values were written for
+	 */
+	static void read(Population population, Path file) {
+		if (!Files.exists(file)) {
+			throw new IllegalStateException("Checkpoint has no " + file.getFileName() + ", the exact scores and times of the plans are missing");
+		}
+		int persons = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+			while (true) {
+				String personId;
+				try {
+					personId = in.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+				persons++;
+				Person person = population.getPersons().get(Id.createPersonId(personId));
+				List<? extends Plan> plans = person == null ? null : person.getPlans();
+				check(plans != null && plans.size() == in.readInt(), personId);
+				for (Plan plan : plans) {
+					double score = in.readDouble();
+					plan.setScore(Double.isNaN(score) ? null : score);
+					List<PlanElement> elements = plan.getPlanElements();
+					check(elements.size() == in.readInt(), personId);
+					for (PlanElement element : elements) {
+						byte type = in.readByte();
+						if (element instanceof Activity && type == ACTIVITY) {
+							Activity activity = (Activity) element;
+							set(in.readDouble(), activity::setStartTime, activity::setStartTimeUndefined);
+							set(in.readDouble(), activity::setEndTime, activity::setEndTimeUndefined);
+							set(in.readDouble(), activity::setMaximumDuration, activity::setMaximumDurationUndefined);
+						} else if (element instanceof Leg && type == LEG) {
+							Leg leg = (Leg) element;
+							set(in.readDouble(), leg::setDepartureTime, leg::setDepartureTimeUndefined);
+							set(in.readDouble(), leg::setTravelTime, leg::setTravelTimeUndefined);
+							double routeTravelTime = in.readDouble();
+							if (leg.getRoute() != null) {
+								set(routeTravelTime, leg.getRoute()::setTravelTime, leg.getRoute()::setTravelTimeUndefined);
+							}
+						} else {
+							check(false, personId);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		check(persons == population.getPersons().size(), "(number of persons)");
+	}
+
+	private static double toDouble(OptionalTime time) {
+		return time.isDefined() ? time.seconds() : Double.NaN;
+	}
+
+	private static void set(double value, DoubleConsumer setter, Runnable undefinedSetter) {
+		if (Double.isNaN(value)) {
+			undefinedSetter.run();
+		} else {
+			setter.accept(value);
+		}
+	}
+
+	private static void check(boolean condition, String personId) {
+		if (!condition) {
+			throw new IllegalStateException("Plans of the checkpoint do not match its exact scores and times at person " + personId);
+		}
+	}
+
+}
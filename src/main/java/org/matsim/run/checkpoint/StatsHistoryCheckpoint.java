@@ -0,0 +1,163 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.checkpoint;
+
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the score and mode statistics of the iterations before a checkpoint. A resumed run writes its scorestats.txt and
+ * modestats.txt from scratch, starting with the checkpoint iteration; the rows of the earlier iterations are saved with
+ * every checkpoint and put in front of the rows of the resumed run when it shuts down and when it writes a checkpoint
+ * itself. Columns are matched by their header, since a mode may only show up in some iterations.
+ */
+final class StatsHistoryCheckpoint implements Checkpointable, ShutdownListener {
+
+	static final List<String> FILES = List.of("scorestats.txt", "modestats.txt");
+
+	private final OutputDirectoryHierarchy controlerIO;
+	private final ControlerConfigGroup controlerConfigGroup;
+	private final Map<String, List<String>> restoredLines = new LinkedHashMap<>();
+
+	@Inject
+	StatsHistoryCheckpoint(OutputDirectoryHierarchy controlerIO, ControlerConfigGroup controlerConfigGroup) {
+		this.controlerIO = controlerIO;
+		this.controlerConfigGroup = controlerConfigGroup;
+	}
+
+	@Override
+	public Runnable prepareCheckpoint(Path directory) {
+		Map<String, List<String>> merged = new LinkedHashMap<>();
+		for (String file : FILES) {
+			merged.put(file, mergedLines(file));
+		}
+		return () -> {
+			try {
+				for (Map.Entry<String, List<String>> entry : merged.entrySet()) {
+					Files.write(directory.resolve(entry.getKey()), entry.getValue(), StandardCharsets.UTF_8);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	@Override
+	public void readCheckpoint(Path directory) {
+		restoredLines.clear();
+		try {
+			for (String file : FILES) {
+				Path path = directory.resolve(file);
+				if (!Files.exists(path)) {
+					throw new IllegalStateException("Checkpoint " + directory + " has no " + file);
+				}
+				restoredLines.put(file, Files.readAllLines(path, StandardCharsets.UTF_8));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		if (restoredLines.isEmpty()) {
+			return;
+		}
+		try {
+			for (String file : FILES) {
+				Path output = Paths.get(controlerIO.getOutputFilename(file));
+				Path tmp = output.resolveSibling(output.getFileName() + Checkpoints.TMP_SUFFIX);
+				Files.write(tmp, mergedLines(file), StandardCharsets.UTF_8);
+				Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the restored rows before the first iteration of this run, followed by the rows this run has written so far
+	 */
+	private List<String> mergedLines(String file) {
+		List<String> current;
+		try {
+			Path output = Paths.get(controlerIO.getOutputFilename(file));
+			current = Files.exists(output) ? Files.readAllLines(output, StandardCharsets.UTF_8) : Collections.emptyList();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		List<String> restored = restoredLines.getOrDefault(file, Collections.emptyList());
+		if (restored.isEmpty()) {
+			return current;
+		}
+		if (current.isEmpty()) {
+			return restored;
+		}
+
+		List<String> header = new ArrayList<>(Arrays.asList(current.get(0).split("\t", -1)));
+		for (String column : restored.get(0).split("\t", -1)) {
+			if (!header.contains(column)) {
+				header.add(column);
+			}
+		}
+		List<String> lines = new ArrayList<>();
+		lines.add(String.join("\t", header));
+		for (String line : restored.subList(1, restored.size())) {
+			if (!line.isEmpty() && Integer.parseInt(line.substring(0, line.indexOf('\t'))) < controlerConfigGroup.getFirstIteration()) {
+				lines.add(alignToHeader(restored.get(0), line, header));
+			}
+		}
+		for (String line : current.subList(1, current.size())) {
+			if (!line.isEmpty()) {
+				lines.add(alignToHeader(current.get(0), line, header));
+			}
+		}
+		return lines;
+	}
+
+	private static String alignToHeader(String lineHeader, String line, List<String> header) {
+		List<String> columns = Arrays.asList(lineHeader.split("\t", -1));
+		String[] values = line.split("\t", -1);
+		String[] aligned = new String[header.size()];
+		for (int i = 0; i < header.size(); i++) {
+			int column = columns.indexOf(header.get(i));
+			aligned[i] = column >= 0 && column < values.length ? values[column] : "";
+		}
+		return String.join("\t", aligned);
+	}
+
+}
@@ -47,10 +47,11 @@ import org.matsim.core.scoring.functions.ScoringParametersForPerson;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.run.BerlinExperimentalConfigGroup;
+import org.matsim.run.BerlinScenarioSnapshot;
 import org.matsim.run.RunBerlinScenario;
+import org.matsim.run.scoring.IndexedIncomeDependentScoringParameters;
 
 import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
-import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
 
 /**
  * This class starts a simulation run with DRT.
@@ -106,7 +107,7 @@ public final class RunDrtOpenBerlinScenario {
 				bind(AnalysisMainModeIdentifier.class).to(OpenBerlinIntermodalPtDrtRouterAnalysisModeIdentifier.class);
 
 				//use income-dependent marginal utility of money for scoring
-				bind(ScoringParametersForPerson.class).to(IncomeDependentUtilityOfMoneyPersonScoringParameters.class).in(Singleton.class);
+				bind(ScoringParametersForPerson.class).to(IndexedIncomeDependentScoringParameters.class).in(Singleton.class);
 			}
 		});
 
@@ -116,8 +117,22 @@ public final class RunDrtOpenBerlinScenario {
 	}
 	
 	public static Scenario prepareScenario( Config config ) {
+		RunBerlinScenario.rescaleToPopulationSample( config );
 
-		Scenario scenario = RunBerlinScenario.prepareScenario( config );
+		StringBuilder variant = new StringBuilder("drt");
+		for (DrtConfigGroup drtCfg : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+			String drtServiceAreaShapeFile = drtCfg.getDrtServiceAreaShapeFile();
+			variant.append("|").append(drtCfg.getMode()).append("|");
+			if (drtServiceAreaShapeFile != null && !drtServiceAreaShapeFile.equals("") && !drtServiceAreaShapeFile.equals("null")) {
+				variant.append(BerlinScenarioSnapshot.describeInput(ConfigGroup.getInputFileURL(config.getContext(), drtServiceAreaShapeFile)));
+			}
+		}
+		return BerlinScenarioSnapshot.loadOrPrepare( config, variant.toString(), RunDrtOpenBerlinScenario::prepareScenarioFromInputFiles );
+	}
+
+	private static Scenario prepareScenarioFromInputFiles( Config config ) {
+
+		Scenario scenario = RunBerlinScenario.prepareScenarioFromInputFiles( config );
 		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
 
 		for (DrtConfigGroup drtCfg : MultiModeDrtConfigGroup.get(config).getModalElements()) {
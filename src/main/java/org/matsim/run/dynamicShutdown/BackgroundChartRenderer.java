@@ -0,0 +1,98 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.utils.charts.ChartUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves charts as PNG on a single background thread, so that the controler does not wait for the rendering and encoding.
+ *
+ * Only the latest chart per file is kept: if a chart is submitted for a file which still has a chart waiting, the older
+ * one is dropped. The number of waiting charts is thus bounded by the number of files. Charts have to be complete when
+ * they are submitted and must not be changed afterwards.
+ */
+final class BackgroundChartRenderer {
+
+    private static final Logger log = Logger.getLogger(BackgroundChartRenderer.class);
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chart-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, ChartUtil> pending = new LinkedHashMap<>();
+    private final long closeTimeoutMillis;
+    private boolean drainScheduled = false;
+
+    BackgroundChartRenderer() {
+        this(TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * @param closeTimeoutMillis how long {@link #close()} waits for the remaining charts
+     */
+    BackgroundChartRenderer(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * @return true if graphs are due in the given iteration according to {@link DynamicShutdownConfigGroup#getGraphsInterval()}
+     */
+    static boolean isGraphsIteration(int iteration, int graphsInterval) {
+        return graphsInterval > 0 && iteration % graphsInterval == 0;
+    }
+
+    synchronized void submit(String filename, ChartUtil chart) {
+        pending.put(filename, chart);
+        if (!drainScheduled) {
+            drainScheduled = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            String filename;
+            ChartUtil chart;
+            synchronized (this) {
+                Iterator<Map.Entry<String, ChartUtil>> it = pending.entrySet().iterator();
+                if (!it.hasNext()) {
+                    drainScheduled = false;
+                    return;
+                }
+                Map.Entry<String, ChartUtil> next = it.next();
+                it.remove();
+                filename = next.getKey();
+                chart = next.getValue();
+            }
+            try {
+                chart.saveAsPng(filename, WIDTH, HEIGHT);
+            } catch (RuntimeException e) {
+                log.error("Could not save chart " + filename, e);
+            }
+        }
+    }
+
+    /**
+     * Renders the charts which are still waiting and stops the background thread. Waits at most the close timeout; charts
+     * which are not done by then are left to the daemon thread.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Charts were not rendered completely within " + closeTimeoutMillis / 1000 + " seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
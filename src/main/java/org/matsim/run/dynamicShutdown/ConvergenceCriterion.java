@@ -0,0 +1,78 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests a single metric for convergence. The values of the metric are added one iteration at a time, and the test is
+ * updated incrementally, so that the cost per iteration does not depend on the length of the run.
+ *
+ * @see DynamicShutdownConfigGroup.convergencePolicyOption
+ */
+interface ConvergenceCriterion {
+
+    /**
+     * Adds the value of the metric in an iteration. Iterations have to be added in increasing order.
+     */
+    void add(int iteration, double value);
+
+    boolean isEmpty();
+
+    int getLastIteration();
+
+    /**
+     * @return the statistic the test is based on after the last value (e.g. the slope), NaN if not enough values are known
+     */
+    double getStatistic();
+
+    /**
+     * @return true if the metric passes the test after the last value
+     */
+    boolean isInZone();
+
+    /**
+     * @return the running state of the test (the values in its window, the running sums and accumulators), for checkpoints
+     */
+    Map<String, String> getState();
+
+    /**
+     * Replaces the state by one returned by {@link #getState()}, so that the test continues exactly where it stopped.
+     */
+    void setState(Map<String, String> state);
+
+    /**
+     * @return the points as "iteration:value" separated by spaces; the values are written with full precision
+     */
+    static String formatPoints(Map<Integer, Double> points) {
+        StringBuilder builder = new StringBuilder();
+        points.forEach((iteration, value) -> builder.append(builder.length() == 0 ? "" : " ").append(iteration).append(':').append(value));
+        return builder.toString();
+    }
+
+    static Map<Integer, Double> parsePoints(String points) {
+        Map<Integer, Double> map = new TreeMap<>();
+        for (String point : points.trim().split(" ")) {
+            if (!point.isEmpty()) {
+                int separator = point.indexOf(':');
+                map.put(Integer.parseInt(point.substring(0, separator)), Double.parseDouble(point.substring(separator + 1)));
+            }
+        }
+        return map;
+    }
+
+    static ConvergenceCriterion create(DynamicShutdownConfigGroup.convergencePolicyOption policy, DynamicShutdownConfigGroup cfg,
+                                       double slopeThreshold) {
+        switch (policy) {
+            case SLOPE:
+                return new SlopeConvergenceCriterion(cfg, slopeThreshold);
+            case MANN_KENDALL:
+                return new MannKendallConvergenceCriterion(cfg.getMinimumWindowSize(), cfg.getMannKendallSignificance());
+            case CUSUM:
+                return new CusumConvergenceCriterion(cfg.getMinimumWindowSize(), cfg.getCusumThreshold());
+            case RELATIVE_VARIANCE:
+                return new RelativeVarianceConvergenceCriterion(cfg.getMinimumWindowSize(), cfg.getRelativeVarianceThreshold());
+            default:
+                throw new IllegalArgumentException("Unknown convergence policy " + policy);
+        }
+    }
+}
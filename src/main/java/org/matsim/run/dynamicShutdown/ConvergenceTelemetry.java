@@ -0,0 +1,292 @@
+package org.matsim.run.dynamicShutdown;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.run.metrics.PhaseMetrics;
+import org.matsim.run.metrics.PhaseMetricsSink;
+
+import javax.inject.Inject;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the current convergence state of the run as JSON on http://localhost:&lt;telemetryPort&gt;/convergence, for
+ * dashboards which poll many runs at once.
+ *
+ * The state is an immutable snapshot which the {@link DynamicShutdownControlerListenerImpl} publishes at the start of
+ * every iteration, taken from its ring buffers; the timings of the last controler phases are received as a
+ * {@link PhaseMetricsSink} (only if the PhaseMetricsModule is installed). Requests are answered on a single daemon
+ * thread from the last snapshot, so they neither touch the disk nor wait for the controler. With telemetryPort 0, a free
+ * port is chosen; the address is logged and written to dynShutdown_telemetry.txt in the output directory.
+ */
+final class ConvergenceTelemetry implements StartupListener, ShutdownListener, PhaseMetricsSink {
+
+    private static final Logger log = Logger.getLogger(ConvergenceTelemetry.class);
+
+    private static final String PATH = "/convergence";
+    private static final int PHASE_HISTORY = 32;
+
+    private final int port;
+    private final OutputDirectoryHierarchy controlerIO;
+    private final Deque<PhaseRecord> phases = new ArrayDeque<>();
+    private volatile Snapshot snapshot = null;
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    @Inject
+    ConvergenceTelemetry(Config config, OutputDirectoryHierarchy controlerIO) {
+        this.port = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class).getTelemetryPort();
+        this.controlerIO = controlerIO;
+    }
+
+    boolean isEnabled() {
+        return port >= 0;
+    }
+
+    void publish(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void record(int iteration, String phase, PhaseMetrics metrics) {
+        synchronized (phases) {
+            if (phases.size() == PHASE_HISTORY) {
+                phases.removeFirst();
+            }
+            phases.addLast(new PhaseRecord(iteration, phase, metrics));
+        }
+    }
+
+    @Override
+    public void notifyStartup(StartupEvent event) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext(PATH, this::handle);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "convergence-telemetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        String url = "http://localhost:" + server.getAddress().getPort() + PATH;
+        log.info("Convergence telemetry available at " + url);
+        try (BufferedWriter writer = IOUtils.getBufferedWriter(controlerIO.getOutputFilename("dynShutdown_telemetry.txt"))) {
+            writer.write(url + "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = toJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String toJson() {
+        List<PhaseRecord> recentPhases;
+        synchronized (phases) {
+            recentPhases = new ArrayList<>(phases);
+        }
+        Snapshot current = this.snapshot;
+
+        StringBuilder json = new StringBuilder(1024);
+        json.append('{');
+        if (current != null) {
+            json.append("\"iteration\":").append(current.iteration);
+            json.append(",\"lastIteration\":").append(current.lastIteration);
+            json.append(",\"dynamicShutdownInitiated\":").append(current.dynamicShutdownInitiated);
+            json.append(",\"innovationDisableIteration\":");
+            appendIteration(json, current.innovationDisableIteration);
+            json.append(",\"projectedShutdownIteration\":").append(current.projectedShutdownIteration);
+            json.append(",\"iterationsInZoneToConverge\":").append(current.iterationsInZoneToConverge);
+            json.append(",\"metrics\":{");
+            boolean firstType = true;
+            for (Map.Entry<String, List<MetricState>> type : current.metrics.entrySet()) {
+                if (!firstType) {
+                    json.append(',');
+                }
+                firstType = false;
+                appendString(json, type.getKey());
+                json.append(":{");
+                boolean firstMetric = true;
+                for (MetricState metric : type.getValue()) {
+                    if (!firstMetric) {
+                        json.append(',');
+                    }
+                    firstMetric = false;
+                    appendString(json, metric.name);
+                    json.append(":{\"value\":");
+                    appendNumber(json, metric.value);
+                    json.append(",\"statistic\":");
+                    appendNumber(json, metric.statistic);
+                    json.append(",\"iterationsInZone\":").append(metric.iterationsInZone).append('}');
+                }
+                json.append('}');
+            }
+            json.append("},");
+        }
+        json.append("\"phases\":[");
+        for (int i = 0; i < recentPhases.size(); i++) {
+            PhaseRecord record = recentPhases.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"iteration\":").append(record.iteration);
+            json.append(",\"phase\":");
+            appendString(json, record.phase);
+            json.append(",\"wallTime_ms\":").append(record.metrics.getWallTimeMillis());
+            json.append(",\"cpuTime_ms\":").append(record.metrics.getCpuTimeMillis());
+            json.append(",\"allocated_bytes\":").append(record.metrics.getAllocatedBytes());
+            json.append(",\"gcCount\":").append(record.metrics.getGcCount());
+            json.append(",\"gcCollectionTime_ms\":").append(record.metrics.getGcCollectionTimeMillis()).append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendIteration(StringBuilder json, int iteration) {
+        if (iteration == Integer.MAX_VALUE) {
+            json.append("null");
+        } else {
+            json.append(iteration);
+        }
+    }
+
+    private static void appendNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else {
+            json.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Convergence state after an iteration; immutable, so that it can be read by the server thread while the next one is
+     * computed.
+     */
+    static final class Snapshot {
+        private final int iteration;
+        private final int lastIteration;
+        private final boolean dynamicShutdownInitiated;
+        private final int innovationDisableIteration;
+        private final int projectedShutdownIteration;
+        private final int iterationsInZoneToConverge;
+        private final Map<String, List<MetricState>> metrics;
+
+        /**
+         * @param innovationDisableIteration Integer.MAX_VALUE if innovation is still on
+         * @param metrics                    metric states per metric type, e.g. "score"
+         */
+        Snapshot(int iteration, int lastIteration, boolean dynamicShutdownInitiated, int innovationDisableIteration,
+                 int projectedShutdownIteration, int iterationsInZoneToConverge, Map<String, List<MetricState>> metrics) {
+            this.iteration = iteration;
+            this.lastIteration = lastIteration;
+            this.dynamicShutdownInitiated = dynamicShutdownInitiated;
+            this.innovationDisableIteration = innovationDisableIteration;
+            this.projectedShutdownIteration = projectedShutdownIteration;
+            this.iterationsInZoneToConverge = iterationsInZoneToConverge;
+            Map<String, List<MetricState>> copy = new LinkedHashMap<>();
+            metrics.forEach((type, states) -> copy.put(type, Collections.unmodifiableList(new ArrayList<>(states))));
+            this.metrics = Collections.unmodifiableMap(copy);
+        }
+    }
+
+    /**
+     * Last value of a metric, the slope (or the statistic of the convergence policy) and the consecutive iterations in the
+     * convergence zone.
+     */
+    static final class MetricState {
+        private final String name;
+        private final double value;
+        private final double statistic;
+        private final int iterationsInZone;
+
+        MetricState(String name, double value, double statistic, int iterationsInZone) {
+            this.name = name;
+            this.value = value;
+            this.statistic = statistic;
+            this.iterationsInZone = iterationsInZone;
+        }
+    }
+
+    private static final class PhaseRecord {
+        private final int iteration;
+        private final String phase;
+        private final PhaseMetrics metrics;
+
+        private PhaseRecord(int iteration, String phase, PhaseMetrics metrics) {
+            this.iteration = iteration;
+            this.phase = phase;
+            this.metrics = metrics;
+        }
+    }
+}
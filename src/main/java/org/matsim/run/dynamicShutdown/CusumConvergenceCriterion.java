@@ -0,0 +1,71 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.Map;
+
+/**
+ * Two-sided tabular CUSUM change point test: every new value is standardized with the mean and standard deviation of the
+ * window before it, and the upper and lower cumulative sums (with an allowance of half a standard deviation) are
+ * updated. A change point is signalled when one of the sums exceeds the threshold; the sums are restarted afterwards.
+ * The metric is in the convergence zone if there was no change point within the last windowSize iterations.
+ *
+ * {@link #getStatistic()} returns the larger of the two sums.
+ */
+final class CusumConvergenceCriterion extends WindowedConvergenceCriterion {
+
+    private static final double ALLOWANCE = 0.5;
+
+    private final double threshold;
+    private double upper = 0.;
+    private double lower = 0.;
+    private double statistic = Double.NaN;
+    private int valuesSinceChangePoint = 0;
+
+    CusumConvergenceCriterion(int windowSize, double threshold) {
+        super(windowSize);
+        this.threshold = threshold;
+    }
+
+    @Override
+    void beforeAdd(double value) {
+        valuesSinceChangePoint++;
+        double standardDeviation = standardDeviation();
+        if (Double.isNaN(standardDeviation)) {
+            return;
+        }
+        double z = standardDeviation > 0. ? (value - mean()) / standardDeviation : 0.;
+        upper = Math.max(0., upper + z - ALLOWANCE);
+        lower = Math.max(0., lower - z - ALLOWANCE);
+        statistic = Math.max(upper, lower);
+        if (statistic > threshold) {
+            upper = 0.;
+            lower = 0.;
+            valuesSinceChangePoint = 0;
+        }
+    }
+
+    @Override
+    void getTestState(Map<String, String> state) {
+        state.put("upper", Double.toString(upper));
+        state.put("lower", Double.toString(lower));
+        state.put("statistic", Double.toString(statistic));
+        state.put("valuesSinceChangePoint", Integer.toString(valuesSinceChangePoint));
+    }
+
+    @Override
+    void setTestState(Map<String, String> state) {
+        upper = Double.parseDouble(state.get("upper"));
+        lower = Double.parseDouble(state.get("lower"));
+        statistic = Double.parseDouble(state.get("statistic"));
+        valuesSinceChangePoint = Integer.parseInt(state.get("valuesSinceChangePoint"));
+    }
+
+    @Override
+    public double getStatistic() {
+        return statistic;
+    }
+
+    @Override
+    public boolean isInZone() {
+        return window.isFull() && valuesSinceChangePoint >= window.size();
+    }
+}
@@ -20,6 +20,7 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private static final String EXPANDING_WINDOW_PCT_RETENTION = "expandingWindowPctRetention";
     private static final String ITERATIONS_IN_ZONE_TO_CONVERGE = "iterationsInZoneToConverge";
     private static final String MIN_ITERATIONS_FOR_GRAPHS = "minIterationForGraphs";
+    private static final String GRAPHS_INTERVAL = "graphsInterval";
 
     private static final String SCORE_POLICY_CHOSEN = "scorePolicyChosen";
     private static final String MODE_POLICY_CHOSEN = "modePolicyChosen";
@@ -27,8 +28,20 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private static final String SCORE_THRESHOLD = "scoreConvergenceThreshold";
     private static final String MODE_THRESHOLD= "modeConvergenceThreshold";
     private static final String MODE_CHOICE_COVERAGE_THRESHOLD= "modeChoiceCoverageConvergenceThreshold";
+    private static final String SCORE_CONVERGENCE_POLICY = "scoreConvergencePolicy";
+    private static final String MODE_CONVERGENCE_POLICY = "modeConvergencePolicy";
+    private static final String MODE_CHOICE_COVERAGE_CONVERGENCE_POLICY = "modeChoiceCoverageConvergencePolicy";
+    private static final String MANN_KENDALL_SIGNIFICANCE = "mannKendallSignificance";
+    private static final String CUSUM_THRESHOLD = "cusumThreshold";
+    private static final String RELATIVE_VARIANCE_THRESHOLD = "relativeVarianceThreshold";
+    private static final String INNOVATION_SHUTDOWN_PER_SUBPOPULATION = "innovationShutdownPerSubpopulation";
+    private static final String TELEMETRY_PORT = "telemetryPort";
 
     private static final String DYNAMIC_SHUTDOWN_MODULE_ACTIVE = "dynamicShutdownModuleActive";
+    private static final String MODE_CHOICE_COVERAGE_SOURCE = "modeChoiceCoverageSource";
+    private static final String MODE_CHOICE_COVERAGE_SAMPLE_FRACTION = "modeChoiceCoverageSampleFraction";
+    private static final String MODE_CHOICE_COVERAGE_CONFIDENCE_LEVEL = "modeChoiceCoverageConfidenceLevel";
+    private static final String MODE_CHOICE_COVERAGE_USE_CONFIDENCE_BOUNDS = "modeChoiceCoverageUseConfidenceBounds";
 
     public enum dynamicShutdownOptions { ON_FULL , ON_ANALYSIS_ONLY , OFF }
 
@@ -38,6 +51,20 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
 
     public enum slopeWindowOption { FIXED , EXPANDING }
 
+    /**
+     * How a metric is tested for convergence in each iteration. SLOPE: slope of the best fit line within the threshold of
+     * the metric type; MANN_KENDALL: no significant trend within the last minWindowSize iterations; CUSUM: no change point
+     * within the last minWindowSize iterations; RELATIVE_VARIANCE: coefficient of variation of the last minWindowSize
+     * iterations below relativeVarianceThreshold. In all cases, the metric has to pass the test in
+     * iterationsInZoneToConverge consecutive iterations.
+     */
+    public enum convergencePolicyOption { SLOPE , MANN_KENDALL , CUSUM , RELATIVE_VARIANCE }
+
+    /**
+     * PLANS: main modes of the selected plans after the iteration; EVENTS: main modes of the trips executed in the mobsim
+     */
+    public enum modeChoiceCoverageSourceOption { PLANS , EVENTS }
+
 
     private dynamicShutdownOptions dynamicShutdownModuleActive = dynamicShutdownOptions.OFF;
     private int minimumIteration = 0;
@@ -47,12 +74,25 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private double expandingWindowPctRetention = 0.25;
     private int iterationsInZoneToConverge = 50;
     private int minIterationForGraphics = 50;
+    private int graphsInterval = 1;
     private scorePolicyOptions scorePolicyChosen = scorePolicyOptions.ON_EXECUTED_ONLY;
     private double scoreThreshold  = 0.001;
     private modePolicyOptions modePolicyChosen  = modePolicyOptions.ON_FULL;
     private double modeThreshold = 0.00003;
     private modeCCPolicyOptions modeCCPolicyChosen = modeCCPolicyOptions.ON_FULL;
     private double modechoicecoverageThreshold = 0.0001;
+    private modeChoiceCoverageSourceOption modeChoiceCoverageSource = modeChoiceCoverageSourceOption.PLANS;
+    private double modeChoiceCoverageSampleFraction = 1.;
+    private double modeChoiceCoverageConfidenceLevel = 0.95;
+    private boolean modeChoiceCoverageUseConfidenceBounds = false;
+    private convergencePolicyOption scoreConvergencePolicy = convergencePolicyOption.SLOPE;
+    private convergencePolicyOption modeConvergencePolicy = convergencePolicyOption.SLOPE;
+    private convergencePolicyOption modeChoiceCoverageConvergencePolicy = convergencePolicyOption.SLOPE;
+    private double mannKendallSignificance = 0.05;
+    private double cusumThreshold = 5.;
+    private double relativeVarianceThreshold = 0.01;
+    private boolean innovationShutdownPerSubpopulation = false;
+    private int telemetryPort = -1;
 
     public DynamicShutdownConfigGroup() {
         super(GROUP_NAME);
@@ -121,6 +161,17 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     public void setMinIterationForGraphics(final int minIterationForGraphics) {
         this.minIterationForGraphics = minIterationForGraphics;
     }
+    /**
+     * Graphs are rendered every graphsInterval iterations (and at shutdown); 0 renders them at shutdown only.
+     */
+    @StringGetter(GRAPHS_INTERVAL)
+    public int getGraphsInterval() {
+        return graphsInterval;
+    }
+    @StringSetter(GRAPHS_INTERVAL)
+    public void setGraphsInterval(final int graphsInterval) {
+        this.graphsInterval = graphsInterval;
+    }
     @StringGetter(SCORE_POLICY_CHOSEN)
     public scorePolicyOptions getScorePolicyChosen() {
         return scorePolicyChosen;
@@ -169,4 +220,129 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     public void setModechoicecoverageThreshold(final double modechoicecoverageThreshold) {
         this.modechoicecoverageThreshold = modechoicecoverageThreshold;
     }
+    @StringGetter(MODE_CHOICE_COVERAGE_SOURCE)
+    public modeChoiceCoverageSourceOption getModeChoiceCoverageSource() {
+        return modeChoiceCoverageSource;
+    }
+    @StringSetter(MODE_CHOICE_COVERAGE_SOURCE)
+    public void setModeChoiceCoverageSource(final modeChoiceCoverageSourceOption modeChoiceCoverageSource) {
+        this.modeChoiceCoverageSource = modeChoiceCoverageSource;
+    }
+    /**
+     * Fraction of the persons whose trips are tracked for mode choice coverage. The persons are selected by a hash of
+     * their id, so the sample is the same in every iteration and in resumed runs. Below 1, the coverage is reported with
+     * confidence intervals.
+     */
+    @StringGetter(MODE_CHOICE_COVERAGE_SAMPLE_FRACTION)
+    public double getModeChoiceCoverageSampleFraction() {
+        return modeChoiceCoverageSampleFraction;
+    }
+    @StringSetter(MODE_CHOICE_COVERAGE_SAMPLE_FRACTION)
+    public void setModeChoiceCoverageSampleFraction(final double modeChoiceCoverageSampleFraction) {
+        if (modeChoiceCoverageSampleFraction <= 0. || modeChoiceCoverageSampleFraction > 1.) {
+            throw new IllegalArgumentException(MODE_CHOICE_COVERAGE_SAMPLE_FRACTION + " must be in (0, 1], but is " + modeChoiceCoverageSampleFraction);
+        }
+        this.modeChoiceCoverageSampleFraction = modeChoiceCoverageSampleFraction;
+    }
+    @StringGetter(MODE_CHOICE_COVERAGE_CONFIDENCE_LEVEL)
+    public double getModeChoiceCoverageConfidenceLevel() {
+        return modeChoiceCoverageConfidenceLevel;
+    }
+    @StringSetter(MODE_CHOICE_COVERAGE_CONFIDENCE_LEVEL)
+    public void setModeChoiceCoverageConfidenceLevel(final double modeChoiceCoverageConfidenceLevel) {
+        this.modeChoiceCoverageConfidenceLevel = modeChoiceCoverageConfidenceLevel;
+    }
+    /**
+     * If true and mode choice coverage is sampled, a mode only counts as converged in an iteration if the lower and the
+     * upper bound of its confidence interval pass the convergence test as well.
+     */
+    @StringGetter(MODE_CHOICE_COVERAGE_USE_CONFIDENCE_BOUNDS)
+    public boolean isModeChoiceCoverageUseConfidenceBounds() {
+        return modeChoiceCoverageUseConfidenceBounds;
+    }
+    @StringSetter(MODE_CHOICE_COVERAGE_USE_CONFIDENCE_BOUNDS)
+    public void setModeChoiceCoverageUseConfidenceBounds(final boolean modeChoiceCoverageUseConfidenceBounds) {
+        this.modeChoiceCoverageUseConfidenceBounds = modeChoiceCoverageUseConfidenceBounds;
+    }
+    @StringGetter(SCORE_CONVERGENCE_POLICY)
+    public convergencePolicyOption getScoreConvergencePolicy() {
+        return scoreConvergencePolicy;
+    }
+    @StringSetter(SCORE_CONVERGENCE_POLICY)
+    public void setScoreConvergencePolicy(final convergencePolicyOption scoreConvergencePolicy) {
+        this.scoreConvergencePolicy = scoreConvergencePolicy;
+    }
+    @StringGetter(MODE_CONVERGENCE_POLICY)
+    public convergencePolicyOption getModeConvergencePolicy() {
+        return modeConvergencePolicy;
+    }
+    @StringSetter(MODE_CONVERGENCE_POLICY)
+    public void setModeConvergencePolicy(final convergencePolicyOption modeConvergencePolicy) {
+        this.modeConvergencePolicy = modeConvergencePolicy;
+    }
+    @StringGetter(MODE_CHOICE_COVERAGE_CONVERGENCE_POLICY)
+    public convergencePolicyOption getModeChoiceCoverageConvergencePolicy() {
+        return modeChoiceCoverageConvergencePolicy;
+    }
+    @StringSetter(MODE_CHOICE_COVERAGE_CONVERGENCE_POLICY)
+    public void setModeChoiceCoverageConvergencePolicy(final convergencePolicyOption modeChoiceCoverageConvergencePolicy) {
+        this.modeChoiceCoverageConvergencePolicy = modeChoiceCoverageConvergencePolicy;
+    }
+    /**
+     * Significance level of the two-sided Mann-Kendall test; a metric is in the convergence zone if no trend is found.
+     */
+    @StringGetter(MANN_KENDALL_SIGNIFICANCE)
+    public double getMannKendallSignificance() {
+        return mannKendallSignificance;
+    }
+    @StringSetter(MANN_KENDALL_SIGNIFICANCE)
+    public void setMannKendallSignificance(final double mannKendallSignificance) {
+        this.mannKendallSignificance = mannKendallSignificance;
+    }
+    /**
+     * Decision interval of the two-sided CUSUM test, in standard deviations of the window.
+     */
+    @StringGetter(CUSUM_THRESHOLD)
+    public double getCusumThreshold() {
+        return cusumThreshold;
+    }
+    @StringSetter(CUSUM_THRESHOLD)
+    public void setCusumThreshold(final double cusumThreshold) {
+        this.cusumThreshold = cusumThreshold;
+    }
+    /**
+     * Maximum ratio of standard deviation and absolute mean of the window.
+     */
+    @StringGetter(RELATIVE_VARIANCE_THRESHOLD)
+    public double getRelativeVarianceThreshold() {
+        return relativeVarianceThreshold;
+    }
+    @StringSetter(RELATIVE_VARIANCE_THRESHOLD)
+    public void setRelativeVarianceThreshold(final double relativeVarianceThreshold) {
+        this.relativeVarianceThreshold = relativeVarianceThreshold;
+    }
+    /**
+     * If true, innovation is switched off for each subpopulation separately, once the score and mode shares of that
+     * subpopulation converge. Dynamic shutdown is initiated when innovation is off for all subpopulations and the metrics
+     * of the whole population have converged as well.
+     */
+    @StringGetter(INNOVATION_SHUTDOWN_PER_SUBPOPULATION)
+    public boolean isInnovationShutdownPerSubpopulation() {
+        return innovationShutdownPerSubpopulation;
+    }
+    @StringSetter(INNOVATION_SHUTDOWN_PER_SUBPOPULATION)
+    public void setInnovationShutdownPerSubpopulation(final boolean innovationShutdownPerSubpopulation) {
+        this.innovationShutdownPerSubpopulation = innovationShutdownPerSubpopulation;
+    }
+    /**
+     * Port of the convergence telemetry endpoint on localhost; -1 switches it off, 0 picks a free port.
+     */
+    @StringGetter(TELEMETRY_PORT)
+    public int getTelemetryPort() {
+        return telemetryPort;
+    }
+    @StringSetter(TELEMETRY_PORT)
+    public void setTelemetryPort(final int telemetryPort) {
+        this.telemetryPort = telemetryPort;
+    }
 }
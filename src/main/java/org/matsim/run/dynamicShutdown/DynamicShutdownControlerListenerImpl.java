@@ -21,29 +21,33 @@ import org.matsim.core.replanning.GenericPlanStrategy;
 import org.matsim.core.replanning.PlanStrategyImpl;
 import org.matsim.core.replanning.ReplanningUtils;
 import org.matsim.core.replanning.StrategyManager;
+import org.matsim.core.router.AnalysisMainModeIdentifier;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.run.checkpoint.Checkpointable;
 
 import javax.inject.Inject;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
-import static org.matsim.run.dynamicShutdown.DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING;
-
 /**
  * Initiats dynamic shutdown when a when the MATSim run has stabilized: 1) Turns off innovation in next iteration and
  * 2) informs TerminateDynamically Module of the iteration at which MATSim should shut down.
  *
  * The simulation is deemed stable, when a group of metrics converge; currently, this includes score, mode stats,
- * and mode choice coverage. A metric converges when the slope of the metric consistently lies below a user-specified
+ * and mode choice coverage. A metric converges when the slope of the metric (or another test statistic, see
+ * {@link DynamicShutdownConfigGroup.convergencePolicyOption}) consistently lies below a user-specified
  * threshold for number of iterations (default=50).
  *
  * @author jakobrehmann
  */
 
 
-public class DynamicShutdownControlerListenerImpl implements IterationStartsListener, StartupListener, ShutdownListener, DynamicShutdownControlerListener {
+public class DynamicShutdownControlerListenerImpl implements IterationStartsListener, StartupListener, ShutdownListener, DynamicShutdownControlerListener,
+        Checkpointable {
 
     private static final Logger log = Logger.getLogger(StrategyManager.class);
 
@@ -59,19 +63,60 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
     private final DynamicShutdownConfigGroup cfg;
     private final String outputFileName;
     private final BufferedWriter slopesOut ;
+    private final BufferedWriter valuesOut ;
     private final int globalInnovationDisableAfter;
 
     private int dynamicShutdownIteration;
     private boolean dynamicShutdownInitiated;
     private int dynamicInnovationDisableIteration;
-
-    private static final Map<String, Map<Integer,Double>> slopesScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesModeChoiceCoverage = new HashMap<>();
-
-    private static final Map<String, Map<Integer,Integer>> convergenceScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceModeCC = new HashMap<>();
+    private boolean restoredFromCheckpoint = false;
+
+    // the last slopes and convergence counters per metric; the full series are written to allMetrics.txt (and allValues.txt) only
+    private final int historyCapacity;
+    private final Map<String, MetricRingBuffer> slopesScore = new HashMap<>();
+    private final Map<String, MetricRingBuffer> slopesMode = new HashMap<>();
+    private final Map<String, MetricRingBuffer> slopesModeChoiceCoverage = new HashMap<>();
+
+    private final Map<String, MetricRingBuffer> convergenceScore = new HashMap<>();
+    private final Map<String, MetricRingBuffer> convergenceMode = new HashMap<>();
+    private final Map<String, MetricRingBuffer> convergenceModeCC = new HashMap<>();
+
+    // the last values per metric, for checkpoints without the states of the criteria
+    private final Map<String, MetricRingBuffer> valuesScore = new HashMap<>();
+    private final Map<String, MetricRingBuffer> valuesMode = new HashMap<>();
+    private final Map<String, MetricRingBuffer> valuesModeCC = new HashMap<>();
+
+    // incremental convergence tests per metric, fed with the value of every iteration; the slopes maps above hold their statistics
+    private final Map<String, ConvergenceCriterion> criteriaScore = new HashMap<>();
+    private final Map<String, ConvergenceCriterion> criteriaMode = new HashMap<>();
+    private final Map<String, ConvergenceCriterion> criteriaModeCC = new HashMap<>();
+
+    // only used if mode choice coverage is sampled and the bounds of its confidence intervals have to converge as well
+    private final boolean useModeCCConfidenceBounds;
+    private final Map<String, ConvergenceCriterion> criteriaModeCCLowerBound = new HashMap<>();
+    private final Map<String, ConvergenceCriterion> criteriaModeCCUpperBound = new HashMap<>();
+    private final Map<String, MetricRingBuffer> valuesModeCCLowerBound = new HashMap<>();
+    private final Map<String, MetricRingBuffer> valuesModeCCUpperBound = new HashMap<>();
+
+    private static final String CHECKPOINT_STATE = "dynShutdownState.txt";
+    private static final String CHECKPOINT_SERIES = "dynShutdownSeries.txt";
+    private static final String CHECKPOINT_CRITERIA = "dynShutdownCriteria.txt";
+
+    private static final int MODE_CC_LIMIT = 1;
+
+    private final BackgroundChartRenderer chartRenderer = new BackgroundChartRenderer();
+    private int lastSlopesIteration = -1;
+    private int lastGraphsIteration = -1;
+
+    // only used if innovation is switched off per subpopulation
+    private final SubpopulationConvergence subpopulationConvergence;
+    private final Map<String, Integer> subpopulationInnovationDisableIterations = new LinkedHashMap<>();
+    private static final String SUBPOPULATION_DISABLE_ITERATION = "innovationDisableIteration.";
+    private static final String SUBPOPULATION_ITERATIONS_IN_ZONE = "iterationsInZone.";
+    private static final String SUBPOPULATION_VALUES = "subpopulationValues.";
+    private static final String SUBPOPULATION_CRITERIA = "subpopulationCriteria.";
+
+    private final ConvergenceTelemetry telemetry;
 
     private List<String> activeMetricsScore = new ArrayList<>();
     private List<String> activeMetricsMode = new ArrayList<>();
@@ -82,7 +127,8 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
                                          ModeStatsControlerListener modeStatsControlerListener, StrategyManager strategyManager,
                                          StrategyConfigGroup strategyConfigGroup, Scenario scenario, OutputDirectoryHierarchy controlerIO,
                                         PlanCalcScoreConfigGroup scoreConfig,
-                                         ModeChoiceCoverageControlerListener modeChoiceCoverageControlerListener) {
+                                         ModeChoiceCoverageControlerListener modeChoiceCoverageControlerListener,
+                                         AnalysisMainModeIdentifier mainModeIdentifier, ConvergenceTelemetry telemetry) {
 
         this.scenario = scenario;
         this.scoreStats = scoreStats;
@@ -94,13 +140,21 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
         this.modeChoiceCoverageControlerListener = modeChoiceCoverageControlerListener;
 
         this.cfg = (DynamicShutdownConfigGroup) scenario.getConfig().getModules().get(DynamicShutdownConfigGroup.GROUP_NAME);
+        // the windowed criteria keep at least 3 values, which have to fit into the buffers to rebuild them after a resume
+        this.historyCapacity = Math.max(3, Math.max(cfg.getMinimumWindowSize(), cfg.getIterationsInZoneToConverge()));
+        this.useModeCCConfidenceBounds = cfg.isModeChoiceCoverageUseConfidenceBounds() && cfg.getModeChoiceCoverageSampleFraction() < 1.;
 
         this.globalInnovationDisableAfter = (int) ((controlerConfigGroup.getLastIteration() - controlerConfigGroup.getFirstIteration())
                 * strategyConfigGroup.getFractionOfIterationsToDisableInnovation() + controlerConfigGroup.getFirstIteration());
 
         this.slopesOut = IOUtils.getBufferedWriter(this.outputFileName + "allMetrics.txt");
+        this.valuesOut = IOUtils.getBufferedWriter(this.outputFileName + "allValues.txt");
 
         this.scoreConfig = scoreConfig;
+        this.telemetry = telemetry;
+
+        this.subpopulationConvergence = cfg.isInnovationShutdownPerSubpopulation() ?
+                new SubpopulationConvergence(cfg, mainModeIdentifier, scoreConfig.getAllModes(), getStrategySubpopulations(), historyCapacity) : null;
     }
 
     @Override
@@ -115,9 +169,11 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
     @Override
     public void notifyStartup(StartupEvent startupEvent) {
-        dynamicShutdownInitiated = false ;
-        dynamicShutdownIteration = Integer.MAX_VALUE;
-        dynamicInnovationDisableIteration = Integer.MAX_VALUE;
+        if (!restoredFromCheckpoint) {
+            dynamicShutdownInitiated = false ;
+            dynamicShutdownIteration = Integer.MAX_VALUE;
+            dynamicInnovationDisableIteration = Integer.MAX_VALUE;
+        }
 
         generateMetricLists(scoreConfig);
 
@@ -133,8 +189,25 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             for ( String mode : activeMetricsModeCC) {
                 this.slopesOut.write("\tmodeCC-" + mode + "\tconverged");
             }
+            if (subpopulationConvergence != null) {
+                for (String subpopulation : subpopulationConvergence.getSubpopulations()) {
+                    this.slopesOut.write("\tinnovation-" + subpopulation);
+                }
+            }
             this.slopesOut.write("\tnotes");
             this.slopesOut.flush();
+
+            this.valuesOut.write("Iteration");
+            for (String scoreType : activeMetricsScore) {
+                this.valuesOut.write("\tscore-" + scoreType);
+            }
+            for (String mode : activeMetricsMode) {
+                this.valuesOut.write("\tmode-" + mode);
+            }
+            for (String mode : activeMetricsModeCC) {
+                this.valuesOut.write("\tmodeCC-" + mode);
+            }
+            this.valuesOut.flush();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -143,19 +216,32 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
     @Override
     public void notifyIterationStarts(IterationStartsEvent iterationStartsEvent) {
-
         int iteration = iterationStartsEvent.getIteration();
+        checkConvergence(iteration);
+        if (telemetry.isEnabled()) {
+            telemetry.publish(createTelemetrySnapshot(iteration));
+        }
+    }
+
+    private void checkConvergence(int iteration) {
         int prevIteration = iteration - 1;
 
         if (cfg.isDynamicShutdownModuleActive()== DynamicShutdownConfigGroup.dynamicShutdownOptions.OFF) {
             log.warn("Dynamic shutdown module not active");
         }
+
+        if (subpopulationConvergence != null && iteration > controlerConfigGroup.getFirstIteration()) {
+            subpopulationConvergence.addIteration(scenario.getPopulation(), prevIteration, iteration >= cfg.getIterationToStartFindingSlopes());
+        }
         
         if (activeMetricsScore.isEmpty() && activeMetricsMode.isEmpty() && activeMetricsModeCC.isEmpty()) {
             log.warn("No criteria specified for dynamic shutdown module");
             return;
         }
-        
+
+        // the criteria get the values of all iterations, also of those before the first slopes are reported
+        addValues(prevIteration);
+
         if (iteration < cfg.getIterationToStartFindingSlopes()) {
             return;
         }
@@ -168,17 +254,9 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
         boolean scoreConverged = false;
         if (!activeMetricsScore.isEmpty()) {
-            String metricType = "score";
-            Map<ScoreItem, Map<Integer, Double>> scoreHistory = scoreStats.getScoreHistory();
-            Map<String, Map<Integer, Double>> scoreHistoryMod = new HashMap<>();
-            for (ScoreItem scoreItem : scoreHistory.keySet()) {
-                scoreHistoryMod.put(scoreItem.name(), scoreHistory.get(scoreItem));
-            }
-
-            bestFitLineGeneric(prevIteration, scoreHistoryMod, slopesScore, activeMetricsScore);
-            produceDynShutdownGraphs(scoreHistoryMod, slopesScore, metricType, activeMetricsScore, cfg.getScoreThreshold(), iteration);
+            addStatistics(prevIteration, criteriaScore, slopesScore, activeMetricsScore);
 
-            scoreConverged = metricTypeConverges(slopesScore, convergenceScore, activeMetricsScore, cfg.getScoreThreshold(), prevIteration);
+            scoreConverged = metricTypeConverges(criteriaScore, convergenceScore, activeMetricsScore, prevIteration);
 
             writeSlopeAndConvergence(slopesScore, convergenceScore, activeMetricsScore, prevIteration);
 
@@ -186,30 +264,33 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
         boolean modeConverged = false;
         if (!activeMetricsMode.isEmpty()) {
-            String metricType = "mode";
-            Map<String, Map<Integer, Double>> modeHistories = modeStatsControlerListener.getModeHistories();
-            bestFitLineGeneric(prevIteration, modeHistories, slopesMode, activeMetricsMode);
-            produceDynShutdownGraphs(modeHistories, slopesMode, metricType, activeMetricsMode, cfg.getModeThreshold(), iteration);
+            addStatistics(prevIteration, criteriaMode, slopesMode, activeMetricsMode);
 
-            modeConverged = metricTypeConverges(slopesMode, convergenceMode, activeMetricsMode, cfg.getModeThreshold(), prevIteration);
+            modeConverged = metricTypeConverges(criteriaMode, convergenceMode, activeMetricsMode, prevIteration);
 
             writeSlopeAndConvergence(slopesMode, convergenceMode, activeMetricsMode, prevIteration);
         }
 
         boolean modeCCConverged = false;
         if (!activeMetricsModeCC.isEmpty()) {
+            addStatistics(prevIteration, criteriaModeCC, slopesModeChoiceCoverage, activeMetricsModeCC);
 
-            String metricType = "modeChoiceCoverage";
-            int mCCLimit = 1;
-            Map<String, Map<Integer, Double>> mCCHistory = modeChoiceCoverageControlerListener.getModeChoiceCoverageHistory().get(mCCLimit);
-            bestFitLineGeneric(prevIteration, mCCHistory, slopesModeChoiceCoverage, activeMetricsModeCC);
-            produceDynShutdownGraphs(mCCHistory,slopesModeChoiceCoverage, metricType, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(),iteration);
+            List<Map<String, ConvergenceCriterion>> boundCriteria = useModeCCConfidenceBounds ?
+                    List.of(criteriaModeCCLowerBound, criteriaModeCCUpperBound) : Collections.emptyList();
 
-            modeCCConverged = metricTypeConverges(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(), prevIteration);
+            modeCCConverged = metricTypeConverges(criteriaModeCC, convergenceModeCC, activeMetricsModeCC, prevIteration, boundCriteria);
 
             writeSlopeAndConvergence(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, prevIteration);
         }
 
+        if (subpopulationConvergence != null) {
+            writeSubpopulationConvergence();
+        }
+
+        lastSlopesIteration = iteration;
+        if (BackgroundChartRenderer.isGraphsIteration(iteration, cfg.getGraphsInterval())) {
+            produceDynShutdownGraphs(iteration);
+        }
 
         try {
             if (iteration == dynamicInnovationDisableIteration) {
@@ -237,15 +318,16 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             return;
         }
 
-        if (!activeMetricsScore.isEmpty() && !scoreConverged) {
-            return;
-        }
+        boolean converged = (activeMetricsScore.isEmpty() || scoreConverged)
+                && (activeMetricsMode.isEmpty() || modeConverged)
+                && (activeMetricsModeCC.isEmpty() || modeCCConverged);
 
-        if (!activeMetricsMode.isEmpty() && !modeConverged) {
+        if (subpopulationConvergence != null) {
+            shutdownInnovationPerSubpopulation(iteration, converged);
             return;
         }
 
-        if (!activeMetricsModeCC.isEmpty() && !modeCCConverged) {
+        if (!converged) {
             return;
         }
 
@@ -253,14 +335,98 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
     }
 
-    private void writeSlopeAndConvergence(Map<String, Map<Integer, Double>> slopesMap,
-                                          Map<String, Map<Integer, Integer>> convergenceMap,
+    /**
+     * The last values, statistics and convergence counters of all active metrics, for the telemetry endpoint.
+     */
+    private ConvergenceTelemetry.Snapshot createTelemetrySnapshot(int iteration) {
+        int prevIteration = iteration - 1;
+        Map<String, List<ConvergenceTelemetry.MetricState>> metrics = new LinkedHashMap<>();
+        if (!activeMetricsScore.isEmpty()) {
+            metrics.put("score", metricStates(valuesScore, slopesScore, convergenceScore, activeMetricsScore, prevIteration));
+        }
+        if (!activeMetricsMode.isEmpty()) {
+            metrics.put("mode", metricStates(valuesMode, slopesMode, convergenceMode, activeMetricsMode, prevIteration));
+        }
+        if (!activeMetricsModeCC.isEmpty()) {
+            metrics.put("modeChoiceCoverage", metricStates(valuesModeCC, slopesModeChoiceCoverage, convergenceModeCC,
+                    activeMetricsModeCC, prevIteration));
+        }
+        return new ConvergenceTelemetry.Snapshot(iteration, controlerConfigGroup.getLastIteration(), dynamicShutdownInitiated,
+                dynamicInnovationDisableIteration, projectShutdownIteration(iteration), cfg.getIterationsInZoneToConverge(), metrics);
+    }
+
+    private static List<ConvergenceTelemetry.MetricState> metricStates(Map<String, MetricRingBuffer> values,
+                                                                       Map<String, MetricRingBuffer> slopes,
+                                                                       Map<String, MetricRingBuffer> convergence,
+                                                                       List<String> metricsToInclude, int prevIteration) {
+        List<ConvergenceTelemetry.MetricState> states = new ArrayList<>();
+        for (String metric : metricsToInclude) {
+            MetricRingBuffer valuesOfMetric = values.get(metric);
+            MetricRingBuffer slopesOfMetric = slopes.get(metric);
+            MetricRingBuffer convergenceOfMetric = convergence.get(metric);
+            states.add(new ConvergenceTelemetry.MetricState(metric,
+                    valuesOfMetric == null ? Double.NaN : valuesOfMetric.get(prevIteration, Double.NaN),
+                    slopesOfMetric == null ? Double.NaN : slopesOfMetric.get(prevIteration, Double.NaN),
+                    convergenceOfMetric == null ? 0 : (int) convergenceOfMetric.get(prevIteration, 0)));
+        }
+        return states;
+    }
+
+    /**
+     * The iteration in which the run will end if all metrics stay in the convergence zone from now on, i.e. the earliest
+     * possible shutdown; the last iteration if dynamic shutdown cannot be initiated anymore.
+     */
+    private int projectShutdownIteration(int iteration) {
+        if (dynamicShutdownInitiated) {
+            return dynamicShutdownIteration;
+        }
+        int lastIteration = controlerConfigGroup.getLastIteration();
+        if (cfg.isDynamicShutdownModuleActive() != DynamicShutdownConfigGroup.dynamicShutdownOptions.ON_FULL) {
+            return lastIteration;
+        }
+
+        int needed = cfg.getIterationsInZoneToConverge();
+        int missing = 0;
+        if (subpopulationConvergence != null) {
+            for (String subpopulation : subpopulationConvergence.getSubpopulations()) {
+                if (!subpopulationInnovationDisableIterations.containsKey(subpopulation)) {
+                    missing = Math.max(missing, needed - subpopulationConvergence.getIterationsInZone(subpopulation));
+                }
+            }
+        }
+        missing = Math.max(missing, missingIterationsInZone(convergenceScore, activeMetricsScore, iteration - 1));
+        missing = Math.max(missing, missingIterationsInZone(convergenceMode, activeMetricsMode, iteration - 1));
+        missing = Math.max(missing, missingIterationsInZone(convergenceModeCC, activeMetricsModeCC, iteration - 1));
+        // the counters of the previous iteration are evaluated at the start of the next one
+        int initiationIteration = Math.max(iteration + missing,
+                Math.max(cfg.getIterationToStartFindingSlopes() + needed - 1, cfg.getMinimumIteration()));
+        if (initiationIteration >= globalInnovationDisableAfter) {
+            return lastIteration;
+        }
+        int firstIteration = controlerConfigGroup.getFirstIteration();
+        double innoPct = strategyConfigGroup.getFractionOfIterationsToDisableInnovation();
+        return Math.min(lastIteration, (int) ((initiationIteration + 1 - firstIteration) / innoPct) + firstIteration);
+    }
+
+    private int missingIterationsInZone(Map<String, MetricRingBuffer> convergenceMap, List<String> metricsToInclude, int prevIteration) {
+        int missing = 0;
+        for (String metric : metricsToInclude) {
+            MetricRingBuffer convergenceOfMetric = convergenceMap.get(metric);
+            int inZone = convergenceOfMetric == null ? 0 : (int) convergenceOfMetric.get(prevIteration, 0);
+            missing = Math.max(missing, cfg.getIterationsInZoneToConverge() - inZone);
+        }
+        return missing;
+    }
+
+    private void writeSlopeAndConvergence(Map<String, MetricRingBuffer> slopesMap,
+                                          Map<String, MetricRingBuffer> convergenceMap,
                                           List<String> metricsToInclude,int prevIteration) {
         try{
             for (String metric : metricsToInclude) {
-                Double slope = slopesMap.get(metric).get(prevIteration);
+                MetricRingBuffer slopes = slopesMap.get(metric);
+                double slope = slopes == null ? Double.NaN : slopes.get(prevIteration, Double.NaN);
 
-                int convCnt = convergenceMap.get(metric).get(prevIteration);
+                int convCnt = (int) convergenceMap.get(metric).get(prevIteration, 0);
                 String convStr;
                 if (convCnt >= cfg.getIterationsInZoneToConverge()) {
                     convStr = "true";
@@ -276,165 +442,347 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
     }
 
 
-    private boolean metricTypeConverges(Map<String, Map<Integer, Double>> slopesMap,
-                                       Map<String, Map<Integer, Integer>> convergenceMap,
+    private boolean metricTypeConverges(Map<String, ConvergenceCriterion> criteria,
+                                       Map<String, MetricRingBuffer> convergenceMap,
                                        List<String> metricsToInclude,
-                                       double threshold,
                                        int prevIteration) {
+        return metricTypeConverges(criteria, convergenceMap, metricsToInclude, prevIteration, Collections.emptyList());
+    }
+
+    /**
+     * @param boundCriteria further criteria per metric, e.g. for the bounds of a confidence interval, which have to be in the
+     *                      convergence zone as well
+     */
+    private boolean metricTypeConverges(Map<String, ConvergenceCriterion> criteria,
+                                       Map<String, MetricRingBuffer> convergenceMap,
+                                       List<String> metricsToInclude,
+                                       int prevIteration,
+                                       List<Map<String, ConvergenceCriterion>> boundCriteria) {
 
-        if (slopesMap.isEmpty()) {
+        if (criteria.isEmpty()) {
             return false;
         }
 
         for (String metric : metricsToInclude) {
-            Map<Integer,Integer> convergenceCntPerMetric = convergenceMap.computeIfAbsent(metric,  v -> new HashMap<>());
-            Double slope = slopesMap.get(metric).get(prevIteration);
-            if (slope > -1 * threshold && slope < threshold) {
-                int convergenceCountSoFar = convergenceCntPerMetric.getOrDefault(prevIteration - 1, 0);
-                convergenceCntPerMetric.put(prevIteration, convergenceCountSoFar + 1);
+            MetricRingBuffer convergenceCntPerMetric = convergenceMap.computeIfAbsent(metric, v -> new MetricRingBuffer(historyCapacity));
+            ConvergenceCriterion criterion = criteria.get(metric);
+            boolean inZone = criterion != null && criterion.isInZone();
+            for (Map<String, ConvergenceCriterion> criteriaOfBound : boundCriteria) {
+                ConvergenceCriterion boundCriterion = criteriaOfBound.get(metric);
+                inZone &= boundCriterion != null && boundCriterion.isInZone();
+            }
+            if (inZone) {
+                double convergenceCountSoFar = convergenceCntPerMetric.get(prevIteration - 1, 0);
+                convergenceCntPerMetric.add(prevIteration, convergenceCountSoFar + 1);
             } else {
-                convergenceCntPerMetric.put(prevIteration, 0);
+                convergenceCntPerMetric.add(prevIteration, 0);
             }
         }
 
 
         for (String metric : metricsToInclude) {
-            if (convergenceMap.get(metric).get(prevIteration) < cfg.getIterationsInZoneToConverge()) {
+            if (convergenceMap.get(metric).get(prevIteration, 0) < cfg.getIterationsInZoneToConverge()) {
                 return false;
             }
         }
         return true;
     }
 
-    private void bestFitLineGeneric(int prevIteration,
-                                    Map<String, Map<Integer, Double>> history,
-                                    Map<String, Map<Integer, Double>> slopes,
-                                    List<String> metricsToInclude) {
-
-        for (Map.Entry<String, Map<Integer, Double>> entry : history.entrySet()) {
-
-            String metricName = entry.getKey();
-
-            if (!metricsToInclude.isEmpty() &&  !metricsToInclude.contains(metricName)) {
-                continue;
+    /**
+     * Adds the values of the previous iteration to the criteria and keeps them in the value buffers. Only the values of
+     * that iteration are read, so the cost does not grow with the number of iterations.
+     */
+    private void addValues(int prevIteration) {
+        if (!activeMetricsScore.isEmpty()) {
+            Map<String, Double> scores = new HashMap<>();
+            for (Map.Entry<ScoreItem, Map<Integer, Double>> entry : scoreStats.getScoreHistory().entrySet()) {
+                Double score = entry.getValue().get(prevIteration);
+                if (score != null) {
+                    scores.put(entry.getKey().name(), score);
+                }
             }
-
-            double slope = computeLineSlope(entry.getValue());
-
-            Map<Integer,Double> slopesForMetric = slopes.computeIfAbsent(metricName, v -> new HashMap<>());
-            slopesForMetric.put(prevIteration,slope);
+            addValues(prevIteration, scores, valuesScore, criteriaScore, activeMetricsScore, cfg.getScoreConvergencePolicy(),
+                    cfg.getScoreThreshold());
         }
-    }
-
-
-    private double computeLineSlope(Map<Integer,Double> inputMap) {
 
-        int currentIter = Collections.max(inputMap.keySet());
-        int startIteration = currentIter - cfg.getMinimumWindowSize() + 1; // fixed window
-        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1); // expanding window
-
-        if (cfg.getSlopeWindowPolicy() == EXPANDING && startIterationExpanding < startIteration) {
-            startIteration = startIterationExpanding;
+        if (!activeMetricsMode.isEmpty()) {
+            Map<String, Double> modeShares = new HashMap<>();
+            for (Map.Entry<String, Map<Integer, Double>> entry : modeStatsControlerListener.getModeHistories().entrySet()) {
+                Double share = entry.getValue().get(prevIteration);
+                if (share != null) {
+                    modeShares.put(entry.getKey(), share);
+                }
+            }
+            addValues(prevIteration, modeShares, valuesMode, criteriaMode, activeMetricsMode, cfg.getModeConvergencePolicy(),
+                    cfg.getModeThreshold());
         }
 
-        ArrayList<Integer> x = new ArrayList<>();
-        ArrayList<Double> y = new ArrayList<>();
-
-        for (Integer it : inputMap.keySet()) {
-            if (it >= startIteration) {
-                x.add(it);
-                y.add(inputMap.get(it));
+        // after a resume, the mode choice coverage of the iteration before the checkpoint is only known from the checkpoint
+        if (!activeMetricsModeCC.isEmpty() && modeChoiceCoverageControlerListener.getLastIteration() == prevIteration) {
+            addValues(prevIteration, modeChoiceCoverageControlerListener.getModeChoiceCoverage(MODE_CC_LIMIT), valuesModeCC,
+                    criteriaModeCC, activeMetricsModeCC, cfg.getModeChoiceCoverageConvergencePolicy(), cfg.getModeChoiceCoverageThreshold());
+            if (useModeCCConfidenceBounds) {
+                // the bounds of the confidence intervals are tested with the policy and threshold of mode choice coverage
+                addValues(prevIteration, modeChoiceCoverageControlerListener.getModeChoiceCoverageLowerBounds(MODE_CC_LIMIT),
+                        valuesModeCCLowerBound, criteriaModeCCLowerBound, activeMetricsModeCC,
+                        cfg.getModeChoiceCoverageConvergencePolicy(), cfg.getModeChoiceCoverageThreshold());
+                addValues(prevIteration, modeChoiceCoverageControlerListener.getModeChoiceCoverageUpperBounds(MODE_CC_LIMIT),
+                        valuesModeCCUpperBound, criteriaModeCCUpperBound, activeMetricsModeCC,
+                        cfg.getModeChoiceCoverageConvergencePolicy(), cfg.getModeChoiceCoverageThreshold());
             }
         }
 
-        if (x.size() != y.size()) {
-            throw new IllegalArgumentException("array lengths are not equal");
+        if (prevIteration < controlerConfigGroup.getFirstIteration()) {
+            return;
         }
-
-        int n = x.size();
-        double sumX = 0.0;
-        double sumY = 0.0;
-        for (int i = 0; i < n; i++) {
-            sumX  += x.get(i);
-            sumY  += y.get(i);
+        writeValues(valuesScore, activeMetricsScore, prevIteration, true);
+        writeValues(valuesMode, activeMetricsMode, prevIteration, false);
+        writeValues(valuesModeCC, activeMetricsModeCC, prevIteration, false);
+        try {
+            this.valuesOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        double xBar = sumX / n;
-        double yBar = sumY / n;
+    }
 
-        double xxBar = 0.0;
-        double xyBar = 0.0;
-        for (int i = 0; i < n; i++) {
-            xxBar += (x.get(i) - xBar) * (x.get(i) - xBar);
-            xyBar += (x.get(i) - xBar) * (y.get(i) - yBar);
+    /**
+     * Streams the values of the metrics to allValues.txt, from which the charts are drawn; NaN if a metric has no value in
+     * the iteration.
+     */
+    private void writeValues(Map<String, MetricRingBuffer> values, List<String> metricsToInclude, int prevIteration, boolean newLine) {
+        try {
+            if (newLine) {
+                this.valuesOut.write("\n" + prevIteration);
+            }
+            for (String metric : metricsToInclude) {
+                MetricRingBuffer buffer = values.get(metric);
+                this.valuesOut.write("\t" + (buffer == null ? Double.NaN : buffer.get(prevIteration, Double.NaN)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        return xyBar / xxBar;
-
+    private void addValues(int iteration,
+                           Map<String, Double> values,
+                           Map<String, MetricRingBuffer> valueBuffers,
+                           Map<String, ConvergenceCriterion> criteria,
+                           List<String> metricsToInclude,
+                           DynamicShutdownConfigGroup.convergencePolicyOption policy,
+                           double slopeThreshold) {
+        for (String metric : metricsToInclude) {
+            Double value = values.get(metric);
+            if (value == null) {
+                continue;
+            }
+            ConvergenceCriterion criterion = criteria.computeIfAbsent(metric, k -> ConvergenceCriterion.create(policy, cfg, slopeThreshold));
+            // the first iteration after a resume sees the iteration before the checkpoint again
+            if (!criterion.isEmpty() && criterion.getLastIteration() >= iteration) {
+                continue;
+            }
+            criterion.add(iteration, value);
+            valueBuffers.computeIfAbsent(metric, k -> new MetricRingBuffer(historyCapacity)).add(iteration, value);
+        }
     }
 
+    private void addStatistics(int prevIteration,
+                               Map<String, ConvergenceCriterion> criteria,
+                               Map<String, MetricRingBuffer> slopes,
+                               List<String> metricsToInclude) {
+        for (String metric : metricsToInclude) {
+            ConvergenceCriterion criterion = criteria.get(metric);
+            if (criterion == null) {
+                continue;
+            }
+            slopes.computeIfAbsent(metric, v -> new MetricRingBuffer(historyCapacity)).add(prevIteration, criterion.getStatistic());
+        }
+    }
 
-    private void produceDynShutdownGraphs(Map<String, Map<Integer, Double>> history,
-                                          Map<String, Map<Integer, Double>> slopes,
-                                          String metricType,
-                                          List<String> metricsToInclude,
-                                          double convergenceThreshold,
-                                          int iteration) {
 
+    /**
+     * Builds the charts of all active metric types from the full series in allValues.txt and allMetrics.txt; they are
+     * rendered and saved in the background.
+     */
+    private void produceDynShutdownGraphs(int iteration) {
+        lastGraphsIteration = iteration;
         if (iteration <= cfg.getMinIterationForGraphics()) {
             return;
         }
+        try {
+            this.slopesOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, Map<Integer, Double>> values = readHistory(outputFileName + "allValues.txt");
+        Map<String, Map<Integer, Double>> statistics = readHistory(outputFileName + "allMetrics.txt");
+        if (!activeMetricsScore.isEmpty()) {
+            produceDynShutdownGraphs(values, statistics, "score", "score", activeMetricsScore, cfg.getScoreConvergencePolicy(),
+                    cfg.getScoreThreshold());
+        }
+        if (!activeMetricsMode.isEmpty()) {
+            produceDynShutdownGraphs(values, statistics, "mode", "mode", activeMetricsMode, cfg.getModeConvergencePolicy(), cfg.getModeThreshold());
+        }
+        if (!activeMetricsModeCC.isEmpty()) {
+            produceDynShutdownGraphs(values, statistics, "modeChoiceCoverage", "modeCC", activeMetricsModeCC, cfg.getModeChoiceCoverageConvergencePolicy(),
+                    cfg.getModeChoiceCoverageThreshold());
+        }
+    }
 
-
+    /**
+     * The metric and its slope (or test statistic) are drawn for all iterations of this run. Metrics without values or
+     * statistics yet are skipped.
+     */
+    private void produceDynShutdownGraphs(Map<String, Map<Integer, Double>> values,
+                                          Map<String, Map<Integer, Double>> statistics,
+                                          String metricType,
+                                          String columnPrefix,
+                                          List<String> metricsToInclude,
+                                          DynamicShutdownConfigGroup.convergencePolicyOption policy,
+                                          double convergenceThreshold) {
         for (String metricName : metricsToInclude) {
-            try {
-                XYLineChartDualYAxis chart = new XYLineChartDualYAxis("Convergence of " + metricType + "-" + metricName, "iteration", metricType + " : " + metricName, "slope of " + metricName);
+            Map<Integer, Double> valuesOfMetric = values.get(columnPrefix + "-" + metricName);
+            Map<Integer, Double> statisticsOfMetric = statistics.get(columnPrefix + "-" + metricName);
+            if (valuesOfMetric == null || valuesOfMetric.isEmpty() || statisticsOfMetric == null || statisticsOfMetric.isEmpty()) {
+                log.info("No values or statistics of " + metricType + "-" + metricName + " yet, not producing its graph.");
+                continue;
+            }
+            String statisticName = (policy == DynamicShutdownConfigGroup.convergencePolicyOption.SLOPE ? "slope" : policy.name()) + " of " + metricName;
+            XYLineChartDualYAxis chart = new XYLineChartDualYAxis("Convergence of " + metricType + "-" + metricName, "iteration", metricType + " : " + metricName, statisticName);
 
-                chart.addSeries(metricName, history.get(metricName));
-                chart.addSeries2("slope of " + metricName, slopes.get(metricName));
+            chart.addSeries(metricName, valuesOfMetric);
+            chart.addSeries2(statisticName, statisticsOfMetric);
 
+            if (policy == DynamicShutdownConfigGroup.convergencePolicyOption.SLOPE) {
                 chart.addVerticalRange(-convergenceThreshold, convergenceThreshold);
-                chart.addMatsimLogo();
+            }
+            chart.addMatsimLogo();
 
-                chart.saveAsPng(outputFileName + metricType + "_" + metricName + ".png", 800, 600);
-            } catch (NullPointerException e) {
-                    log.error("Too early to produce Could not produce Dynamic Shutdown Graphs (probably too early)");
+            chartRenderer.submit(outputFileName + metricType + "_" + metricName + ".png", chart);
+        }
+    }
+
+    /**
+     * Reads the numeric columns of a file written by this listener, by column name; NaN and non-numeric entries (e.g. the
+     * convergence counters and notes in allMetrics.txt) are left out.
+     */
+    private static Map<String, Map<Integer, Double>> readHistory(String file) {
+        Map<String, Map<Integer, Double>> history = new HashMap<>();
+        try (BufferedReader reader = IOUtils.getBufferedReader(file)) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return history;
+            }
+            String[] header = headerLine.split("\t");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length < 2) {
+                    continue;
+                }
+                int iteration = Integer.parseInt(parts[0]);
+                for (int column = 1; column < parts.length && column < header.length; column++) {
+                    double value;
+                    try {
+                        value = Double.parseDouble(parts[column]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (!Double.isNaN(value)) {
+                        history.computeIfAbsent(header[column], k -> new TreeMap<>()).put(iteration, value);
+                    }
+                }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return history;
     }
 
 
+    /**
+     * Writes, per subpopulation, the iteration from which on innovation is off, or the iterations in the convergence zone so far.
+     */
+    private void writeSubpopulationConvergence() {
+        try {
+            for (String subpopulation : subpopulationConvergence.getSubpopulations()) {
+                Integer disableIteration = subpopulationInnovationDisableIterations.get(subpopulation);
+                if (disableIteration != null) {
+                    this.slopesOut.write("\toff from " + disableIteration);
+                } else {
+                    this.slopesOut.write("\t" + subpopulationConvergence.getIterationsInZone(subpopulation) + "/" + cfg.getIterationsInZoneToConverge());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Switches off innovation for every subpopulation which has converged; initiates dynamic shutdown once innovation is
+     * off for all of them and the metrics of the whole population have converged as well.
+     */
+    private void shutdownInnovationPerSubpopulation(int iteration, boolean converged) {
+        for (String subpopulation : subpopulationConvergence.getSubpopulations()) {
+            if (subpopulationInnovationDisableIterations.containsKey(subpopulation) || !subpopulationConvergence.isConverged(subpopulation)) {
+                continue;
+            }
+            int disableIteration = iteration + 1; // New weights are in effect in following iteration.
+            subpopulationInnovationDisableIterations.put(subpopulation, disableIteration);
+            disableInnovationStrategies(disableIteration, Collections.singleton(subpopulation));
+            log.info("Innovation strategies of subpopulation " + subpopulation + " deactivated in iteration " + disableIteration);
+            try {
+                this.slopesOut.write("\tNOTE: innovation turned off for subpopulation " + subpopulation);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (converged && subpopulationInnovationDisableIterations.size() == subpopulationConvergence.getSubpopulations().size()) {
+            initiateDynamicShutdown(iteration);
+        }
+    }
+
     private void shutdownInnovation(int iteration) {
+        initiateDynamicShutdown(iteration);
+        disableInnovationStrategies(dynamicInnovationDisableIteration, getStrategySubpopulations());
+    }
+
+    private void initiateDynamicShutdown(int iteration) {
         dynamicInnovationDisableIteration = iteration + 1; // New weights are in effect in following iteration.
         double innoPct = strategyConfigGroup.getFractionOfIterationsToDisableInnovation();
         int firstIter = controlerConfigGroup.getFirstIteration();
         dynamicShutdownIteration = (int) ((dynamicInnovationDisableIteration - firstIter) / innoPct) + firstIter;
         dynamicShutdownInitiated = true;
 
+        log.info("********** DYNAMIC SHUTDOWN INITIATED ***********");
+        log.info("Innovation strategies deactivated in iteration " + (dynamicInnovationDisableIteration));
+        log.info("Full shutdown will occur in iteration " + dynamicShutdownIteration);
+
+        try {
+            this.slopesOut.write("\tNOTE: dynamic shutdown initiated");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        Set<String> subpopulations = new HashSet<>();
+    private Set<String> getStrategySubpopulations() {
+        Set<String> subpopulations = new LinkedHashSet<>();
         for (StrategyConfigGroup.StrategySettings setting : this.scenario.getConfig().strategy().getStrategySettings()) {
             subpopulations.add(setting.getSubpopulation());
-            if (subpopulations.size() == 0) subpopulations.add(null);
         }
+        if (subpopulations.isEmpty()) subpopulations.add(null);
+        return subpopulations;
+    }
 
+    private void disableInnovationStrategies(int disableIteration, Collection<String> subpopulations) {
         for (String subpopulation : subpopulations) {
             for (GenericPlanStrategy<Plan, Person> planStrategy : strategyManager.getStrategies(subpopulation)) {
                 PlanStrategyImpl planStrategyImpl = (PlanStrategyImpl) planStrategy;
                 if (!(ReplanningUtils.isOnlySelector(planStrategyImpl))) { // if (innovation strategy)
-                    strategyManager.addChangeRequest(dynamicInnovationDisableIteration, planStrategyImpl, subpopulation, 0.);
+                    strategyManager.addChangeRequest(disableIteration, planStrategyImpl, subpopulation, 0.);
                 }
             }
         }
-
-        log.info("********** DYNAMIC SHUTDOWN INITIATED ***********");
-        log.info("Innovation strategies deactivated in iteration " + (dynamicInnovationDisableIteration));
-        log.info("Full shutdown will occur in iteration " + dynamicShutdownIteration);
-
-        try {
-            this.slopesOut.write("\tNOTE: dynamic shutdown initiated");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
     }
 
     private void generateMetricLists(PlanCalcScoreConfigGroup scoreConfig) {
@@ -480,10 +828,258 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
         }
     }
 
+    /**
+     * Saves the shutdown decision, the slopes and convergence counters, the last values of the metrics and the running
+     * state of the criteria; with innovationShutdownPerSubpopulation, the same for every subpopulation.
+     */
+    @Override
+    public Runnable prepareCheckpoint(Path directory) {
+        List<String> state = new ArrayList<>(List.of(
+                "dynamicShutdownInitiated\t" + dynamicShutdownInitiated,
+                "dynamicShutdownIteration\t" + dynamicShutdownIteration,
+                "dynamicInnovationDisableIteration\t" + dynamicInnovationDisableIteration));
+        subpopulationInnovationDisableIterations.forEach((subpopulation, disableIteration) ->
+                state.add(SUBPOPULATION_DISABLE_ITERATION + subpopulation + "\t" + disableIteration));
+        if (subpopulationConvergence != null) {
+            for (String subpopulation : subpopulationConvergence.getSubpopulations()) {
+                state.add(SUBPOPULATION_ITERATIONS_IN_ZONE + subpopulation + "\t" + subpopulationConvergence.getIterationsInZone(subpopulation));
+            }
+        }
+
+        Map<String, Map<String, Map<Integer, ? extends Number>>> series = new LinkedHashMap<>();
+        series.put("slopesScore", copyBuffers(slopesScore));
+        series.put("slopesMode", copyBuffers(slopesMode));
+        series.put("slopesModeChoiceCoverage", copyBuffers(slopesModeChoiceCoverage));
+        series.put("convergenceScore", copyBuffers(convergenceScore));
+        series.put("convergenceMode", copyBuffers(convergenceMode));
+        series.put("convergenceModeCC", copyBuffers(convergenceModeCC));
+        series.put("valuesScore", copyBuffers(valuesScore));
+        series.put("valuesMode", copyBuffers(valuesMode));
+        series.put("valuesModeCC", copyBuffers(valuesModeCC));
+        series.put("valuesModeCCLowerBound", copyBuffers(valuesModeCCLowerBound));
+        series.put("valuesModeCCUpperBound", copyBuffers(valuesModeCCUpperBound));
+        if (subpopulationConvergence != null) {
+            subpopulationConvergence.getValues().forEach((subpopulation, values) -> series.put(SUBPOPULATION_VALUES + subpopulation, new TreeMap<>(values)));
+        }
+
+        Map<String, Map<String, Map<String, String>>> criteria = new LinkedHashMap<>();
+        criteria.put("criteriaScore", copyStates(criteriaScore));
+        criteria.put("criteriaMode", copyStates(criteriaMode));
+        criteria.put("criteriaModeCC", copyStates(criteriaModeCC));
+        criteria.put("criteriaModeCCLowerBound", copyStates(criteriaModeCCLowerBound));
+        criteria.put("criteriaModeCCUpperBound", copyStates(criteriaModeCCUpperBound));
+        if (subpopulationConvergence != null) {
+            subpopulationConvergence.getCriteria().forEach((subpopulation, criteriaOfSubpopulation) ->
+                    criteria.put(SUBPOPULATION_CRITERIA + subpopulation, copyStates(criteriaOfSubpopulation)));
+        }
+
+        return () -> {
+            try (BufferedWriter writer = IOUtils.getBufferedWriter(directory.resolve(CHECKPOINT_STATE).toString())) {
+                for (String line : state) {
+                    writer.write(line + "\n");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try (BufferedWriter writer = IOUtils.getBufferedWriter(directory.resolve(CHECKPOINT_SERIES).toString())) {
+                for (Map.Entry<String, Map<String, Map<Integer, ? extends Number>>> seriesEntry : series.entrySet()) {
+                    for (Map.Entry<String, Map<Integer, ? extends Number>> metricEntry : seriesEntry.getValue().entrySet()) {
+                        for (Map.Entry<Integer, ? extends Number> entry : metricEntry.getValue().entrySet()) {
+                            writer.write(seriesEntry.getKey() + "\t" + metricEntry.getKey() + "\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try (BufferedWriter writer = IOUtils.getBufferedWriter(directory.resolve(CHECKPOINT_CRITERIA).toString())) {
+                for (Map.Entry<String, Map<String, Map<String, String>>> groupEntry : criteria.entrySet()) {
+                    for (Map.Entry<String, Map<String, String>> metricEntry : groupEntry.getValue().entrySet()) {
+                        for (Map.Entry<String, String> entry : metricEntry.getValue().entrySet()) {
+                            writer.write(groupEntry.getKey() + "\t" + metricEntry.getKey() + "\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private static Map<String, Map<String, String>> copyStates(Map<String, ConvergenceCriterion> criteria) {
+        Map<String, Map<String, String>> copy = new TreeMap<>();
+        criteria.forEach((metric, criterion) -> copy.put(metric, criterion.getState()));
+        return copy;
+    }
+
+    private static Map<String, Map<Integer, ? extends Number>> copyBuffers(Map<String, MetricRingBuffer> buffers) {
+        Map<String, Map<Integer, ? extends Number>> copy = new TreeMap<>();
+        for (Map.Entry<String, MetricRingBuffer> entry : buffers.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return copy;
+    }
+
+    @Override
+    public void readCheckpoint(Path directory) {
+        Map<String, String> state = new HashMap<>();
+        try (BufferedReader reader = IOUtils.getBufferedReader(directory.resolve(CHECKPOINT_STATE).toString())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                state.put(parts[0], parts[1]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        for (Map<String, ?> map : List.of(slopesScore, slopesMode, slopesModeChoiceCoverage, convergenceScore, convergenceMode,
+                convergenceModeCC, valuesScore, valuesMode, valuesModeCC, valuesModeCCLowerBound, valuesModeCCUpperBound)) {
+            map.clear();
+        }
+        Map<String, Map<String, Map<Integer, Double>>> subpopulationValues = new HashMap<>();
+        try (BufferedReader reader = IOUtils.getBufferedReader(directory.resolve(CHECKPOINT_SERIES).toString())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                int iteration = Integer.parseInt(parts[2]);
+                if (parts[0].startsWith(SUBPOPULATION_VALUES)) {
+                    subpopulationValues.computeIfAbsent(parseSubpopulation(parts[0].substring(SUBPOPULATION_VALUES.length())), k -> new HashMap<>())
+                            .computeIfAbsent(parts[1], k -> new TreeMap<>()).put(iteration, Double.parseDouble(parts[3]));
+                    continue;
+                }
+                switch (parts[0]) {
+                    case "slopesScore": putBuffer(slopesScore, parts[1], iteration, parts[3]); break;
+                    case "slopesMode": putBuffer(slopesMode, parts[1], iteration, parts[3]); break;
+                    case "slopesModeChoiceCoverage": putBuffer(slopesModeChoiceCoverage, parts[1], iteration, parts[3]); break;
+                    case "convergenceScore": putBuffer(convergenceScore, parts[1], iteration, parts[3]); break;
+                    case "convergenceMode": putBuffer(convergenceMode, parts[1], iteration, parts[3]); break;
+                    case "convergenceModeCC": putBuffer(convergenceModeCC, parts[1], iteration, parts[3]); break;
+                    case "valuesScore": putBuffer(valuesScore, parts[1], iteration, parts[3]); break;
+                    case "valuesMode": putBuffer(valuesMode, parts[1], iteration, parts[3]); break;
+                    case "valuesModeCC": putBuffer(valuesModeCC, parts[1], iteration, parts[3]); break;
+                    case "valuesModeCCLowerBound": putBuffer(valuesModeCCLowerBound, parts[1], iteration, parts[3]); break;
+                    case "valuesModeCCUpperBound": putBuffer(valuesModeCCUpperBound, parts[1], iteration, parts[3]); break;
+                    default: throw new IllegalArgumentException("Unknown series " + parts[0] + " in " + directory);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // group -> metric -> state of the criterion
+        Map<String, Map<String, Map<String, String>>> criteriaStates = new HashMap<>();
+        Path criteriaFile = directory.resolve(CHECKPOINT_CRITERIA);
+        if (criteriaFile.toFile().exists()) {
+            try (BufferedReader reader = IOUtils.getBufferedReader(criteriaFile.toString())) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", -1);
+                    criteriaStates.computeIfAbsent(parts[0], k -> new HashMap<>()).computeIfAbsent(parts[1], k -> new HashMap<>())
+                            .put(parts[2], parts[3]);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            log.warn("No " + CHECKPOINT_CRITERIA + " in " + directory + ". Criteria are rebuilt from the last values of the metrics, "
+                    + "an expanding slope window and the CUSUM sums start over.");
+        }
+
+        restoreCriteria(valuesScore, criteriaStates.get("criteriaScore"), criteriaScore, cfg.getScoreConvergencePolicy(),
+                cfg.getScoreThreshold());
+        restoreCriteria(valuesMode, criteriaStates.get("criteriaMode"), criteriaMode, cfg.getModeConvergencePolicy(),
+                cfg.getModeThreshold());
+        restoreCriteria(valuesModeCC, criteriaStates.get("criteriaModeCC"), criteriaModeCC, cfg.getModeChoiceCoverageConvergencePolicy(),
+                cfg.getModeChoiceCoverageThreshold());
+        restoreCriteria(valuesModeCCLowerBound, criteriaStates.get("criteriaModeCCLowerBound"), criteriaModeCCLowerBound,
+                cfg.getModeChoiceCoverageConvergencePolicy(), cfg.getModeChoiceCoverageThreshold());
+        restoreCriteria(valuesModeCCUpperBound, criteriaStates.get("criteriaModeCCUpperBound"), criteriaModeCCUpperBound,
+                cfg.getModeChoiceCoverageConvergencePolicy(), cfg.getModeChoiceCoverageThreshold());
+
+        restoredFromCheckpoint = true;
+        dynamicShutdownIteration = Integer.parseInt(state.get("dynamicShutdownIteration"));
+        dynamicInnovationDisableIteration = Integer.parseInt(state.get("dynamicInnovationDisableIteration"));
+        dynamicShutdownInitiated = Boolean.parseBoolean(state.get("dynamicShutdownInitiated"));
+        // the strategy weights are not part of the checkpoint, so the change requests are issued again. There is no
+        // replanning in the first iteration of the resumed run, so requests for earlier iterations take effect in the second.
+        int firstReplanningIteration = controlerConfigGroup.getFirstIteration() + 1;
+        if (dynamicShutdownInitiated) {
+            disableInnovationStrategies(Math.max(dynamicInnovationDisableIteration, firstReplanningIteration), getStrategySubpopulations());
+            log.info("Resumed after dynamic shutdown was initiated. Full shutdown will occur in iteration " + dynamicShutdownIteration);
+        }
+        subpopulationInnovationDisableIterations.clear();
+        Map<String, Integer> subpopulationIterationsInZone = new HashMap<>();
+        for (Map.Entry<String, String> entry : state.entrySet()) {
+            if (entry.getKey().startsWith(SUBPOPULATION_ITERATIONS_IN_ZONE)) {
+                subpopulationIterationsInZone.put(parseSubpopulation(entry.getKey().substring(SUBPOPULATION_ITERATIONS_IN_ZONE.length())),
+                        Integer.parseInt(entry.getValue()));
+            }
+            if (entry.getKey().startsWith(SUBPOPULATION_DISABLE_ITERATION)) {
+                String subpopulation = parseSubpopulation(entry.getKey().substring(SUBPOPULATION_DISABLE_ITERATION.length()));
+                int disableIteration = Integer.parseInt(entry.getValue());
+                subpopulationInnovationDisableIterations.put(subpopulation, disableIteration);
+                disableInnovationStrategies(Math.max(disableIteration, firstReplanningIteration), Collections.singleton(subpopulation));
+            }
+        }
+        if (subpopulationConvergence != null) {
+            Map<String, Map<String, Map<String, String>>> subpopulationCriteria = null;
+            if (criteriaFile.toFile().exists()) {
+                subpopulationCriteria = new HashMap<>();
+                for (Map.Entry<String, Map<String, Map<String, String>>> entry : criteriaStates.entrySet()) {
+                    if (entry.getKey().startsWith(SUBPOPULATION_CRITERIA)) {
+                        subpopulationCriteria.put(parseSubpopulation(entry.getKey().substring(SUBPOPULATION_CRITERIA.length())), entry.getValue());
+                    }
+                }
+            }
+            subpopulationConvergence.restore(subpopulationValues, subpopulationCriteria, subpopulationIterationsInZone);
+        }
+    }
+
+    private static String parseSubpopulation(String subpopulation) {
+        return subpopulation.equals("null") ? null : subpopulation;
+    }
+
+    /**
+     * Restores the criteria from their saved states, so that they continue exactly where they stopped. Checkpoints without
+     * states (written before they were saved) are handled by rebuilding the criteria from the restored values, which is
+     * only exact for the tests over a fixed window.
+     *
+     * @param states per metric, the state of its criterion; null if the checkpoint has no states
+     */
+    private void restoreCriteria(Map<String, MetricRingBuffer> values, Map<String, Map<String, String>> states,
+                                 Map<String, ConvergenceCriterion> criteria, DynamicShutdownConfigGroup.convergencePolicyOption policy,
+                                 double slopeThreshold) {
+        criteria.clear();
+        if (states != null) {
+            states.forEach((metric, state) -> {
+                ConvergenceCriterion criterion = ConvergenceCriterion.create(policy, cfg, slopeThreshold);
+                criterion.setState(state);
+                criteria.put(metric, criterion);
+            });
+            return;
+        }
+        for (Map.Entry<String, MetricRingBuffer> entry : values.entrySet()) {
+            ConvergenceCriterion criterion = ConvergenceCriterion.create(policy, cfg, slopeThreshold);
+            entry.getValue().toMap().forEach(criterion::add);
+            criteria.put(entry.getKey(), criterion);
+        }
+    }
+
+    private void putBuffer(Map<String, MetricRingBuffer> map, String metric, int iteration, String value) {
+        map.computeIfAbsent(metric, k -> new MetricRingBuffer(historyCapacity)).add(iteration, Double.parseDouble(value));
+    }
+
     @Override
     public void notifyShutdown(ShutdownEvent shutdownEvent) {
+        if (lastSlopesIteration >= 0 && lastGraphsIteration != lastSlopesIteration) {
+            produceDynShutdownGraphs(lastSlopesIteration);
+        }
+        chartRenderer.close();
+
         try {
             this.slopesOut.close();
+            this.valuesOut.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
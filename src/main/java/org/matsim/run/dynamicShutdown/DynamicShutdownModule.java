@@ -1,8 +1,11 @@
 package org.matsim.run.dynamicShutdown;
 
 import com.google.inject.Singleton;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.TerminationCriterion;
+import org.matsim.run.checkpoint.CheckpointModule;
+import org.matsim.run.metrics.PhaseMetricsModule;
 
 public class DynamicShutdownModule extends AbstractModule {
 
@@ -19,9 +22,27 @@ public class DynamicShutdownModule extends AbstractModule {
         this.bind(ModeChoiceCoverageControlerListener.class).in(Singleton.class);
         this.addControlerListenerBinding().to(ModeChoiceCoverageControlerListener.class);
 
+        // executed trips are only collected from the events if mode choice coverage is based on them
+        this.bind(ModeChoiceCoverageEventHandler.class).in(Singleton.class);
+        if (ConfigUtils.addOrGetModule(getConfig(), DynamicShutdownConfigGroup.class).getModeChoiceCoverageSource()
+                == DynamicShutdownConfigGroup.modeChoiceCoverageSourceOption.EVENTS) {
+            this.addEventHandlerBinding().to(ModeChoiceCoverageEventHandler.class);
+        }
+
         this.bind(DynamicShutdownControlerListenerImpl.class).in(Singleton.class);
         this.addControlerListenerBinding().to(DynamicShutdownControlerListenerImpl.class);
 
+        // the telemetry endpoint gets the phase timings only if the PhaseMetricsModule is installed as well
+        this.bind(ConvergenceTelemetry.class).in(Singleton.class);
+        if (ConfigUtils.addOrGetModule(getConfig(), DynamicShutdownConfigGroup.class).getTelemetryPort() >= 0) {
+            this.addControlerListenerBinding().to(ConvergenceTelemetry.class);
+            PhaseMetricsModule.addPhaseMetricsSinkBinding(binder()).to(ConvergenceTelemetry.class);
+        }
+
+        // only used if checkpoints are switched on
+        CheckpointModule.addCheckpointableBinding(binder()).to(ModeChoiceCoverageControlerListener.class);
+        CheckpointModule.addCheckpointableBinding(binder()).to(DynamicShutdownControlerListenerImpl.class);
+
         this.bind(TerminateDynamically.class).in(Singleton.class);
         this.bind(TerminationCriterion.class).to(TerminateDynamically.class);
 
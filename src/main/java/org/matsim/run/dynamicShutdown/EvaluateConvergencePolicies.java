@@ -0,0 +1,253 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Replays the convergence policies on the output of a finished run and reports, per policy, in which iteration dynamic
+ * shutdown would have been initiated and how many iterations and CPU hours this would have saved compared to the run.
+ *
+ * Reads the score stats, mode stats and mode choice coverage (1x) of the run, the dynamic shutdown settings from its
+ * output config and, if present, the per-iteration CPU times from phaseMetrics.csv. The replay follows
+ * {@link DynamicShutdownControlerListenerImpl}; only the policy is changed, for all metric types at once. The run should
+ * not have used dynamic shutdown itself (use ON_ANALYSIS_ONLY or OFF), since the histories change once innovation is
+ * switched off.
+ *
+ * Arguments: run output directory, optionally the run id. Writes dynShutdown_policyEvaluation.txt into the output directory.
+ */
+public final class EvaluateConvergencePolicies {
+
+    private static final Logger log = Logger.getLogger(EvaluateConvergencePolicies.class);
+
+    private static final Map<String, String> SCORE_COLUMNS = Map.of(
+            "avg. EXECUTED", "executed",
+            "avg. AVG", "average",
+            "avg. BEST", "best",
+            "avg. WORST", "worst");
+
+    private EvaluateConvergencePolicies() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Please provide the run output directory and optionally the run id.");
+        }
+        Path outputDirectory = Paths.get(args[0]);
+        String prefix = args.length > 1 ? args[1] + "." : "";
+
+        Config config = ConfigUtils.loadConfig(outputDirectory.resolve(prefix + "output_config.xml").toString(), new DynamicShutdownConfigGroup());
+        DynamicShutdownConfigGroup cfg = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class);
+
+        Map<String, Map<Integer, Double>> scoreHistory = new HashMap<>();
+        readHistory(outputDirectory.resolve(prefix + "scorestats.txt")).forEach((column, history) -> {
+            if (SCORE_COLUMNS.containsKey(column)) {
+                scoreHistory.put(SCORE_COLUMNS.get(column), history);
+            }
+        });
+        Map<String, Map<Integer, Double>> modeHistory = readHistory(outputDirectory.resolve(prefix + "modestats.txt"));
+        Map<String, Map<Integer, Double>> modeCCHistory = readHistory(outputDirectory.resolve(prefix + "modeChoiceCoverage1x.txt"));
+
+        List<String> scoreMetrics = new ArrayList<>();
+        switch (cfg.getScorePolicyChosen()) {
+            case ON_FULL: scoreMetrics.addAll(SCORE_COLUMNS.values()); break;
+            case ON_EXECUTED_ONLY: scoreMetrics.add("executed"); break;
+            default: break;
+        }
+        List<String> modeMetrics = cfg.getModePolicyChosen() == DynamicShutdownConfigGroup.modePolicyOptions.ON_FULL ?
+                new ArrayList<>(modeHistory.keySet()) : new ArrayList<>();
+        List<String> modeCCMetrics = cfg.getModeCCPolicyChosen() == DynamicShutdownConfigGroup.modeCCPolicyOptions.ON_FULL ?
+                new ArrayList<>(modeCCHistory.keySet()) : new ArrayList<>();
+
+        double cpuHoursPerIteration = readCpuHoursPerIteration(outputDirectory.resolve(prefix + "phaseMetrics.csv"));
+        int firstIteration = config.controler().getFirstIteration();
+        int lastIteration = config.controler().getLastIteration();
+        for (Map<Integer, Double> history : scoreHistory.values()) {
+            lastIteration = Math.min(lastIteration, Collections.max(history.keySet()));
+        }
+        double innovationFraction = config.strategy().getFractionOfIterationsToDisableInnovation();
+        int globalInnovationDisableAfter = (int) ((lastIteration - firstIteration) * innovationFraction + firstIteration);
+
+        try (BufferedWriter writer = IOUtils.getBufferedWriter(outputDirectory.resolve(prefix + "dynShutdown_policyEvaluation.txt").toString())) {
+            writer.write("policy\tinitiationIteration\tshutdownIteration\titerationsSaved\tcpuHoursSaved\n");
+            for (DynamicShutdownConfigGroup.convergencePolicyOption policy : DynamicShutdownConfigGroup.convergencePolicyOption.values()) {
+                cfg.setScoreConvergencePolicy(policy);
+                cfg.setModeConvergencePolicy(policy);
+                cfg.setModeChoiceCoverageConvergencePolicy(policy);
+
+                List<MetricType> metricTypes = List.of(
+                        new MetricType(scoreHistory, scoreMetrics, policy, cfg, cfg.getScoreThreshold()),
+                        new MetricType(modeHistory, modeMetrics, policy, cfg, cfg.getModeThreshold()),
+                        new MetricType(modeCCHistory, modeCCMetrics, policy, cfg, cfg.getModeChoiceCoverageThreshold()));
+
+                int initiationIteration = replay(cfg, metricTypes, firstIteration, lastIteration, globalInnovationDisableAfter);
+                int shutdownIteration = lastIteration;
+                if (initiationIteration >= 0) {
+                    shutdownIteration = Math.min(lastIteration, (int) ((initiationIteration + 1 - firstIteration) / innovationFraction) + firstIteration);
+                }
+                int iterationsSaved = lastIteration - shutdownIteration;
+                double cpuHoursSaved = iterationsSaved * cpuHoursPerIteration;
+
+                log.info("Policy " + policy + ": shutdown initiated in iteration " + (initiationIteration >= 0 ? initiationIteration : "-")
+                        + ", last iteration " + shutdownIteration + ", " + iterationsSaved + " iterations and " + cpuHoursSaved + " CPU hours saved.");
+                writer.write(policy + "\t" + (initiationIteration >= 0 ? initiationIteration : "") + "\t" + shutdownIteration + "\t"
+                        + iterationsSaved + "\t" + cpuHoursSaved + "\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the iteration in which dynamic shutdown would have been initiated, -1 if never
+     */
+    private static int replay(DynamicShutdownConfigGroup cfg, List<MetricType> metricTypes, int firstIteration, int lastIteration,
+                              int globalInnovationDisableAfter) {
+        boolean anyActive = metricTypes.stream().anyMatch(type -> !type.metrics.isEmpty());
+        if (!anyActive) {
+            return -1;
+        }
+        for (int iteration = firstIteration + 1; iteration <= lastIteration; iteration++) {
+            for (MetricType type : metricTypes) {
+                type.add(iteration - 1);
+            }
+            if (iteration < cfg.getIterationToStartFindingSlopes()) {
+                continue;
+            }
+            boolean converged = true;
+            for (MetricType type : metricTypes) {
+                converged &= type.updateConvergence(cfg.getIterationsInZoneToConverge());
+            }
+            if (iteration < cfg.getMinimumIteration()) {
+                continue;
+            }
+            if (iteration >= globalInnovationDisableAfter) {
+                return -1;
+            }
+            if (converged) {
+                return iteration;
+            }
+        }
+        return -1;
+    }
+
+    private static final class MetricType {
+        private final Map<String, Map<Integer, Double>> history;
+        private final List<String> metrics;
+        private final Map<String, ConvergenceCriterion> criteria = new HashMap<>();
+        private final Map<String, Integer> iterationsInZone = new HashMap<>();
+
+        MetricType(Map<String, Map<Integer, Double>> history, List<String> metrics,
+                   DynamicShutdownConfigGroup.convergencePolicyOption policy, DynamicShutdownConfigGroup cfg, double slopeThreshold) {
+            this.history = history;
+            this.metrics = metrics;
+            for (String metric : metrics) {
+                criteria.put(metric, ConvergenceCriterion.create(policy, cfg, slopeThreshold));
+            }
+        }
+
+        void add(int iteration) {
+            for (String metric : metrics) {
+                Double value = history.getOrDefault(metric, Collections.emptyMap()).get(iteration);
+                if (value != null) {
+                    criteria.get(metric).add(iteration, value);
+                }
+            }
+        }
+
+        /**
+         * @return true if all metrics of the type are converged after the last iteration, or if the type is not active
+         */
+        boolean updateConvergence(int iterationsInZoneToConverge) {
+            boolean converged = true;
+            for (String metric : metrics) {
+                ConvergenceCriterion criterion = criteria.get(metric);
+                int inZone = !criterion.isEmpty() && criterion.isInZone() ? iterationsInZone.getOrDefault(metric, 0) + 1 : 0;
+                iterationsInZone.put(metric, inZone);
+                converged &= inZone >= iterationsInZoneToConverge;
+            }
+            return converged;
+        }
+    }
+
+    /**
+     * Reads a tab separated file with the iteration in the first column and one metric per further column.
+     */
+    private static Map<String, Map<Integer, Double>> readHistory(Path file) {
+        Map<String, Map<Integer, Double>> history = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            log.warn("File " + file + " not found; the corresponding metrics are not evaluated.");
+            return history;
+        }
+        try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+            String[] header = reader.readLine().split("\t");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                int iteration = Integer.parseInt(parts[0].trim());
+                for (int column = 1; column < Math.min(header.length, parts.length); column++) {
+                    history.computeIfAbsent(header[column], k -> new TreeMap<>()).put(iteration, Double.parseDouble(parts[column]));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return history;
+    }
+
+    /**
+     * @return the average CPU time of an iteration in hours, NaN if phaseMetrics.csv or its CPU times are not available.
+     * The startup phase is reported with the first iteration but is not part of it, so it is left out.
+     */
+    private static double readCpuHoursPerIteration(Path file) {
+        if (!Files.exists(file)) {
+            log.warn("File " + file + " not found; CPU hours saved cannot be computed.");
+            return Double.NaN;
+        }
+        Map<Integer, Long> cpuMillisPerIteration = new HashMap<>();
+        try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+            String header = reader.readLine();
+            if (header == null) {
+                return Double.NaN;
+            }
+            String separator = header.contains(";") ? ";" : header.contains("\t") ? "\t" : ",";
+            List<String> columns = Arrays.asList(header.split(separator));
+            int phaseColumn = columns.indexOf("phase");
+            int cpuColumn = columns.indexOf("cpuTime_ms");
+            if (cpuColumn < 0) {
+                log.warn("File " + file + " has no column cpuTime_ms; CPU hours saved cannot be computed.");
+                return Double.NaN;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(separator);
+                if (phaseColumn >= 0 && parts[phaseColumn].equals("startup")) {
+                    continue;
+                }
+                long cpuMillis = Long.parseLong(parts[cpuColumn]);
+                if (cpuMillis < 0) {
+                    log.warn("File " + file + " has no CPU times (the JVM does not provide them); CPU hours saved cannot be computed.");
+                    return Double.NaN;
+                }
+                cpuMillisPerIteration.merge(Integer.parseInt(parts[0]), cpuMillis, Long::sum);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (cpuMillisPerIteration.isEmpty()) {
+            return Double.NaN;
+        }
+        long total = cpuMillisPerIteration.values().stream().mapToLong(Long::longValue).sum();
+        return total / 3_600_000. / cpuMillisPerIteration.size();
+    }
+}
@@ -0,0 +1,64 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import java.util.Map;
+
+/**
+ * Two-sided Mann-Kendall trend test over the window: the metric is in the convergence zone if the test finds no monotonic
+ * trend at the given significance level.
+ *
+ * The statistic S = Σ_{i<j} sign(x_j - x_i) is updated when a value enters or leaves the window, at O(windowSize) instead
+ * of O(windowSize²) per iteration. The normal approximation without tie correction is used for the variance of S.
+ * {@link #getStatistic()} returns the standardized statistic Z.
+ */
+final class MannKendallConvergenceCriterion extends WindowedConvergenceCriterion {
+
+    private final double criticalZ;
+    private long s = 0;
+
+    MannKendallConvergenceCriterion(int windowSize, double significance) {
+        super(windowSize);
+        this.criticalZ = new NormalDistribution().inverseCumulativeProbability(1. - significance / 2.);
+    }
+
+    @Override
+    void beforeAdd(double value) {
+        int firstRetained = 0;
+        if (window.isFull()) {
+            double oldest = window.getValue(0);
+            for (int position = 1; position < window.size(); position++) {
+                s -= (long) Math.signum(window.getValue(position) - oldest);
+            }
+            firstRetained = 1;
+        }
+        for (int position = firstRetained; position < window.size(); position++) {
+            s += (long) Math.signum(value - window.getValue(position));
+        }
+    }
+
+    @Override
+    void getTestState(Map<String, String> state) {
+        state.put("s", Long.toString(s));
+    }
+
+    @Override
+    void setTestState(Map<String, String> state) {
+        s = Long.parseLong(state.get("s"));
+    }
+
+    @Override
+    public double getStatistic() {
+        int n = window.size();
+        if (n < 3) {
+            return Double.NaN;
+        }
+        double variance = n * (n - 1.) * (2. * n + 5.) / 18.;
+        return (s - Long.signum(s)) / Math.sqrt(variance);
+    }
+
+    @Override
+    public boolean isInZone() {
+        return window.isFull() && Math.abs(getStatistic()) < criticalZ;
+    }
+}
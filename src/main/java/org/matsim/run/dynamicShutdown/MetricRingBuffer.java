@@ -0,0 +1,103 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The last values of a metric series (iteration, value), in a fixed-size ring buffer. Adding a value overwrites the
+ * oldest one once the buffer is full, so the memory does not depend on the number of iterations. The full series is
+ * written to disk as it is computed (see dynShutdown_allMetrics.txt).
+ */
+final class MetricRingBuffer {
+
+    private final int[] iterations;
+    private final double[] values;
+    private int next = 0;
+    private int size = 0;
+
+    MetricRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity has to be positive, but is " + capacity);
+        }
+        this.iterations = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Adds the value of an iteration. Iterations have to be added in increasing order; adding the last iteration again
+     * replaces its value (e.g. in the first iteration after a resume).
+     */
+    void add(int iteration, double value) {
+        if (size > 0 && iteration == getLastIteration()) {
+            values[(next - 1 + iterations.length) % iterations.length] = value;
+            return;
+        }
+        if (size > 0 && iteration < getLastIteration()) {
+            throw new IllegalArgumentException("Iteration " + iteration + " is before the last iteration " + getLastIteration());
+        }
+        iterations[next] = iteration;
+        values[next] = value;
+        next = (next + 1) % iterations.length;
+        size = Math.min(size + 1, iterations.length);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == iterations.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param position 0 for the oldest retained value, size() - 1 for the last one
+     */
+    double getValue(int position) {
+        return values[(next - size + position + iterations.length) % iterations.length];
+    }
+
+    int getLastIteration() {
+        return iterations[(next - 1 + iterations.length) % iterations.length];
+    }
+
+    double getLast() {
+        return values[(next - 1 + iterations.length) % iterations.length];
+    }
+
+    /**
+     * @return the value of the given iteration, or the default if the iteration is not (or no longer) in the buffer
+     */
+    double get(int iteration, double defaultValue) {
+        for (int i = 1; i <= size; i++) {
+            int index = (next - i + iterations.length) % iterations.length;
+            if (iterations[index] == iteration) {
+                return values[index];
+            }
+            if (iterations[index] < iteration) {
+                break;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return a copy of the retained values, ordered by iteration
+     */
+    Map<Integer, Double> toMap() {
+        Map<Integer, Double> map = new TreeMap<>();
+        for (int i = size; i >= 1; i--) {
+            int index = (next - i + iterations.length) % iterations.length;
+            map.put(iterations[index], values[index]);
+        }
+        return map;
+    }
+
+    void clear() {
+        next = 0;
+        size = 0;
+    }
+}
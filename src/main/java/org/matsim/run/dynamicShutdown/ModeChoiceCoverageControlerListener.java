@@ -1,10 +1,13 @@
 package org.matsim.run.dynamicShutdown;
 
+import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.groups.ControlerConfigGroup;
 import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
@@ -21,21 +24,33 @@ import org.matsim.core.router.TripStructureUtils.Trip;
 import org.matsim.core.utils.charts.XYLineChart;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.run.IdHashing;
+import org.matsim.run.checkpoint.Checkpointable;
 
 import javax.inject.Inject;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 /**
  * Calculates mode choice coverage at the end of each iteration, based on the main mode identifier of a trip chain.
  * Mode choice coverage percentage of trips have used a certain mode at least once (or 5x, 10x, …) in previous iterations.
  *
+ * With a modeChoiceCoverageSampleFraction below 1, only a stable, hash-selected subset of the persons is tracked, and the
+ * shares are reported with confidence intervals in modeChoiceCoverageConfidenceIntervals.txt.
+ *
  * @author jakobrehmann
  */
 public class ModeChoiceCoverageControlerListener implements StartupListener, IterationEndsListener,
-        ShutdownListener {
+        ShutdownListener, Checkpointable {
 
 	private final static Logger log = Logger.getLogger(org.matsim.analysis.ModeStatsControlerListener.class);
 
@@ -49,17 +64,39 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 	private final MainModeIdentifier mainModeIdentifier;
 
 	private int minIteration = 0;
-	private final Integer[] limits = new Integer[]{1, 5, 10};
+	private final int[] limits = new int[]{1, 5, 10};
 
-	private final Map<Integer, Map<String, Map<Integer, Double>>> modeCCHistory = new HashMap<>();
-	//            Map<Iter   , Map<Mode  , Map<Limit  , Pct   >>>
-	private final Map<Id<Person>, Map<Integer, Map<String, Integer>>> modesUsedPerPersonTrip = new LinkedHashMap<>();
-	//            Map<Person    , Map<Trip # , Map<Mode  , Count  >>>
+	// the mode choice coverage of the last iteration only; the full series are in the output files
+	private final Map<Integer, Map<String, Double>> modeCC = new HashMap<>();
+	//            Map<Limit  , Map<Mode  , Pct   >>
+	// for each person trip: how many times (iterations) was each mode used
+	private final ModeChoiceCoverageCounts modesUsedPerPersonTrip = new ModeChoiceCoverageCounts();
 	private static final String FILENAME_MODESTATS = "modeChoiceCoverage";
+	private static final String CHECKPOINT_COUNTS = "modeChoiceCoverageCounts.txt.gz";
+	private static final String FILENAME_CONFIDENCE_INTERVALS = "modeChoiceCoverageConfidenceIntervals.txt";
+	private static final long SAMPLE_SALT = 0x636f766572616765L; // "coverage"
+
+	private final double sampleFraction;
+	private final double criticalZ;
+	private final BufferedWriter confidenceIntervalsOut;
+	private final Map<Integer, Map<String, Double>> modeCCLowerBounds = new HashMap<>();
+	private final Map<Integer, Map<String, Double>> modeCCUpperBounds = new HashMap<>();
+
+	private final int numberOfThreads;
+	private ExecutorService executor = null;
+
+	private final ModeChoiceCoverageEventHandler executedTrips;
+	private final boolean useExecutedTrips;
+
+	private final int graphsInterval;
+	private final BackgroundChartRenderer chartRenderer = new BackgroundChartRenderer();
+	private int lastGraphsIteration = -1;
+	private int lastIteration = -1;
 
 	@Inject
 	ModeChoiceCoverageControlerListener(ControlerConfigGroup controlerConfigGroup, Population population1, OutputDirectoryHierarchy controlerIO,
-										PlanCalcScoreConfigGroup scoreConfig, AnalysisMainModeIdentifier mainModeIdentifier) {
+										PlanCalcScoreConfigGroup scoreConfig, AnalysisMainModeIdentifier mainModeIdentifier,
+										Config config, ModeChoiceCoverageEventHandler executedTrips) {
 
 		this.controlerConfigGroup = controlerConfigGroup;
 		this.population = population1;
@@ -83,6 +120,39 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 			this.modeOutMap.put(limit, modeOut);
 		}
 		this.mainModeIdentifier = mainModeIdentifier;
+		this.numberOfThreads = config.global().getNumberOfThreads();
+		this.executedTrips = executedTrips;
+		DynamicShutdownConfigGroup dynamicShutdownConfigGroup = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class);
+		this.useExecutedTrips = dynamicShutdownConfigGroup.getModeChoiceCoverageSource()
+				== DynamicShutdownConfigGroup.modeChoiceCoverageSourceOption.EVENTS;
+		this.graphsInterval = dynamicShutdownConfigGroup.getGraphsInterval();
+
+		this.sampleFraction = dynamicShutdownConfigGroup.getModeChoiceCoverageSampleFraction();
+		this.criticalZ = new NormalDistribution().inverseCumulativeProbability(
+				1. - (1. - dynamicShutdownConfigGroup.getModeChoiceCoverageConfidenceLevel()) / 2.);
+		if (isSampled()) {
+			this.confidenceIntervalsOut = IOUtils.getBufferedWriter(controlerIO.getOutputFilename(FILENAME_CONFIDENCE_INTERVALS));
+			try {
+				this.confidenceIntervalsOut.write("Iteration\tlimit\tmode\tshare\tlower\tupper\n");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			this.confidenceIntervalsOut = null;
+		}
+	}
+
+	/**
+	 * Whether the person belongs to the tracked sample. The selection depends only on the person id, so that it is the
+	 * same in every iteration, in resumed runs and for the events handler. The salt keeps it independent of the
+	 * population downsampling, which uses the same hash.
+	 */
+	static boolean isInSample(Id<Person> personId, double sampleFraction) {
+		return sampleFraction >= 1. || IdHashing.uniform(personId, SAMPLE_SALT) < sampleFraction;
+	}
+
+	private boolean isSampled() {
+		return sampleFraction < 1.;
 	}
 
 	@Override
@@ -104,100 +174,202 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 		 *	Looks through modesUsedPerPersonTrip at each person-trip. How many of those person trips have used the each mode more than the
 		 *  predefined limits.
 		 */
-		int totalPersonTripCount = 0;
-		Map<Integer, Map<String, Double>> modeCountCurrentIteration = new TreeMap<>();
-
-		for (Map<Integer, Map<String, Integer>> mapForPerson : modesUsedPerPersonTrip.values()) {
-			for (Map<String, Integer> mapForPersonTrip : mapForPerson.values()) {
-				totalPersonTripCount++;
-				for (String mode : mapForPersonTrip.keySet()) {
-					Integer realCount = mapForPersonTrip.get(mode);
-					for (Integer limit : limits) {
-						Map<String, Double> modeCountMap = modeCountCurrentIteration.computeIfAbsent(limit, k -> new TreeMap<>());
-						Double modeCount = modeCountMap.computeIfAbsent(mode, k -> 0.);
-						if (realCount >= limit) {
-							modeCount++;
-						}
-						modeCountMap.put(mode, modeCount);
-						modeCountCurrentIteration.put(limit, modeCountMap);
-					}
-				}
+		ModeChoiceCoverageCounts.CoverageSums sums = null;
+		for (ModeChoiceCoverageCounts.CoverageSums partial : runInChunks(modesUsedPerPersonTrip.getNumberOfPersons(),
+				(from, to) -> modesUsedPerPersonTrip.sumCoverage(limits, from, to))) {
+			if (sums == null) {
+				sums = partial;
+			} else {
+				sums.add(partial);
 			}
 		}
-
-
-
-		double sum = totalPersonTripCount;
-
-		for (Integer limit : limits) {
-			Map<String, Double> modeCnt = modeCountCurrentIteration.get(limit);
-			Map<String, Map<Integer, Double>> modeIterationShareMap = modeCCHistory.computeIfAbsent(limit, k -> new HashMap<>());
+		long[][] personTripsAtLeast = sums.personTripsAtLeast;
+		double sum = sums.trips;
+		modeCCLowerBounds.clear();
+		modeCCUpperBounds.clear();
+
+		for (int l = 0; l < limits.length; l++) {
+			int limit = limits[l];
+			Map<String, Double> modeShareMap = modeCC.computeIfAbsent(limit, k -> new HashMap<>());
 			BufferedWriter modeOut = modeOutMap.get(limit);
 			try {
 				modeOut.write(event.getIteration()+"");
-				log.info("Mode shares over all " + sum + " trips found. MainModeIdentifier: " + mainModeIdentifier.getClass());
+				log.info("Mode shares over all " + sum + " trips found. MainModeIdentifier: " + mainModeIdentifier.getClass() + (useExecutedTrips ? ", executed trips" : ", selected plans"));
 				for (String mode : modes) {
-					Double cnt = modeCnt.get(mode);
+					int modeCode = modesUsedPerPersonTrip.getModeCode(mode);
 					double share = 0.;
-					if (cnt != null) {
-						share = cnt / sum;
+					if (modeCode >= 0) {
+						share = personTripsAtLeast[l][modeCode] / sum;
 					}
-					log.info("-- mode choice coverage (" + limit + "x) of mode " + mode + " = " + share);
 					modeOut.write("\t" + share);
 
-					Map<Integer, Double> iterationShareMap = modeIterationShareMap.computeIfAbsent(mode, k -> new TreeMap<>());
-					iterationShareMap.put(event.getIteration(), share);
+					modeShareMap.put(mode, share);
 
+					if (isSampled()) {
+						double halfWidth = modeCode >= 0 ? sums.halfWidth(l, modeCode, sampleFraction, criticalZ) : 0.;
+						log.info("-- mode choice coverage (" + limit + "x) of mode " + mode + " = " + share + " ± " + halfWidth);
+						addConfidenceInterval(limit, mode, event.getIteration(), share, halfWidth);
+					} else {
+						log.info("-- mode choice coverage (" + limit + "x) of mode " + mode + " = " + share);
+					}
 				}
 				modeOut.write("\n");
 				modeOut.flush();
+				if (confidenceIntervalsOut != null) {
+					confidenceIntervalsOut.flush();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 
 		// Produces Graphs
-		if (this.createPNG && event.getIteration() > this.minIteration) {
+		this.lastIteration = event.getIteration();
+		if (this.createPNG && event.getIteration() > this.minIteration
+				&& BackgroundChartRenderer.isGraphsIteration(event.getIteration(), graphsInterval)) {
 			produceGraphs();
 		}
 	}
 
+	/**
+	 * Writes the confidence interval of a share and, if it is known, keeps its bounds (clipped to [0, 1]).
+	 */
+	private void addConfidenceInterval(int limit, String mode, int iteration, double share, double halfWidth) throws IOException {
+		double lower = Math.max(0., share - halfWidth);
+		double upper = Math.min(1., share + halfWidth);
+		confidenceIntervalsOut.write(iteration + "\t" + limit + "\t" + mode + "\t" + share + "\t" + lower + "\t" + upper + "\n");
+		if (!Double.isNaN(halfWidth)) {
+			modeCCLowerBounds.computeIfAbsent(limit, k -> new HashMap<>()).put(mode, lower);
+			modeCCUpperBounds.computeIfAbsent(limit, k -> new HashMap<>()).put(mode, upper);
+		}
+	}
+
+	/**
+	 * The main modes of the selected plans are identified in parallel. Adding them to the counts is cheap and done on the
+	 * controler thread, in the order of the population, so that the result does not depend on the number of threads.
+	 *
+	 * With the EVENTS source, the main modes of the executed trips were already collected during the mobsim, and only
+	 * have to be added. Persons outside of the sample are skipped.
+	 */
 	private void updateModesUsedPerPerson() {
+		List<Person> persons = new ArrayList<>();
 		for (Person person : this.population.getPersons().values()) {
+			if (isInSample(person.getId(), sampleFraction)) {
+				persons.add(person);
+			}
+		}
+		String[][] tripModesPerPerson = new String[persons.size()][];
 
-			Map<Integer, Map<String, Integer>> mapForPerson = modesUsedPerPersonTrip.computeIfAbsent(person.getId(), v -> new LinkedHashMap<>());
-
-			Plan plan = person.getSelectedPlan();
-			Integer tripNumber = 0;
-			for (Trip trip : TripStructureUtils.getTrips(plan)) {
-
-				tripNumber++;
-				String mode = this.mainModeIdentifier.identifyMainMode(trip.getTripElements());
-
-				Map<String, Integer> mapForPersonTrip = mapForPerson.computeIfAbsent(tripNumber, v -> new HashMap<>());
+		if (useExecutedTrips) {
+			for (int i = 0; i < persons.size(); i++) {
+				tripModesPerPerson[i] = executedTrips.getTripModes(persons.get(i).getId());
+			}
+		} else {
+			runInChunks(persons.size(), (from, to) -> {
+				for (int i = from; i < to; i++) {
+					List<Trip> trips = TripStructureUtils.getTrips(persons.get(i).getSelectedPlan());
+					String[] tripModes = new String[trips.size()];
+					for (int tripNumber = 0; tripNumber < trips.size(); tripNumber++) {
+						tripModes[tripNumber] = this.mainModeIdentifier.identifyMainMode(trips.get(tripNumber).getTripElements());
+					}
+					tripModesPerPerson[i] = tripModes;
+				}
+				return null;
+			});
+		}
 
-				Integer modeCount = mapForPersonTrip.getOrDefault(mode, 0);
-				mapForPersonTrip.put(mode, modeCount + 1);
+		for (int i = 0; i < persons.size(); i++) {
+			int slot = modesUsedPerPersonTrip.getOrCreateSlot(persons.get(i).getId());
+			String[] tripModes = tripModesPerPerson[i];
+			modesUsedPerPersonTrip.ensureTrips(slot, tripModes.length);
+			for (int tripNumber = 0; tripNumber < tripModes.length; tripNumber++) {
+				modesUsedPerPersonTrip.add(slot, tripNumber, modesUsedPerPersonTrip.getOrCreateModeCode(tripModes[tripNumber]), 1);
+			}
+		}
+	}
 
+	/**
+	 * Splits [0, size) into chunks and runs the task on them, on global.numberOfThreads daemon threads, which do not keep
+	 * the jvm alive if the run ends without a shutdown event. The results are in the order of the chunks.
+	 */
+	private <T> List<T> runInChunks(int size, BiFunction<Integer, Integer, T> task) {
+		if (numberOfThreads <= 1 || size < 2) {
+			return Collections.singletonList(task.apply(0, size));
+		}
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+				Thread thread = new Thread(runnable, "mode-choice-coverage");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		int numberOfChunks = Math.min(size, numberOfThreads * 4);
+		List<Future<T>> futures = new ArrayList<>();
+		for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+			final int from = (int) ((long) size * chunk / numberOfChunks);
+			final int to = (int) ((long) size * (chunk + 1) / numberOfChunks);
+			futures.add(executor.submit(() -> task.apply(from, to)));
+		}
+		List<T> results = new ArrayList<>();
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Could not compute mode choice coverage", e.getCause());
 			}
 		}
+		return results;
 	}
 
+	/**
+	 * The charts are read back from the output files of this run, which are flushed every iteration; rendering and saving
+	 * them is done in the background.
+	 */
 	private void produceGraphs() {
+		this.lastGraphsIteration = this.lastIteration;
 		for (Integer limit : limits) {
 			XYLineChart chart = new XYLineChart("Mode Choice Coverage (Mode Used >= " + limit + "x per trip)", "iteration", "mode choice coverage");
-			for (Entry<String, Map<Integer, Double>> entry : modeCCHistory.get(limit).entrySet()) {
+			for (Entry<String, Map<Integer, Double>> entry : readHistory(limit).entrySet()) {
 				String mode = entry.getKey();
 				Map<Integer, Double> history = entry.getValue();
 				chart.addSeries(mode, history);
 			}
 			chart.addMatsimLogo();
-			chart.saveAsPng(this.modeFileName + limit+ "x" + ".png", 800, 600);
+			chartRenderer.submit(this.modeFileName + limit+ "x" + ".png", chart);
+		}
+	}
+
+	private Map<String, Map<Integer, Double>> readHistory(int limit) {
+		Map<String, Map<Integer, Double>> history = new TreeMap<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(this.modeFileName + limit + "x.txt")) {
+			String[] header = reader.readLine().split("\t");
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				int iteration = Integer.parseInt(parts[0]);
+				for (int column = 1; column < parts.length && column < header.length; column++) {
+					history.computeIfAbsent(header[column], k -> new TreeMap<>()).put(iteration, Double.parseDouble(parts[column]));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
+		return history;
 	}
 
 	@Override
 	public void notifyShutdown(final ShutdownEvent controlerShudownEvent) {
+		if (executor != null) {
+			executor.shutdown();
+		}
+
+		if (this.createPNG && this.lastIteration > this.minIteration && this.lastGraphsIteration != this.lastIteration) {
+			produceGraphs();
+		}
+		chartRenderer.close();
 
 		for (BufferedWriter modeOut : modeOutMap.values()) {
 			try {
@@ -206,9 +378,108 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 				e.printStackTrace();
 			}
 		}
+		if (confidenceIntervalsOut != null) {
+			try {
+				confidenceIntervalsOut.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Saves the mode counts per person trip, so that a resumed run continues counting where the original run stopped. The
+	 * output files of a resumed run start with its first iteration; the coverage of the earlier iterations is in the
+	 * output of the original run, and the dynamic shutdown keeps the values its criteria need in its own checkpoint.
+	 */
+	@Override
+	public Runnable prepareCheckpoint(Path directory) {
+		ModeChoiceCoverageCounts countsCopy = modesUsedPerPersonTrip.copy();
+
+		return () -> {
+			try (BufferedWriter writer = IOUtils.getBufferedWriter(directory.resolve(CHECKPOINT_COUNTS).toString())) {
+				List<String> modeNames = countsCopy.getModes();
+				for (int slot = 0; slot < countsCopy.getNumberOfPersons(); slot++) {
+					Id<Person> personId = countsCopy.getPersonId(slot);
+					for (int trip = 0; trip < countsCopy.getTripsSeen(slot); trip++) {
+						for (int modeCode = 0; modeCode < modeNames.size(); modeCode++) {
+							int count = countsCopy.getCount(slot, trip, modeCode);
+							if (count > 0) {
+								writer.write(personId + "\t" + (trip + 1) + "\t" + modeNames.get(modeCode) + "\t" + count + "\n");
+							}
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Restores the mode counts per person trip. The counts of a sampled run only contain the persons of the sample, which
+	 * does not change when resuming.
+	 */
+	@Override
+	public void readCheckpoint(Path directory) {
+		modesUsedPerPersonTrip.clear();
+		modeCC.clear();
+		modeCCLowerBounds.clear();
+		modeCCUpperBounds.clear();
+		try (BufferedReader reader = IOUtils.getBufferedReader(directory.resolve(CHECKPOINT_COUNTS).toString())) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				int slot = modesUsedPerPersonTrip.getOrCreateSlot(Id.createPersonId(parts[0]));
+				int tripNumber = Integer.parseInt(parts[1]);
+				modesUsedPerPersonTrip.ensureTrips(slot, tripNumber);
+				modesUsedPerPersonTrip.add(slot, tripNumber - 1, modesUsedPerPersonTrip.getOrCreateModeCode(parts[2]), Integer.parseInt(parts[3]));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the iteration of the values returned by the getters below, -1 before the end of the first iteration of this run
+	 */
+	public final int getLastIteration() {
+		return lastIteration;
+	}
+
+	/**
+	 * @return the mode choice coverage per mode of the last iteration
+	 */
+	public final Map<String, Double> getModeChoiceCoverage(int limit) {
+		return Collections.unmodifiableMap(modeCC.getOrDefault(limit, Collections.emptyMap()));
 	}
 
+	/**
+	 * @return the mode choice coverage per limit, mode and iteration of this run, read back from the output files
+	 * @deprecated the listener only keeps the last iteration in memory, so every call reads the whole series from disk.
+	 * Collect {@link #getModeChoiceCoverage(int)} after every iteration instead, or read the modeChoiceCoverage output
+	 * files. Iterations before a resume are in the output of the original run and not included.
+	 */
+	@Deprecated
 	public final Map<Integer, Map<String, Map<Integer, Double>>> getModeChoiceCoverageHistory() {
-		return Collections.unmodifiableMap(modeCCHistory);
+		Map<Integer, Map<String, Map<Integer, Double>>> history = new HashMap<>();
+		for (int limit : limits) {
+			history.put(limit, Collections.unmodifiableMap(readHistory(limit)));
+		}
+		return Collections.unmodifiableMap(history);
+	}
+
+	/**
+	 * @return the lower bounds of the confidence intervals of the last iteration; empty unless sampled
+	 */
+	public final Map<String, Double> getModeChoiceCoverageLowerBounds(int limit) {
+		return Collections.unmodifiableMap(modeCCLowerBounds.getOrDefault(limit, Collections.emptyMap()));
+	}
+
+	/**
+	 * @return the upper bounds of the confidence intervals of the last iteration; empty unless sampled
+	 */
+	public final Map<String, Double> getModeChoiceCoverageUpperBounds(int limit) {
+		return Collections.unmodifiableMap(modeCCUpperBounds.getOrDefault(limit, Collections.emptyMap()));
 	}
 }
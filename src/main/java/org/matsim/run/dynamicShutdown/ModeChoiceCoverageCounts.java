@@ -0,0 +1,316 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How often each mode has been used for each person trip, in one int array.
+ *
+ * Persons get a dense slot in the order in which they are first seen. Each slot owns a block of trip rows in the counts
+ * array (the trip offset table), and each row has one counter per mode code. A row is wider than the number of modes, so
+ * that a new mode usually does not require a new layout; if it does, the rows are widened once. A person whose plan has
+ * more trips than its block gets a new, larger block; the old block is kept in a free list by its size and handed to
+ * the next person which needs a block of at most that size, so that the array does not grow with every plan change.
+ */
+final class ModeChoiceCoverageCounts {
+
+    private static final int NO_SLOT = -1;
+
+    private final Map<String, Integer> modeCodes = new HashMap<>();
+    private final List<String> modes = new ArrayList<>();
+    private int rowWidth = 8;
+
+    private int[] slotByPersonIndex = new int[0];
+    private final List<Id<Person>> personIds = new ArrayList<>();
+    private int[] firstRow = new int[1024];
+    private int[] tripCapacity = new int[1024];
+    private int[] tripsSeen = new int[1024];
+
+    private int[] counts = new int[0];
+    private int rowsUsed = 0;
+    private final TreeMap<Integer, Deque<Integer>> freeBlocksBySize = new TreeMap<>();
+
+    int getOrCreateModeCode(String mode) {
+        Integer code = modeCodes.get(mode);
+        if (code != null) {
+            return code;
+        }
+        code = modes.size();
+        modes.add(mode);
+        modeCodes.put(mode, code);
+        if (modes.size() > rowWidth) {
+            widenRows(rowWidth * 2);
+        }
+        return code;
+    }
+
+    /**
+     * @return the mode code, or -1 if the mode has never been counted
+     */
+    int getModeCode(String mode) {
+        Integer code = modeCodes.get(mode);
+        return code == null ? -1 : code;
+    }
+
+    List<String> getModes() {
+        return Collections.unmodifiableList(modes);
+    }
+
+    int getOrCreateSlot(Id<Person> personId) {
+        int index = personId.index();
+        if (index >= slotByPersonIndex.length) {
+            int oldLength = slotByPersonIndex.length;
+            slotByPersonIndex = Arrays.copyOf(slotByPersonIndex, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(slotByPersonIndex, oldLength, slotByPersonIndex.length, NO_SLOT);
+        }
+        int slot = slotByPersonIndex[index];
+        if (slot == NO_SLOT) {
+            slot = personIds.size();
+            personIds.add(personId);
+            if (slot == firstRow.length) {
+                firstRow = Arrays.copyOf(firstRow, slot * 2);
+                tripCapacity = Arrays.copyOf(tripCapacity, slot * 2);
+                tripsSeen = Arrays.copyOf(tripsSeen, slot * 2);
+            }
+            slotByPersonIndex[index] = slot;
+        }
+        return slot;
+    }
+
+    int getNumberOfPersons() {
+        return personIds.size();
+    }
+
+    Id<Person> getPersonId(int slot) {
+        return personIds.get(slot);
+    }
+
+    /**
+     * Makes sure that the person has counters for the given number of trips. Must be called before counting trips of a
+     * plan.
+     */
+    void ensureTrips(int slot, int trips) {
+        if (trips > tripCapacity[slot]) {
+            int newCapacity = Math.max(trips, tripCapacity[slot] == 0 ? 0 : tripCapacity[slot] * 2);
+            int newFirstRow;
+            Map.Entry<Integer, Deque<Integer>> freeBlocks = freeBlocksBySize.ceilingEntry(newCapacity);
+            if (freeBlocks != null) {
+                newCapacity = freeBlocks.getKey();
+                newFirstRow = freeBlocks.getValue().pop();
+                if (freeBlocks.getValue().isEmpty()) {
+                    freeBlocksBySize.remove(newCapacity);
+                }
+                Arrays.fill(counts, newFirstRow * rowWidth, (newFirstRow + newCapacity) * rowWidth, 0);
+            } else {
+                newFirstRow = allocateRows(newCapacity);
+            }
+            System.arraycopy(counts, firstRow[slot] * rowWidth, counts, newFirstRow * rowWidth, tripCapacity[slot] * rowWidth);
+            if (tripCapacity[slot] > 0) {
+                freeBlocksBySize.computeIfAbsent(tripCapacity[slot], k -> new ArrayDeque<>()).push(firstRow[slot]);
+            }
+            firstRow[slot] = newFirstRow;
+            tripCapacity[slot] = newCapacity;
+        }
+        if (trips > tripsSeen[slot]) {
+            tripsSeen[slot] = trips;
+        }
+    }
+
+    /**
+     * @param trip 0-based trip number
+     */
+    void add(int slot, int trip, int modeCode, int count) {
+        counts[(firstRow[slot] + trip) * rowWidth + modeCode] += count;
+    }
+
+    int getCount(int slot, int trip, int modeCode) {
+        return counts[(firstRow[slot] + trip) * rowWidth + modeCode];
+    }
+
+    int getTripsSeen(int slot) {
+        return tripsSeen[slot];
+    }
+
+    /**
+     * @return the number of person trips which have used a mode at least limits[i] times, as [i][modeCode]
+     */
+    long[][] countPersonTripsAtLeast(int[] limits) {
+        return countPersonTripsAtLeast(limits, 0, getNumberOfPersons());
+    }
+
+    /**
+     * Same as {@link #countPersonTripsAtLeast(int[])}, for the slots in [fromSlot, toSlot).
+     */
+    long[][] countPersonTripsAtLeast(int[] limits, int fromSlot, int toSlot) {
+        return sumCoverage(limits, fromSlot, toSlot).personTripsAtLeast;
+    }
+
+    /**
+     * Counts the person trips which have used a mode at least limits[i] times, for the slots in [fromSlot, toSlot), together
+     * with the per-person sums needed for the variance of the coverage shares.
+     */
+    CoverageSums sumCoverage(int[] limits, int fromSlot, int toSlot) {
+        final int numberOfModes = modes.size();
+        CoverageSums sums = new CoverageSums(limits.length, numberOfModes);
+        long[][] ofPerson = new long[limits.length][numberOfModes];
+        for (int slot = fromSlot; slot < toSlot; slot++) {
+            for (long[] ofLimit : ofPerson) {
+                Arrays.fill(ofLimit, 0);
+            }
+            int row = firstRow[slot];
+            for (int trip = 0; trip < tripsSeen[slot]; trip++, row++) {
+                int base = row * rowWidth;
+                for (int mode = 0; mode < numberOfModes; mode++) {
+                    int count = counts[base + mode];
+                    if (count == 0) {
+                        continue;
+                    }
+                    for (int l = 0; l < limits.length; l++) {
+                        if (count >= limits[l]) {
+                            ofPerson[l][mode]++;
+                        }
+                    }
+                }
+            }
+            long trips = tripsSeen[slot];
+            for (int l = 0; l < limits.length; l++) {
+                for (int mode = 0; mode < numberOfModes; mode++) {
+                    long x = ofPerson[l][mode];
+                    sums.personTripsAtLeast[l][mode] += x;
+                    sums.squares[l][mode] += x * x;
+                    sums.productsWithTrips[l][mode] += x * trips;
+                }
+            }
+            sums.persons++;
+            sums.trips += trips;
+            sums.tripSquares += trips * trips;
+        }
+        return sums;
+    }
+
+    long getTotalPersonTrips() {
+        long total = 0;
+        for (int slot = 0; slot < getNumberOfPersons(); slot++) {
+            total += tripsSeen[slot];
+        }
+        return total;
+    }
+
+    /**
+     * @return an independent copy, e.g. for writing it in the background
+     */
+    ModeChoiceCoverageCounts copy() {
+        ModeChoiceCoverageCounts copy = new ModeChoiceCoverageCounts();
+        copy.modeCodes.putAll(modeCodes);
+        copy.modes.addAll(modes);
+        copy.rowWidth = rowWidth;
+        copy.slotByPersonIndex = slotByPersonIndex.clone();
+        copy.personIds.addAll(personIds);
+        copy.firstRow = firstRow.clone();
+        copy.tripCapacity = tripCapacity.clone();
+        copy.tripsSeen = tripsSeen.clone();
+        copy.counts = Arrays.copyOf(counts, rowsUsed * rowWidth);
+        copy.rowsUsed = rowsUsed;
+        freeBlocksBySize.forEach((size, blocks) -> copy.freeBlocksBySize.put(size, new ArrayDeque<>(blocks)));
+        return copy;
+    }
+
+    void clear() {
+        modeCodes.clear();
+        modes.clear();
+        Arrays.fill(slotByPersonIndex, NO_SLOT);
+        personIds.clear();
+        Arrays.fill(tripCapacity, 0);
+        Arrays.fill(tripsSeen, 0);
+        counts = new int[0];
+        rowsUsed = 0;
+        freeBlocksBySize.clear();
+    }
+
+    /**
+     * @return the number of trip rows taken from the counts array, including free blocks
+     */
+    int getRowsUsed() {
+        return rowsUsed;
+    }
+
+    private int allocateRows(int rows) {
+        int first = rowsUsed;
+        rowsUsed += rows;
+        if (rowsUsed * rowWidth > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(rowsUsed * rowWidth, counts.length + counts.length / 2));
+        }
+        return first;
+    }
+
+    private void widenRows(int newRowWidth) {
+        int[] widened = new int[Math.max(rowsUsed * newRowWidth, counts.length / rowWidth * newRowWidth)];
+        for (int row = 0; row < rowsUsed; row++) {
+            System.arraycopy(counts, row * rowWidth, widened, row * newRowWidth, rowWidth);
+        }
+        counts = widened;
+        rowWidth = newRowWidth;
+    }
+
+    /**
+     * Coverage counts of a set of persons. For person i with n_i trips, of which x_i have used a mode at least limit
+     * times, personTripsAtLeast holds the sum of x_i, squares the sum of x_i² and productsWithTrips the sum of x_i·n_i,
+     * each as [limit index][modeCode].
+     */
+    static final class CoverageSums {
+        final long[][] personTripsAtLeast;
+        final long[][] squares;
+        final long[][] productsWithTrips;
+        long persons = 0;
+        long trips = 0;
+        long tripSquares = 0;
+
+        CoverageSums(int numberOfLimits, int numberOfModes) {
+            personTripsAtLeast = new long[numberOfLimits][numberOfModes];
+            squares = new long[numberOfLimits][numberOfModes];
+            productsWithTrips = new long[numberOfLimits][numberOfModes];
+        }
+
+        void add(CoverageSums other) {
+            for (int l = 0; l < personTripsAtLeast.length; l++) {
+                for (int mode = 0; mode < personTripsAtLeast[l].length; mode++) {
+                    personTripsAtLeast[l][mode] += other.personTripsAtLeast[l][mode];
+                    squares[l][mode] += other.squares[l][mode];
+                    productsWithTrips[l][mode] += other.productsWithTrips[l][mode];
+                }
+            }
+            persons += other.persons;
+            trips += other.trips;
+            tripSquares += other.tripSquares;
+        }
+
+        /**
+         * Half width of the confidence interval of the share of person trips which have used the mode at least
+         * limits[l] times. The persons are a simple random sample of the population, so the share is a ratio estimator
+         * over clusters (persons) of trips; its variance is (1 - f) / (m (m - 1) n̄²) Σ (x_i - p n_i)², with f the
+         * sampling fraction, m the number of persons and n̄ their average number of trips.
+         *
+         * @return NaN if fewer than two persons with trips were counted
+         */
+        double halfWidth(int l, int modeCode, double samplingFraction, double z) {
+            if (persons < 2 || trips == 0) {
+                return Double.NaN;
+            }
+            double p = (double) personTripsAtLeast[l][modeCode] / trips;
+            double residualSquares = squares[l][modeCode] - 2. * p * productsWithTrips[l][modeCode] + p * p * tripSquares;
+            double meanTrips = (double) trips / persons;
+            double variance = (1. - samplingFraction) * Math.max(0., residualSquares) / (persons * (persons - 1.) * meanTrips * meanTrips);
+            return z * Math.sqrt(variance);
+        }
+    }
+}
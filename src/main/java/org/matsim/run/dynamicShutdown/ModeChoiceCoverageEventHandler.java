@@ -0,0 +1,122 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.AnalysisMainModeIdentifier;
+import org.matsim.core.router.MainModeIdentifier;
+import org.matsim.core.router.StageActivityTypeIdentifier;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the main modes of the trips which were actually executed in the mobsim, as an alternative to scanning the
+ * selected plans after the iteration (see {@link DynamicShutdownConfigGroup.modeChoiceCoverageSourceOption#EVENTS}).
+ *
+ * A trip starts with the end of a non-stage activity and ends with the start of the next non-stage activity; the modes
+ * of all departures in between are passed to the {@link MainModeIdentifier} as legs. Trips which are still under way at
+ * the end of the mobsim (e.g. stuck agents) are reported with the legs departed so far. Only the persons of the mode
+ * choice coverage sample are tracked; agents which are not in the population, such as transit and drt drivers, are
+ * ignored.
+ */
+final class ModeChoiceCoverageEventHandler implements ActivityEndEventHandler, PersonDepartureEventHandler,
+        ActivityStartEventHandler {
+
+    private static final String[] NO_TRIPS = new String[0];
+
+    private final MainModeIdentifier mainModeIdentifier;
+    private final Population population;
+    private final double sampleFraction;
+    private final IdMap<Person, PersonTrips> tripsPerPerson = new IdMap<>(Person.class);
+
+    @Inject
+    ModeChoiceCoverageEventHandler(AnalysisMainModeIdentifier mainModeIdentifier, Population population, Config config) {
+        this.mainModeIdentifier = mainModeIdentifier;
+        this.population = population;
+        this.sampleFraction = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class).getModeChoiceCoverageSampleFraction();
+    }
+
+    @Override
+    public void handleEvent(ActivityEndEvent event) {
+        if (StageActivityTypeIdentifier.isStageActivity(event.getActType()) || !isTracked(event.getPersonId())) {
+            return;
+        }
+        PersonTrips trips = tripsPerPerson.computeIfAbsent(event.getPersonId(), k -> new PersonTrips());
+        trips.finishTrip(mainModeIdentifier);
+        trips.currentLegs = new ArrayList<>();
+    }
+
+    @Override
+    public void handleEvent(PersonDepartureEvent event) {
+        if (!isTracked(event.getPersonId())) {
+            return;
+        }
+        PersonTrips trips = tripsPerPerson.computeIfAbsent(event.getPersonId(), k -> new PersonTrips());
+        if (trips.currentLegs == null) {
+            // a plan which does not start with an activity
+            trips.currentLegs = new ArrayList<>();
+        }
+        trips.currentLegs.add(PopulationUtils.createLeg(event.getLegMode()));
+    }
+
+    @Override
+    public void handleEvent(ActivityStartEvent event) {
+        if (StageActivityTypeIdentifier.isStageActivity(event.getActType())) {
+            return;
+        }
+        PersonTrips trips = tripsPerPerson.get(event.getPersonId());
+        if (trips != null) {
+            trips.finishTrip(mainModeIdentifier);
+        }
+    }
+
+    /**
+     * @return whether the agent is a person of the population and in the sample
+     */
+    private boolean isTracked(Id<Person> personId) {
+        return population.getPersons().containsKey(personId)
+                && ModeChoiceCoverageControlerListener.isInSample(personId, sampleFraction);
+    }
+
+    @Override
+    public void reset(int iteration) {
+        tripsPerPerson.clear();
+    }
+
+    /**
+     * @return the main modes of the trips the person executed in the current iteration, in the order of execution
+     */
+    String[] getTripModes(Id<Person> personId) {
+        PersonTrips trips = tripsPerPerson.get(personId);
+        if (trips == null) {
+            return NO_TRIPS;
+        }
+        trips.finishTrip(mainModeIdentifier);
+        return trips.mainModes.toArray(NO_TRIPS);
+    }
+
+    private static final class PersonTrips {
+        private final List<String> mainModes = new ArrayList<>();
+        private List<Leg> currentLegs = null;
+
+        private void finishTrip(MainModeIdentifier mainModeIdentifier) {
+            if (currentLegs != null && !currentLegs.isEmpty()) {
+                mainModes.add(mainModeIdentifier.identifyMainMode(currentLegs));
+            }
+            currentLegs = null;
+        }
+    }
+}
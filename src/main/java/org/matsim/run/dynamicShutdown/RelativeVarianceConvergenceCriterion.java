@@ -0,0 +1,32 @@
+package org.matsim.run.dynamicShutdown;
+
+/**
+ * Plateau test: the metric is in the convergence zone if the coefficient of variation (standard deviation divided by the
+ * absolute mean) of the window is below the threshold. {@link #getStatistic()} returns the coefficient of variation.
+ */
+final class RelativeVarianceConvergenceCriterion extends WindowedConvergenceCriterion {
+
+    private final double threshold;
+
+    RelativeVarianceConvergenceCriterion(int windowSize, double threshold) {
+        super(windowSize);
+        this.threshold = threshold;
+    }
+
+    @Override
+    void beforeAdd(double value) {
+    }
+
+    @Override
+    public double getStatistic() {
+        if (window.isEmpty()) {
+            return Double.NaN;
+        }
+        return standardDeviation() / Math.abs(mean());
+    }
+
+    @Override
+    public boolean isInZone() {
+        return window.isFull() && getStatistic() < threshold;
+    }
+}
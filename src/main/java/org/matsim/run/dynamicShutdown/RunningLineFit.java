@@ -0,0 +1,133 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Least squares slope over a sliding window of a metric history, updated incrementally.
+ *
+ * The history (iteration, value) is kept in primitive arrays. The sums Σx, Σy, Σxy and Σx² are kept for the points in
+ * the window: adding a point and evicting the oldest point are O(1), so computing the slope in every iteration no longer
+ * depends on the length of the run. Iterations are stored relative to the first one to keep the sums small. Evicted points
+ * are dropped from the arrays, so the memory is bounded by the window size.
+ */
+final class RunningLineFit {
+
+    private int[] iterations = new int[64];
+    private double[] values = new double[64];
+    private int size = 0;
+    private int windowStart = 0;
+    private int origin = 0;
+
+    private double sumX = 0.;
+    private double sumY = 0.;
+    private double sumXY = 0.;
+    private double sumXX = 0.;
+
+    /**
+     * Appends a point to the history and the window. Iterations have to be added in increasing order.
+     */
+    void add(int iteration, double value) {
+        if (size > 0 && iteration <= iterations[size - 1]) {
+            throw new IllegalArgumentException("Iteration " + iteration + " is not after the last iteration " + iterations[size - 1]);
+        }
+        if (size == 0) {
+            origin = iteration;
+        }
+        if (size == iterations.length) {
+            iterations = Arrays.copyOf(iterations, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        iterations[size] = iteration;
+        values[size] = value;
+        size++;
+
+        double x = iteration - origin;
+        sumX += x;
+        sumY += value;
+        sumXY += x * value;
+        sumXX += x * x;
+    }
+
+    /**
+     * Removes all points before the given iteration from the window. The window only moves forward; points which have
+     * been evicted do not come back.
+     */
+    void evictBefore(int iteration) {
+        while (windowStart < size && iterations[windowStart] < iteration) {
+            double x = iterations[windowStart] - origin;
+            double y = values[windowStart];
+            sumX -= x;
+            sumY -= y;
+            sumXY -= x * y;
+            sumXX -= x * x;
+            windowStart++;
+        }
+        if (windowStart > 0 && windowStart >= size / 2) {
+            System.arraycopy(iterations, windowStart, iterations, 0, size - windowStart);
+            System.arraycopy(values, windowStart, values, 0, size - windowStart);
+            size -= windowStart;
+            windowStart = 0;
+        }
+    }
+
+    /**
+     * @return the slope of the least squares line through the points in the window, NaN for less than two points
+     */
+    double slope() {
+        int n = size - windowStart;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int getLastIteration() {
+        return iterations[size - 1];
+    }
+
+    /**
+     * @return the points in the window and the sums over them; the sums are saved as they are rather than recomputed, so
+     * that a fit restored with {@link #setState(Map)} gives the same slopes as one which was never interrupted
+     */
+    Map<String, String> getState() {
+        Map<Integer, Double> points = new TreeMap<>();
+        for (int i = windowStart; i < size; i++) {
+            points.put(iterations[i], values[i]);
+        }
+        Map<String, String> state = new LinkedHashMap<>();
+        state.put("origin", Integer.toString(origin));
+        state.put("sumX", Double.toString(sumX));
+        state.put("sumY", Double.toString(sumY));
+        state.put("sumXY", Double.toString(sumXY));
+        state.put("sumXX", Double.toString(sumXX));
+        state.put("points", ConvergenceCriterion.formatPoints(points));
+        return state;
+    }
+
+    void setState(Map<String, String> state) {
+        Map<Integer, Double> points = ConvergenceCriterion.parsePoints(state.get("points"));
+        iterations = new int[Math.max(64, points.size())];
+        values = new double[iterations.length];
+        size = 0;
+        windowStart = 0;
+        for (Map.Entry<Integer, Double> point : points.entrySet()) {
+            iterations[size] = point.getKey();
+            values[size] = point.getValue();
+            size++;
+        }
+        origin = Integer.parseInt(state.get("origin"));
+        sumX = Double.parseDouble(state.get("sumX"));
+        sumY = Double.parseDouble(state.get("sumY"));
+        sumXY = Double.parseDouble(state.get("sumXY"));
+        sumXX = Double.parseDouble(state.get("sumXX"));
+    }
+
+}
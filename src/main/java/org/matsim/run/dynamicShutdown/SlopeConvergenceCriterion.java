@@ -0,0 +1,67 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.Map;
+
+import static org.matsim.run.dynamicShutdown.DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING;
+
+/**
+ * The metric is in the convergence zone if the slope of its best fit line lies within (-threshold, threshold). The line is
+ * fitted over a fixed window of minWindowSize iterations, or over an expanding window which retains
+ * expandingWindowPctRetention of all iterations, whichever is larger.
+ */
+final class SlopeConvergenceCriterion implements ConvergenceCriterion {
+
+    private final DynamicShutdownConfigGroup cfg;
+    private final double threshold;
+    private final RunningLineFit fit = new RunningLineFit();
+
+    SlopeConvergenceCriterion(DynamicShutdownConfigGroup cfg, double threshold) {
+        this.cfg = cfg;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void add(int iteration, double value) {
+        fit.add(iteration, value);
+
+        int startIteration = iteration - cfg.getMinimumWindowSize() + 1; // fixed window
+        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * iteration + 1); // expanding window
+
+        if (cfg.getSlopeWindowPolicy() == EXPANDING && startIterationExpanding < startIteration) {
+            startIteration = startIterationExpanding;
+        }
+
+        fit.evictBefore(startIteration);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return fit.isEmpty();
+    }
+
+    @Override
+    public int getLastIteration() {
+        return fit.getLastIteration();
+    }
+
+    @Override
+    public double getStatistic() {
+        return fit.isEmpty() ? Double.NaN : fit.slope();
+    }
+
+    @Override
+    public boolean isInZone() {
+        double slope = getStatistic();
+        return slope > -1 * threshold && slope < threshold;
+    }
+
+    @Override
+    public Map<String, String> getState() {
+        return fit.getState();
+    }
+
+    @Override
+    public void setState(Map<String, String> state) {
+        fit.setState(state);
+    }
+}
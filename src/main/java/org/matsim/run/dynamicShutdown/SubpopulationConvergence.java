@@ -0,0 +1,173 @@
+package org.matsim.run.dynamicShutdown;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.MainModeIdentifier;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.Trip;
+
+import java.util.*;
+
+/**
+ * Convergence of the metrics of each subpopulation separately, for switching off innovation per subpopulation.
+ *
+ * The metrics are computed from the selected plans at the start of an iteration, i.e. from the plans executed in the
+ * previous iteration: the average executed score (unless the score policy is OFF) and the share of every mode among the
+ * trips (if the mode policy is ON_FULL). They are fed into the convergence criteria of the respective metric type right
+ * away; only the last values are kept in ring buffers, for checkpoints. A subpopulation converges once all its metrics
+ * have been in the convergence zone for iterationsInZoneToConverge consecutive iterations. Subpopulations with strategy
+ * settings but without metrics, e.g. without persons in the population, count as in the zone, so that they do not keep
+ * the shutdown from starting.
+ */
+final class SubpopulationConvergence {
+
+    private static final String SCORE = "executed";
+
+    private final DynamicShutdownConfigGroup cfg;
+    private final MainModeIdentifier mainModeIdentifier;
+    private final List<String> modes;
+    private final Set<String> subpopulations;
+    private final int historyCapacity;
+
+    private final Map<String, Map<String, ConvergenceCriterion>> criteria = new HashMap<>();
+    private final Map<String, Map<String, MetricRingBuffer>> values = new HashMap<>();
+    private final Map<String, Integer> iterationsInZone = new HashMap<>();
+
+    /**
+     * @param historyCapacity number of values kept per metric; has to cover the window of the criteria, so that they can be
+     *                        rebuilt after a resume
+     */
+    SubpopulationConvergence(DynamicShutdownConfigGroup cfg, MainModeIdentifier mainModeIdentifier, Collection<String> modes,
+                             Collection<String> subpopulations, int historyCapacity) {
+        this.cfg = cfg;
+        this.historyCapacity = historyCapacity;
+        this.mainModeIdentifier = mainModeIdentifier;
+        this.modes = cfg.getModePolicyChosen() == DynamicShutdownConfigGroup.modePolicyOptions.ON_FULL ? new ArrayList<>(modes) : List.of();
+        this.subpopulations = new LinkedHashSet<>(subpopulations);
+    }
+
+    Set<String> getSubpopulations() {
+        return Collections.unmodifiableSet(subpopulations);
+    }
+
+    /**
+     * Computes the metrics of the selected plans per subpopulation and adds them to the criteria as the values of the given
+     * iteration.
+     *
+     * @param countConvergence whether the iterations in the convergence zone are counted yet (cf. iterationToStartFindingSlopes)
+     */
+    void addIteration(Population population, int iteration, boolean countConvergence) {
+        Map<String, double[]> scoreSums = new HashMap<>();
+        Map<String, int[]> tripsPerMode = new HashMap<>();
+        for (Person person : population.getPersons().values()) {
+            String subpopulation = PopulationUtils.getSubpopulation(person);
+            Plan plan = person.getSelectedPlan();
+            if (!subpopulations.contains(subpopulation) || plan == null) {
+                continue;
+            }
+            if (plan.getScore() != null) {
+                double[] sum = scoreSums.computeIfAbsent(subpopulation, k -> new double[2]);
+                sum[0] += plan.getScore();
+                sum[1]++;
+            }
+            if (!modes.isEmpty()) {
+                // the last entry counts all trips
+                int[] trips = tripsPerMode.computeIfAbsent(subpopulation, k -> new int[modes.size() + 1]);
+                for (Trip trip : TripStructureUtils.getTrips(plan)) {
+                    int modeIndex = modes.indexOf(mainModeIdentifier.identifyMainMode(trip.getTripElements()));
+                    if (modeIndex >= 0) {
+                        trips[modeIndex]++;
+                    }
+                    trips[modes.size()]++;
+                }
+            }
+        }
+
+        for (String subpopulation : subpopulations) {
+            Map<String, ConvergenceCriterion> criteriaOfSubpopulation = criteria.computeIfAbsent(subpopulation, k -> new HashMap<>());
+            double[] scoreSum = scoreSums.get(subpopulation);
+            if (cfg.getScorePolicyChosen() != DynamicShutdownConfigGroup.scorePolicyOptions.OFF && scoreSum != null) {
+                add(subpopulation, SCORE, iteration, scoreSum[0] / scoreSum[1]);
+            }
+            int[] trips = tripsPerMode.get(subpopulation);
+            if (trips != null && trips[modes.size()] > 0) {
+                for (int modeIndex = 0; modeIndex < modes.size(); modeIndex++) {
+                    add(subpopulation, modes.get(modeIndex), iteration, (double) trips[modeIndex] / trips[modes.size()]);
+                }
+            }
+
+            if (countConvergence) {
+                // a subpopulation without metrics (no persons, or neither scored plans nor trips) has nothing to converge
+                boolean inZone = criteriaOfSubpopulation.values().stream().allMatch(ConvergenceCriterion::isInZone);
+                iterationsInZone.put(subpopulation, inZone ? iterationsInZone.getOrDefault(subpopulation, 0) + 1 : 0);
+            }
+        }
+    }
+
+    private void add(String subpopulation, String metric, int iteration, double value) {
+        createCriterion(subpopulation, metric).add(iteration, value);
+        values.computeIfAbsent(subpopulation, k -> new HashMap<>())
+                .computeIfAbsent(metric, k -> new MetricRingBuffer(historyCapacity)).add(iteration, value);
+    }
+
+    private ConvergenceCriterion createCriterion(String subpopulation, String metric) {
+        return criteria.computeIfAbsent(subpopulation, k -> new HashMap<>()).computeIfAbsent(metric, k -> metric.equals(SCORE) ?
+                ConvergenceCriterion.create(cfg.getScoreConvergencePolicy(), cfg, cfg.getScoreThreshold()) :
+                ConvergenceCriterion.create(cfg.getModeConvergencePolicy(), cfg, cfg.getModeThreshold()));
+    }
+
+    /**
+     * @return per subpopulation and metric, the last values ordered by iteration
+     */
+    Map<String, Map<String, Map<Integer, Double>>> getValues() {
+        Map<String, Map<String, Map<Integer, Double>>> copy = new HashMap<>();
+        for (Map.Entry<String, Map<String, MetricRingBuffer>> subpopulationEntry : values.entrySet()) {
+            Map<String, Map<Integer, Double>> metrics = new TreeMap<>();
+            subpopulationEntry.getValue().forEach((metric, buffer) -> metrics.put(metric, buffer.toMap()));
+            copy.put(subpopulationEntry.getKey(), metrics);
+        }
+        return copy;
+    }
+
+    /**
+     * @return per subpopulation, the criteria of its metrics
+     */
+    Map<String, Map<String, ConvergenceCriterion>> getCriteria() {
+        return Collections.unmodifiableMap(criteria);
+    }
+
+    /**
+     * Restores the state of a checkpoint: the values, the criteria and the iterations in the convergence zone. As in the
+     * dynamic shutdown listener, checkpoints without the states of the criteria are handled by rebuilding the criteria from
+     * the values.
+     *
+     * @param restoredCriteria per subpopulation and metric, the state of the criterion; null if the checkpoint has none
+     */
+    void restore(Map<String, Map<String, Map<Integer, Double>>> restoredValues,
+                 Map<String, Map<String, Map<String, String>>> restoredCriteria, Map<String, Integer> restoredIterationsInZone) {
+        criteria.clear();
+        values.clear();
+        iterationsInZone.clear();
+        if (restoredCriteria == null) {
+            restoredValues.forEach((subpopulation, metrics) -> metrics.forEach((metric, history) ->
+                    history.forEach((iteration, value) -> add(subpopulation, metric, iteration, value))));
+        } else {
+            restoredValues.forEach((subpopulation, metrics) -> metrics.forEach((metric, history) ->
+                    history.forEach((iteration, value) -> values.computeIfAbsent(subpopulation, k -> new HashMap<>())
+                            .computeIfAbsent(metric, k -> new MetricRingBuffer(historyCapacity)).add(iteration, value))));
+            restoredCriteria.forEach((subpopulation, metrics) -> metrics.forEach((metric, state) ->
+                    createCriterion(subpopulation, metric).setState(state)));
+        }
+        iterationsInZone.putAll(restoredIterationsInZone);
+    }
+
+    int getIterationsInZone(String subpopulation) {
+        return iterationsInZone.getOrDefault(subpopulation, 0);
+    }
+
+    boolean isConverged(String subpopulation) {
+        return getIterationsInZone(subpopulation) >= cfg.getIterationsInZoneToConverge();
+    }
+}
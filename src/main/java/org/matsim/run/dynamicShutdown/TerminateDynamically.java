@@ -28,7 +28,8 @@ import javax.inject.Inject;
 
 /**
  * Shuts down MATSim, when one of two criteria are satisfied: a) the lastIteration specified in the config file is reached or b) dynamic lastIteration, which can be
- * retrieved from the DynamicShutdownControlerListener is reached (if dynamic shutdown is even initiated).
+ * retrieved from the DynamicShutdownControlerListener is reached (if dynamic shutdown is even initiated). The latter is
+ * derived from the convergence policies configured per metric type, see {@link DynamicShutdownConfigGroup.convergencePolicyOption}.
  *
  * @author jakobrehmann
  */
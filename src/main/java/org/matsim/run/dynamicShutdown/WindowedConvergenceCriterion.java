@@ -0,0 +1,102 @@
+package org.matsim.run.dynamicShutdown;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base for tests over the last windowSize values of a metric. Keeps the window in a ring buffer together with the running
+ * sums for its mean and variance; values are stored relative to the first value to keep the sums small. The tests only
+ * pass once the window is full.
+ */
+abstract class WindowedConvergenceCriterion implements ConvergenceCriterion {
+
+    final MetricRingBuffer window;
+    private double origin = Double.NaN;
+    private double sum = 0.;
+    private double sumOfSquares = 0.;
+
+    WindowedConvergenceCriterion(int windowSize) {
+        this.window = new MetricRingBuffer(Math.max(3, windowSize));
+    }
+
+    /**
+     * Called before the value is added to the window, i.e. with the window (and its mean and variance) of the previous
+     * iteration. If the window is full, its oldest value is evicted afterwards.
+     */
+    abstract void beforeAdd(double value);
+
+    /**
+     * Adds the running state of the test itself to the state of the window; nothing by default.
+     */
+    void getTestState(Map<String, String> state) {
+    }
+
+    void setTestState(Map<String, String> state) {
+    }
+
+    @Override
+    public final void add(int iteration, double value) {
+        if (!window.isEmpty() && iteration <= window.getLastIteration()) {
+            throw new IllegalArgumentException("Iteration " + iteration + " is not after the last iteration " + window.getLastIteration());
+        }
+        if (window.isEmpty()) {
+            origin = value;
+        }
+        beforeAdd(value);
+        if (window.isFull()) {
+            double evicted = window.getValue(0) - origin;
+            sum -= evicted;
+            sumOfSquares -= evicted * evicted;
+        }
+        window.add(iteration, value);
+        sum += value - origin;
+        sumOfSquares += (value - origin) * (value - origin);
+    }
+
+    @Override
+    public final boolean isEmpty() {
+        return window.isEmpty();
+    }
+
+    @Override
+    public final int getLastIteration() {
+        return window.getLastIteration();
+    }
+
+    @Override
+    public final Map<String, String> getState() {
+        Map<String, String> state = new LinkedHashMap<>();
+        state.put("origin", Double.toString(origin));
+        state.put("sum", Double.toString(sum));
+        state.put("sumOfSquares", Double.toString(sumOfSquares));
+        state.put("points", ConvergenceCriterion.formatPoints(window.toMap()));
+        getTestState(state);
+        return state;
+    }
+
+    @Override
+    public final void setState(Map<String, String> state) {
+        window.clear();
+        ConvergenceCriterion.parsePoints(state.get("points")).forEach(window::add);
+        origin = Double.parseDouble(state.get("origin"));
+        sum = Double.parseDouble(state.get("sum"));
+        sumOfSquares = Double.parseDouble(state.get("sumOfSquares"));
+        setTestState(state);
+    }
+
+    final double mean() {
+        return origin + sum / window.size();
+    }
+
+    /**
+     * @return the sample standard deviation of the window, NaN for less than two values
+     */
+    final double standardDeviation() {
+        int n = window.size();
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double variance = (sumOfSquares - sum * sum / n) / (n - 1);
+        return Math.sqrt(Math.max(0., variance));
+    }
+}
@@ -0,0 +1,74 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+import org.matsim.core.config.groups.GlobalConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+import javax.inject.Inject;
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/**
+ * Writes one line per iteration and phase to phaseMetrics.csv in the output directory.
+ */
+final class CsvPhaseMetricsSink implements PhaseMetricsSink {
+
+	static final String FILENAME = "phaseMetrics.csv";
+
+	private final BufferedWriter writer;
+	private final String sep;
+
+	@Inject
+	CsvPhaseMetricsSink(OutputDirectoryHierarchy controlerIO, GlobalConfigGroup globalConfig) {
+		this.sep = globalConfig.getDefaultDelimiter();
+		this.writer = IOUtils.getBufferedWriter(controlerIO.getOutputFilename(FILENAME));
+		try {
+			writer.write(String.join(sep, "iteration", "phase", "wallTime_ms", "cpuTime_ms", "allocated_bytes", "gcCount", "gcCollectionTime_ms"));
+			writer.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void record(int iteration, String phase, PhaseMetrics metrics) {
+		try {
+			writer.write(iteration + sep + phase + sep + metrics.getWallTimeMillis() + sep + metrics.getCpuTimeMillis() + sep
+					+ metrics.getAllocatedBytes() + sep + metrics.getGcCount() + sep + metrics.getGcCollectionTimeMillis());
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+/**
+ * Resources used by the whole JVM during one controler phase of one iteration.
+ */
+public final class PhaseMetrics {
+
+	private final long wallTimeMillis;
+	private final long cpuTimeMillis;
+	private final long allocatedBytes;
+	private final long gcCount;
+	private final long gcCollectionTimeMillis;
+
+	PhaseMetrics(long wallTimeMillis, long cpuTimeMillis, long allocatedBytes, long gcCount, long gcCollectionTimeMillis) {
+		this.wallTimeMillis = wallTimeMillis;
+		this.cpuTimeMillis = cpuTimeMillis;
+		this.allocatedBytes = allocatedBytes;
+		this.gcCount = gcCount;
+		this.gcCollectionTimeMillis = gcCollectionTimeMillis;
+	}
+
+	public long getWallTimeMillis() {
+		return wallTimeMillis;
+	}
+
+	/**
+	 * @return the cpu time of the process, i.e. of all threads; -1 if the JVM does not provide it
+	 */
+	public long getCpuTimeMillis() {
+		return cpuTimeMillis;
+	}
+
+	/**
+	 * @return the heap allocation, estimated as the growth of the used heap plus the bytes freed by garbage collections
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	/**
+	 * @return the collection time accumulated by the garbage collectors (GarbageCollectorMXBean.getCollectionTime()). This
+	 * is not the pause time: for concurrent collectors, it includes the time collected alongside the application threads.
+	 */
+	public long getGcCollectionTimeMillis() {
+		return gcCollectionTimeMillis;
+	}
+
+}
@@ -0,0 +1,215 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+
+import javax.inject.Inject;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits every iteration into phases at the controler events and measures each phase:
+ * <ul>
+ * <li>startup: from the startup event to the start of the first iteration,</li>
+ * <li>replanning: from iteration start to before the mobsim, i.e. replanning incl. rerouting and the plans dump,</li>
+ * <li>mobsim: the mobsim incl. the events handlers which run during it,</li>
+ * <li>scoring: from after the mobsim to the end of the iteration, i.e. closing the events file and scoring,</li>
+ * <li>iterationEnds: from the end of the iteration to the start of the next one (or shutdown), i.e. the analysis
+ * listeners and output writing.</li>
+ * </ul>
+ * The phase boundaries are the points at which this listener is notified. The controler does not specify the order in
+ * which it notifies the listeners of the same event, so the work of other listeners of that event (e.g. the analysis
+ * listeners at the end of an iteration, or the plans dump at its start) is measured on either side of the boundary,
+ * depending on the order of the bindings. The phases cover the whole run without gaps, so the sum over the phases of an
+ * iteration does not depend on that order.
+ *
+ * All values are for the whole JVM, since the mobsim, the routers and the events handling run on their own threads.
+ */
+final class PhaseMetricsControlerListener implements StartupListener, IterationStartsListener, BeforeMobsimListener,
+		AfterMobsimListener, IterationEndsListener, ShutdownListener {
+
+	private final Set<PhaseMetricsSink> sinks;
+	private final AtomicLong collectedBytes = new AtomicLong();
+	private final NotificationListener gcListener = this::handleGcNotification;
+
+	private String currentPhase = null;
+	private int currentIteration;
+	private Sample phaseStart;
+
+	@Inject
+	PhaseMetricsControlerListener(Set<PhaseMetricsSink> sinks) {
+		this.sinks = sinks;
+	}
+
+	@Override
+	public void notifyStartup(StartupEvent event) {
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gcBean instanceof NotificationEmitter) {
+				((NotificationEmitter) gcBean).addNotificationListener(gcListener, null, null);
+			}
+		}
+		startPhase("startup", 0);
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		startPhase("replanning", event.getIteration());
+	}
+
+	@Override
+	public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+		startPhase("mobsim", event.getIteration());
+	}
+
+	@Override
+	public void notifyAfterMobsim(AfterMobsimEvent event) {
+		startPhase("scoring", event.getIteration());
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		startPhase("iterationEnds", event.getIteration());
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		finish(event.getIteration());
+	}
+
+	/**
+	 * Ends the last phase and stops listening to the garbage collectors.
+	 */
+	void finish(int iteration) {
+		startPhase(null, iteration);
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gcBean instanceof NotificationEmitter) {
+				try {
+					((NotificationEmitter) gcBean).removeNotificationListener(gcListener);
+				} catch (ListenerNotFoundException e) {
+					// not registered, nothing to do
+				}
+			}
+		}
+		for (PhaseMetricsSink sink : sinks) {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Ends the current phase (if any), reports it and starts the given phase.
+	 */
+	void startPhase(String phase, int iteration) {
+		Sample now = sample();
+		if (currentPhase != null) {
+			// the startup phase is reported with the first iteration
+			int reportedIteration = currentPhase.equals("startup") ? iteration : currentIteration;
+			PhaseMetrics metrics = now.minus(phaseStart);
+			for (PhaseMetricsSink sink : sinks) {
+				sink.record(reportedIteration, currentPhase, metrics);
+			}
+		}
+		currentPhase = phase;
+		currentIteration = iteration;
+		phaseStart = now;
+	}
+
+	private void handleGcNotification(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			return;
+		}
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+		Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+		long freed = 0;
+		for (Map.Entry<String, MemoryUsage> entry : before.entrySet()) {
+			MemoryUsage usageAfter = after.get(entry.getKey());
+			if (usageAfter != null) {
+				freed += entry.getValue().getUsed() - usageAfter.getUsed();
+			}
+		}
+		// promotion moves bytes between the pools, only the sum over all pools is what has been freed
+		collectedBytes.addAndGet(Math.max(0, freed));
+	}
+
+	private Sample sample() {
+		long gcCount = 0;
+		long gcCollectionTime = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gcBean.getCollectionCount());
+			gcCollectionTime += Math.max(0, gcBean.getCollectionTime());
+		}
+		long cpuTime = -1;
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			cpuTime = ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+		}
+		long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		return new Sample(System.nanoTime(), cpuTime, heapUsed, collectedBytes.get(), gcCount, gcCollectionTime);
+	}
+
+	private static final class Sample {
+		final long wallNanos;
+		final long cpuNanos;
+		final long heapUsed;
+		final long collectedBytes;
+		final long gcCount;
+		final long gcCollectionMillis;
+
+		Sample(long wallNanos, long cpuNanos, long heapUsed, long collectedBytes, long gcCount, long gcCollectionMillis) {
+			this.wallNanos = wallNanos;
+			this.cpuNanos = cpuNanos;
+			this.heapUsed = heapUsed;
+			this.collectedBytes = collectedBytes;
+			this.gcCount = gcCount;
+			this.gcCollectionMillis = gcCollectionMillis;
+		}
+
+		PhaseMetrics minus(Sample start) {
+			long cpuMillis = cpuNanos < 0 || start.cpuNanos < 0 ? -1 : (cpuNanos - start.cpuNanos) / 1_000_000;
+			long allocated = Math.max(0, heapUsed - start.heapUsed + collectedBytes - start.collectedBytes);
+			return new PhaseMetrics((wallNanos - start.wallNanos) / 1_000_000, cpuMillis, allocated,
+					gcCount - start.gcCount, gcCollectionMillis - start.gcCollectionMillis);
+		}
+	}
+
+}
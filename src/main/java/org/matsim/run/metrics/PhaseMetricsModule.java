@@ -0,0 +1,47 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+import com.google.inject.Binder;
+import com.google.inject.Singleton;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.multibindings.Multibinder;
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Records wall time, cpu time, heap allocation and garbage collection per controler phase and iteration, see
+ * {@link PhaseMetricsControlerListener}. The metrics are written to phaseMetrics.csv; further sinks can be added with
+ * {@link #addPhaseMetricsSinkBinding(Binder)}.
+ */
+public final class PhaseMetricsModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		addPhaseMetricsSinkBinding(binder()).to(CsvPhaseMetricsSink.class);
+
+		this.bind(PhaseMetricsControlerListener.class).in(Singleton.class);
+		this.addControlerListenerBinding().to(PhaseMetricsControlerListener.class);
+	}
+
+	public static LinkedBindingBuilder<PhaseMetricsSink> addPhaseMetricsSinkBinding(Binder binder) {
+		return Multibinder.newSetBinder(binder, PhaseMetricsSink.class).addBinding();
+	}
+
+}
@@ -0,0 +1,36 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+/**
+ * Receives the metrics of every controler phase. Implementations are registered with
+ * {@link PhaseMetricsModule#addPhaseMetricsSinkBinding(com.google.inject.Binder)} and are called on the controler thread.
+ */
+public interface PhaseMetricsSink {
+
+	void record(int iteration, String phase, PhaseMetrics metrics);
+
+	/**
+	 * Called at shutdown.
+	 */
+	default void close() {
+	}
+
+}
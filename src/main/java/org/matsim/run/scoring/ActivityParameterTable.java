@@ -0,0 +1,142 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.scoring;
+
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ScoringParameterSet;
+import org.matsim.core.scoring.functions.ActivityUtilityParameters;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Activity scoring parameters of one subpopulation in an array over the {@link ActivityTypeRegistry} index. The
+ * {@link ActivityUtilityParameters} are built once per subpopulation and shared by all persons of it; they are the only
+ * form in which core scoring reads the parameters, through {@link #asMap()}.
+ */
+public final class ActivityParameterTable {
+
+	private final ActivityTypeRegistry registry;
+	private final ActivityUtilityParameters[] utilityParameters;
+	private final int numberOfConfiguredTypes;
+	private final Map<String, ActivityUtilityParameters> asMap = new UtilityParametersView();
+
+	ActivityParameterTable(ActivityTypeRegistry registry, ScoringParameterSet parameterSet) {
+		this.registry = registry;
+		this.utilityParameters = new ActivityUtilityParameters[registry.size()];
+
+		int configured = 0;
+		for (ActivityParams params : parameterSet.getActivityParams()) {
+			int index = registry.getIndex(params.getActivityType());
+			if (index < 0) {
+				throw new IllegalArgumentException("Activity type " + params.getActivityType() + " is not registered.");
+			}
+			utilityParameters[index] = new ActivityUtilityParameters.Builder(params).build();
+			configured++;
+		}
+		this.numberOfConfiguredTypes = configured;
+	}
+
+	public ActivityTypeRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @return the utility parameters of the type, or null if the type is not configured for this subpopulation
+	 */
+	public ActivityUtilityParameters getUtilityParameters(int index) {
+		return utilityParameters[index];
+	}
+
+	/**
+	 * @return a read-only map view for {@link org.matsim.core.scoring.functions.ScoringParameters}; a lookup is one hash
+	 * lookup of the type string plus an array read, and nothing is copied per person
+	 */
+	public Map<String, ActivityUtilityParameters> asMap() {
+		return asMap;
+	}
+
+	private final class UtilityParametersView extends AbstractMap<String, ActivityUtilityParameters> {
+
+		@Override
+		public ActivityUtilityParameters get(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			int index = registry.getIndex((String) key);
+			return index < 0 ? null : utilityParameters[index];
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			return numberOfConfiguredTypes;
+		}
+
+		@Override
+		public Set<Entry<String, ActivityUtilityParameters>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Entry<String, ActivityUtilityParameters>> iterator() {
+					return new Iterator<>() {
+						private int next = advance(0);
+
+						private int advance(int from) {
+							int index = from;
+							while (index < utilityParameters.length && utilityParameters[index] == null) {
+								index++;
+							}
+							return index;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < utilityParameters.length;
+						}
+
+						@Override
+						public Entry<String, ActivityUtilityParameters> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Entry<String, ActivityUtilityParameters> entry = new SimpleImmutableEntry<>(registry.getType(next), utilityParameters[next]);
+							next = advance(next + 1);
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return numberOfConfiguredTypes;
+				}
+			};
+		}
+	}
+
+}
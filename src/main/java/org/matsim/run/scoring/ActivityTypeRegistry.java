@@ -0,0 +1,158 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.scoring;
+
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ScoringParameterSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Dense integer index over the activity types of the scoring config.
+ *
+ * The Berlin scenario has one activity type per base type and typical duration bucket ("work_3600.0", ...), i.e. more
+ * than 800 types. Every type is parsed once into its base type and duration bucket and gets an index; per subpopulation,
+ * the scoring parameters are then kept in an array over that index, see {@link ActivityParameterTable}. The index order is
+ * base type first, then duration, so it does not depend on the order in which the params were added to the config.
+ */
+public final class ActivityTypeRegistry {
+
+	private static final char BUCKET_SEPARATOR = '_';
+
+	private final Map<String, Integer> indexByType = new HashMap<>();
+	private final String[] types;
+	private final String[] baseTypes;
+	private final int[] baseTypeIndices;
+	private final double[] durationBuckets;
+	private final List<String> distinctBaseTypes = new ArrayList<>();
+
+	private ActivityTypeRegistry(TreeSet<ParsedType> parsedTypes) {
+		this.types = new String[parsedTypes.size()];
+		this.baseTypes = new String[parsedTypes.size()];
+		this.baseTypeIndices = new int[parsedTypes.size()];
+		this.durationBuckets = new double[parsedTypes.size()];
+
+		int index = 0;
+		for (ParsedType parsed : parsedTypes) {
+			types[index] = parsed.type;
+			baseTypes[index] = parsed.baseType;
+			durationBuckets[index] = parsed.durationBucket;
+			if (distinctBaseTypes.isEmpty() || !distinctBaseTypes.get(distinctBaseTypes.size() - 1).equals(parsed.baseType)) {
+				distinctBaseTypes.add(parsed.baseType);
+			}
+			baseTypeIndices[index] = distinctBaseTypes.size() - 1;
+			indexByType.put(parsed.type, index);
+			index++;
+		}
+	}
+
+	/**
+	 * Registers the activity types of all scoring parameter sets (i.e. all subpopulations) of the given config.
+	 */
+	public static ActivityTypeRegistry create(PlanCalcScoreConfigGroup scoreConfig) {
+		TreeSet<ParsedType> parsedTypes = new TreeSet<>(Comparator.<ParsedType, String>comparing(p -> p.baseType)
+				.thenComparingDouble(p -> p.durationBucket)
+				.thenComparing(p -> p.type));
+		for (ScoringParameterSet parameterSet : scoreConfig.getScoringParameterPerSubpopulation().values()) {
+			for (ActivityParams params : parameterSet.getActivityParams()) {
+				parsedTypes.add(parse(params.getActivityType()));
+			}
+		}
+		return new ActivityTypeRegistry(parsedTypes);
+	}
+
+	/**
+	 * Creates the parameter table of one subpopulation. Types which are not configured for that subpopulation are left empty.
+	 */
+	public ActivityParameterTable createTable(ScoringParameterSet parameterSet) {
+		return new ActivityParameterTable(this, parameterSet);
+	}
+
+	/**
+	 * @return the index of the type or -1 if the type is not registered
+	 */
+	public int getIndex(String type) {
+		Integer index = indexByType.get(type);
+		return index == null ? -1 : index;
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+	public String getType(int index) {
+		return types[index];
+	}
+
+	public String getBaseType(int index) {
+		return baseTypes[index];
+	}
+
+	/**
+	 * @return the index of the base type of the given type in {@link #getBaseTypes()}
+	 */
+	public int getBaseTypeIndex(int index) {
+		return baseTypeIndices[index];
+	}
+
+	/**
+	 * @return the duration in seconds encoded in the type name, or NaN for types without a duration bucket (e.g. "freight")
+	 */
+	public double getDurationBucket(int index) {
+		return durationBuckets[index];
+	}
+
+	public List<String> getBaseTypes() {
+		return Collections.unmodifiableList(distinctBaseTypes);
+	}
+
+	static ParsedType parse(String type) {
+		int separator = type.lastIndexOf(BUCKET_SEPARATOR);
+		if (separator > 0 && separator < type.length() - 1) {
+			try {
+				double duration = Double.parseDouble(type.substring(separator + 1));
+				return new ParsedType(type, type.substring(0, separator), duration);
+			} catch (NumberFormatException e) {
+				// an underscore, but no duration bucket
+			}
+		}
+		return new ParsedType(type, type, Double.NaN);
+	}
+
+	static final class ParsedType {
+		final String type;
+		final String baseType;
+		final double durationBucket;
+
+		private ParsedType(String type, String baseType, double durationBucket) {
+			this.type = type;
+			this.baseType = baseType;
+			this.durationBucket = durationBucket;
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.scoring;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ScoringParameterSet;
+import org.matsim.core.config.groups.ScenarioConfigGroup;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scoring.functions.ScoringParameters;
+import org.matsim.core.scoring.functions.ScoringParametersForPerson;
+
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME;
+
+/**
+ * Income dependent marginal utility of money as in {@link playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters}:
+ * marginalUtilityOfMoney(person) = marginalUtilityOfMoney(subpopulation) * average income / income(person). Persons
+ * without a positive income keep the marginal utility of money of their subpopulation.
+ *
+ * In contrast to the vsp implementation, the activity parameters are not built per person but once per subpopulation in
+ * an {@link ActivityParameterTable}, which all {@link ScoringParameters} of that subpopulation share.
+ *
+ * Furthermore, persons with the same scoring parameter set and the same resulting marginal utility of money share one
+ * {@link ScoringParameters} instance. With the income levels of {@link org.matsim.prepare.population.AssignIncome}, this
+ * means a handful of instances per subpopulation instead of one per person. The instances of all persons in the population
+ * are built when this class is created, i.e. after the incomes are assigned; afterwards, the lookup is a read-only array
+ * access which is safe for many scoring threads. Persons which are not in the population at that time are served from
+ * the shared instances as well.
+ */
+public final class IndexedIncomeDependentScoringParameters implements ScoringParametersForPerson {
+
+	private static final Logger log = Logger.getLogger(IndexedIncomeDependentScoringParameters.class);
+
+	private final PlanCalcScoreConfigGroup scoreConfig;
+	private final ScenarioConfigGroup scenarioConfig;
+	private final ActivityTypeRegistry registry;
+	private final Map<ScoringParameterSet, ActivityParameterTable> tablePerParameterSet = new ConcurrentHashMap<>();
+	private final Map<ScoringParameterSet, Map<Double, ScoringParameters>> sharedParams = new ConcurrentHashMap<>();
+	// only written in the constructor
+	private final IdMap<Person, ScoringParameters> paramsPerPerson = new IdMap<>(Person.class);
+	private final double globalAvgIncome;
+
+	@Inject
+	IndexedIncomeDependentScoringParameters(Population population, PlanCalcScoreConfigGroup scoreConfig, ScenarioConfigGroup scenarioConfig) {
+		this.scoreConfig = scoreConfig;
+		this.scenarioConfig = scenarioConfig;
+		this.registry = ActivityTypeRegistry.create(scoreConfig);
+		for (ScoringParameterSet parameterSet : scoreConfig.getScoringParameterPerSubpopulation().values()) {
+			tablePerParameterSet.put(parameterSet, registry.createTable(parameterSet));
+		}
+		log.info(registry.size() + " activity types in " + registry.getBaseTypes().size() + " base types registered for "
+				+ tablePerParameterSet.size() + " scoring parameter sets.");
+		this.globalAvgIncome = computeAvgIncome(population);
+
+		for (Person person : population.getPersons().values()) {
+			paramsPerPerson.put(person.getId(), getSharedScoringParameters(person));
+		}
+		log.info(paramsPerPerson.size() + " persons share " + sharedParams.values().stream().mapToInt(Map::size).sum()
+				+ " scoring parameter instances.");
+	}
+
+	static double computeAvgIncome(Population population) {
+		OptionalDouble averageIncome = population.getPersons().values().stream()
+				.map(person -> person.getAttributes().getAttribute(PERSONAL_INCOME_ATTRIBUTE_NAME))
+				.filter(income -> income != null)
+				.mapToDouble(income -> ((Number) income).doubleValue())
+				.filter(income -> income > 0)
+				.average();
+		if (averageIncome.isEmpty()) {
+			throw new RuntimeException("Could not compute the average income. Please make sure that the attribute '"
+					+ PERSONAL_INCOME_ATTRIBUTE_NAME + "' is set for at least one person.");
+		}
+		log.info("global average income is " + averageIncome.getAsDouble());
+		return averageIncome.getAsDouble();
+	}
+
+	@Override
+	public ScoringParameters getScoringParameters(Person person) {
+		ScoringParameters params = paramsPerPerson.get(person.getId());
+		return params != null ? params : getSharedScoringParameters(person);
+	}
+
+	private ScoringParameters getSharedScoringParameters(Person person) {
+		ScoringParameterSet parameterSet = scoreConfig.getScoringParameters(PopulationUtils.getSubpopulation(person));
+		double marginalUtilityOfMoney = parameterSet.getMarginalUtilityOfMoney();
+		Object personalIncome = person.getAttributes().getAttribute(PERSONAL_INCOME_ATTRIBUTE_NAME);
+		if (personalIncome != null && ((Number) personalIncome).doubleValue() > 0) {
+			marginalUtilityOfMoney = marginalUtilityOfMoney * globalAvgIncome / ((Number) personalIncome).doubleValue();
+		}
+		final double personalMarginalUtilityOfMoney = marginalUtilityOfMoney;
+		return sharedParams.computeIfAbsent(parameterSet, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(personalMarginalUtilityOfMoney, k -> createScoringParameters(parameterSet, personalMarginalUtilityOfMoney));
+	}
+
+	private ScoringParameters createScoringParameters(ScoringParameterSet parameterSet, double marginalUtilityOfMoney) {
+		ActivityParameterTable table = tablePerParameterSet.computeIfAbsent(parameterSet, registry::createTable);
+		ScoringParameters.Builder builder = new ScoringParameters.Builder(scoreConfig, parameterSet, table.asMap(), scenarioConfig);
+		builder.setMarginalUtilityOfMoney(marginalUtilityOfMoney);
+		return builder.build();
+	}
+
+	public ActivityTypeRegistry getActivityTypeRegistry() {
+		return registry;
+	}
+
+}
@@ -44,7 +44,7 @@ public class AbfallChessboardUtils {
 		Id<Link> linkDumpId = Id.createLinkId(linkChessboardDump);
 		AbfallUtils.createShipmentsForCarrierII(garbageToCollect, volumeBigDustbin, serviceTimePerBigTrashcan,
 				distanceWithShipments, garbageLinks, scenario, carrierChessboard, linkDumpId, carriers);
-		AbfallUtils.districtsWithShipments.add("Chessboard");
+		AbfallUtils.runStatistics().districtsWithShipments.add("Chessboard");
 		carriers.addCarrier(carrierChessboard);
 
 	}
@@ -72,7 +72,7 @@ public class AbfallChessboardUtils {
 		Id<Link> linkDumpId = Id.createLinkId(linkChessboardDump);
 		AbfallUtils.createShipmentsForCarrierI(garbagePerMeterToCollect, volumeBigDustbin, serviceTimePerBigTrashcan,
 				garbageLinks, scenario, carrierChessboard, linkDumpId, carriers);
-		AbfallUtils.districtsWithShipments.add("Chessboard");
+		AbfallUtils.runStatistics().districtsWithShipments.add("Chessboard");
 		carriers.addCarrier(carrierChessboard);
 
 	}
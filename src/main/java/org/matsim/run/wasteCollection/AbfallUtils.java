@@ -1,25 +1,51 @@
 package org.matsim.run.wasteCollection;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.WKBWriter;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.freight.Freight;
 import org.matsim.contrib.freight.FreightConfigGroup;
@@ -53,6 +79,8 @@ import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.population.routes.RouteUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.run.IdHashing;
 import org.matsim.vehicles.VehicleType;
 import org.opengis.feature.simple.SimpleFeature;
 
@@ -60,8 +88,10 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.graphhopper.jsprit.analysis.toolbox.Plotter;
 import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
 import com.graphhopper.jsprit.core.algorithm.box.SchrimpfFactory;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
 import com.graphhopper.jsprit.core.util.Solutions;
 
@@ -73,39 +103,65 @@ class AbfallUtils {
 
 	static final Logger log = Logger.getLogger(AbfallUtils.class);
 
-	static int amountOfCollectedDustbins;
-	static int matsimIterations;
-	static int jspritIterations;
-	static double costsJsprit = 0;
-	static int noPickup = 0;
-	static int allGarbage = 0;
-	static int numberOfShipments = 0;
-	static int garbageRuhleben = 0;
-	static int garbagePankow = 0;
-	static int garbageReinickenD = 0;
-	static int garbageGradestr = 0;
-	static int garbageGruenauerStr = 0;
 	static String linkMhkwRuhleben = "142010";
 	static String linkMpsPankow = "145812";
 	static String linkMpsReinickendorf = "59055";
 	static String linkUmladestationGradestrasse = "71781";
 	static String linkGruenauerStr = "97944";
-	static List<String> districtsWithShipments = new ArrayList<String>();
-	static List<String> districtsWithNoShipments = new ArrayList<String>();
-	static HashMap<String, String> dataEnt = new HashMap<String, String>();
+	static final HashMap<String, String> dataEnt = createMapEnt();
+	static final int TIME_SLICE_WIDTH = 1800;
 	static Multimap<String, String> linksInDistricts;
-	static boolean streetAlreadyInGarbageLinks = false;
+
+	private static final ThreadLocal<RunStatistics> runStatistics = ThreadLocal.withInitial(RunStatistics::new);
+
+	/**
+	 * Counters of one run, which are written to the summaries. They belong to the
+	 * thread of the run, so that {@link Run_AbfallBatch} can run several jobs at
+	 * the same time.
+	 */
+	static final class RunStatistics {
+		int amountOfCollectedDustbins;
+		int matsimIterations;
+		int jspritIterations;
+		double costsJsprit = 0;
+		int noPickup = 0;
+		int allGarbage = 0;
+		int numberOfShipments = 0;
+		int garbageRuhleben = 0;
+		int garbagePankow = 0;
+		int garbageReinickenD = 0;
+		int garbageGradestr = 0;
+		int garbageGruenauerStr = 0;
+		List<String> districtsWithShipments = new ArrayList<String>();
+		List<String> districtsWithNoShipments = new ArrayList<String>();
+	}
+
+	/**
+	 * @return the counters of the run in the current thread
+	 */
+	static RunStatistics runStatistics() {
+		return runStatistics.get();
+	}
+
+	/**
+	 * Starts a new run in the current thread with all counters at zero.
+	 */
+	static void resetRunStatistics() {
+		runStatistics.set(new RunStatistics());
+	}
 
 	/**
 	 * Creates a map for getting the name of the attribute, where you can find the
 	 * dump for the selected day of pickup.
 	 */
-	private static void createMapEnt() {
+	private static HashMap<String, String> createMapEnt() {
+		HashMap<String, String> dataEnt = new HashMap<String, String>();
 		dataEnt.put("MO", "Mo-Ent");
 		dataEnt.put("DI", "Di-Ent");
 		dataEnt.put("MI", "Mi-Ent");
 		dataEnt.put("DO", "Do-Ent");
 		dataEnt.put("FR", "Fr-Ent");
+		return dataEnt;
 	}
 
 	/**
@@ -132,31 +188,161 @@ class AbfallUtils {
 	 */
 	static void createMapWithLinksInDistricts(Collection<SimpleFeature> districts,
 			Map<Id<Link>, ? extends Link> allLinks) {
+		createMapWithLinksInDistricts(districts, allLinks, null);
+	}
+
+	/**
+	 * Same as {@link #createMapWithLinksInDistricts(Collection, Map)}, but reads
+	 * the result from the cache directory if the network and the districts have
+	 * been assigned before. The cache file is keyed by a hash over the link ids and
+	 * midpoints and over the names and geometries of the districts.
+	 * 
+	 * The midpoint of every link is only tested against the districts whose
+	 * envelope contains it, found with an STRtree; the districts are prepared
+	 * geometries, and the links are processed in parallel.
+	 * 
+	 * @param cacheDirectory null for no cache
+	 */
+	static void createMapWithLinksInDistricts(Collection<SimpleFeature> districts,
+			Map<Id<Link>, ? extends Link> allLinks, String cacheDirectory) {
 		linksInDistricts = ArrayListMultimap.create();
-		double x, y, xCoordFrom, xCoordTo, yCoordFrom, yCoordTo;
-		Point p;
+		Path cacheFile = null;
+		if (cacheDirectory != null) {
+			cacheFile = Paths.get(cacheDirectory,
+					"linksInDistricts_" + computeLinksInDistrictsKey(districts, allLinks) + ".txt.gz");
+			if (Files.exists(cacheFile)) {
+				log.info("Reading links of each district from " + cacheFile);
+				try (BufferedReader reader = IOUtils.getBufferedReader(cacheFile.toString())) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] parts = line.split("\t");
+						linksInDistricts.put(parts[0], parts[1]);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+		}
+
 		log.info("Started creating Multimap with all links of each district...");
-		for (Link link : allLinks.values()) {
-			xCoordFrom = link.getFromNode().getCoord().getX();
-			xCoordTo = link.getToNode().getCoord().getX();
-			yCoordFrom = link.getFromNode().getCoord().getY();
-			yCoordTo = link.getToNode().getCoord().getY();
-			if (xCoordFrom > xCoordTo)
-				x = xCoordFrom - ((xCoordFrom - xCoordTo) / 2);
-			else
-				x = xCoordTo - ((xCoordTo - xCoordFrom) / 2);
-			if (yCoordFrom > yCoordTo)
-				y = yCoordFrom - ((yCoordFrom - yCoordTo) / 2);
-			else
-				y = yCoordTo - ((yCoordTo - yCoordFrom) / 2);
-			p = MGC.xy2Point(x, y);
+		List<String> districtNames = new ArrayList<String>();
+		STRtree districtIndex = new STRtree();
+		for (SimpleFeature district : districts) {
+			Geometry geometry = (Geometry) district.getDefaultGeometry();
+			districtIndex.insert(geometry.getEnvelopeInternal(),
+					new IndexedDistrict(districtNames.size(), PreparedGeometryFactory.prepare(geometry)));
+			districtNames.add(district.getAttribute("Ortsteil").toString());
+		}
+		// the tree must not be built lazily by the first of the parallel queries
+		districtIndex.build();
+
+		List<Link> links = new ArrayList<Link>(allLinks.values());
+		int[][] districtsOfLink = new int[links.size()][];
+		IntStream.range(0, links.size()).parallel().forEach(i -> {
+			Point p = linkMidpoint(links.get(i));
+			@SuppressWarnings("unchecked")
+			List<IndexedDistrict> candidates = districtIndex.query(p.getEnvelopeInternal());
+			districtsOfLink[i] = candidates.stream().filter(candidate -> candidate.geometry.contains(p))
+					.mapToInt(candidate -> candidate.index).sorted().toArray();
+		});
+		// same order as testing every link against every district
+		for (int i = 0; i < links.size(); i++) {
+			for (int districtIndexOfLink : districtsOfLink[i]) {
+				linksInDistricts.put(districtNames.get(districtIndexOfLink), links.get(i).getId().toString());
+			}
+		}
+		log.info("Finished creating Multimap with all links of each district!");
+
+		if (cacheFile != null) {
+			writeLinksInDistricts(cacheFile);
+		}
+	}
+
+	private static Point linkMidpoint(Link link) {
+		double x, y, xCoordFrom, xCoordTo, yCoordFrom, yCoordTo;
+		xCoordFrom = link.getFromNode().getCoord().getX();
+		xCoordTo = link.getToNode().getCoord().getX();
+		yCoordFrom = link.getFromNode().getCoord().getY();
+		yCoordTo = link.getToNode().getCoord().getY();
+		if (xCoordFrom > xCoordTo)
+			x = xCoordFrom - ((xCoordFrom - xCoordTo) / 2);
+		else
+			x = xCoordTo - ((xCoordTo - xCoordFrom) / 2);
+		if (yCoordFrom > yCoordTo)
+			y = yCoordFrom - ((yCoordFrom - yCoordTo) / 2);
+		else
+			y = yCoordTo - ((yCoordTo - yCoordFrom) / 2);
+		return MGC.xy2Point(x, y);
+	}
+
+	private static String computeLinksInDistrictsKey(Collection<SimpleFeature> districts,
+			Map<Id<Link>, ? extends Link> allLinks) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			List<Link> links = new ArrayList<Link>(allLinks.values());
+			links.sort(Comparator.comparing(link -> link.getId().toString()));
+			ByteBuffer buffer = ByteBuffer.allocate(16);
+			for (Link link : links) {
+				digest.update(link.getId().toString().getBytes(StandardCharsets.UTF_8));
+				Point p = linkMidpoint(link);
+				buffer.clear();
+				buffer.putDouble(p.getX()).putDouble(p.getY());
+				digest.update(buffer.array());
+			}
+			WKBWriter wkbWriter = new WKBWriter();
 			for (SimpleFeature district : districts) {
-				if (((Geometry) district.getDefaultGeometry()).contains(p)) {
-					linksInDistricts.put(district.getAttribute("Ortsteil").toString(), link.getId().toString());
+				digest.update(district.getAttribute("Ortsteil").toString().getBytes(StandardCharsets.UTF_8));
+				digest.update(wkbWriter.write((Geometry) district.getDefaultGeometry()));
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.substring(0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeLinksInDistricts(Path cacheFile) {
+		log.info("Writing links of each district to " + cacheFile);
+		Path tmp = null;
+		try {
+			Files.createDirectories(cacheFile.getParent());
+			// unique, so that other runs writing the same file do not interfere; keeps the
+			// extension, which determines the compression
+			String name = cacheFile.getFileName().toString();
+			tmp = Files.createTempFile(cacheFile.getParent(), "." + name.substring(0, name.indexOf('.')),
+					name.substring(name.indexOf('.')));
+			try (BufferedWriter writer = IOUtils.getBufferedWriter(tmp.toString())) {
+				for (Entry<String, String> entry : linksInDistricts.entries()) {
+					writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+				}
+			}
+			// only complete files become visible to other runs
+			Files.move(tmp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					log.warn("Could not delete " + tmp, e);
 				}
 			}
 		}
-		log.info("Finished creating Multimap with all links of each district!");
+	}
+
+	private static final class IndexedDistrict {
+		private final int index;
+		private final PreparedGeometry geometry;
+
+		private IndexedDistrict(int index, PreparedGeometry geometry) {
+			this.index = index;
+			this.geometry = geometry;
+		}
 	}
 
 	/**
@@ -187,14 +373,14 @@ class AbfallUtils {
 		config.controler().setOverwriteFileSetting(OverwriteFileSetting.overwriteExistingFiles);
 
 		config.controler().setLastIteration(lastIteration);
-		matsimIterations = lastIteration + 1;
+		runStatistics().matsimIterations = lastIteration + 1;
 		config.global().setRandomSeed(4177);
 		config.controler().setOverwriteFileSetting(OverwriteFileSetting.overwriteExistingFiles);
 		config.global().setCoordinateSystem(TransformationFactory.GK4);
 		FreightConfigGroup freightConfigGroup = ConfigUtils.addOrGetModule(config, FreightConfigGroup.class);
 		freightConfigGroup.setCarriersFile(inputCarriers);
 		freightConfigGroup.setCarriersVehicleTypesFile(inputVehicleTypes);
-		freightConfigGroup.setTravelTimeSliceWidth(1800);
+		freightConfigGroup.setTravelTimeSliceWidth(TIME_SLICE_WIDTH);
 		freightConfigGroup.setTimeWindowHandling(FreightConfigGroup.TimeWindowHandling.enforceBeginnings);
 
 		return config;
@@ -212,54 +398,8 @@ class AbfallUtils {
 			List<String> districtsForShipments, String day, HashMap<String, Id<Link>> garbageDumps, Scenario scenario,
 			Carriers carriers, HashMap<String, Carrier> carrierMap, Map<Id<Link>, ? extends Link> allLinks,
 			double volumeBigDustbin, double serviceTimePerBigTrashcan) {
-		Id<Link> dumpId = null;
-		double distanceWithShipments = 0;
-		int garbageToCollect = 0;
-		String depot = null;
-		Map<Id<Link>, Link> garbageLinks = new HashMap<Id<Link>, Link>();
-		createMapEnt();
-		for (String districtToCollect : districtsForShipments) {
-			for (SimpleFeature districtInformation : districtsWithGarbage) {
-				if (districtInformation.getAttribute("Ortsteil").equals(districtToCollect)) {
-					if ((double) districtInformation.getAttribute(day) > 0) {
-						garbageToCollect = (int) ((double) districtInformation.getAttribute(day) * 1000);
-						dumpId = garbageDumps.get(districtInformation.getAttribute(dataEnt.get(day)));
-						depot = districtInformation.getAttribute("Depot").toString();
-						for (Link link : allLinks.values()) {
-							for (String linkInDistrict : linksInDistricts.get(districtToCollect)) {
-								if (Id.createLinkId(linkInDistrict) == link.getId()) {
-									if (link.getFreespeed() < 14 && link.getAllowedModes().contains("car")) {
-										for (Link garbageLink : garbageLinks.values()) {
-											if (link.getFromNode() == garbageLink.getToNode()
-													&& link.getToNode() == garbageLink.getFromNode())
-												streetAlreadyInGarbageLinks = true;
-
-										}
-										if (streetAlreadyInGarbageLinks != true) {
-											garbageLinks.put(link.getId(), link);
-											distanceWithShipments = distanceWithShipments + link.getLength();
-										}
-										streetAlreadyInGarbageLinks = false;
-									}
-								}
-							}
-						}
-					} else {
-						log.warn("At District " + districtInformation.getAttribute("Ortsteil").toString()
-								+ " no garbage will be collected at " + day);
-						districtsWithNoShipments.add(districtToCollect);
-					}
-				}
-
-			}
-			if (garbageLinks.size() != 0) {
-				districtsWithShipments.add(districtToCollect);
-				createShipmentsForCarrierII(garbageToCollect, volumeBigDustbin, serviceTimePerBigTrashcan,
-						distanceWithShipments, garbageLinks, scenario, carrierMap.get(depot), dumpId, carriers);
-			}
-			distanceWithShipments = 0;
-			garbageLinks.clear();
-		}
+		createShipmentsForDistricts(districtsWithGarbage, districtsForShipments, null, null, day, garbageDumps,
+				scenario, carriers, carrierMap, allLinks, volumeBigDustbin, serviceTimePerBigTrashcan, false);
 		for (Carrier carrier : carrierMap.values())
 			carriers.addCarrier(carrier);
 
@@ -276,53 +416,9 @@ class AbfallUtils {
 			HashMap<String, Double> areasForShipmentPerMeterMap, String day, HashMap<String, Id<Link>> garbageDumps,
 			Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
 			Map<Id<Link>, ? extends Link> allLinks, double volumeBigDustbin, double serviceTimePerBigTrashcan) {
-		Id<Link> dumpId = null;
-		double distanceWithShipments = 0;
-		String depot = null;
-		Map<Id<Link>, Link> garbageLinks = new HashMap<Id<Link>, Link>();
-		createMapEnt();
-		for (String districtToCollect : areasForShipmentPerMeterMap.keySet()) {
-			for (SimpleFeature districtInformation : districtsWithGarbage) {
-				if (districtInformation.getAttribute("Ortsteil").equals(districtToCollect)) {
-					if ((double) districtInformation.getAttribute(day) > 0) {
-						dumpId = garbageDumps.get(districtInformation.getAttribute(dataEnt.get(day)));
-						depot = districtInformation.getAttribute("Depot").toString();
-						for (Link link : allLinks.values()) {
-							for (String linkInDistrict : linksInDistricts.get(districtToCollect)) {
-								if (Id.createLinkId(linkInDistrict) == link.getId()) {
-									if (link.getFreespeed() < 14 && link.getAllowedModes().contains("car")) {
-										for (Link garbageLink : garbageLinks.values()) {
-											if (link.getFromNode() == garbageLink.getToNode()
-													&& link.getToNode() == garbageLink.getFromNode())
-												streetAlreadyInGarbageLinks = true;
-
-										}
-										if (streetAlreadyInGarbageLinks != true) {
-											garbageLinks.put(link.getId(), link);
-											distanceWithShipments = distanceWithShipments + link.getLength();
-										}
-										streetAlreadyInGarbageLinks = false;
-									}
-								}
-							}
-						}
-					} else {
-						log.warn("At District " + districtInformation.getAttribute("Ortsteil").toString()
-								+ " no garbage will be collected at " + day);
-						districtsWithNoShipments.add(districtToCollect);
-					}
-
-				}
-
-			}
-			if (garbageLinks.size() != 0)
-				districtsWithShipments.add(districtToCollect);
-			double garbagePerMeterToCollect = areasForShipmentPerMeterMap.get(districtToCollect);
-			createShipmentsForCarrierI(garbagePerMeterToCollect, volumeBigDustbin, serviceTimePerBigTrashcan,
-					garbageLinks, scenario, carrierMap.get(depot), dumpId, carriers);
-			distanceWithShipments = 0;
-			garbageLinks.clear();
-		}
+		createShipmentsForDistricts(districtsWithGarbage, areasForShipmentPerMeterMap.keySet(),
+				areasForShipmentPerMeterMap, null, day, garbageDumps, scenario, carriers, carrierMap, allLinks,
+				volumeBigDustbin, serviceTimePerBigTrashcan, false);
 		for (Carrier carrier : carrierMap.values())
 			carriers.addCarrier(carrier);
 	}
@@ -338,54 +434,9 @@ class AbfallUtils {
 			HashMap<String, Integer> areasForShipmentPerVolumeMap, String day, HashMap<String, Id<Link>> garbageDumps,
 			Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
 			Map<Id<Link>, ? extends Link> allLinks, double volumeBigDustbin, double serviceTimePerBigTrashcan) {
-		Id<Link> dumpId = null;
-		double distanceWithShipments = 0;
-		String depot = null;
-		Map<Id<Link>, Link> garbageLinks = new HashMap<Id<Link>, Link>();
-		createMapEnt();
-		for (String districtToCollect : areasForShipmentPerVolumeMap.keySet()) {
-			for (SimpleFeature districtInformation : districtsWithGarbage) {
-				if (districtInformation.getAttribute("Ortsteil").equals(districtToCollect)) {
-					if ((double) districtInformation.getAttribute(day) > 0) {
-						dumpId = garbageDumps.get(districtInformation.getAttribute(dataEnt.get(day)));
-						depot = districtInformation.getAttribute("Depot").toString();
-						for (Link link : allLinks.values()) {
-							for (String linkInDistrict : linksInDistricts.get(districtToCollect)) {
-								if (Id.createLinkId(linkInDistrict) == link.getId()) {
-									if (link.getFreespeed() < 14 && link.getAllowedModes().contains("car")) {
-										for (Link garbageLink : garbageLinks.values()) {
-											if (link.getFromNode() == garbageLink.getToNode()
-													&& link.getToNode() == garbageLink.getFromNode())
-												streetAlreadyInGarbageLinks = true;
-
-										}
-										if (streetAlreadyInGarbageLinks != true) {
-											garbageLinks.put(link.getId(), link);
-											distanceWithShipments = distanceWithShipments + link.getLength();
-										}
-										streetAlreadyInGarbageLinks = false;
-
-									}
-								}
-							}
-						}
-					} else {
-						log.warn("At District " + districtInformation.getAttribute("Ortsteil").toString()
-								+ " no garbage will be collected at " + day);
-						districtsWithNoShipments.add(districtToCollect);
-					}
-
-				}
-
-			}
-			if (garbageLinks.size() != 0)
-				districtsWithShipments.add(districtToCollect);
-			int garbageVolumeToCollect = areasForShipmentPerVolumeMap.get(districtToCollect);
-			createShipmentsForCarrierII(garbageVolumeToCollect, volumeBigDustbin, serviceTimePerBigTrashcan,
-					distanceWithShipments, garbageLinks, scenario, carrierMap.get(depot), dumpId, carriers);
-			distanceWithShipments = 0;
-			garbageLinks.clear();
-		}
+		createShipmentsForDistricts(districtsWithGarbage, areasForShipmentPerVolumeMap.keySet(), null,
+				areasForShipmentPerVolumeMap, day, garbageDumps, scenario, carriers, carrierMap, allLinks,
+				volumeBigDustbin, serviceTimePerBigTrashcan, false);
 		for (Carrier carrier : carrierMap.values())
 			carriers.addCarrier(carrier);
 	}
@@ -400,61 +451,8 @@ class AbfallUtils {
 			HashMap<String, Id<Link>> garbageDumps, Scenario scenario, Carriers carriers,
 			HashMap<String, Carrier> carrierMap, Map<Id<Link>, ? extends Link> allLinks, double volumeBigTrashcan,
 			double serviceTimePerBigDustbin, boolean oneCarrierForEachDistrict) {
-		Id<Link> dumpId = null;
-		double distanceWithShipments = 0;
-		int garbageToCollect = 0;
-		String usedCarrier = null;
-		String district = null;
-		Map<Id<Link>, Link> garbageLinks = new HashMap<Id<Link>, Link>();
-		createMapEnt();
-//		carrierMap.clear();
-		for (SimpleFeature districtInformation : districtsWithGarbage) {
-			if ((double) districtInformation.getAttribute(day) > 0) {
-				garbageToCollect = (int) ((double) districtInformation.getAttribute(day) * 1000);
-				dumpId = garbageDumps.get(districtInformation.getAttribute(dataEnt.get(day)));
-				usedCarrier = districtInformation.getAttribute("Depot").toString();
-				if (oneCarrierForEachDistrict == true) {
-					district = districtInformation.getAttribute("Ortsteil").toString();
-					Carrier newCarrier = createSingleCarrier(usedCarrier, carrierMap, district);
-					carrierMap.put(district, newCarrier);
-					usedCarrier = district;
-				}
-				for (Link link : allLinks.values()) {
-					for (String linkInDistrict : linksInDistricts
-							.get(districtInformation.getAttribute("Ortsteil").toString())) {
-						if (Id.createLinkId(linkInDistrict) == link.getId()) {
-							if (link.getFreespeed() < 14 && link.getAllowedModes().contains("car")) {
-								for (Link garbageLink : garbageLinks.values()) {
-									if (link.getFromNode() == garbageLink.getToNode()
-											&& link.getToNode() == garbageLink.getFromNode())
-										streetAlreadyInGarbageLinks = true;
-
-								}
-								if (streetAlreadyInGarbageLinks != true) {
-									garbageLinks.put(link.getId(), link);
-									distanceWithShipments = distanceWithShipments + link.getLength();
-								}
-								streetAlreadyInGarbageLinks = false;
-
-							}
-						}
-					}
-				}
-			} else {
-				log.warn("At District " + districtInformation.getAttribute("Ortsteil").toString()
-						+ " no garbage will be collected at " + day);
-			}
-
-			if (garbageLinks.size() != 0) {
-				districtsWithShipments.add(districtInformation.getAttribute("Ortsteil").toString());
-
-				createShipmentsForCarrierII(garbageToCollect, volumeBigTrashcan, serviceTimePerBigDustbin,
-						distanceWithShipments, garbageLinks, scenario,
-						carrierMap.get(usedCarrier), dumpId, carriers);
-			}
-			distanceWithShipments = 0;
-			garbageLinks.clear();
-		}
+		createShipmentsForDistricts(districtsWithGarbage, null, null, null, day, garbageDumps, scenario, carriers,
+				carrierMap, allLinks, volumeBigTrashcan, serviceTimePerBigDustbin, oneCarrierForEachDistrict);
 		if (oneCarrierForEachDistrict == true) {
 			carrierMap.remove("Nordring");
 			carrierMap.remove("MalmoeerStr");
@@ -467,6 +465,120 @@ class AbfallUtils {
 		}
 	}
 
+	/**
+	 * Creates the shipments of the given districts. Depot, dump and the days of
+	 * pickup are read from the shapefile; the methods above only differ in the
+	 * selection of the districts and in the garbage to collect.
+	 * 
+	 * Every district is found by its name and its links by their ids, so the
+	 * effort is linear in the number of links, also for all districts of Berlin.
+	 * 
+	 * @param districtsToCollect null for all districts of the shapefile
+	 * @param garbagePerMeter    garbage per meter street of every district, or
+	 *                           null
+	 * @param garbageToCollect   garbage of every district, or null to use the
+	 *                           volume of the shapefile
+	 */
+	private static void createShipmentsForDistricts(Collection<SimpleFeature> districtsWithGarbage,
+			Collection<String> districtsToCollect, Map<String, Double> garbagePerMeter,
+			Map<String, Integer> garbageToCollect, String day, HashMap<String, Id<Link>> garbageDumps,
+			Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
+			Map<Id<Link>, ? extends Link> allLinks, double volumeBigDustbin, double serviceTimePerBigTrashcan,
+			boolean oneCarrierForEachDistrict) {
+		List<SimpleFeature> districts = new ArrayList<SimpleFeature>();
+		if (districtsToCollect == null) {
+			districts.addAll(districtsWithGarbage);
+		} else {
+			Map<String, SimpleFeature> districtsByName = new HashMap<String, SimpleFeature>();
+			for (SimpleFeature districtInformation : districtsWithGarbage)
+				districtsByName.putIfAbsent(districtInformation.getAttribute("Ortsteil").toString(),
+						districtInformation);
+			for (String districtToCollect : districtsToCollect) {
+				if (districtsByName.containsKey(districtToCollect))
+					districts.add(districtsByName.get(districtToCollect));
+			}
+		}
+
+		for (SimpleFeature districtInformation : districts) {
+			String district = districtInformation.getAttribute("Ortsteil").toString();
+			if ((double) districtInformation.getAttribute(day) <= 0) {
+				log.warn("At District " + district + " no garbage will be collected at " + day);
+				if (districtsToCollect != null)
+					runStatistics().districtsWithNoShipments.add(district);
+				continue;
+			}
+			Id<Link> dumpId = garbageDumps.get(districtInformation.getAttribute(dataEnt.get(day)));
+			String usedCarrier = districtInformation.getAttribute("Depot").toString();
+			if (oneCarrierForEachDistrict == true) {
+				Carrier newCarrier = createSingleCarrier(usedCarrier, carrierMap, district);
+				carrierMap.put(district, newCarrier);
+				usedCarrier = district;
+			}
+
+			GarbageLinks garbageLinks = selectGarbageLinks(district, allLinks);
+			if (garbageLinks.links.size() == 0)
+				continue;
+			runStatistics().districtsWithShipments.add(district);
+			if (garbagePerMeter != null) {
+				createShipmentsForCarrierI(garbagePerMeter.get(district), volumeBigDustbin, serviceTimePerBigTrashcan,
+						garbageLinks.links, scenario, carrierMap.get(usedCarrier), dumpId, carriers);
+			} else {
+				int garbage = garbageToCollect != null ? garbageToCollect.get(district)
+						: (int) ((double) districtInformation.getAttribute(day) * 1000);
+				createShipmentsForCarrierII(garbage, volumeBigDustbin, serviceTimePerBigTrashcan,
+						garbageLinks.distance, garbageLinks.links, scenario, carrierMap.get(usedCarrier), dumpId,
+						carriers);
+			}
+		}
+	}
+
+	/**
+	 * Selects the links of the district where garbage is collected: all links for
+	 * cars with a freespeed below 14 m/s, but only one direction of every street.
+	 * The links are visited in the order of the network, so it is always the same
+	 * direction; the opposite direction is found by the (toNode, fromNode) pair of
+	 * a link in the set of already selected (fromNode, toNode) pairs.
+	 */
+	private static GarbageLinks selectGarbageLinks(String district, Map<Id<Link>, ? extends Link> allLinks) {
+		GarbageLinks garbageLinks = new GarbageLinks();
+		Set<List<Id<Node>>> selectedDirections = new HashSet<List<Id<Node>>>();
+		for (String linkInDistrict : linksInDistricts.get(district)) {
+			Link link = allLinks.get(Id.createLinkId(linkInDistrict));
+			if (link == null || link.getFreespeed() >= 14 || !link.getAllowedModes().contains("car"))
+				continue;
+			if (selectedDirections.contains(Arrays.asList(link.getToNode().getId(), link.getFromNode().getId())))
+				continue;
+			selectedDirections.add(Arrays.asList(link.getFromNode().getId(), link.getToNode().getId()));
+			garbageLinks.links.put(link.getId(), link);
+			garbageLinks.distance = garbageLinks.distance + link.getLength();
+		}
+		return garbageLinks;
+	}
+
+	/**
+	 * Creates the locations which the carrier with the name of the carrier map may
+	 * visit on any day: all dumps, and the garbage links of every district of its
+	 * depot, or of its district for one carrier for each district, one group per
+	 * district.
+	 */
+	static List<Collection<Id<Link>>> createLocationGroups(String carrierName,
+			Collection<SimpleFeature> districtsWithGarbage, Map<Id<Link>, ? extends Link> allLinks) {
+		List<Collection<Id<Link>>> locationGroups = new ArrayList<Collection<Id<Link>>>();
+		locationGroups.add(createDumpMap().values());
+		for (SimpleFeature districtInformation : districtsWithGarbage) {
+			String district = districtInformation.getAttribute("Ortsteil").toString();
+			String depot = districtInformation.getAttribute("Depot").toString();
+			if (carrierName.equals(district) || carrierName.equals(depot))
+				locationGroups.add(selectGarbageLinks(district, allLinks).links.keySet());
+		}
+		return locationGroups;
+	}
+
+	private static final class GarbageLinks {
+		private final Map<Id<Link>, Link> links = new HashMap<Id<Link>, Link>();
+		private double distance = 0;
+	}
+
 	private static Carrier createSingleCarrier(String depot, HashMap<String, Carrier> carrierMap, String district) {
 		Carrier newCarrier = CarrierUtils.createCarrier(Id.create("Carrier " + district, Carrier.class));
 		for (Carrier originalCarrier : carrierMap.values()) {
@@ -493,11 +605,12 @@ class AbfallUtils {
 	static void createShipmentsForCarrierI(double garbagePerMeterToCollect, double volumeBigDustbin,
 			double serviceTimePerBigTrashcan, Map<Id<Link>, Link> garbageLinks, Scenario scenario, Carrier thisCarrier,
 			Id<Link> dumpId, Carriers carriers) {
+		RunStatistics statistics = runStatistics();
 
 		for (Link link : garbageLinks.values()) {
 			double maxWeightBigDustbin = volumeBigDustbin * 0.1; // Umrechnung von Volumen [l] in Masse[kg]
 			int volumeGarbage = (int) Math.ceil(link.getLength() * garbagePerMeterToCollect);
-			amountOfCollectedDustbins = amountOfCollectedDustbins
+			statistics.amountOfCollectedDustbins = statistics.amountOfCollectedDustbins
 					+ (int) Math.ceil(((double) volumeGarbage) / maxWeightBigDustbin);
 			double serviceTime = Math.ceil(((double) volumeGarbage) / maxWeightBigDustbin) * serviceTimePerBigTrashcan;
 			// double deliveryTime = ((double) volumeGarbage / capacityTruck) * 45 * 60;
@@ -511,7 +624,7 @@ class AbfallUtils {
 			thisCarrier.getShipments().put(shipment.getId(), shipment);
 			countingGarbage(dumpId, volumeGarbage);
 		}
-		numberOfShipments = numberOfShipments + garbageLinks.size();
+		statistics.numberOfShipments = statistics.numberOfShipments + garbageLinks.size();
 	}
 
 	/**
@@ -525,6 +638,7 @@ class AbfallUtils {
 	static void createShipmentsForCarrierII(int garbageToCollect, double volumeBigDustbin,
 			double serviceTimePerBigTrashcan, double distanceWithShipments, Map<Id<Link>, Link> garbageLinks,
 			Scenario scenario, Carrier thisCarrier, Id<Link> garbageDumpId, Carriers carriers) {
+		RunStatistics statistics = runStatistics();
 		int count = 1;
 		int garbageCount = 0;
 		double roundingError = 0;
@@ -544,7 +658,7 @@ class AbfallUtils {
 				}
 				count++;
 			}
-			amountOfCollectedDustbins = amountOfCollectedDustbins
+			statistics.amountOfCollectedDustbins = statistics.amountOfCollectedDustbins
 					+ (int) Math.ceil(((double) volumeGarbage) / maxWeightBigDustbin);
 			double serviceTime = Math.ceil(((double) volumeGarbage) / maxWeightBigDustbin) * serviceTimePerBigTrashcan;
 //			double deliveryTime = ((double) volumeGarbage / capacityTruck) * 45 * 60;
@@ -559,7 +673,7 @@ class AbfallUtils {
 			garbageCount = garbageCount + volumeGarbage;
 			countingGarbage(garbageDumpId, volumeGarbage);
 		}
-		numberOfShipments = numberOfShipments + garbageLinks.size();
+		statistics.numberOfShipments = statistics.numberOfShipments + garbageLinks.size();
 
 	}
 
@@ -570,17 +684,18 @@ class AbfallUtils {
 	 * @param
 	 */
 	private static void countingGarbage(Id<Link> garbageDumpId, int volumeGarbage) {
-		allGarbage = allGarbage + volumeGarbage;
+		RunStatistics statistics = runStatistics();
+		statistics.allGarbage = statistics.allGarbage + volumeGarbage;
 		if (garbageDumpId.equals(Id.createLinkId(linkGruenauerStr)))
-			garbageGruenauerStr = garbageGruenauerStr + volumeGarbage;
+			statistics.garbageGruenauerStr = statistics.garbageGruenauerStr + volumeGarbage;
 		if (garbageDumpId.equals(Id.createLinkId(linkMhkwRuhleben)))
-			garbageRuhleben = garbageRuhleben + volumeGarbage;
+			statistics.garbageRuhleben = statistics.garbageRuhleben + volumeGarbage;
 		if (garbageDumpId.equals(Id.createLinkId(linkMpsPankow)))
-			garbagePankow = garbagePankow + volumeGarbage;
+			statistics.garbagePankow = statistics.garbagePankow + volumeGarbage;
 		if (garbageDumpId.equals(Id.createLinkId(linkMpsReinickendorf)))
-			garbageReinickenD = garbageReinickenD + volumeGarbage;
+			statistics.garbageReinickenD = statistics.garbageReinickenD + volumeGarbage;
 		if (garbageDumpId.equals(Id.createLinkId(linkUmladestationGradestrasse)))
-			garbageGradestr = garbageGradestr + volumeGarbage;
+			statistics.garbageGradestr = statistics.garbageGradestr + volumeGarbage;
 	}
 
 	/**
@@ -591,40 +706,105 @@ class AbfallUtils {
 	 */
 	static void solveWithJsprit(Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
 			int jspritIteration) {
+		solveWithJsprit(scenario, carriers, carrierMap, jspritIteration, 1);
+	}
+
+	/**
+	 * Same as {@link #solveWithJsprit(Scenario, Carriers, HashMap, int)}, but
+	 * solves up to numberOfThreads carriers at the same time. Every carrier gets
+	 * its own algorithm with a random seed derived from the carrier id and the
+	 * global random seed, and the results are added up in the order of the
+	 * carriers, so the output does not depend on the number of threads.
+	 * 
+	 * @param numberOfThreads 1 solves the carriers one after another in the
+	 *                        calling thread
+	 */
+	static void solveWithJsprit(Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
+			int jspritIteration, int numberOfThreads) {
+		solveWithJsprit(scenario, carriers, carrierMap, jspritIteration, numberOfThreads, null, null);
+	}
+
+	/**
+	 * Same as {@link #solveWithJsprit(Scenario, Carriers, HashMap, int, int)}, but
+	 * jsprit takes the travel times and distances from the precomputed matrices of
+	 * the cache instead of routing on demand. The matrices of a carrier are built
+	 * over the locations of {@link #createLocationGroups(String, Collection, Map)},
+	 * which do not depend on the day.
+	 * 
+	 * @param costMatrixCache      null to route on demand
+	 * @param districtsWithGarbage the districts of all days
+	 */
+	static void solveWithJsprit(Scenario scenario, Carriers carriers, HashMap<String, Carrier> carrierMap,
+			int jspritIteration, int numberOfThreads, TravelCostMatrixCache costMatrixCache,
+			Collection<SimpleFeature> districtsWithGarbage) {
+		RunStatistics statistics = runStatistics();
 
-		int carrierCount = 1;
 		CarrierVehicleTypes vehicleTypes = (CarrierVehicleTypes) scenario.getScenarioElement("carrierVehicleTypes");
 		Network network = scenario.getNetwork();
 		Builder netBuilder = NetworkBasedTransportCosts.Builder.newInstance(network,
 				vehicleTypes.getVehicleTypes().values());
+		netBuilder.setTimeSliceWidth(TIME_SLICE_WIDTH);
 		final NetworkBasedTransportCosts netBasedCosts = netBuilder.build();
-		netBuilder.setTimeSliceWidth(1800);
-
-		for (Carrier singleCarrier : carrierMap.values()) {
-
-			// Build jsprit, solve and route VRP for carrierService only -> need solution to
-			// convert Services to Shipments
-			VehicleRoutingProblem.Builder vrpBuilder = MatsimJspritFactory.createRoutingProblemBuilder(singleCarrier,
-					network);
-			vrpBuilder.setRoutingCost(netBasedCosts);
-			VehicleRoutingProblem problem = vrpBuilder.build();
-
-			// get the algorithm out-of-the-box, search solution and get the best one.
-			VehicleRoutingAlgorithm algorithm = new SchrimpfFactory().createAlgorithm(problem);
-			log.info("Creating solution for carrier " + carrierCount + " of " + carrierMap.size() + " Carriers");
-			algorithm.setMaxIterations(jspritIterations = jspritIteration);
-			Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
-			VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
-			costsJsprit = costsJsprit + bestSolution.getCost();
-
-			// Routing bestPlan to Network
-			CarrierPlan carrierPlanServices = MatsimJspritFactory.createPlan(singleCarrier, bestSolution);
-			NetworkRouter.routePlan(carrierPlanServices, netBasedCosts);
-			singleCarrier.setSelectedPlan(carrierPlanServices);
-			noPickup = noPickup + bestSolution.getUnassignedJobs().size();
-			carrierCount++;
+		statistics.jspritIterations = jspritIteration;
+		long randomSeed = scenario.getConfig().global().getRandomSeed();
+
+		List<String> carrierNames = new ArrayList<String>(carrierMap.keySet());
+		List<Carrier> carriersToSolve = new ArrayList<Carrier>();
+		for (String carrierName : carrierNames)
+			carriersToSolve.add(carrierMap.get(carrierName));
+		List<Callable<JspritResult>> tasks = new ArrayList<Callable<JspritResult>>();
+		for (int i = 0; i < carriersToSolve.size(); i++) {
+			Carrier singleCarrier = carriersToSolve.get(i);
+			String carrierName = carrierNames.get(i);
+			int carrierCount = i + 1;
+			tasks.add(() -> {
+				log.info("Creating solution for carrier " + carrierCount + " of " + carriersToSolve.size()
+						+ " Carriers");
+				VehicleRoutingTransportCosts routingCosts = netBasedCosts;
+				if (costMatrixCache != null)
+					routingCosts = costMatrixCache.createTransportCosts(singleCarrier,
+							createLocationGroups(carrierName, districtsWithGarbage, network.getLinks()),
+							netBasedCosts);
+				return solveCarrier(singleCarrier, network, routingCosts, netBasedCosts, jspritIteration,
+						IdHashing.hash(singleCarrier.getId().toString(), randomSeed));
+			});
+		}
+
+		List<JspritResult> results = new ArrayList<JspritResult>();
+		if (numberOfThreads <= 1) {
+			for (Callable<JspritResult> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		} else {
+			ExecutorService executor = Executors
+					.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, tasks.size())));
+			try {
+				for (Future<JspritResult> future : executor.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		// only the calling thread changes the carriers and the static counters
+		for (int i = 0; i < carriersToSolve.size(); i++) {
+			Carrier singleCarrier = carriersToSolve.get(i);
+			JspritResult result = results.get(i);
+			statistics.costsJsprit = statistics.costsJsprit + result.bestSolution.getCost();
+			singleCarrier.setSelectedPlan(result.plan);
+			statistics.noPickup = statistics.noPickup + result.bestSolution.getUnassignedJobs().size();
 			if (singleCarrier.getId() == Id.create("Carrier_Chessboard", Carrier.class))
-				new Plotter(problem, bestSolution).plot(
+				new Plotter(result.problem, result.bestSolution).plot(
 						scenario.getConfig().controler().getOutputDirectory() + "/jsprit_CarrierPlans_Test01.png",
 						"bestSolution");
 		}
@@ -633,6 +813,70 @@ class AbfallUtils {
 
 	}
 
+	/**
+	 * Builds, solves and routes the VRP of one carrier without changing the
+	 * carrier, so that several carriers can be solved in parallel.
+	 */
+	private static JspritResult solveCarrier(Carrier singleCarrier, Network network,
+			VehicleRoutingTransportCosts routingCosts, NetworkBasedTransportCosts netBasedCosts, int jspritIteration,
+			long seed) {
+		// Build jsprit, solve and route VRP for carrierService only -> need solution to
+		// convert Services to Shipments
+		VehicleRoutingProblem.Builder vrpBuilder = MatsimJspritFactory.createRoutingProblemBuilder(singleCarrier,
+				network);
+		vrpBuilder.setRoutingCost(routingCosts);
+		VehicleRoutingProblem problem = vrpBuilder.build();
+
+		// get the algorithm out-of-the-box, search solution and get the best one.
+		VehicleRoutingAlgorithm algorithm = createSchrimpfAlgorithm(problem, new Random(seed));
+		algorithm.setMaxIterations(jspritIteration);
+		Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
+		VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
+
+		// Routing bestPlan to Network
+		CarrierPlan carrierPlanServices = MatsimJspritFactory.createPlan(singleCarrier, bestSolution);
+		NetworkRouter.routePlan(carrierPlanServices, netBasedCosts);
+		return new JspritResult(problem, bestSolution, carrierPlanServices);
+	}
+
+	/**
+	 * The algorithm of {@link SchrimpfFactory}, but with its own random number
+	 * generator instead of the default seed, which is the same for all carriers.
+	 */
+	private static VehicleRoutingAlgorithm createSchrimpfAlgorithm(VehicleRoutingProblem problem, Random random) {
+		int radialShare = (int) (problem.getJobs().size() * 0.3);
+		int randomShare = (int) (problem.getJobs().size() * 0.5);
+		Jsprit.Builder builder = Jsprit.Builder.newInstance(problem);
+		builder.setRandom(random);
+		builder.setProperty(Jsprit.Parameter.THRESHOLD_ALPHA, "0.0");
+		builder.setProperty(Jsprit.Strategy.RADIAL_BEST, "0.5");
+		builder.setProperty(Jsprit.Strategy.RADIAL_REGRET, "0.0");
+		builder.setProperty(Jsprit.Strategy.RANDOM_BEST, "0.5");
+		builder.setProperty(Jsprit.Strategy.RANDOM_REGRET, "0.0");
+		builder.setProperty(Jsprit.Strategy.WORST_BEST, "0.0");
+		builder.setProperty(Jsprit.Strategy.WORST_REGRET, "0.0");
+		builder.setProperty(Jsprit.Strategy.CLUSTER_BEST, "0.0");
+		builder.setProperty(Jsprit.Strategy.CLUSTER_REGRET, "0.0");
+		builder.setProperty(Jsprit.Parameter.RADIAL_MIN_SHARE, String.valueOf(radialShare));
+		builder.setProperty(Jsprit.Parameter.RADIAL_MAX_SHARE, String.valueOf(radialShare));
+		builder.setProperty(Jsprit.Parameter.RANDOM_BEST_MIN_SHARE, String.valueOf(randomShare));
+		builder.setProperty(Jsprit.Parameter.RANDOM_BEST_MAX_SHARE, String.valueOf(randomShare));
+		return builder.buildAlgorithm();
+	}
+
+	private static final class JspritResult {
+		private final VehicleRoutingProblem problem;
+		private final VehicleRoutingProblemSolution bestSolution;
+		private final CarrierPlan plan;
+
+		private JspritResult(VehicleRoutingProblem problem, VehicleRoutingProblemSolution bestSolution,
+				CarrierPlan plan) {
+			this.problem = problem;
+			this.bestSolution = bestSolution;
+			this.plan = plan;
+		}
+	}
+
 //	/**
 //	 * @param
 //	 */
@@ -716,6 +960,7 @@ class AbfallUtils {
 	static void outputSummary(Collection<SimpleFeature> districtsWithGarbage, Scenario scenario,
 			HashMap<String, Carrier> carrierMap, String day, double volumeDustbin,
 			double secondsServiceTimePerDustbin) {
+		RunStatistics statistics = runStatistics();
 		int vehiclesForckenbeck = 0;
 		int vehiclesMalmoeer = 0;
 		int vehiclesNordring = 0;
@@ -1014,13 +1259,15 @@ class AbfallUtils {
 				writer.write("Wochentag:\t\t\t\t\t\t\t\t\t\t\t\t\t" + day + "\n\n");
 			}
 			writer.write(
-					"Anzahl der untersuchten Gebiete mit Abholung:\t\t\t\t" + districtsWithShipments.size() + "\n");
-			writer.write("Untersuchte Gebiete mit Abholung:\t\t\t\t\t\t\t" + districtsWithShipments.toString() + "\n");
+					"Anzahl der untersuchten Gebiete mit Abholung:\t\t\t\t" + statistics.districtsWithShipments.size()
+							+ "\n");
+			writer.write("Untersuchte Gebiete mit Abholung:\t\t\t\t\t\t\t"
+					+ statistics.districtsWithShipments.toString() + "\n");
 			if (day != null) {
 				writer.write("\n" + "Anzahl der untersuchten Gebiete ohne Abholung:\t\t\t\t"
-						+ districtsWithNoShipments.size() + "\n");
-				writer.write("Untersuchte Gebiete ohne Abholung:\t\t\t\t\t\t\t" + districtsWithNoShipments.toString()
-						+ "\n");
+						+ statistics.districtsWithNoShipments.size() + "\n");
+				writer.write("Untersuchte Gebiete ohne Abholung:\t\t\t\t\t\t\t"
+						+ statistics.districtsWithNoShipments.toString() + "\n");
 			}
 			writer.write("\n" + "Fahrzeug: \t\t\t\t\t\t\t\t\t\t\t\t\t" + vehicleTypeId + "\n");
 			writer.write(
@@ -1028,14 +1275,15 @@ class AbfallUtils {
 			writer.write("Volumen der Mülltonne: \t\t\t\t\t\t\t\t\t\t" + volumeDustbin + " Liter\n");
 			writer.write(
 					"ServiceTime pro Mülltonne:\t\t\t\t\t\t\t\t\t" + secondsServiceTimePerDustbin + " Sekunden\n\n");
-			writer.write("Iterationen jsprit:\t\t\t\t\t\t\t\t\t\t\t" + jspritIterations + "\n");
-			writer.write("Iterationen MATSim:\t\t\t\t\t\t\t\t\t\t\t" + matsimIterations + "\n");
-			writer.write("\n" + "Die Summe des abzuholenden Mülls beträgt: \t\t\t\t\t" + ((double) allGarbage) / 1000
-					+ " t\n\n");
-			writer.write("Anzahl der Abholstellen: \t\t\t\t\t\t\t\t\t" + numberOfShipments + "\n");
-			writer.write("Anzahl der Abholstellen ohne Abholung: \t\t\t\t\t\t" + noPickup + "\n\n");
+			writer.write("Iterationen jsprit:\t\t\t\t\t\t\t\t\t\t\t" + statistics.jspritIterations + "\n");
+			writer.write("Iterationen MATSim:\t\t\t\t\t\t\t\t\t\t\t" + statistics.matsimIterations + "\n");
+			writer.write("\n" + "Die Summe des abzuholenden Mülls beträgt: \t\t\t\t\t"
+					+ ((double) statistics.allGarbage) / 1000 + " t\n\n");
+			writer.write("Anzahl der Abholstellen: \t\t\t\t\t\t\t\t\t" + statistics.numberOfShipments + "\n");
+			writer.write("Anzahl der Abholstellen ohne Abholung: \t\t\t\t\t\t" + statistics.noPickup + "\n\n");
 			writer.write("Anzahl der Carrier mit Shipments:\t\t\t\t\t\t\t" + carrierWithShipments + "\n\n");
-			writer.write("Anzahl der entleerten Mülltonnen:\t\t\t\t\t\t\t" + amountOfCollectedDustbins + "\n\n");
+			writer.write(
+					"Anzahl der entleerten Mülltonnen:\t\t\t\t\t\t\t" + statistics.amountOfCollectedDustbins + "\n\n");
 			writer.write("Anzahl der Muellfahrzeuge im Einsatz: \t\t\t\t\t\t" + (numberVehicles) + "\t\tMenge gesamt:\t"
 					+ ((double) allCollectedGarbage) / 1000 + " t\n\n");
 			if (day != null) {
@@ -1127,7 +1375,7 @@ class AbfallUtils {
 						+ (powerConsumptionForckenbeck + powerConsumptionMalmoeerStr + powerConsumptionNordring
 								+ powerConsumptionGradestrasse + powerConsumptionChessboard)
 						+ " kwh\n\n");
-			writer.write("Kosten (Jsprit): \t\t\t\t\t\t\t\t\t\t\t" + (Math.round(costsJsprit)) + " €\n\n");
+			writer.write("Kosten (Jsprit): \t\t\t\t\t\t\t\t\t\t\t" + (Math.round(statistics.costsJsprit)) + " €\n\n");
 			writer.write("Kosten (MatSim): \t\t\t\t\t\t\t\t\t\t\t" + ((-1) * Math.round(matsimCosts)) + " €\n");
 
 			writer.flush();
@@ -1135,7 +1383,7 @@ class AbfallUtils {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if (noPickup == 0) {
+		if (statistics.noPickup == 0) {
 			System.out.println("");
 			System.out.println("Abfaelle wurden komplett von " + numberVehicles + " Fahrzeugen eingesammelt!");
 		} else {
@@ -1150,6 +1398,7 @@ class AbfallUtils {
 	 * 
 	 */
 	static void outputSummaryShipments(Scenario scenario, String day, HashMap<String, Carrier> carrierMap) {
+		RunStatistics statistics = runStatistics();
 
 		double capacityTruck = 0;
 		String vehicleTypeId = null;
@@ -1165,28 +1414,30 @@ class AbfallUtils {
 		file = new File(scenario.getConfig().controler().getOutputDirectory() + "/01_ZusammenfassungShipments.txt");
 		try {
 			writer = new FileWriter(file, true);
-			writer.write("Anzahl der Abholgebiete:\t\t\t\t\t\t\t\t\t" + districtsWithShipments.size() + "\n");
-			writer.write("Abholgebiete:\t\t\t\t\t\t\t\t\t\t\t\t" + districtsWithShipments.toString() + "\n");
+			writer.write("Anzahl der Abholgebiete:\t\t\t\t\t\t\t\t\t" + statistics.districtsWithShipments.size() + "\n");
+			writer.write("Abholgebiete:\t\t\t\t\t\t\t\t\t\t\t\t" + statistics.districtsWithShipments.toString() + "\n");
 			if (day != null)
 				writer.write("Wochentag:\t\t\t\t\t\t\t\t\t\t\t\t\t" + day + "\n");
-			writer.write("\n" + "Die Summe des abzuholenden Mülls beträgt: \t\t\t\t\t" + ((double) allGarbage) / 1000
-					+ " t\n\n");
+			writer.write("\n" + "Die Summe des abzuholenden Mülls beträgt: \t\t\t\t\t"
+					+ ((double) statistics.allGarbage) / 1000 + " t\n\n");
 			writer.write("Fahrzeug: \t\t\t\t\t\t\t\t\t\t\t\t\t" + vehicleTypeId + "\n");
 			writer.write(
 					"Kapazität je Fahrzeug: \t\t\t\t\t\t\t\t\t\t" + ((double) capacityTruck / 1000) + " Tonnen\n\n");
-			writer.write("Anzahl der Abholstellen: \t\t\t\t\t\t\t\t\t" + numberOfShipments + "\n");
+			writer.write("Anzahl der Abholstellen: \t\t\t\t\t\t\t\t\t" + statistics.numberOfShipments + "\n");
 			if (day != null) {
 				for (Carrier carrier : carrierMap.values()) {
 					writer.write("\t\t\t\t\t\t\t" + carrier.getId().toString() + ":\t\t\t\t\t\t"
 							+ carrier.getShipments().size() + "\n");
 				}
 				writer.write("\n" + "Anzuliefernde Menge (Soll):\tMHKW Ruhleben:\t\t\t\t\t"
-						+ ((double) garbageRuhleben) / 1000 + " t\n");
-				writer.write("\t\t\t\t\t\t\tMPS Pankow:\t\t\t\t\t\t" + ((double) garbagePankow) / 1000 + " t\n");
-				writer.write("\t\t\t\t\t\t\tMPS Reinickendorf:\t\t\t\t" + ((double) garbageReinickenD) / 1000 + " t\n");
-				writer.write(
-						"\t\t\t\t\t\t\tUmladestation Gradestrasse:\t\t" + ((double) garbageGradestr) / 1000 + " t\n");
-				writer.write("\t\t\t\t\t\t\tMA Gruenauer Str.:\t\t\t\t" + ((double) garbageGruenauerStr) / 1000 + " t");
+						+ ((double) statistics.garbageRuhleben) / 1000 + " t\n");
+				writer.write("\t\t\t\t\t\t\tMPS Pankow:\t\t\t\t\t\t" + ((double) statistics.garbagePankow) / 1000 + " t\n");
+				writer.write("\t\t\t\t\t\t\tMPS Reinickendorf:\t\t\t\t" + ((double) statistics.garbageReinickenD) / 1000
+						+ " t\n");
+				writer.write("\t\t\t\t\t\t\tUmladestation Gradestrasse:\t\t" + ((double) statistics.garbageGradestr) / 1000
+						+ " t\n");
+				writer.write("\t\t\t\t\t\t\tMA Gruenauer Str.:\t\t\t\t" + ((double) statistics.garbageGruenauerStr) / 1000
+						+ " t");
 			}
 			writer.flush();
 			writer.close();
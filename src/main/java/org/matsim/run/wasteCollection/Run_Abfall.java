@@ -34,12 +34,13 @@ public class Run_Abfall {
 	static final Logger log = Logger.getLogger(Run_Abfall.class);
 
 	private static final String original_Chessboard = "https://raw.githubusercontent.com/matsim-org/matsim/master/examples/scenarios/freight-chessboard-9x9/grid9x9.xml";
-	private static final String berlin = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/berlin/berlin-v5.2-1pct/output-berlin-v5.2-1pct/berlin-v5.2-1pct.output_network.xml.gz";
+	static final String berlin = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/berlin/berlin-v5.2-1pct/output-berlin-v5.2-1pct/berlin-v5.2-1pct.output_network.xml.gz";
 	private static final String berlinDistrictsWithGarbageInformations = "scenarios/berlin-v5.5-10pct/input/wasteCollection/garbageInput/districtsWithGarbageInformations.shp";
 	private static final String inputVehicleTypes = "scenarios/berlin-v5.5-10pct/input/wasteCollection/vehicleTypes.xml";
 	private static final String inputCarriersWithDieselVehicle = "scenarios/berlin-v5.5-10pct/input/wasteCollection/carriers_diesel_vehicle.xml";
 	private static final String inputCarriersWithMediumBatteryVehicle = "scenarios/berlin-v5.5-10pct/input/wasteCollection/carriers_medium_EV.xml";
 	private static final String inputCarriersWithSmallBatteryVehicle = "scenarios/berlin-v5.5-10pct/input/wasteCollection/carriers_small_EV.xml";
+	static final String cacheDirectoryDefault = "output/wasteCollection/cache";
 
 	private enum netzwerkAuswahl {
 		originalChessboard, berlinNetwork
@@ -79,6 +80,8 @@ public class Run_Abfall {
 		String vehicleTypesFileLocation = null;
 		String shapeFileLocation;
 		boolean oneCarrierForOneDistrict;
+		String cacheDirectory = cacheDirectoryDefault;
+		int jspritThreads = Runtime.getRuntime().availableProcessors();
 
 		for (String arg : args) {
 			log.info(arg);
@@ -106,6 +109,10 @@ public class Run_Abfall {
 			carriersFileLocation = args[7];
 			shapeFileLocation = args[8];
 			oneCarrierForOneDistrict = Boolean.parseBoolean(args[9]);
+			if (args.length > 10)
+				cacheDirectory = args[10];
+			if (args.length > 11)
+				jspritThreads = Integer.parseInt(args[11]);
 			chosenCarrier = carrierChoice.carriersFromInputFile;
 		}
 
@@ -163,7 +170,7 @@ public class Run_Abfall {
 
 		Collection<SimpleFeature> districtsWithGarbage = ShapeFileReader
 				.getAllFeatures(shapeFileLocation);
-		AbfallUtils.createMapWithLinksInDistricts(districtsWithGarbage, allLinks);
+		AbfallUtils.createMapWithLinksInDistricts(districtsWithGarbage, allLinks, cacheDirectory);
 
 		switch (scenarioWahl) {
 		case chessboardTotalGarbageToCollect:
@@ -226,7 +233,10 @@ public class Run_Abfall {
 		AbfallUtils.outputSummaryShipments(scenario, day, carrierMap);
 		// jsprit
 
-		AbfallUtils.solveWithJsprit(scenario, carriers, carrierMap, jspritIterations);
+		TravelCostMatrixCache costMatrixCache = new TravelCostMatrixCache(scenario.getNetwork(),
+				config.network().isTimeVariantNetwork(), AbfallUtils.TIME_SLICE_WIDTH, cacheDirectory);
+		AbfallUtils.solveWithJsprit(scenario, carriers, carrierMap, jspritIterations, jspritThreads,
+				costMatrixCache, districtsWithGarbage);
 
 		// final Controler controler = new Controler(scenario);
 		Controler controler = AbfallUtils.prepareControler(scenario);
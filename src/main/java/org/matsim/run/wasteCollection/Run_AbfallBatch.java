@@ -0,0 +1,232 @@
+package org.matsim.run.wasteCollection;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierPlanXmlWriterV2;
+import org.matsim.contrib.freight.carrier.Carriers;
+import org.matsim.contrib.freight.utils.FreightUtils;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.core.utils.io.IOUtils;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Runs many combinations of day, carriers, vehicle types and jsprit iterations
+ * of {@link Run_Abfall} (case berlinCollectedGarbageForOneDay) in one JVM. The
+ * network, the districts with their links and the travel cost matrices are
+ * loaded once and shared by all jobs; every job reads its own carriers and
+ * writes its summaries into its own output directory.
+ *
+ * The jobs run at the same time, each in its own thread, which holds the
+ * counters of its run. Only the MATSim runs of the jobs are executed one after
+ * another, since the controler configures the logging and the random numbers of
+ * the whole JVM.
+ *
+ * Arguments: jobs file, output directory, shapefile of the districts, network
+ * change events file ("" or none for none), volume of a dustbin in liters,
+ * service time per dustbin in seconds, one carrier for each district (true or
+ * false) and optionally the cache directory, the number of jobs running at the
+ * same time and the number of jsprit threads per job.
+ *
+ * Every line of the jobs file is a job with tab separated day (MO, DI, MI, DO or
+ * FR), carriers file, vehicle types file and jspritIterations; empty lines and
+ * lines starting with # are ignored.
+ */
+public class Run_AbfallBatch {
+
+	static final Logger log = Logger.getLogger(Run_AbfallBatch.class);
+
+	private static final Object controlerLock = new Object();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 7) {
+			throw new IllegalArgumentException("Please provide the jobs file, the output directory, the shapefile, "
+					+ "the network change events file, the volume of a dustbin, the service time per dustbin and "
+					+ "whether there is one carrier for each district.");
+		}
+		List<Job> jobs = readJobs(args[0]);
+		String outputDirectory = args[1];
+		String shapeFileLocation = args[2];
+		String networkChangeEventsFileLocation = args[3];
+		double volumeDustbinInLiters = Double.parseDouble(args[4]);
+		double secondsServiceTimePerDustbin = Double.parseDouble(args[5]);
+		boolean oneCarrierForOneDistrict = Boolean.parseBoolean(args[6]);
+		String cacheDirectory = args.length > 7 ? args[7] : Run_Abfall.cacheDirectoryDefault;
+		int parallelJobs = args.length > 8 ? Integer.parseInt(args[8]) : Runtime.getRuntime().availableProcessors();
+		int jspritThreadsPerJob = args.length > 9 ? Integer.parseInt(args[9]) : 1;
+
+		Config networkConfig = ConfigUtils.createConfig();
+		networkConfig.network().setInputFile(Run_Abfall.berlin);
+		if (!networkChangeEventsFileLocation.isEmpty() && !networkChangeEventsFileLocation.equals("none")) {
+			log.info("Setting networkChangeEventsInput file: " + networkChangeEventsFileLocation);
+			networkConfig.network().setTimeVariantNetwork(true);
+			networkConfig.network().setChangeEventsInputFile(networkChangeEventsFileLocation);
+		}
+		Network network = ScenarioUtils.loadScenario(networkConfig).getNetwork();
+		Collection<SimpleFeature> districtsWithGarbage = ShapeFileReader.getAllFeatures(shapeFileLocation);
+
+		runJobs(jobs, outputDirectory, networkConfig, network, districtsWithGarbage, cacheDirectory,
+				volumeDustbinInLiters, secondsServiceTimePerDustbin, oneCarrierForOneDistrict, parallelJobs,
+				jspritThreadsPerJob);
+	}
+
+	/**
+	 * Runs the jobs on the network of the network config, which is already loaded.
+	 * The districts with their links and the travel cost matrices are created here
+	 * once for all jobs.
+	 */
+	static void runJobs(List<Job> jobs, String outputDirectory, Config networkConfig, Network network,
+			Collection<SimpleFeature> districtsWithGarbage, String cacheDirectory, double volumeDustbinInLiters,
+			double secondsServiceTimePerDustbin, boolean oneCarrierForOneDistrict, int parallelJobs,
+			int jspritThreadsPerJob) throws Exception {
+		AbfallUtils.createMapWithLinksInDistricts(districtsWithGarbage, network.getLinks(), cacheDirectory);
+		TravelCostMatrixCache costMatrixCache = new TravelCostMatrixCache(network,
+				networkConfig.network().isTimeVariantNetwork(), AbfallUtils.TIME_SLICE_WIDTH, cacheDirectory);
+
+		writeJobOverview(outputDirectory, jobs);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (Job job : jobs) {
+			tasks.add(() -> {
+				runJob(job, networkConfig, network, districtsWithGarbage, costMatrixCache, volumeDustbinInLiters,
+						secondsServiceTimePerDustbin, oneCarrierForOneDistrict, jspritThreadsPerJob);
+				return null;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelJobs, jobs.size())));
+		int failedJobs = 0;
+		try {
+			List<Future<Void>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					log.error("Job " + jobs.get(i).outputDirectory + " failed.", e.getCause());
+					failedJobs++;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (failedJobs > 0) {
+			throw new RuntimeException(failedJobs + " of " + jobs.size() + " jobs failed.");
+		}
+	}
+
+	private static void runJob(Job job, Config networkConfig, Network network,
+			Collection<SimpleFeature> districtsWithGarbage, TravelCostMatrixCache costMatrixCache,
+			double volumeDustbinInLiters, double secondsServiceTimePerDustbin, boolean oneCarrierForOneDistrict,
+			int jspritThreads) throws Exception {
+		log.info("Starting job " + job.outputDirectory);
+		AbfallUtils.resetRunStatistics();
+
+		Config config = ConfigUtils.createConfig();
+		config.controler().setOutputDirectory(job.outputDirectory);
+		config.network().setInputFile(networkConfig.network().getInputFile());
+		config.network().setTimeVariantNetwork(networkConfig.network().isTimeVariantNetwork());
+		config.network().setChangeEventsInputFile(networkConfig.network().getChangeEventsInputFile());
+		config = AbfallUtils.prepareConfig(config, 0, job.vehicleTypesFile, job.carriersFile);
+		// the summary of the shipments and the jsprit plans are written before the
+		// controler creates the output directory
+		Files.createDirectories(Paths.get(job.outputDirectory));
+		MutableScenario scenario = (MutableScenario) ScenarioUtils.createScenario(config);
+		scenario.setNetwork(network);
+		FreightUtils.loadCarriersAccordingToFreightConfig(scenario);
+
+		Carriers carriers = FreightUtils.addOrGetCarriers(scenario);
+		HashMap<String, Carrier> carrierMap = AbfallUtils.createCarrier(carriers);
+		AbfallUtils.createShipmentsForSelectedDay(districtsWithGarbage, job.day, AbfallUtils.createDumpMap(),
+				scenario, carriers, carrierMap, network.getLinks(), volumeDustbinInLiters,
+				secondsServiceTimePerDustbin, oneCarrierForOneDistrict);
+		AbfallUtils.outputSummaryShipments(scenario, job.day, carrierMap);
+
+		AbfallUtils.solveWithJsprit(scenario, carriers, carrierMap, job.jspritIterations, jspritThreads,
+				costMatrixCache, districtsWithGarbage);
+
+		synchronized (controlerLock) {
+			AbfallUtils.prepareControler(scenario).run();
+		}
+
+		new CarrierPlanXmlWriterV2(carriers)
+				.write(scenario.getConfig().controler().getOutputDirectory() + "/output_CarrierPlans.xml");
+		AbfallUtils.outputSummary(districtsWithGarbage, scenario, carrierMap, job.day, volumeDustbinInLiters,
+				secondsServiceTimePerDustbin);
+		AbfallUtils.createResultFile(scenario, carriers);
+		log.info("Finished job " + job.outputDirectory);
+	}
+
+	static List<Job> readJobs(String jobsFile) {
+		List<Job> jobs = new ArrayList<Job>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(jobsFile)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || line.startsWith("#"))
+					continue;
+				String[] parts = line.split("\t");
+				if (parts.length != 4) {
+					throw new IllegalArgumentException("Line " + lineNumber + " of " + jobsFile
+							+ " does not contain day, carriers file, vehicle types file and jspritIterations.");
+				}
+				jobs.add(new Job(parts[0].trim(), parts[1].trim(), parts[2].trim(),
+						Integer.parseInt(parts[3].trim())));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Numbers the jobs and writes which output directory belongs to which job.
+	 */
+	private static void writeJobOverview(String outputDirectory, List<Job> jobs) throws IOException {
+		IOUtils.createDirectory(outputDirectory);
+		try (BufferedWriter writer = IOUtils
+				.getBufferedWriter(Paths.get(outputDirectory, "jobs.txt").toString())) {
+			writer.write("outputDirectory\tday\tcarriersFile\tvehicleTypesFile\tjspritIterations\n");
+			for (int i = 0; i < jobs.size(); i++) {
+				Job job = jobs.get(i);
+				job.outputDirectory = Paths.get(outputDirectory, String.format("job%03d_%s", i + 1, job.day))
+						.toString();
+				writer.write(job.outputDirectory + "\t" + job.day + "\t" + job.carriersFile + "\t"
+						+ job.vehicleTypesFile + "\t" + job.jspritIterations + "\n");
+			}
+		}
+	}
+
+	static final class Job {
+		private final String day;
+		private final String carriersFile;
+		private final String vehicleTypesFile;
+		private final int jspritIterations;
+		private String outputDirectory;
+
+		private Job(String day, String carriersFile, String vehicleTypesFile, int jspritIterations) {
+			this.day = day;
+			this.carriersFile = carriersFile;
+			this.vehicleTypesFile = vehicleTypesFile;
+			this.jspritIterations = jspritIterations;
+		}
+	}
+}
@@ -0,0 +1,690 @@
+package org.matsim.run.wasteCollection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierShipment;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.vehicles.VehicleType;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.cost.AbstractForwardVehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.driver.Driver;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+
+/**
+ * Precomputed travel times and distances between all locations of a carrier
+ * (depots, dumps and garbage links), which jsprit uses instead of routing every
+ * pair on demand with the {@link org.matsim.contrib.freight.jsprit.NetworkBasedTransportCosts}.
+ *
+ * The paths are the least cost paths of the vehicle type, as in the
+ * NetworkBasedTransportCosts: from the end of the first link to the end of the
+ * second link, with the travel time of a link being its length divided by the
+ * minimum of freespeed and maximum velocity of the vehicle type. They are found
+ * with one one-to-many Dijkstra search per location and time slice, run in
+ * parallel. For a time variant network, the searches depart at the beginning of
+ * every time slice within the operating hours of the carrier's vehicles;
+ * otherwise there is only one time slice.
+ *
+ * The locations come in groups which do not depend on the day, e.g. the dumps or
+ * the garbage links of one district. The matrix over all groups of a carrier is
+ * stored in blocks, one for every pair of groups, and only the blocks between
+ * the groups with locations of the current shipments are read or computed. Every
+ * block is a memory-mapped file in the cache directory. Its name is a hash over
+ * the network including the freespeeds of every time slice (i.e. the network
+ * change events), the parameters of the vehicle type, the time slices and the
+ * locations of both groups, so every day on which the same districts are
+ * collected and repeated runs of a scenario share the blocks. One instance can
+ * be shared by several carriers and runs on the same network.
+ */
+final class TravelCostMatrixCache {
+
+	private static final Logger log = Logger.getLogger(TravelCostMatrixCache.class);
+
+	private static final int MAGIC = 0x57434d32; // "WCM2"
+	private static final int HEADER_BYTES = 20;
+	private static final double MAX_TIME = 24 * 3600;
+
+	private final Path cacheDirectory;
+	private final double timeSliceWidth;
+	private final boolean timeVariant;
+	private final String networkKey;
+
+	// the network as arrays, outgoing links of every node in compressed rows
+	private final Map<Id<Link>, Integer> linkIndices = new HashMap<Id<Link>, Integer>();
+	private final Link[] links;
+	private final double[] linkLengths;
+	private final int[] linkFromNodes;
+	private final int[] linkToNodes;
+	private final int[] firstOutLinks;
+	private final int[] outLinks;
+	private final int numberOfNodes;
+
+	private final Map<String, TravelCostMatrix> matrices = new ConcurrentHashMap<String, TravelCostMatrix>();
+	// the blocks with the same origin group are computed together, by one thread
+	private final Map<String, Object> computeLocks = new ConcurrentHashMap<String, Object>();
+	private final ThreadLocal<OneToManyDijkstra> dijkstras = ThreadLocal.withInitial(OneToManyDijkstra::new);
+
+	TravelCostMatrixCache(Network network, boolean timeVariant, double timeSliceWidth, String cacheDirectory) {
+		this.cacheDirectory = Paths.get(cacheDirectory);
+		this.timeSliceWidth = timeSliceWidth;
+		this.timeVariant = timeVariant;
+
+		Map<Id<Node>, Integer> nodeIndices = new HashMap<Id<Node>, Integer>();
+		for (Node node : network.getNodes().values())
+			nodeIndices.put(node.getId(), nodeIndices.size());
+		numberOfNodes = nodeIndices.size();
+
+		List<Link> sortedLinks = new ArrayList<Link>(network.getLinks().values());
+		sortedLinks.sort(Comparator.comparing(link -> link.getId().toString()));
+		links = sortedLinks.toArray(new Link[0]);
+		linkLengths = new double[links.length];
+		linkFromNodes = new int[links.length];
+		linkToNodes = new int[links.length];
+		firstOutLinks = new int[numberOfNodes + 1];
+		for (int i = 0; i < links.length; i++) {
+			linkIndices.put(links[i].getId(), i);
+			linkLengths[i] = links[i].getLength();
+			linkFromNodes[i] = nodeIndices.get(links[i].getFromNode().getId());
+			linkToNodes[i] = nodeIndices.get(links[i].getToNode().getId());
+			firstOutLinks[linkFromNodes[i] + 1]++;
+		}
+		for (int node = 0; node < numberOfNodes; node++)
+			firstOutLinks[node + 1] += firstOutLinks[node];
+		outLinks = new int[links.length];
+		int[] next = Arrays.copyOf(firstOutLinks, numberOfNodes);
+		for (int i = 0; i < links.length; i++)
+			outLinks[next[linkFromNodes[i]]++] = i;
+
+		networkKey = computeNetworkKey();
+	}
+
+	/**
+	 * Creates the transport costs for solving the VRP of the carrier. The depots of
+	 * the carrier's vehicles are one group of locations; locations of the shipments
+	 * which are in none of the groups form another one. The blocks between the
+	 * groups with depots or shipments are read from the cache directory or
+	 * computed; pairs of locations which are not in the matrices, e.g. for vehicles
+	 * of other types, are passed to the fallback.
+	 *
+	 * @param locationGroups the locations the carrier may visit on any day, e.g.
+	 *                       all dumps and the garbage links of every district
+	 *                       served by the carrier, one group per district
+	 */
+	VehicleRoutingTransportCosts createTransportCosts(Carrier carrier,
+			Collection<? extends Collection<Id<Link>>> locationGroups, VehicleRoutingTransportCosts fallback) {
+		SortedSet<String> depots = new TreeSet<String>();
+		Map<String, VehicleType> vehicleTypes = new TreeMap<String, VehicleType>();
+		double start = MAX_TIME;
+		double end = 0;
+		for (CarrierVehicle vehicle : carrier.getCarrierCapabilities().getCarrierVehicles().values()) {
+			depots.add(vehicle.getLocation().toString());
+			vehicleTypes.put(vehicle.getType().getId().toString(), vehicle.getType());
+			start = Math.min(start, vehicle.getEarliestStartTime());
+			end = Math.max(end, vehicle.getLatestEndTime());
+		}
+		Set<String> usedLocations = new HashSet<String>(depots);
+		for (CarrierShipment shipment : carrier.getShipments().values()) {
+			usedLocations.add(shipment.getFrom().toString());
+			usedLocations.add(shipment.getTo().toString());
+		}
+		usedLocations.removeIf(id -> !linkIndices.containsKey(Id.createLinkId(id)));
+
+		List<SortedSet<String>> allGroups = new ArrayList<SortedSet<String>>();
+		allGroups.add(depots);
+		for (Collection<Id<Link>> locationGroup : locationGroups) {
+			SortedSet<String> group = new TreeSet<String>();
+			for (Id<Link> location : locationGroup)
+				group.add(location.toString());
+			allGroups.add(group);
+		}
+		// every location is looked up in the first group containing it
+		Map<String, Integer> groupOfLocation = new HashMap<String, Integer>();
+		for (int g = 0; g < allGroups.size(); g++) {
+			allGroups.get(g).removeIf(id -> !linkIndices.containsKey(Id.createLinkId(id)));
+			for (String location : allGroups.get(g))
+				groupOfLocation.putIfAbsent(location, g);
+		}
+		SortedSet<String> otherLocations = new TreeSet<String>();
+		for (String location : usedLocations) {
+			if (!groupOfLocation.containsKey(location))
+				otherLocations.add(location);
+		}
+		if (!otherLocations.isEmpty()) {
+			for (String location : otherLocations)
+				groupOfLocation.put(location, allGroups.size());
+			allGroups.add(otherLocations);
+		}
+
+		SortedSet<Integer> usedGroups = new TreeSet<Integer>();
+		for (String location : usedLocations)
+			usedGroups.add(groupOfLocation.get(location));
+		List<List<String>> groups = new ArrayList<List<String>>();
+		Map<String, int[]> locationIndices = new HashMap<String, int[]>();
+		int largestGroup = 0;
+		for (int g : usedGroups) {
+			List<String> group = new ArrayList<String>(allGroups.get(g));
+			for (int i = 0; i < group.size(); i++) {
+				if (groupOfLocation.get(group.get(i)) == g)
+					locationIndices.put(group.get(i), new int[] { groups.size(), i });
+			}
+			groups.add(group);
+			largestGroup = Math.max(largestGroup, group.size());
+		}
+		if (vehicleTypes.isEmpty() || 8L * largestGroup * largestGroup > Integer.MAX_VALUE - HEADER_BYTES) {
+			log.warn("No travel cost matrix for carrier " + carrier.getId() + " with a group of " + largestGroup
+					+ " locations; the paths are computed on demand.");
+			return fallback;
+		}
+		int firstSlice = timeVariant ? getTimeSlice(start) : 0;
+		int lastSlice = timeVariant ? Math.max(firstSlice, getTimeSlice(end)) : 0;
+
+		List<String> groupKeys = new ArrayList<String>();
+		for (List<String> group : groups)
+			groupKeys.add(computeGroupKey(group));
+		Map<String, TravelCostMatrix[][]> matricesOfTypes = new HashMap<String, TravelCostMatrix[][]>();
+		for (VehicleType vehicleType : vehicleTypes.values()) {
+			TravelCostMatrix[][] blocks = new TravelCostMatrix[groups.size()][];
+			for (int from = 0; from < groups.size(); from++)
+				blocks[from] = getBlocks(groups, groupKeys, from, vehicleType, firstSlice, lastSlice);
+			matricesOfTypes.put(vehicleType.getId().toString(), blocks);
+		}
+		return new MatrixTransportCosts(locationIndices, matricesOfTypes, fallback);
+	}
+
+	private int getTimeSlice(double time) {
+		return (int) (Math.max(0, Math.min(time, MAX_TIME - 1)) / timeSliceWidth);
+	}
+
+	/**
+	 * @return the blocks from the group with the index from to every group, read
+	 *         from the cache or computed
+	 */
+	private TravelCostMatrix[] getBlocks(List<List<String>> groups, List<String> groupKeys, int from,
+			VehicleType vehicleType, int firstSlice, int lastSlice) {
+		int slices = lastSlice - firstSlice + 1;
+		String rowKey = computeMatrixKey(vehicleType, firstSlice, lastSlice, groupKeys.get(from));
+		TravelCostMatrix[] blocks = new TravelCostMatrix[groups.size()];
+		synchronized (computeLocks.computeIfAbsent(rowKey, k -> new Object())) {
+			Map<Integer, String> missingBlocks = new TreeMap<Integer, String>();
+			for (int to = 0; to < groups.size(); to++) {
+				String key = computeMatrixKey(vehicleType, firstSlice, lastSlice, groupKeys.get(from),
+						groupKeys.get(to));
+				blocks[to] = matrices.get(key);
+				if (blocks[to] != null)
+					continue;
+				Path file = getFile(key);
+				if (Files.exists(file)) {
+					blocks[to] = TravelCostMatrix.read(file, groups.get(from).size(), groups.get(to).size(),
+							firstSlice, slices, timeSliceWidth);
+					if (blocks[to] == null)
+						log.warn("Travel cost matrix " + file + " does not match; computing it again.");
+				}
+				if (blocks[to] == null)
+					missingBlocks.put(to, key);
+				else
+					matrices.put(key, blocks[to]);
+			}
+			if (!missingBlocks.isEmpty())
+				computeBlocks(groups, from, missingBlocks, blocks, vehicleType, firstSlice, slices);
+		}
+		return blocks;
+	}
+
+	private Path getFile(String key) {
+		return cacheDirectory.resolve("travelCostMatrix_" + key + ".bin");
+	}
+
+	/**
+	 * Computes the blocks from one group to the missing groups with one search per
+	 * origin and time slice, writes them to the cache directory and puts them into
+	 * the array of blocks.
+	 */
+	private void computeBlocks(List<List<String>> groups, int from, Map<Integer, String> missingBlocks,
+			TravelCostMatrix[] blocks, VehicleType vehicleType, int firstSlice, int slices) {
+		int[] originLinks = getLinkIndices(groups.get(from));
+		int[][] destinationLinks = new int[groups.size()][];
+		boolean[] isTarget = new boolean[numberOfNodes];
+		int targets = 0;
+		int destinations = 0;
+		for (int to : missingBlocks.keySet()) {
+			destinationLinks[to] = getLinkIndices(groups.get(to));
+			destinations += destinationLinks[to].length;
+			for (int link : destinationLinks[to]) {
+				if (!isTarget[linkFromNodes[link]]) {
+					isTarget[linkFromNodes[link]] = true;
+					targets++;
+				}
+			}
+		}
+		log.info("Computing travel cost matrix from " + originLinks.length + " to " + destinations
+				+ " locations with " + slices + " time slices for vehicle type " + vehicleType.getId());
+		final int numberOfTargets = targets;
+		double maxVelocity = vehicleType.getMaximumVelocity();
+		double costPerMeter = vehicleType.getCostInformation().getCostsPerMeter();
+		double costPerSecond = vehicleType.getCostInformation().getCostsPerSecond();
+		int rows = originLinks.length;
+
+		Map<Integer, Path> tmpFiles = new TreeMap<Integer, Path>();
+		List<FileChannel> channels = new ArrayList<FileChannel>();
+		try {
+			Files.createDirectories(cacheDirectory);
+			MappedByteBuffer[][] sliceBuffers = new MappedByteBuffer[groups.size()][];
+			for (Entry<Integer, String> missingBlock : missingBlocks.entrySet()) {
+				int to = missingBlock.getKey();
+				int columns = destinationLinks[to].length;
+				long sliceBytes = 8L * rows * columns;
+				// unique, so that other runs computing the same matrix do not interfere
+				Path tmp = Files.createTempFile(cacheDirectory, "." + getFile(missingBlock.getValue()).getFileName(),
+						".tmp");
+				tmpFiles.put(to, tmp);
+				FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				channels.add(channel);
+				MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+				header.putInt(MAGIC).putInt(rows).putInt(columns).putInt(firstSlice).putInt(slices);
+				header.force();
+				sliceBuffers[to] = new MappedByteBuffer[slices];
+				for (int s = 0; s < slices; s++)
+					sliceBuffers[to][s] = channel.map(MapMode.READ_WRITE, HEADER_BYTES + s * sliceBytes, sliceBytes);
+			}
+
+			IntStream.range(0, rows).parallel().forEach(origin -> {
+				OneToManyDijkstra dijkstra = dijkstras.get();
+				int fromLink = originLinks[origin];
+				for (int s = 0; s < slices; s++) {
+					double departureTime = timeVariant ? (firstSlice + s) * timeSliceWidth : 0;
+					dijkstra.search(linkToNodes[fromLink], departureTime, maxVelocity, costPerMeter, costPerSecond,
+							isTarget, numberOfTargets);
+					for (int to : missingBlocks.keySet()) {
+						ByteBuffer row = sliceBuffers[to][s].duplicate();
+						int columns = destinationLinks[to].length;
+						int offset = 8 * columns * origin;
+						for (int destination = 0; destination < columns; destination++) {
+							int toLink = destinationLinks[to][destination];
+							double time = 0;
+							double distance = 0;
+							if (toLink != fromLink) {
+								int node = linkFromNodes[toLink];
+								if (dijkstra.isReached(node)) {
+									// the link of the location itself is driven as well
+									time = dijkstra.time[node] + getLinkTravelTime(toLink,
+											departureTime + dijkstra.time[node], maxVelocity);
+									distance = dijkstra.distance[node] + linkLengths[toLink];
+								} else {
+									time = Double.POSITIVE_INFINITY;
+									distance = Double.POSITIVE_INFINITY;
+								}
+							}
+							row.putFloat(offset + 8 * destination, (float) time);
+							row.putFloat(offset + 8 * destination + 4, (float) distance);
+						}
+					}
+				}
+			});
+
+			for (Entry<Integer, String> missingBlock : missingBlocks.entrySet()) {
+				int to = missingBlock.getKey();
+				for (MappedByteBuffer sliceBuffer : sliceBuffers[to])
+					sliceBuffer.force();
+				Path file = getFile(missingBlock.getValue());
+				// only complete files become visible to other runs
+				Files.move(tmpFiles.get(to), file, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				blocks[to] = TravelCostMatrix.read(file, rows, destinationLinks[to].length, firstSlice, slices,
+						timeSliceWidth);
+				matrices.put(missingBlock.getValue(), blocks[to]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			for (FileChannel channel : channels) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					log.warn("Could not close " + channel, e);
+				}
+			}
+			for (Path tmp : tmpFiles.values()) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					log.warn("Could not delete " + tmp, e);
+				}
+			}
+		}
+		log.info("Travel cost matrix written to " + cacheDirectory);
+	}
+
+	private int[] getLinkIndices(List<String> locations) {
+		return locations.stream().mapToInt(id -> linkIndices.get(Id.createLinkId(id))).toArray();
+	}
+
+	private double getLinkTravelTime(int link, double time, double maxVelocity) {
+		return linkLengths[link] / Math.min(maxVelocity, links[link].getFreespeed(time));
+	}
+
+	private String computeNetworkKey() {
+		MessageDigest digest = createDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		int slices = timeVariant ? (int) Math.ceil(MAX_TIME / timeSliceWidth) : 1;
+		for (int i = 0; i < links.length; i++) {
+			digest.update(links[i].getId().toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(links[i].getFromNode().getId().toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(links[i].getToNode().getId().toString().getBytes(StandardCharsets.UTF_8));
+			update(digest, buffer, linkLengths[i]);
+			for (int s = 0; s < slices; s++)
+				update(digest, buffer, links[i].getFreespeed(s * timeSliceWidth));
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String computeGroupKey(List<String> locations) {
+		MessageDigest digest = createDigest();
+		for (String location : locations) {
+			digest.update(location.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param groupKeys the origin group of a row of blocks, or the origin and the
+	 *                  destination group of a block
+	 */
+	private String computeMatrixKey(VehicleType vehicleType, int firstSlice, int lastSlice, String... groupKeys) {
+		MessageDigest digest = createDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		digest.update(networkKey.getBytes(StandardCharsets.UTF_8));
+		update(digest, buffer, vehicleType.getMaximumVelocity());
+		update(digest, buffer, vehicleType.getCostInformation().getCostsPerMeter());
+		update(digest, buffer, vehicleType.getCostInformation().getCostsPerSecond());
+		update(digest, buffer, timeSliceWidth);
+		update(digest, buffer, firstSlice);
+		update(digest, buffer, lastSlice);
+		for (String groupKey : groupKeys) {
+			digest.update(groupKey.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, ByteBuffer buffer, double value) {
+		buffer.clear();
+		buffer.putDouble(value);
+		digest.update(buffer.array());
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : hash) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.substring(0, 16);
+	}
+
+	/**
+	 * Least cost paths from one node to all nodes, until the target nodes are
+	 * reached, with the travel time of every link at the time of entering it.
+	 * There is one instance per thread, which is reset after every search.
+	 */
+	private final class OneToManyDijkstra {
+		private final double[] cost = new double[numberOfNodes];
+		private final double[] time = new double[numberOfNodes];
+		private final double[] distance = new double[numberOfNodes];
+		private final boolean[] settled = new boolean[numberOfNodes];
+		private final int[] touched = new int[numberOfNodes];
+		private int touchedCount = 0;
+		private double[] heapCosts = new double[1024];
+		private int[] heapNodes = new int[1024];
+		private int heapSize = 0;
+
+		private OneToManyDijkstra() {
+			Arrays.fill(cost, Double.POSITIVE_INFINITY);
+		}
+
+		boolean isReached(int node) {
+			return cost[node] != Double.POSITIVE_INFINITY;
+		}
+
+		void search(int startNode, double departureTime, double maxVelocity, double costPerMeter,
+				double costPerSecond, boolean[] isTarget, int targets) {
+			for (int i = 0; i < touchedCount; i++) {
+				cost[touched[i]] = Double.POSITIVE_INFINITY;
+				settled[touched[i]] = false;
+			}
+			touchedCount = 0;
+			heapSize = 0;
+
+			touched[touchedCount++] = startNode;
+			cost[startNode] = 0;
+			time[startNode] = 0;
+			distance[startNode] = 0;
+			push(0, startNode);
+			int remainingTargets = targets;
+			while (heapSize > 0 && remainingTargets > 0) {
+				double nodeCost = heapCosts[0];
+				int node = pop();
+				if (settled[node] || nodeCost > cost[node])
+					continue;
+				settled[node] = true;
+				if (isTarget[node])
+					remainingTargets--;
+				for (int k = firstOutLinks[node]; k < firstOutLinks[node + 1]; k++) {
+					int link = outLinks[k];
+					int toNode = linkToNodes[link];
+					if (settled[toNode])
+						continue;
+					double linkTime = getLinkTravelTime(link, departureTime + time[node], maxVelocity);
+					double newCost = cost[node] + costPerMeter * linkLengths[link] + costPerSecond * linkTime;
+					if (newCost < cost[toNode]) {
+						if (cost[toNode] == Double.POSITIVE_INFINITY)
+							touched[touchedCount++] = toNode;
+						cost[toNode] = newCost;
+						time[toNode] = time[node] + linkTime;
+						distance[toNode] = distance[node] + linkLengths[link];
+						push(newCost, toNode);
+					}
+				}
+			}
+		}
+
+		private void push(double key, int node) {
+			if (heapSize == heapCosts.length) {
+				heapCosts = Arrays.copyOf(heapCosts, 2 * heapSize);
+				heapNodes = Arrays.copyOf(heapNodes, 2 * heapSize);
+			}
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (heapCosts[parent] <= key)
+					break;
+				heapCosts[i] = heapCosts[parent];
+				heapNodes[i] = heapNodes[parent];
+				i = parent;
+			}
+			heapCosts[i] = key;
+			heapNodes[i] = node;
+		}
+
+		private int pop() {
+			int top = heapNodes[0];
+			double key = heapCosts[--heapSize];
+			int node = heapNodes[heapSize];
+			int i = 0;
+			while (2 * i + 1 < heapSize) {
+				int child = 2 * i + 1;
+				if (child + 1 < heapSize && heapCosts[child + 1] < heapCosts[child])
+					child++;
+				if (key <= heapCosts[child])
+					break;
+				heapCosts[i] = heapCosts[child];
+				heapNodes[i] = heapNodes[child];
+				i = child;
+			}
+			heapCosts[i] = key;
+			heapNodes[i] = node;
+			return top;
+		}
+	}
+
+	/**
+	 * Travel time and distance from every location of one group to every location
+	 * of another group and every time slice, as floats in a memory-mapped file; one
+	 * mapping per time slice.
+	 */
+	private static final class TravelCostMatrix {
+		private final int numberOfColumns;
+		private final int firstSlice;
+		private final double timeSliceWidth;
+		private final MappedByteBuffer[] slices;
+
+		private TravelCostMatrix(int numberOfColumns, int firstSlice, double timeSliceWidth,
+				MappedByteBuffer[] slices) {
+			this.numberOfColumns = numberOfColumns;
+			this.firstSlice = firstSlice;
+			this.timeSliceWidth = timeSliceWidth;
+			this.slices = slices;
+		}
+
+		/**
+		 * @return null if the file does not contain the expected matrix
+		 */
+		static TravelCostMatrix read(Path file, int numberOfRows, int numberOfColumns, int firstSlice,
+				int numberOfSlices, double timeSliceWidth) {
+			long sliceBytes = 8L * numberOfRows * numberOfColumns;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() != HEADER_BYTES + numberOfSlices * sliceBytes)
+					return null;
+				MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+				if (header.getInt() != MAGIC || header.getInt() != numberOfRows
+						|| header.getInt() != numberOfColumns || header.getInt() != firstSlice
+						|| header.getInt() != numberOfSlices)
+					return null;
+				// the mappings stay valid after the channel is closed
+				MappedByteBuffer[] slices = new MappedByteBuffer[numberOfSlices];
+				for (int s = 0; s < numberOfSlices; s++)
+					slices[s] = channel.map(MapMode.READ_ONLY, HEADER_BYTES + s * sliceBytes, sliceBytes);
+				return new TravelCostMatrix(numberOfColumns, firstSlice, timeSliceWidth, slices);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private int offset(int from, int to) {
+			return 8 * (from * numberOfColumns + to);
+		}
+
+		private MappedByteBuffer slice(double departureTime) {
+			int slice = (int) (Math.max(0, Math.min(departureTime, MAX_TIME - 1)) / timeSliceWidth) - firstSlice;
+			return slices[Math.max(0, Math.min(slice, slices.length - 1))];
+		}
+
+		double getTime(double departureTime, int from, int to) {
+			return slice(departureTime).getFloat(offset(from, to));
+		}
+
+		double getDistance(double departureTime, int from, int to) {
+			return slice(departureTime).getFloat(offset(from, to) + 4);
+		}
+	}
+
+	/**
+	 * The transport costs of a carrier, from the blocks of the vehicle type; the
+	 * costs are the costs per meter and per second of the jsprit vehicle type.
+	 */
+	private static final class MatrixTransportCosts extends AbstractForwardVehicleRoutingTransportCosts {
+		// group and index within the group of every location
+		private final Map<String, int[]> locationIndices;
+		private final Map<String, TravelCostMatrix[][]> matrices;
+		private final VehicleRoutingTransportCosts fallback;
+
+		private MatrixTransportCosts(Map<String, int[]> locationIndices, Map<String, TravelCostMatrix[][]> matrices,
+				VehicleRoutingTransportCosts fallback) {
+			this.locationIndices = locationIndices;
+			this.matrices = matrices;
+			this.fallback = fallback;
+		}
+
+		private TravelCostMatrix[][] getBlocks(Vehicle vehicle) {
+			return vehicle == null ? null : matrices.get(vehicle.getType().getTypeId());
+		}
+
+		@Override
+		public double getTransportTime(Location from, Location to, double departureTime, Driver driver,
+				Vehicle vehicle) {
+			TravelCostMatrix[][] blocks = getBlocks(vehicle);
+			int[] fromIndex = locationIndices.get(from.getId());
+			int[] toIndex = locationIndices.get(to.getId());
+			if (blocks == null || fromIndex == null || toIndex == null)
+				return fallback.getTransportTime(from, to, departureTime, driver, vehicle);
+			return blocks[fromIndex[0]][toIndex[0]].getTime(departureTime, fromIndex[1], toIndex[1]);
+		}
+
+		@Override
+		public double getTransportCost(Location from, Location to, double departureTime, Driver driver,
+				Vehicle vehicle) {
+			TravelCostMatrix[][] blocks = getBlocks(vehicle);
+			int[] fromIndex = locationIndices.get(from.getId());
+			int[] toIndex = locationIndices.get(to.getId());
+			if (blocks == null || fromIndex == null || toIndex == null)
+				return fallback.getTransportCost(from, to, departureTime, driver, vehicle);
+			TravelCostMatrix block = blocks[fromIndex[0]][toIndex[0]];
+			return vehicle.getType().getVehicleCostParams().perTransportTimeUnit
+					* block.getTime(departureTime, fromIndex[1], toIndex[1])
+					+ vehicle.getType().getVehicleCostParams().perDistanceUnit
+							* block.getDistance(departureTime, fromIndex[1], toIndex[1]);
+		}
+
+		@Override
+		public double getDistance(Location from, Location to, double departureTime, Vehicle vehicle) {
+			TravelCostMatrix[][] blocks = getBlocks(vehicle);
+			int[] fromIndex = locationIndices.get(from.getId());
+			int[] toIndex = locationIndices.get(to.getId());
+			if (blocks == null || fromIndex == null || toIndex == null)
+				return fallback.getDistance(from, to, departureTime, vehicle);
+			return blocks[fromIndex[0]][toIndex[0]].getDistance(departureTime, fromIndex[1], toIndex[1]);
+		}
+	}
+}
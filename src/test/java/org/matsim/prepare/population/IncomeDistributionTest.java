@@ -0,0 +1,77 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.prepare.population;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
+
+public class IncomeDistributionTest {
+
+	@Test
+	public final void testBucketBoundaries() {
+		IncomeDistribution distribution = IncomeDistribution.GERMANY_AVERAGE;
+		Assert.assertEquals(826., distribution.getIncome(0.), 0.);
+		Assert.assertEquals(826., distribution.getIncome(0.1), 0.);
+		Assert.assertEquals(1142., distribution.getIncome(0.1000001), 0.);
+		Assert.assertEquals(3156., distribution.getIncome(0.9), 0.);
+		Assert.assertEquals(4329., distribution.getIncome(0.99999), 0.);
+	}
+
+	@Test
+	public final void testIndependentOfOrder() {
+		Population forward = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		Population backward = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 1000; i++) {
+			forward.addPerson(createPerson(forward, i));
+			backward.addPerson(createPerson(backward, 999 - i));
+		}
+		backward.addPerson(createFreightAgent(backward));
+
+		new AssignIncome(IncomeDistribution.GERMANY_AVERAGE, "person", 1234L).run(forward);
+		new AssignIncome(IncomeDistribution.GERMANY_AVERAGE, "person", 1234L).run(backward);
+
+		for (Person person : forward.getPersons().values()) {
+			Assert.assertEquals("Different income for " + person.getId(),
+					person.getAttributes().getAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME),
+					backward.getPersons().get(person.getId()).getAttributes().getAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME));
+		}
+		Assert.assertNull(backward.getPersons().get(Id.createPersonId("freight")).getAttributes()
+				.getAttribute(IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME));
+	}
+
+	private static Person createPerson(Population population, int i) {
+		Person person = population.getFactory().createPerson(Id.createPersonId(i));
+		PopulationUtils.putSubpopulation(person, "person");
+		return person;
+	}
+
+	private static Person createFreightAgent(Population population) {
+		Person person = population.getFactory().createPerson(Id.createPersonId("freight"));
+		PopulationUtils.putSubpopulation(person, "freight");
+		return person;
+	}
+
+}
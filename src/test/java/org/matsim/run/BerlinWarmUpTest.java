@@ -0,0 +1,119 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.SubtourModeChoiceConfigGroup;
+import org.matsim.core.population.PersonUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.Trip;
+
+public class BerlinWarmUpTest {
+
+	private static final long SEED = 4711;
+	private static final String[] TOUR = {"home", "work", "leisure", "work", "home"};
+	private static final String[] COMMUTE = {"home", "work", "home"};
+	private static final String[] SCHOOL = {"home", "education", "home"};
+
+	/**
+	 * Persons of the sample get their learned plans, the others get the modes of a donor with the same stratum and
+	 * activity types, as far as subtour mode choice could have chosen them.
+	 */
+	@Test
+	public final void testExpand() {
+		SubtourModeChoiceConfigGroup subtourModeChoice = new SubtourModeChoiceConfigGroup();
+		subtourModeChoice.setModes(new String[] {"car", "pt", "bicycle", "walk"});
+		subtourModeChoice.setChainBasedModes(new String[] {"car", "bicycle"});
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		Population sample = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		createPerson(population, "learned", SCHOOL, "walk", "walk");
+		createPerson(sample, "learned", SCHOOL, "bicycle", "bicycle").getSelectedPlan().setScore(42.);
+		createPerson(population, "tourDonor", TOUR, "walk", "walk", "walk", "walk");
+		createPerson(sample, "tourDonor", TOUR, "pt", "car", "car", "pt");
+		createPerson(population, "commuteDonor", COMMUTE, "walk", "walk");
+		createPerson(sample, "commuteDonor", COMMUTE, "car", "car");
+
+		Person tour = createPerson(population, "tour", TOUR, "walk", "walk", "walk", "walk");
+		Person commute = createPerson(population, "commute", COMMUTE, "walk", "walk");
+		Person withoutCar = createPerson(population, "withoutCar", COMMUTE, "walk", "walk");
+		PersonUtils.setCarAvail(withoutCar, "never");
+		Person withRide = createPerson(population, "withRide", COMMUTE, "ride", "walk");
+		Person otherActivities = createPerson(population, "otherActivities", new String[] {"home", "shopping", "home"}, "walk", "walk");
+
+		BerlinWarmUp.expand(sample, population, subtourModeChoice, SEED);
+
+		Person learned = population.getPersons().get(Id.createPersonId("learned"));
+		Assert.assertEquals(List.of("bicycle", "bicycle"), getModes(learned));
+		Assert.assertEquals(42., learned.getSelectedPlan().getScore(), 0.);
+		// the car would have to leave home from work, so only the outer subtour is taken over
+		Assert.assertEquals(List.of("pt", "walk", "walk", "pt"), getModes(tour));
+		Assert.assertNull(tour.getSelectedPlan().getScore());
+		Assert.assertEquals(List.of("car", "car"), getModes(commute));
+		Assert.assertEquals(List.of("walk", "walk"), getModes(withoutCar));
+		// ride is no mode of subtour mode choice, the subtour is left as it is
+		Assert.assertEquals(List.of("ride", "walk"), getModes(withRide));
+		Assert.assertEquals(List.of("walk", "walk"), getModes(otherActivities));
+	}
+
+	private static Person createPerson(Population population, String id, String[] activityTypes, String... modes) {
+		Person person = population.getFactory().createPerson(Id.createPersonId(id));
+		PopulationUtils.putSubpopulation(person, "person");
+		Plan plan = population.getFactory().createPlan();
+		for (int i = 0; i < activityTypes.length; i++) {
+			if (i > 0) {
+				Leg leg = population.getFactory().createLeg(modes[i - 1]);
+				TripStructureUtils.setRoutingMode(leg, modes[i - 1]);
+				plan.addLeg(leg);
+			}
+			// all persons live in the same grid cell, the link identifies the location
+			Activity activity = population.getFactory().createActivityFromLinkId(activityTypes[i] + "_3600.0",
+					Id.createLinkId(activityTypes[i]));
+			activity.setCoord(new Coord(100., 100.));
+			plan.addActivity(activity);
+		}
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+		return person;
+	}
+
+	private static List<String> getModes(Person person) {
+		List<String> modes = new ArrayList<>();
+		for (Trip trip : TripStructureUtils.getTrips(person.getSelectedPlan())) {
+			modes.add(TripStructureUtils.getRoutingMode(trip.getLegsOnly().get(0)));
+		}
+		return modes;
+	}
+
+}
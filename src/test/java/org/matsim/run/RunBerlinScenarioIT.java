@@ -130,9 +130,8 @@ public class RunBerlinScenarioIT{
 			config.controler().setWritePlansUntilIteration( 0 );
 			config.controler().setWritePlansInterval( 0 );
 			
+			// capacities are rescaled to the sample by prepareScenario
 			final double sample = 0.1;
-			config.qsim().setFlowCapFactor( config.qsim().getFlowCapFactor()*sample );
-			config.qsim().setStorageCapFactor( config.qsim().getStorageCapFactor()*sample );
 			BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
 			berlinCfg.setPopulationDownsampleFactor(sample);
 			
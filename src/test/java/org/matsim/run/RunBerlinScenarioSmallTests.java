@@ -24,18 +24,39 @@ import org.junit.FixMethodOrder;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.gbl.MatsimRandom;
+import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.router.MainModeIdentifierImpl;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.router.TripStructureUtils.Trip;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.stream.Stream;
 
 /**
  * part 1 of tests for {@link org.matsim.run.RunBerlinScenario}
@@ -97,6 +118,39 @@ public class RunBerlinScenarioSmallTests {
 		}
 	}
 	
+	@Test
+	public final void c1TestRescaleToPopulationSample() {
+		String configFilename = "scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml";
+		Config config = RunBerlinScenario.prepareConfig( new String[]{configFilename} );
+		final double flowCapFactor = config.qsim().getFlowCapFactor();
+		BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule( config, BerlinExperimentalConfigGroup.class );
+		berlinCfg.setPopulationDownsampleFactor( 0.1 );
+
+		final double countsScaleFactor = config.counts().getCountsScaleFactor();
+
+		// switched off, the factors of the config are used as they are
+		berlinCfg.setRescaleToPopulationSample( false );
+		RunBerlinScenario.rescaleToPopulationSample( config );
+		Assert.assertEquals( flowCapFactor, config.qsim().getFlowCapFactor(), MatsimTestUtils.EPSILON );
+
+		// on by default
+		Config defaultConfig = RunBerlinScenario.prepareConfig( new String[]{configFilename} );
+		ConfigUtils.addOrGetModule( defaultConfig, BerlinExperimentalConfigGroup.class ).setPopulationDownsampleFactor( 0.1 );
+		RunBerlinScenario.rescaleToPopulationSample( defaultConfig );
+		Assert.assertEquals( flowCapFactor * 0.1, defaultConfig.qsim().getFlowCapFactor(), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( countsScaleFactor * 10, defaultConfig.counts().getCountsScaleFactor(), MatsimTestUtils.EPSILON );
+
+		// e.g. by a scenario variant, which rescales as well
+		RunBerlinScenario.rescaleToPopulationSample( defaultConfig );
+		Assert.assertEquals( flowCapFactor * 0.1, defaultConfig.qsim().getFlowCapFactor(), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( countsScaleFactor * 10, defaultConfig.counts().getCountsScaleFactor(), MatsimTestUtils.EPSILON );
+
+		// without downsampling, nothing changes
+		Config fullConfig = RunBerlinScenario.prepareConfig( new String[]{configFilename} );
+		RunBerlinScenario.rescaleToPopulationSample( fullConfig );
+		Assert.assertEquals( flowCapFactor, fullConfig.qsim().getFlowCapFactor(), MatsimTestUtils.EPSILON );
+	}
+
 	@Test
 	public final void c2TestEquil() {
 		// this should work (but does not since RunBerlinScenario enforces vsp-abort). kai, sep'19
@@ -132,6 +186,141 @@ public class RunBerlinScenarioSmallTests {
 		}
 	}
 
+	@Test
+	public final void dTestConcurrentScenarioLoading() throws IOException, InterruptedException {
+		String configFilename = "scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml";
+		String[] args = {configFilename,
+				"--config:controler.outputDirectory", utils.getOutputDirectory(),
+				"--config:plans.inputPlansFile", "../../../test/input/test-agents.xml"};
+
+		// ids are indexed once per jvm, so each load needs a fresh one to see the order in which it creates them
+		Path sequential = Paths.get( utils.getOutputDirectory(), "ids-sequential.txt" );
+		Path concurrent = Paths.get( utils.getOutputDirectory(), "ids-concurrent.txt" );
+		Assert.assertEquals( "Sequential load failed", 0, loadInFreshJvm( "sequential", sequential, args ) );
+		Assert.assertEquals( "Concurrent load failed", 0, loadInFreshJvm( "concurrent", concurrent, args ) );
+
+		List<String> expected = Files.readAllLines( sequential );
+		List<String> actual = Files.readAllLines( concurrent );
+		Assert.assertFalse( "Nothing written", expected.isEmpty() );
+		for (int i = 0; i < Math.min( expected.size(), actual.size() ); i++) {
+			Assert.assertEquals( "Different id or container order", expected.get( i ), actual.get( i ) );
+		}
+		Assert.assertEquals( "Different number of ids", expected.size(), actual.size() );
+
+		log.info( "Done with dTestConcurrentScenarioLoading"  );
+		log.info("") ;
+	}
+
+	private static int loadInFreshJvm( String mode, Path output, String[] args ) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>( List.of( Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString(),
+				"-Xmx2g", "-Djava.awt.headless=true", "-Dmatsim.preferLocalDtds=true",
+				"-cp", System.getProperty( "java.class.path" ),
+				LoadAndWriteIds.class.getName(), mode, output.toString() ) );
+		command.addAll( List.of( args ) );
+		return new ProcessBuilder( command ).inheritIO().start().waitFor();
+	}
+
+	/**
+	 * Loads the scenario sequentially or concurrently (in small chunks on several threads) and writes the ids of each type
+	 * in index order, followed by the keys of the containers in iteration order.
+	 */
+	static final class LoadAndWriteIds {
+		public static void main( String[] args ) throws IOException {
+			String mode = args[0];
+			Path output = Paths.get( args[1] );
+			Config config = RunBerlinScenario.prepareConfig( Arrays.copyOfRange( args, 2, args.length ) );
+			Scenario scenario = RunBerlinScenario.createScenario( config );
+			if (mode.equals( "concurrent" )) {
+				ConcurrentScenarioLoader.loadScenario( scenario, 4, null, 2 );
+			} else {
+				ScenarioUtils.loadScenario( scenario );
+			}
+
+			List<String> lines = new ArrayList<>();
+			for (Class<?> type : List.of( Node.class, Link.class, Person.class, ActivityFacility.class, TransitStopFacility.class,
+					TransitLine.class, TransitRoute.class, Vehicle.class, VehicleType.class )) {
+				for (int i = 0; i < Id.getNumberOfIds( type ); i++) {
+					lines.add( type.getSimpleName() + "\t" + i + "\t" + Id.get( i, type ) );
+				}
+			}
+			scenario.getNetwork().getLinks().keySet().forEach( id -> lines.add( "links\t" + id ) );
+			scenario.getPopulation().getPersons().keySet().forEach( id -> lines.add( "persons\t" + id ) );
+			scenario.getTransitSchedule().getFacilities().keySet().forEach( id -> lines.add( "stops\t" + id ) );
+			scenario.getTransitSchedule().getTransitLines().keySet().forEach( id -> lines.add( "lines\t" + id ) );
+			scenario.getTransitVehicles().getVehicles().keySet().forEach( id -> lines.add( "transitVehicles\t" + id ) );
+			scenario.getVehicles().getVehicleTypes().keySet().forEach( id -> lines.add( "vehicleTypes\t" + id ) );
+			Files.write( output, lines );
+
+			// the chunks must not lose persons at their boundaries
+			Assert.assertEquals( 5, scenario.getPopulation().getPersons().size() );
+		}
+	}
+
+	@Test
+	public final void eTestScenarioSnapshotRoundTrip() throws IOException {
+		String configFilename = "scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml";
+		final String[] args = {configFilename,
+				"--config:controler.outputDirectory", utils.getOutputDirectory(),
+				"--config:plans.inputPlansFile", "../../../test/input/test-agents.xml"};
+		String snapshotDirectory = utils.getOutputDirectory() + "snapshots";
+
+		// the first run prepares the scenario and writes the snapshot, the second one reads it
+		Config configPrepared = RunBerlinScenario.prepareConfig( args );
+		ConfigUtils.addOrGetModule( configPrepared, BerlinExperimentalConfigGroup.class ).setScenarioSnapshotDirectory( snapshotDirectory );
+		MatsimRandom.reset();
+		Scenario prepared = RunBerlinScenario.prepareScenario( configPrepared );
+
+		Config configLoaded = RunBerlinScenario.prepareConfig( args );
+		ConfigUtils.addOrGetModule( configLoaded, BerlinExperimentalConfigGroup.class ).setScenarioSnapshotDirectory( snapshotDirectory );
+		MatsimRandom.reset();
+		Scenario loaded = RunBerlinScenario.prepareScenario( configLoaded );
+
+		try ( Stream<Path> snapshots = Files.list( Paths.get( snapshotDirectory ) ) ) {
+			Assert.assertEquals( "Snapshot missing or temporary directory left over", 1, snapshots.count() );
+		}
+
+		Assert.assertEquals("Different node order", new ArrayList<>(prepared.getNetwork().getNodes().keySet()),
+				new ArrayList<>(loaded.getNetwork().getNodes().keySet()));
+		for (Node node : prepared.getNetwork().getNodes().values()) {
+			Assert.assertEquals("Different coord", node.getCoord(), loaded.getNetwork().getNodes().get(node.getId()).getCoord());
+		}
+		Assert.assertEquals("Different link order", new ArrayList<>(prepared.getNetwork().getLinks().keySet()),
+				new ArrayList<>(loaded.getNetwork().getLinks().keySet()));
+		for (Link link : prepared.getNetwork().getLinks().values()) {
+			Link other = loaded.getNetwork().getLinks().get(link.getId());
+			Assert.assertEquals("Different from node", link.getFromNode().getId(), other.getFromNode().getId());
+			Assert.assertEquals("Different to node", link.getToNode().getId(), other.getToNode().getId());
+			Assert.assertEquals("Different length", link.getLength(), other.getLength(), 0.);
+			Assert.assertEquals("Different capacity", link.getCapacity(), other.getCapacity(), 0.);
+			Assert.assertEquals("Different freespeed", link.getFreespeed(), other.getFreespeed(), 0.);
+			Assert.assertEquals("Different lanes", link.getNumberOfLanes(), other.getNumberOfLanes(), 0.);
+			Assert.assertEquals("Different modes", link.getAllowedModes(), other.getAllowedModes());
+			Assert.assertEquals("Different link attributes", link.getAttributes().getAsMap(), other.getAttributes().getAsMap());
+		}
+
+		Assert.assertEquals("Different person order", new ArrayList<>(prepared.getPopulation().getPersons().keySet()),
+				new ArrayList<>(loaded.getPopulation().getPersons().keySet()));
+		Assert.assertTrue("Different population", PopulationUtils.equalPopulation( prepared.getPopulation(), loaded.getPopulation() ));
+		for (Person person : prepared.getPopulation().getPersons().values()) {
+			Person other = loaded.getPopulation().getPersons().get(person.getId());
+			Assert.assertEquals("Different person attributes", person.getAttributes().getAsMap(), other.getAttributes().getAsMap());
+			Assert.assertEquals("Different selected plan", person.getPlans().indexOf(person.getSelectedPlan()),
+					other.getPlans().indexOf(other.getSelectedPlan()));
+		}
+
+		Assert.assertEquals("Different transit stops", new ArrayList<>(prepared.getTransitSchedule().getFacilities().keySet()),
+				new ArrayList<>(loaded.getTransitSchedule().getFacilities().keySet()));
+		Assert.assertEquals("Different transit lines", new ArrayList<>(prepared.getTransitSchedule().getTransitLines().keySet()),
+				new ArrayList<>(loaded.getTransitSchedule().getTransitLines().keySet()));
+		Assert.assertEquals("Different transit vehicles", new ArrayList<>(prepared.getTransitVehicles().getVehicles().keySet()),
+				new ArrayList<>(loaded.getTransitVehicles().getVehicles().keySet()));
+		Assert.assertEquals("Different vehicle types", new ArrayList<>(prepared.getVehicles().getVehicleTypes().keySet()),
+				new ArrayList<>(loaded.getVehicles().getVehicleTypes().keySet()));
+
+		log.info( "Done with eTestScenarioSnapshotRoundTrip"  );
+		log.info("") ;
+	}
+
 	static Map<String, Double> analyzeModeStats( Population population ) {
 		
 		Map<String,Double> modeCnt = new TreeMap<>() ;
@@ -95,6 +95,7 @@ public class RunBerlinScenarioTest {
 			final String[] args = {"scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml"};
 			
 			Config config =  RunBerlinScenario.prepareConfig( args ) ;
+			// capacities and counts are rescaled to the sample by prepareScenario
 			BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
 			berlinCfg.setPopulationDownsampleFactor(0.1);
 
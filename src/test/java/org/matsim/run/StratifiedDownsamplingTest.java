@@ -0,0 +1,128 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+public class StratifiedDownsamplingTest {
+
+	private static final double SAMPLE = 0.1;
+	private static final long SEED = 4711;
+
+	/**
+	 * Every stratum keeps its share of persons up to one person, also strata which a random draw of 10% would often
+	 * miss completely.
+	 */
+	@Test
+	public final void testSharePerStratum() {
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		Map<String, Integer> sizes = new HashMap<>();
+		sizes.put("person|zoneA", 205);
+		sizes.put("person|zoneB", 38);
+		sizes.put("person|zoneC", 7);
+		sizes.put("freight|noHomeZone", 24);
+		int personCounter = 0;
+		for (Map.Entry<String, Integer> stratum : sizes.entrySet()) {
+			String[] parts = stratum.getKey().split("\\|");
+			for (int i = 0; i < stratum.getValue(); i++) {
+				Person person = parts[0].equals("freight") ? createPerson(population, personCounter++, "freight", "freight", null)
+						: createPerson(population, personCounter++, "person", "home_3600.0", new Coord(0., 0.));
+				if (!parts[1].equals("noHomeZone")) {
+					getFirstActivity(person).getAttributes().putAttribute(StratifiedDownsampling.ZONE_ID_ATTRIBUTE, parts[1]);
+				}
+				Assert.assertEquals(stratum.getKey(), StratifiedDownsampling.getStratum(person));
+			}
+		}
+
+		List<Id<Person>> sample = drawSample(population);
+		Map<String, Integer> sampled = new HashMap<>();
+		for (Id<Person> personId : sample) {
+			sampled.merge(StratifiedDownsampling.getStratum(population.getPersons().get(personId)), 1, Integer::sum);
+		}
+		for (Map.Entry<String, Integer> stratum : sizes.entrySet()) {
+			double expected = stratum.getValue() * SAMPLE;
+			int actual = sampled.getOrDefault(stratum.getKey(), 0);
+			Assert.assertTrue("Stratum " + stratum.getKey() + " has " + actual + " instead of " + expected + " persons",
+					Math.abs(actual - expected) < 1.);
+		}
+
+		// the same seed and order of persons give the same sample
+		Assert.assertEquals(sample, drawSample(population));
+	}
+
+	/**
+	 * Without a zoneId attribute, as in the Berlin 5.5 plans, persons are stratified by the grid cell of their home.
+	 */
+	@Test
+	public final void testGridCellAsHomeZone() {
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		double cell = StratifiedDownsampling.HOME_ZONE_CELL_SIZE;
+		Person a = createPerson(population, 0, "person", "home_3600.0", new Coord(0.2 * cell, 0.3 * cell));
+		Person b = createPerson(population, 1, "person", "home_3600.0", new Coord(0.8 * cell, 0.9 * cell));
+		Person c = createPerson(population, 2, "person", "home_3600.0", new Coord(1.2 * cell, 0.3 * cell));
+		Person d = createPerson(population, 3, "person", "work_3600.0", new Coord(0.2 * cell, 0.3 * cell));
+
+		Assert.assertEquals(StratifiedDownsampling.getStratum(a), StratifiedDownsampling.getStratum(b));
+		Assert.assertNotEquals(StratifiedDownsampling.getStratum(a), StratifiedDownsampling.getStratum(c));
+		Assert.assertEquals("person|noHomeZone", StratifiedDownsampling.getStratum(d));
+	}
+
+	private static List<Id<Person>> drawSample(Population population) {
+		StratifiedDownsampling downsampling = new StratifiedDownsampling(SAMPLE, SEED);
+		List<Id<Person>> sample = new ArrayList<>();
+		for (Person person : population.getPersons().values()) {
+			if (downsampling.test(person)) {
+				sample.add(person.getId());
+			}
+		}
+		return sample;
+	}
+
+	private static Person createPerson(Population population, int number, String subpopulation, String activityType, Coord coord) {
+		Person person = population.getFactory().createPerson(Id.createPersonId(number));
+		PopulationUtils.putSubpopulation(person, subpopulation);
+		Plan plan = population.getFactory().createPlan();
+		Activity activity = coord == null ? population.getFactory().createActivityFromLinkId(activityType, Id.createLinkId("1"))
+				: population.getFactory().createActivityFromCoord(activityType, coord);
+		plan.addActivity(activity);
+		person.addPlan(plan);
+		population.addPerson(person);
+		return person;
+	}
+
+	private static Activity getFirstActivity(Person person) {
+		return (Activity) person.getPlans().get(0).getPlanElements().get(0);
+	}
+
+}
@@ -0,0 +1,203 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.run.checkpoint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.run.BerlinExperimentalConfigGroup;
+import org.matsim.run.RunBerlinScenario;
+import org.matsim.run.dynamicShutdown.DynamicShutdownConfigGroup;
+import org.matsim.run.dynamicShutdown.DynamicShutdownModule;
+import org.matsim.testcases.MatsimTestUtils;
+
+/**
+ * Runs 4 iterations in one go and 2 iterations plus 2 more resumed from the checkpoint of iteration 2. Both runs must
+ * end with the same plans, scores and score statistics.
+ */
+public class CheckpointResumeTest {
+
+	private static final String[] ARGS = {"scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml"};
+	private static final int LAST_ITERATION = 3;
+	private static final int CHECKPOINT_ITERATION = 2;
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	@Test
+	public final void testResumedRunMatchesUninterruptedRun() throws IOException {
+		String uninterruptedOutput = utils.getOutputDirectory() + "uninterrupted/";
+		Config config = prepareConfig( uninterruptedOutput, LAST_ITERATION );
+		ConfigUtils.addOrGetModule( config, BerlinExperimentalConfigGroup.class ).setCheckpointInterval( CHECKPOINT_ITERATION );
+		Scenario uninterrupted = RunBerlinScenario.prepareScenario( config );
+		RunBerlinScenario.prepareControler( uninterrupted ).run();
+
+		// the resumed run only gets the checkpoint, not the rest of the output of the first iterations
+		String resumedOutput = utils.getOutputDirectory() + "resumed/";
+		Path checkpoint = Checkpoints.getCheckpointDirectory( uninterruptedOutput, CHECKPOINT_ITERATION );
+		Assert.assertTrue( "No checkpoint of iteration " + CHECKPOINT_ITERATION, Files.isDirectory( checkpoint ) );
+		copyDirectory( checkpoint, Checkpoints.getCheckpointDirectory( resumedOutput, CHECKPOINT_ITERATION ) );
+		Scenario resumed = RunBerlinScenario.prepareScenarioFromCheckpoint( prepareConfig( resumedOutput, LAST_ITERATION ) );
+		Assert.assertEquals( CHECKPOINT_ITERATION, resumed.getConfig().controler().getFirstIteration() );
+		RunBerlinScenario.prepareControler( resumed ).run();
+
+		Assert.assertEquals( uninterrupted.getPopulation().getPersons().keySet(), resumed.getPopulation().getPersons().keySet() );
+		for ( Person person : uninterrupted.getPopulation().getPersons().values() ) {
+			Person other = resumed.getPopulation().getPersons().get( person.getId() );
+			Assert.assertEquals( "Different number of plans of " + person.getId(), person.getPlans().size(), other.getPlans().size() );
+			Assert.assertEquals( "Different selected plan of " + person.getId(), person.getPlans().indexOf( person.getSelectedPlan() ),
+					other.getPlans().indexOf( other.getSelectedPlan() ) );
+			for ( int i = 0; i < person.getPlans().size(); i++ ) {
+				Plan plan = person.getPlans().get( i );
+				Plan otherPlan = other.getPlans().get( i );
+				Assert.assertEquals( "Different score of " + person.getId(), plan.getScore(), otherPlan.getScore() );
+				Assert.assertEquals( "Different plan of " + person.getId(), describe( plan ), describe( otherPlan ) );
+			}
+		}
+
+		for ( String file : StatsHistoryCheckpoint.FILES ) {
+			Assert.assertEquals( "Different " + file, readOutputFile( uninterrupted, file ), readOutputFile( resumed, file ) );
+		}
+	}
+
+	/**
+	 * With dynamic shutdown, the resumed run has to continue the convergence criteria where they stopped: an expanding
+	 * slope window over more iterations than the buffers of the last values hold, and the CUSUM sums. Both runs write a
+	 * checkpoint in every iteration, and the state of dynamic shutdown in the last one has to be the same.
+	 */
+	@Test
+	public final void testResumedRunContinuesDynamicShutdown() throws IOException {
+		final int lastIteration = 6;
+		String uninterruptedOutput = utils.getOutputDirectory() + "uninterrupted/";
+		Scenario uninterrupted = RunBerlinScenario.prepareScenario( prepareDynamicShutdownConfig( uninterruptedOutput, lastIteration ) );
+		Controler uninterruptedControler = RunBerlinScenario.prepareControler( uninterrupted );
+		uninterruptedControler.addOverridingModule( new DynamicShutdownModule() );
+		uninterruptedControler.run();
+
+		String resumedOutput = utils.getOutputDirectory() + "resumed/";
+		copyDirectory( Checkpoints.getCheckpointDirectory( uninterruptedOutput, CHECKPOINT_ITERATION ),
+				Checkpoints.getCheckpointDirectory( resumedOutput, CHECKPOINT_ITERATION ) );
+		Scenario resumed = RunBerlinScenario.prepareScenarioFromCheckpoint( prepareDynamicShutdownConfig( resumedOutput, lastIteration ) );
+		Controler resumedControler = RunBerlinScenario.prepareControler( resumed );
+		resumedControler.addOverridingModule( new DynamicShutdownModule() );
+		resumedControler.run();
+
+		Path uninterruptedCheckpoint = Checkpoints.getCheckpointDirectory( uninterruptedOutput, lastIteration );
+		Path resumedCheckpoint = Checkpoints.getCheckpointDirectory( resumedOutput, lastIteration );
+		for ( String file : List.of( "dynShutdownCriteria.txt", "dynShutdownSeries.txt", "dynShutdownState.txt" ) ) {
+			List<String> expected = Files.readAllLines( uninterruptedCheckpoint.resolve( file ), StandardCharsets.UTF_8 );
+			Assert.assertFalse( "Empty " + file, expected.isEmpty() );
+			Assert.assertEquals( "Different " + file, expected, Files.readAllLines( resumedCheckpoint.resolve( file ), StandardCharsets.UTF_8 ) );
+		}
+	}
+
+	private static Config prepareDynamicShutdownConfig( String outputDirectory, int lastIteration ) {
+		Config config = prepareConfig( outputDirectory, lastIteration );
+		ConfigUtils.addOrGetModule( config, BerlinExperimentalConfigGroup.class ).setCheckpointInterval( 1 );
+		DynamicShutdownConfigGroup cfg = ConfigUtils.addOrGetModule( config, DynamicShutdownConfigGroup.class );
+		cfg.setDynamicShutdownModuleActive( DynamicShutdownConfigGroup.dynamicShutdownOptions.ON_ANALYSIS_ONLY );
+		cfg.setMinimumIteration( 0 );
+		cfg.setIterationToStartFindingSlopes( 0 );
+		cfg.setMinIterationForGraphics( lastIteration + 1 );
+		// the buffers hold 3 values; the expanding window retains more, and CUSUM sums up from the start
+		cfg.setMinimumWindowSize( 2 );
+		cfg.setIterationsInZoneToConverge( 2 );
+		cfg.setSlopeWindowPolicy( DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING );
+		cfg.setExpandingWindowPctRetention( 0.9 );
+		cfg.setScoreConvergencePolicy( DynamicShutdownConfigGroup.convergencePolicyOption.CUSUM );
+		cfg.setModeConvergencePolicy( DynamicShutdownConfigGroup.convergencePolicyOption.SLOPE );
+		cfg.setModeChoiceCoverageConvergencePolicy( DynamicShutdownConfigGroup.convergencePolicyOption.SLOPE );
+		return config;
+	}
+
+	private static Config prepareConfig( String outputDirectory, int lastIteration ) {
+		Config config = RunBerlinScenario.prepareConfig( ARGS );
+		config.controler().setLastIteration( lastIteration );
+		config.strategy().setFractionOfIterationsToDisableInnovation( 1 );
+		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
+		config.controler().setOutputDirectory( outputDirectory );
+		config.plans().setInputFile( "../../../test/input/test-agents.xml" );
+		config.global().setNumberOfThreads( 1 );
+		config.qsim().setNumberOfThreads( 1 );
+		return config;
+	}
+
+	/**
+	 * @return the exact times, modes and routes of the plan, which the plans file would round
+	 */
+	private static String describe( Plan plan ) {
+		StringBuilder description = new StringBuilder();
+		for ( PlanElement element : plan.getPlanElements() ) {
+			if ( element instanceof Activity ) {
+				Activity activity = (Activity) element;
+				description.append( activity.getType() ).append( ' ' ).append( activity.getLinkId() ).append( ' ' )
+						.append( time( activity.getStartTime() ) ).append( ' ' ).append( time( activity.getEndTime() ) ).append( ' ' )
+						.append( time( activity.getMaximumDuration() ) ).append( '\n' );
+			} else {
+				Leg leg = (Leg) element;
+				description.append( leg.getMode() ).append( ' ' ).append( time( leg.getDepartureTime() ) ).append( ' ' )
+						.append( time( leg.getTravelTime() ) ).append( ' ' );
+				if ( leg.getRoute() != null ) {
+					description.append( leg.getRoute().getRouteDescription() ).append( ' ' ).append( time( leg.getRoute().getTravelTime() ) );
+				}
+				description.append( '\n' );
+			}
+		}
+		return description.toString();
+	}
+
+	private static String time( OptionalTime time ) {
+		return time.isDefined() ? Double.toString( time.seconds() ) : "undefined";
+	}
+
+	private static List<String> readOutputFile( Scenario scenario, String file ) throws IOException {
+		String runId = scenario.getConfig().controler().getRunId();
+		String name = runId == null ? file : runId + "." + file;
+		return Files.readAllLines( Paths.get( scenario.getConfig().controler().getOutputDirectory(), name ), StandardCharsets.UTF_8 );
+	}
+
+	private static void copyDirectory( Path from, Path to ) throws IOException {
+		Files.createDirectories( to );
+		try ( Stream<Path> files = Files.list( from ) ) {
+			for ( Path file : files.collect( Collectors.toList() ) ) {
+				Files.copy( file, to.resolve( file.getFileName() ) );
+			}
+		}
+	}
+
+}
@@ -66,7 +66,7 @@ public class RunDrtOpenBerlinScenarioTest {
 				drtCfg.setNumberOfThreads(1);
 			}
 			
-			// Decrease population to 0.01% sample 
+			// Decrease population to 0.01% sample; capacities and counts are rescaled to it by prepareScenario
 			BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config, BerlinExperimentalConfigGroup.class);
 			berlinCfg.setPopulationDownsampleFactor(0.01);
 			
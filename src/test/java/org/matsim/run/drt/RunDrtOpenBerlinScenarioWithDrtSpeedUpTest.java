@@ -107,6 +107,7 @@ public class RunDrtOpenBerlinScenarioWithDrtSpeedUpTest {
 
 			BerlinExperimentalConfigGroup berlinCfg = ConfigUtils.addOrGetModule(config,
 					BerlinExperimentalConfigGroup.class);
+			// capacities and counts are rescaled to the sample by prepareScenario
 			berlinCfg.setPopulationDownsampleFactor(0.01);
 
 			for (DrtConfigGroup drtCfg : MultiModeDrtConfigGroup.get(config).getModalElements()) {
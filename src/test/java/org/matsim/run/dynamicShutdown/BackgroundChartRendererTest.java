@@ -0,0 +1,116 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+import org.jfree.chart.JFreeChart;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.core.utils.charts.ChartUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BackgroundChartRendererTest {
+
+	/**
+	 * While a chart is rendered, only the latest chart per file waits; older ones for the same file are dropped, and the
+	 * waiting charts are rendered in the order in which their files were first submitted.
+	 */
+	@Test
+	public final void testOnlyLatestChartPerFileIsRendered() throws InterruptedException {
+		List<String> rendered = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		BackgroundChartRenderer renderer = new BackgroundChartRenderer();
+
+		renderer.submit("a.png", new RecordingChart("a1", rendered, started, release));
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		renderer.submit("a.png", new RecordingChart("a2", rendered, null, null));
+		renderer.submit("b.png", new RecordingChart("b1", rendered, null, null));
+		renderer.submit("a.png", new RecordingChart("a3", rendered, null, null));
+		release.countDown();
+		renderer.close();
+
+		Assert.assertEquals(List.of("a1", "a3", "b1"), rendered);
+	}
+
+	/**
+	 * close() gives up after the timeout if a chart does not finish.
+	 */
+	@Test
+	public final void testCloseWaitsAtMostTheTimeout() throws InterruptedException {
+		List<String> rendered = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		BackgroundChartRenderer renderer = new BackgroundChartRenderer(200);
+
+		renderer.submit("slow.png", new RecordingChart("slow", rendered, started, release));
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		long start = System.nanoTime();
+		renderer.close();
+		long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("waited " + waitedMillis + " ms", waitedMillis >= 150 && waitedMillis < 5000);
+		Assert.assertTrue(rendered.isEmpty());
+		release.countDown();
+	}
+
+	/**
+	 * Records the saved charts instead of writing them; optionally signals the start of saving and blocks until released.
+	 */
+	private static final class RecordingChart extends ChartUtil {
+
+		private final String name;
+		private final List<String> rendered;
+		private final CountDownLatch started;
+		private final CountDownLatch release;
+
+		RecordingChart(String name, List<String> rendered, CountDownLatch started, CountDownLatch release) {
+			super(name, "x", "y");
+			this.name = name;
+			this.rendered = rendered;
+			this.started = started;
+			this.release = release;
+		}
+
+		@Override
+		public JFreeChart getChart() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void saveAsPng(String filename, int width, int height) {
+			if (started != null) {
+				started.countDown();
+			}
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			rendered.add(name);
+		}
+	}
+
+}
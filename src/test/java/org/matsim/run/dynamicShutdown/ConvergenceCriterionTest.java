@@ -0,0 +1,126 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ConvergenceCriterionTest {
+
+	private static final int WINDOW = 30;
+
+	@Test
+	public final void testMannKendall() {
+		ConvergenceCriterion criterion = new MannKendallConvergenceCriterion(WINDOW, 0.05);
+		Random random = new Random(4711);
+		for (int it = 0; it < 100; it++) {
+			criterion.add(it, 100. + it + random.nextGaussian());
+		}
+		Assert.assertFalse("trend not detected", criterion.isInZone());
+
+		// the incremental statistic has to match the one computed from scratch over the window
+		long s = 0;
+		double[] values = new double[WINDOW];
+		random = new Random(4711);
+		for (int it = 0; it < 100; it++) {
+			double value = 100. + it + random.nextGaussian();
+			if (it >= 100 - WINDOW) {
+				values[it - 100 + WINDOW] = value;
+			}
+		}
+		for (int i = 0; i < WINDOW; i++) {
+			for (int j = i + 1; j < WINDOW; j++) {
+				s += (long) Math.signum(values[j] - values[i]);
+			}
+		}
+		double expectedZ = (s - Long.signum(s)) / Math.sqrt(WINDOW * (WINDOW - 1.) * (2. * WINDOW + 5.) / 18.);
+		Assert.assertEquals(expectedZ, criterion.getStatistic(), 1e-9);
+
+		for (int it = 100; it < 200; it++) {
+			criterion.add(it, 200. + random.nextGaussian());
+		}
+		Assert.assertTrue("trend detected on a plateau", criterion.isInZone());
+	}
+
+	@Test
+	public final void testCusum() {
+		ConvergenceCriterion criterion = new CusumConvergenceCriterion(WINDOW, 5.);
+		Random random = new Random(4711);
+		for (int it = 0; it < 100; it++) {
+			criterion.add(it, 10. + random.nextGaussian());
+		}
+		Assert.assertTrue("change point signalled on a plateau", criterion.isInZone());
+
+		for (int it = 100; it < 110; it++) {
+			criterion.add(it, 15. + random.nextGaussian());
+		}
+		Assert.assertFalse("level shift not detected", criterion.isInZone());
+	}
+
+	/**
+	 * A criterion restored from the state of another one continues with exactly the same statistics, also with an expanding
+	 * slope window and the CUSUM sums, which reach back further than the window of the last values.
+	 */
+	@Test
+	public final void testRestoredStateContinuesExactly() {
+		DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+		cfg.setMinimumWindowSize(5);
+		cfg.setSlopeWindowPolicy(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING);
+		cfg.setExpandingWindowPctRetention(0.5);
+		for (DynamicShutdownConfigGroup.convergencePolicyOption policy : DynamicShutdownConfigGroup.convergencePolicyOption.values()) {
+			ConvergenceCriterion uninterrupted = ConvergenceCriterion.create(policy, cfg, 0.01);
+			ConvergenceCriterion resumed = null;
+			Random random = new Random(4711);
+			for (int it = 0; it < 100; it++) {
+				double value = 100. + 20. * Math.exp(-it / 20.) + random.nextGaussian();
+				uninterrupted.add(it, value);
+				if (resumed != null) {
+					resumed.add(it, value);
+					Assert.assertEquals(policy + " in iteration " + it, uninterrupted.getStatistic(), resumed.getStatistic(), 0.);
+					Assert.assertEquals(policy + " in iteration " + it, uninterrupted.isInZone(), resumed.isInZone());
+				}
+				if (it == 60) {
+					resumed = ConvergenceCriterion.create(policy, cfg, 0.01);
+					resumed.setState(uninterrupted.getState());
+					Assert.assertEquals(uninterrupted.getLastIteration(), resumed.getLastIteration());
+				}
+			}
+		}
+	}
+
+	@Test
+	public final void testRelativeVariance() {
+		ConvergenceCriterion criterion = new RelativeVarianceConvergenceCriterion(WINDOW, 0.01);
+		Random random = new Random(4711);
+		for (int it = 0; it < WINDOW - 1; it++) {
+			criterion.add(it, 100. + 0.1 * random.nextGaussian());
+		}
+		Assert.assertFalse("window not full yet", criterion.isInZone());
+		criterion.add(WINDOW, 100.);
+		Assert.assertTrue(criterion.isInZone());
+
+		for (int it = WINDOW + 1; it < 2 * WINDOW; it++) {
+			criterion.add(it, 100. + 10. * random.nextGaussian());
+		}
+		Assert.assertFalse(criterion.isInZone());
+	}
+}
@@ -0,0 +1,98 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+public class ConvergenceTelemetryTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * With port 0 the server picks a free port and writes its address to the output directory; a GET returns the last
+	 * published snapshot as JSON.
+	 */
+	@Test
+	public final void testServesPublishedSnapshot() throws IOException {
+		Config config = ConfigUtils.createConfig();
+		config.controler().setOutputDirectory(utils.getOutputDirectory());
+		config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+		ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class).setTelemetryPort(0);
+		OutputDirectoryHierarchy controlerIO = new OutputDirectoryHierarchy(config.controler());
+		Files.createDirectories(Paths.get(utils.getOutputDirectory()));
+
+		ConvergenceTelemetry telemetry = new ConvergenceTelemetry(config, controlerIO);
+		telemetry.notifyStartup(null);
+		try {
+			String url = Files.readAllLines(Paths.get(controlerIO.getOutputFilename("dynShutdown_telemetry.txt")), StandardCharsets.UTF_8).get(0);
+			Assert.assertFalse(url.endsWith(":0/convergence"));
+
+			Assert.assertFalse(get(url).has("iteration"));
+
+			telemetry.publish(new ConvergenceTelemetry.Snapshot(12, 500, false, Integer.MAX_VALUE, 140, 50,
+					Map.of("score", List.of(new ConvergenceTelemetry.MetricState("avg. executed", 117.5, Double.NaN, 3)))));
+			JsonNode json = get(url);
+			Assert.assertEquals(12, json.get("iteration").asInt());
+			Assert.assertEquals(500, json.get("lastIteration").asInt());
+			Assert.assertFalse(json.get("dynamicShutdownInitiated").asBoolean());
+			Assert.assertTrue(json.get("innovationDisableIteration").isNull());
+			Assert.assertEquals(140, json.get("projectedShutdownIteration").asInt());
+			JsonNode score = json.get("metrics").get("score").get("avg. executed");
+			Assert.assertEquals(117.5, score.get("value").asDouble(), 0.);
+			Assert.assertTrue(score.get("statistic").isNull());
+			Assert.assertEquals(3, score.get("iterationsInZone").asInt());
+			Assert.assertEquals(0, json.get("phases").size());
+		} finally {
+			telemetry.notifyShutdown(null);
+		}
+	}
+
+	private static JsonNode get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			Assert.assertEquals(200, connection.getResponseCode());
+			try (InputStream in = connection.getInputStream()) {
+				return new ObjectMapper().readTree(in);
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+}
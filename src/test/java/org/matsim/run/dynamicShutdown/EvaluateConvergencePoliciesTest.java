@@ -0,0 +1,123 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EvaluateConvergencePoliciesTest {
+
+	private static final int LAST_ITERATION = 59;
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The score rises by 10 per iteration up to iteration 20 and stays at 200 afterwards, the mode shares are constant.
+	 * With windows of 5 iterations and 3 iterations in the zone, slope, relative variance and CUSUM see the plateau
+	 * once the window has left the rise (iteration 24) and initiate the shutdown in iteration 27; Mann-Kendall at 10%
+	 * already accepts the windows ending in iteration 22. The startup phase does not count as CPU time of an iteration.
+	 */
+	@Test
+	public final void testInitiationIterationPerPolicy() throws IOException {
+		Path output = Paths.get(utils.getOutputDirectory());
+		Files.createDirectories(output);
+
+		Config config = ConfigUtils.createConfig();
+		config.controler().setFirstIteration(0);
+		config.controler().setLastIteration(LAST_ITERATION);
+		config.strategy().setFractionOfIterationsToDisableInnovation(0.5);
+		DynamicShutdownConfigGroup cfg = ConfigUtils.addOrGetModule(config, DynamicShutdownConfigGroup.class);
+		cfg.setDynamicShutdownModuleActive(DynamicShutdownConfigGroup.dynamicShutdownOptions.ON_ANALYSIS_ONLY);
+		cfg.setMinimumIteration(0);
+		cfg.setIterationToStartFindingSlopes(1);
+		cfg.setSlopeWindowPolicy(DynamicShutdownConfigGroup.slopeWindowOption.FIXED);
+		cfg.setMinimumWindowSize(5);
+		cfg.setIterationsInZoneToConverge(3);
+		cfg.setScorePolicyChosen(DynamicShutdownConfigGroup.scorePolicyOptions.ON_EXECUTED_ONLY);
+		cfg.setScoreThreshold(0.01);
+		cfg.setModePolicyChosen(DynamicShutdownConfigGroup.modePolicyOptions.ON_FULL);
+		cfg.setModeThreshold(0.0001);
+		cfg.setMannKendallSignificance(0.1);
+		cfg.setCusumThreshold(4.);
+		cfg.setRelativeVarianceThreshold(0.01);
+		ConfigUtils.writeConfig(config, output.resolve("output_config.xml").toString());
+
+		List<String> scoreStats = new ArrayList<>(List.of("ITERATION\tavg. EXECUTED\tavg. WORST\tavg. AVG\tavg. BEST"));
+		List<String> modeStats = new ArrayList<>(List.of("Iteration\tcar\tpt"));
+		List<String> phaseMetrics = new ArrayList<>(List.of("iteration;phase;wallTime_ms;cpuTime_ms;allocated_bytes;gcCount;gcCollectionTime_ms",
+				"0;startup;1000;3600000;0;0;0"));
+		for (int iteration = 0; iteration <= LAST_ITERATION; iteration++) {
+			double score = 10. * Math.min(iteration, 20);
+			scoreStats.add(iteration + "\t" + score + "\t" + (score - 50.) + "\t" + score + "\t" + (score + 50.));
+			modeStats.add(iteration + "\t0.4\t0.6");
+			phaseMetrics.add(iteration + ";replanning;1000;360000;0;0;0");
+			phaseMetrics.add(iteration + ";mobsim;1000;360000;0;0;0");
+		}
+		Files.write(output.resolve("scorestats.txt"), scoreStats, StandardCharsets.UTF_8);
+		Files.write(output.resolve("modestats.txt"), modeStats, StandardCharsets.UTF_8);
+		Files.write(output.resolve("phaseMetrics.csv"), phaseMetrics, StandardCharsets.UTF_8);
+
+		Map<String, String[]> results = evaluate(output);
+		Assert.assertEquals("27", results.get("SLOPE")[1]);
+		Assert.assertEquals("27", results.get("RELATIVE_VARIANCE")[1]);
+		Assert.assertEquals("27", results.get("CUSUM")[1]);
+		Assert.assertEquals("25", results.get("MANN_KENDALL")[1]);
+		// shutdown after twice the iterations up to the initiation, since innovation is switched off after half of them
+		Assert.assertEquals("56", results.get("SLOPE")[2]);
+		Assert.assertEquals("3", results.get("SLOPE")[3]);
+		Assert.assertEquals(3 * 0.2, Double.parseDouble(results.get("SLOPE")[4]), 1e-9);
+		Assert.assertEquals(7 * 0.2, Double.parseDouble(results.get("MANN_KENDALL")[4]), 1e-9);
+
+		// without CPU times, only the CPU hours are missing
+		Files.write(output.resolve("phaseMetrics.csv"), List.of("iteration;phase;wallTime_ms", "0;mobsim;1000"), StandardCharsets.UTF_8);
+		results = evaluate(output);
+		Assert.assertEquals("27", results.get("SLOPE")[1]);
+		Assert.assertTrue(Double.isNaN(Double.parseDouble(results.get("SLOPE")[4])));
+	}
+
+	/**
+	 * @return the columns of dynShutdown_policyEvaluation.txt by policy
+	 */
+	private static Map<String, String[]> evaluate(Path output) throws IOException {
+		EvaluateConvergencePolicies.main(new String[] {output.toString()});
+		Map<String, String[]> results = new HashMap<>();
+		List<String> lines = Files.readAllLines(output.resolve("dynShutdown_policyEvaluation.txt"), StandardCharsets.UTF_8);
+		for (String line : lines.subList(1, lines.size())) {
+			String[] columns = line.split("\t", -1);
+			results.put(columns[0], columns);
+		}
+		return results;
+	}
+
+}
@@ -0,0 +1,142 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.router.AnalysisMainModeIdentifier;
+import org.matsim.core.router.DefaultAnalysisMainModeIdentifier;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+
+public class ModeChoiceCoverageControlerListenerTest {
+
+	private static final String[] MODES = {TransportMode.car, TransportMode.pt, TransportMode.bike, TransportMode.walk};
+	private static final int[] LIMITS = {1, 5, 10};
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The main modes are identified in chunks on several threads, but added to the counts in the order of the population,
+	 * so the coverage is the same as with one thread.
+	 */
+	@Test
+	public final void testSameCoverageForAnyNumberOfThreads() throws IOException {
+		Population population = createPopulation(1000);
+		ModeChoiceCoverageControlerListener sequential = createListener(population, "threads1/", 1);
+		ModeChoiceCoverageControlerListener parallel = createListener(population, "threads4/", 4);
+		sequential.notifyStartup(null);
+		parallel.notifyStartup(null);
+
+		Random random = new Random(4711);
+		for (int iteration = 0; iteration < 15; iteration++) {
+			for (Person person : population.getPersons().values()) {
+				for (PlanElement element : person.getSelectedPlan().getPlanElements()) {
+					// most persons stick to their modes, so that the coverage grows slowly
+					if (element instanceof Leg && (iteration == 0 || random.nextDouble() < 0.2)) {
+						((Leg) element).setMode(MODES[random.nextInt(MODES.length)]);
+					}
+				}
+			}
+			sequential.notifyIterationEnds(new IterationEndsEvent(null, iteration, false));
+			parallel.notifyIterationEnds(new IterationEndsEvent(null, iteration, false));
+
+			for (int limit : LIMITS) {
+				Assert.assertEquals("iteration " + iteration + ", " + limit + "x", sequential.getModeChoiceCoverage(limit),
+						parallel.getModeChoiceCoverage(limit));
+			}
+		}
+		Assert.assertTrue(sequential.getModeChoiceCoverage(1).get(TransportMode.car) > sequential.getModeChoiceCoverage(5).get(TransportMode.car));
+		Assert.assertTrue(sequential.getModeChoiceCoverage(5).get(TransportMode.car) > 0.);
+
+		// the deprecated history is read back from the output files
+		@SuppressWarnings("deprecation")
+		Map<Integer, Map<String, Map<Integer, Double>>> history = parallel.getModeChoiceCoverageHistory();
+		for (int limit : LIMITS) {
+			Assert.assertEquals(15, history.get(limit).get(TransportMode.car).size());
+			Assert.assertEquals(parallel.getModeChoiceCoverage(limit).get(TransportMode.car), history.get(limit).get(TransportMode.car).get(14));
+		}
+		sequential.notifyShutdown(null);
+		parallel.notifyShutdown(null);
+
+		for (int limit : LIMITS) {
+			Assert.assertEquals(Files.readAllLines(Paths.get(utils.getOutputDirectory(), "threads1", "modeChoiceCoverage" + limit + "x.txt"), StandardCharsets.UTF_8),
+					Files.readAllLines(Paths.get(utils.getOutputDirectory(), "threads4", "modeChoiceCoverage" + limit + "x.txt"), StandardCharsets.UTF_8));
+		}
+	}
+
+	private ModeChoiceCoverageControlerListener createListener(Population population, String outputDirectory, int numberOfThreads) throws IOException {
+		Config config = ConfigUtils.createConfig();
+		config.controler().setOutputDirectory(utils.getOutputDirectory() + outputDirectory);
+		config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+		config.global().setNumberOfThreads(numberOfThreads);
+		OutputDirectoryHierarchy controlerIO = new OutputDirectoryHierarchy(config.controler());
+		Files.createDirectories(Paths.get(config.controler().getOutputDirectory()));
+		AnalysisMainModeIdentifier mainModeIdentifier = new DefaultAnalysisMainModeIdentifier();
+		return new ModeChoiceCoverageControlerListener(config.controler(), population, controlerIO, config.planCalcScore(),
+				mainModeIdentifier, config, new ModeChoiceCoverageEventHandler(mainModeIdentifier, population, config));
+	}
+
+	/**
+	 * Persons with one to four trips between home, work and leisure.
+	 */
+	static Population createPopulation(int numberOfPersons) {
+		Population population = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getPopulation();
+		PopulationFactory factory = population.getFactory();
+		String[] types = {"work", "leisure", "shopping", "home"};
+		for (int i = 0; i < numberOfPersons; i++) {
+			Person person = factory.createPerson(Id.createPersonId(i));
+			Plan plan = factory.createPlan();
+			plan.addActivity(factory.createActivityFromCoord("home", new Coord(0., 0.)));
+			int trips = 1 + i % 4;
+			for (int trip = 0; trip < trips; trip++) {
+				plan.addLeg(factory.createLeg(TransportMode.walk));
+				String type = trip == trips - 1 ? "home" : types[trip];
+				plan.addActivity(factory.createActivityFromCoord(type, new Coord(100. * trip, 50. * i)));
+			}
+			person.addPlan(plan);
+			person.setSelectedPlan(plan);
+			population.addPerson(person);
+		}
+		return population;
+	}
+
+}
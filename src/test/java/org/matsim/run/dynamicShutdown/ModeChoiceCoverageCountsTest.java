@@ -0,0 +1,221 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ModeChoiceCoverageCountsTest {
+
+	private static final int PERSONS = 10000;
+	private static final int[] LIMITS = {1, 5};
+	private static final double Z = 1.96;
+	private static final double Z_99 = 2.576;
+
+	/**
+	 * The sample only depends on the person ids: asking again, or in another order, gives the same persons, a smaller
+	 * fraction gives a subset, and the size matches the fraction.
+	 */
+	@Test
+	public final void testSampleIsStable() {
+		List<Id<Person>> personIds = createPersonIds();
+		int sampled = 0;
+		for (int i = personIds.size() - 1; i >= 0; i--) {
+			Id<Person> personId = personIds.get(i);
+			boolean inSample = ModeChoiceCoverageControlerListener.isInSample(personId, 0.5);
+			Assert.assertEquals(inSample, ModeChoiceCoverageControlerListener.isInSample(Id.createPersonId(personId.toString()), 0.5));
+			if (ModeChoiceCoverageControlerListener.isInSample(personId, 0.2)) {
+				Assert.assertTrue(inSample);
+			}
+			Assert.assertTrue(ModeChoiceCoverageControlerListener.isInSample(personId, 1.));
+			sampled += inSample ? 1 : 0;
+		}
+		Assert.assertEquals(0.5, (double) sampled / PERSONS, 0.02);
+	}
+
+	/**
+	 * The share of all persons lies within the 99% confidence interval around the share of the tracked half of the
+	 * persons, and the half width matches the spread of the share over many random samples of half of the persons.
+	 */
+	@Test
+	public final void testConfidenceInterval() {
+		List<Id<Person>> personIds = createPersonIds();
+		int[][] usesPerTrip = createUsesPerTrip(new Random(4711));
+
+		ModeChoiceCoverageCounts all = new ModeChoiceCoverageCounts();
+		ModeChoiceCoverageCounts tracked = new ModeChoiceCoverageCounts();
+		for (int i = 0; i < PERSONS; i++) {
+			count(all, personIds.get(i), usesPerTrip[i]);
+			if (ModeChoiceCoverageControlerListener.isInSample(personIds.get(i), 0.5)) {
+				count(tracked, personIds.get(i), usesPerTrip[i]);
+			}
+		}
+		int car = all.getModeCode("car");
+		ModeChoiceCoverageCounts.CoverageSums population = all.sumCoverage(LIMITS, 0, all.getNumberOfPersons());
+		ModeChoiceCoverageCounts.CoverageSums sample = tracked.sumCoverage(LIMITS, 0, tracked.getNumberOfPersons());
+		Assert.assertEquals(0., population.halfWidth(0, car, 1., Z), 0.);
+
+		for (int l = 0; l < LIMITS.length; l++) {
+			double populationShare = share(population, l, car);
+			double sampleShare = share(sample, l, car);
+			double halfWidth = sample.halfWidth(l, tracked.getModeCode("car"), 0.5, Z);
+			double halfWidth99 = sample.halfWidth(l, tracked.getModeCode("car"), 0.5, Z_99);
+			Assert.assertTrue("Share " + sampleShare + " ± " + halfWidth99 + " misses " + populationShare + " for limit " + LIMITS[l],
+					Math.abs(sampleShare - populationShare) <= halfWidth99);
+
+			Random random = new Random(l);
+			double sum = 0.;
+			double squares = 0.;
+			int draws = 400;
+			for (int draw = 0; draw < draws; draw++) {
+				long atLeast = 0;
+				long trips = 0;
+				for (int i = 0; i < PERSONS; i++) {
+					if (random.nextBoolean()) {
+						for (int uses : usesPerTrip[i]) {
+							atLeast += uses >= LIMITS[l] ? 1 : 0;
+						}
+						trips += usesPerTrip[i].length;
+					}
+				}
+				double drawnShare = (double) atLeast / trips;
+				sum += drawnShare;
+				squares += drawnShare * drawnShare;
+			}
+			double standardDeviation = Math.sqrt((squares - sum * sum / draws) / (draws - 1));
+			Assert.assertEquals(Z * standardDeviation, halfWidth, 0.2 * halfWidth);
+		}
+	}
+
+	/**
+	 * Over many iterations with changing numbers of trips, the counts equal those of nested maps per person, trip and
+	 * mode, as they were kept before, and blocks given up by growing persons are used again.
+	 */
+	@Test
+	public final void testMatchesMapBasedCounts() {
+		List<Id<Person>> personIds = createPersonIds().subList(0, 500);
+		String[] modes = {"car", "pt", "bicycle", "walk", "ride", "drt", "freight", "taxi", "ferry"};
+		Random random = new Random(4711);
+		ModeChoiceCoverageCounts counts = new ModeChoiceCoverageCounts();
+		Map<Id<Person>, Map<Integer, Map<String, Integer>>> expected = new HashMap<>();
+
+		for (int iteration = 0; iteration < 50; iteration++) {
+			// a mode which only appears later widens the rows
+			int availableModes = iteration < 25 ? 4 : modes.length;
+			for (Id<Person> personId : personIds) {
+				if (random.nextDouble() < 0.1) {
+					continue;
+				}
+				int trips = 1 + random.nextInt(2 + iteration / 5);
+				int slot = counts.getOrCreateSlot(personId);
+				counts.ensureTrips(slot, trips);
+				for (int trip = 0; trip < trips; trip++) {
+					String mode = modes[random.nextInt(availableModes)];
+					counts.add(slot, trip, counts.getOrCreateModeCode(mode), 1);
+					expected.computeIfAbsent(personId, k -> new HashMap<>()).computeIfAbsent(trip, k -> new HashMap<>()).merge(mode, 1, Integer::sum);
+				}
+			}
+		}
+
+		int[] limits = {1, 3, 10};
+		long[][] atLeast = counts.countPersonTripsAtLeast(limits);
+		long totalTrips = 0;
+		for (int l = 0; l < limits.length; l++) {
+			for (String mode : counts.getModes()) {
+				long expectedAtLeast = 0;
+				for (Map<Integer, Map<String, Integer>> ofPerson : expected.values()) {
+					for (Map<String, Integer> ofTrip : ofPerson.values()) {
+						expectedAtLeast += ofTrip.getOrDefault(mode, 0) >= limits[l] ? 1 : 0;
+					}
+				}
+				Assert.assertEquals("Trips with " + mode + " at least " + limits[l] + " times", expectedAtLeast, atLeast[l][counts.getModeCode(mode)]);
+			}
+		}
+		for (Map.Entry<Id<Person>, Map<Integer, Map<String, Integer>>> ofPerson : expected.entrySet()) {
+			int slot = counts.getOrCreateSlot(ofPerson.getKey());
+			Assert.assertEquals(ofPerson.getValue().size(), counts.getTripsSeen(slot));
+			totalTrips += ofPerson.getValue().size();
+			for (Map.Entry<Integer, Map<String, Integer>> ofTrip : ofPerson.getValue().entrySet()) {
+				for (String mode : counts.getModes()) {
+					Assert.assertEquals((int) ofTrip.getValue().getOrDefault(mode, 0), counts.getCount(slot, ofTrip.getKey(), counts.getModeCode(mode)));
+				}
+			}
+		}
+		Assert.assertEquals(totalTrips, counts.getTotalPersonTrips());
+
+		// the block of one trip which the first person gives up is taken by a new person, and zeroed
+		ModeChoiceCoverageCounts reused = new ModeChoiceCoverageCounts();
+		int car = reused.getOrCreateModeCode("car");
+		int first = reused.getOrCreateSlot(personIds.get(0));
+		reused.ensureTrips(first, 1);
+		reused.add(first, 0, car, 3);
+		reused.ensureTrips(first, 2);
+		int second = reused.getOrCreateSlot(personIds.get(1));
+		reused.ensureTrips(second, 1);
+		Assert.assertEquals(3, reused.getRowsUsed());
+		Assert.assertEquals(3, reused.getCount(first, 0, car));
+		Assert.assertEquals(0, reused.getCount(second, 0, car));
+	}
+
+	/**
+	 * Trips of the same person use the car similarly often, so the trips are not independent of each other.
+	 */
+	private static int[][] createUsesPerTrip(Random random) {
+		int[][] usesPerTrip = new int[PERSONS][];
+		for (int i = 0; i < PERSONS; i++) {
+			double carAffinity = random.nextDouble();
+			usesPerTrip[i] = new int[1 + random.nextInt(6)];
+			for (int trip = 0; trip < usesPerTrip[i].length; trip++) {
+				usesPerTrip[i][trip] = (int) Math.round(carAffinity * 8. * random.nextDouble());
+			}
+		}
+		return usesPerTrip;
+	}
+
+	private static void count(ModeChoiceCoverageCounts counts, Id<Person> personId, int[] usesPerTrip) {
+		int car = counts.getOrCreateModeCode("car");
+		int slot = counts.getOrCreateSlot(personId);
+		counts.ensureTrips(slot, usesPerTrip.length);
+		for (int trip = 0; trip < usesPerTrip.length; trip++) {
+			counts.add(slot, trip, car, usesPerTrip[trip]);
+		}
+	}
+
+	private static double share(ModeChoiceCoverageCounts.CoverageSums sums, int l, int modeCode) {
+		return (double) sums.personTripsAtLeast[l][modeCode] / sums.trips;
+	}
+
+	private static List<Id<Person>> createPersonIds() {
+		List<Id<Person>> personIds = new ArrayList<>();
+		for (int i = 0; i < PERSONS; i++) {
+			personIds.add(Id.createPersonId("coverage" + i));
+		}
+		return personIds;
+	}
+
+}
@@ -0,0 +1,155 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.router.AnalysisMainModeIdentifier;
+import org.matsim.core.router.DefaultAnalysisMainModeIdentifier;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.router.TripStructureUtils.Trip;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class ModeChoiceCoverageEventHandlerTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The events of an intermodal pt trip with interaction activities, a car and a bike trip, a person staying at home,
+	 * and a transit and a drt driver in between. The main modes of the executed trips are those of the selected plans,
+	 * and the drivers, which are not in the population, are not tracked.
+	 */
+	@Test
+	public final void testSameMainModesAsPlans() throws IOException {
+		Config config = ConfigUtils.createConfig();
+		Population population = ScenarioUtils.createScenario(config).getPopulation();
+		PopulationFactory factory = population.getFactory();
+
+		Plan commuter = createPlan(population, "commuter");
+		commuter.addLeg(factory.createLeg(TransportMode.walk));
+		commuter.addActivity(factory.createActivityFromLinkId("pt interaction", Id.createLinkId("stop1")));
+		commuter.addLeg(factory.createLeg(TransportMode.pt));
+		commuter.addActivity(factory.createActivityFromLinkId("pt interaction", Id.createLinkId("stop2")));
+		commuter.addLeg(factory.createLeg(TransportMode.walk));
+		commuter.addActivity(factory.createActivityFromCoord("work", new Coord(1000., 0.)));
+		commuter.addLeg(factory.createLeg(TransportMode.car));
+		commuter.addActivity(factory.createActivityFromCoord("home", new Coord(0., 0.)));
+
+		Plan cyclist = createPlan(population, "cyclist");
+		cyclist.addLeg(factory.createLeg(TransportMode.bike));
+		cyclist.addActivity(factory.createActivityFromCoord("leisure", new Coord(0., 500.)));
+		cyclist.addLeg(factory.createLeg(TransportMode.bike));
+		cyclist.addActivity(factory.createActivityFromCoord("home", new Coord(0., 0.)));
+
+		createPlan(population, "stayHome");
+
+		Path eventsFile = Paths.get(utils.getOutputDirectory(), "events.xml");
+		Files.createDirectories(eventsFile.getParent());
+		Files.write(eventsFile, List.of(
+				"<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+				"<events version=\"1.0\">",
+				"<event time=\"21000.0\" type=\"actend\" person=\"drt_vehicle\" link=\"depot\" actType=\"DrtStay\"  />",
+				"<event time=\"21000.0\" type=\"departure\" person=\"drt_vehicle\" link=\"depot\" legMode=\"car\"  />",
+				"<event time=\"21600.0\" type=\"actend\" person=\"commuter\" link=\"home\" actType=\"home\"  />",
+				"<event time=\"21600.0\" type=\"departure\" person=\"commuter\" link=\"home\" legMode=\"walk\"  />",
+				"<event time=\"21600.0\" type=\"actend\" person=\"cyclist\" link=\"home\" actType=\"home\"  />",
+				"<event time=\"21600.0\" type=\"departure\" person=\"cyclist\" link=\"home\" legMode=\"bike\"  />",
+				"<event time=\"21700.0\" type=\"departure\" person=\"pt_bus_1\" link=\"stop1\" legMode=\"car\"  />",
+				"<event time=\"21900.0\" type=\"arrival\" person=\"commuter\" link=\"stop1\" legMode=\"walk\"  />",
+				"<event time=\"21900.0\" type=\"actstart\" person=\"commuter\" link=\"stop1\" actType=\"pt interaction\"  />",
+				"<event time=\"21900.0\" type=\"actend\" person=\"commuter\" link=\"stop1\" actType=\"pt interaction\"  />",
+				"<event time=\"21900.0\" type=\"departure\" person=\"commuter\" link=\"stop1\" legMode=\"pt\"  />",
+				"<event time=\"22500.0\" type=\"arrival\" person=\"commuter\" link=\"stop2\" legMode=\"pt\"  />",
+				"<event time=\"22500.0\" type=\"actstart\" person=\"commuter\" link=\"stop2\" actType=\"pt interaction\"  />",
+				"<event time=\"22500.0\" type=\"actend\" person=\"commuter\" link=\"stop2\" actType=\"pt interaction\"  />",
+				"<event time=\"22500.0\" type=\"departure\" person=\"commuter\" link=\"stop2\" legMode=\"walk\"  />",
+				"<event time=\"22600.0\" type=\"arrival\" person=\"pt_bus_1\" link=\"stop9\" legMode=\"car\"  />",
+				"<event time=\"22700.0\" type=\"arrival\" person=\"commuter\" link=\"work\" legMode=\"walk\"  />",
+				"<event time=\"22700.0\" type=\"actstart\" person=\"commuter\" link=\"work\" actType=\"work\"  />",
+				"<event time=\"23000.0\" type=\"arrival\" person=\"cyclist\" link=\"leisure\" legMode=\"bike\"  />",
+				"<event time=\"23000.0\" type=\"actstart\" person=\"cyclist\" link=\"leisure\" actType=\"leisure\"  />",
+				"<event time=\"25000.0\" type=\"actend\" person=\"cyclist\" link=\"leisure\" actType=\"leisure\"  />",
+				"<event time=\"25000.0\" type=\"departure\" person=\"cyclist\" link=\"leisure\" legMode=\"bike\"  />",
+				"<event time=\"26000.0\" type=\"arrival\" person=\"cyclist\" link=\"home\" legMode=\"bike\"  />",
+				"<event time=\"26000.0\" type=\"actstart\" person=\"cyclist\" link=\"home\" actType=\"home\"  />",
+				"<event time=\"54000.0\" type=\"actend\" person=\"commuter\" link=\"work\" actType=\"work\"  />",
+				"<event time=\"54000.0\" type=\"departure\" person=\"commuter\" link=\"work\" legMode=\"car\"  />",
+				"<event time=\"55000.0\" type=\"arrival\" person=\"commuter\" link=\"home\" legMode=\"car\"  />",
+				"<event time=\"55000.0\" type=\"actstart\" person=\"commuter\" link=\"home\" actType=\"home\"  />",
+				"<event time=\"80000.0\" type=\"arrival\" person=\"drt_vehicle\" link=\"depot\" legMode=\"car\"  />",
+				"<event time=\"80000.0\" type=\"actstart\" person=\"drt_vehicle\" link=\"depot\" actType=\"DrtStay\"  />",
+				"</events>"), StandardCharsets.UTF_8);
+
+		AnalysisMainModeIdentifier mainModeIdentifier = new DefaultAnalysisMainModeIdentifier();
+		ModeChoiceCoverageEventHandler handler = new ModeChoiceCoverageEventHandler(mainModeIdentifier, population, config);
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler(handler);
+		events.initProcessing();
+		new MatsimEventsReader(events).readFile(eventsFile.toString());
+		events.finishProcessing();
+
+		Assert.assertArrayEquals(new String[]{TransportMode.pt, TransportMode.car}, handler.getTripModes(Id.createPersonId("commuter")));
+		for (Person person : population.getPersons().values()) {
+			List<Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
+			String[] planModes = new String[trips.size()];
+			for (int i = 0; i < trips.size(); i++) {
+				planModes[i] = mainModeIdentifier.identifyMainMode(trips.get(i).getTripElements());
+			}
+			Assert.assertArrayEquals(person.getId().toString(), planModes, handler.getTripModes(person.getId()));
+		}
+		Assert.assertEquals(0, handler.getTripModes(Id.createPersonId("pt_bus_1")).length);
+		Assert.assertEquals(0, handler.getTripModes(Id.createPersonId("drt_vehicle")).length);
+
+		handler.reset(1);
+		Assert.assertEquals(0, handler.getTripModes(Id.createPersonId("commuter")).length);
+	}
+
+	private static Plan createPlan(Population population, String personId) {
+		PopulationFactory factory = population.getFactory();
+		Person person = factory.createPerson(Id.createPersonId(personId));
+		Plan plan = factory.createPlan();
+		plan.addActivity(factory.createActivityFromCoord("home", new Coord(0., 0.)));
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+		return plan;
+	}
+
+}
@@ -0,0 +1,155 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class RunningLineFitTest {
+
+	private static final int WINDOW = 20;
+
+	@Test
+	public final void testFixedWindowMatchesDirectFit() {
+		compareWithDirectFit(DynamicShutdownConfigGroup.slopeWindowOption.FIXED);
+	}
+
+	@Test
+	public final void testExpandingWindowMatchesDirectFit() {
+		compareWithDirectFit(DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING);
+	}
+
+	/**
+	 * Evicting the oldest points compacts the arrays; the points left in the window and their order have to survive that,
+	 * also in a fit which was reseeded from the state of another one, like after resuming from a checkpoint.
+	 */
+	@Test
+	public final void testEvictionAndCompactionAfterReseed() {
+		RunningLineFit uninterrupted = new RunningLineFit();
+		RunningLineFit reseeded = null;
+		List<Integer> iterations = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		Random random = new Random(4711);
+		for (int it = 0; it < 1000; it += 1 + it % 3) {
+			double value = 50. + 0.01 * it + random.nextGaussian();
+			iterations.add(it);
+			values.add(value);
+			uninterrupted.add(it, value);
+			// the window stops moving between 400 and 600, so that the arrays of the reseeded fit grow as well
+			int windowStart = (it < 400 || it >= 600 ? it : 399) - WINDOW + 1;
+			uninterrupted.evictBefore(windowStart);
+			if (reseeded != null) {
+				reseeded.add(it, value);
+				reseeded.evictBefore(windowStart);
+				Assert.assertEquals("iteration " + it, uninterrupted.slope(), reseeded.slope(), 0.);
+				Assert.assertEquals(it, reseeded.getLastIteration());
+				Assert.assertEquals("iteration " + it, directSlope(iterations, values, windowStart), reseeded.slope(), 1e-9);
+			}
+			if (it == 150) {
+				reseeded = new RunningLineFit();
+				reseeded.setState(uninterrupted.getState());
+				Assert.assertEquals(uninterrupted.getState(), reseeded.getState());
+			}
+		}
+
+		// the window only moves forward
+		RunningLineFit fit = new RunningLineFit();
+		for (int it = 0; it < 100; it++) {
+			fit.add(it, it % 2 == 0 ? 1. : 3.);
+		}
+		fit.evictBefore(98);
+		Assert.assertEquals(2., fit.slope(), 1e-12);
+		fit.evictBefore(0);
+		Assert.assertEquals(2., fit.slope(), 1e-12);
+		fit.evictBefore(99);
+		Assert.assertTrue(Double.isNaN(fit.slope()));
+		fit.add(100, 5.);
+		Assert.assertEquals(2., fit.slope(), 1e-12);
+		try {
+			fit.add(100, 5.);
+			Assert.fail("iteration added twice");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void compareWithDirectFit(DynamicShutdownConfigGroup.slopeWindowOption windowPolicy) {
+		DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+		cfg.setMinimumWindowSize(WINDOW);
+		cfg.setSlopeWindowPolicy(windowPolicy);
+		cfg.setExpandingWindowPctRetention(0.25);
+		SlopeConvergenceCriterion criterion = new SlopeConvergenceCriterion(cfg, 0.01);
+		List<Integer> iterations = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		Random random = new Random(4711);
+		for (int it = 0; it < 500; it++) {
+			double value = 100. + 30. * Math.exp(-it / 50.) + random.nextGaussian();
+			iterations.add(it);
+			values.add(value);
+			criterion.add(it, value);
+
+			int windowStart = it - WINDOW + 1;
+			if (windowPolicy == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING) {
+				windowStart = Math.min(windowStart, (int) (0.75 * it + 1));
+			}
+			double expected = directSlope(iterations, values, windowStart);
+			if (Double.isNaN(expected)) {
+				Assert.assertTrue(Double.isNaN(criterion.getStatistic()));
+			} else {
+				Assert.assertEquals(windowPolicy + " in iteration " + it, expected, criterion.getStatistic(), 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * @return the least squares slope over the points from windowStart on, computed from scratch around the means
+	 */
+	private static double directSlope(List<Integer> iterations, List<Double> values, int windowStart) {
+		double meanX = 0.;
+		double meanY = 0.;
+		int n = 0;
+		for (int i = 0; i < iterations.size(); i++) {
+			if (iterations.get(i) >= windowStart) {
+				meanX += iterations.get(i);
+				meanY += values.get(i);
+				n++;
+			}
+		}
+		if (n < 2) {
+			return Double.NaN;
+		}
+		meanX /= n;
+		meanY /= n;
+		double sxy = 0.;
+		double sxx = 0.;
+		for (int i = 0; i < iterations.size(); i++) {
+			if (iterations.get(i) >= windowStart) {
+				double dx = iterations.get(i) - meanX;
+				sxy += dx * (values.get(i) - meanY);
+				sxx += dx * dx;
+			}
+		}
+		return sxy / sxx;
+	}
+}
@@ -0,0 +1,147 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.dynamicShutdown;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.MainModeIdentifier;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SubpopulationConvergenceTest {
+
+	private static final int WINDOW = 5;
+	private static final List<String> SUBPOPULATIONS = List.of("person", "freight");
+	private static final MainModeIdentifier MAIN_MODE_IDENTIFIER = tripElements -> ((Leg) tripElements.get(0)).getMode();
+
+	/**
+	 * A run resumed from the state of iteration 10 counts the iterations in the convergence zone like the uninterrupted
+	 * run. The score of the persons levels off, the score of freight keeps rising.
+	 */
+	@Test
+	public final void testRestoredStateContinuesCounting() {
+		DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+		cfg.setSlopeWindowPolicy(DynamicShutdownConfigGroup.slopeWindowOption.FIXED);
+		cfg.setMinimumWindowSize(WINDOW);
+		cfg.setIterationsInZoneToConverge(WINDOW);
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 20; i++) {
+			addPerson(population, i, SUBPOPULATIONS.get(i % 2));
+		}
+
+		SubpopulationConvergence uninterrupted = createSubpopulationConvergence(cfg);
+		SubpopulationConvergence resumed = null;
+		for (int iteration = 0; iteration < 25; iteration++) {
+			for (Person person : population.getPersons().values()) {
+				boolean isFreight = PopulationUtils.getSubpopulation(person).equals("freight");
+				person.getSelectedPlan().setScore(isFreight ? 10. * iteration : 50. + 5. * Math.min(iteration, 10));
+			}
+			uninterrupted.addIteration(population, iteration, true);
+			if (resumed != null) {
+				resumed.addIteration(population, iteration, true);
+				for (String subpopulation : SUBPOPULATIONS) {
+					Assert.assertEquals("Different iterations in zone of " + subpopulation + " in iteration " + iteration,
+							uninterrupted.getIterationsInZone(subpopulation), resumed.getIterationsInZone(subpopulation));
+				}
+			}
+			if (iteration == 10) {
+				Map<String, Integer> iterationsInZone = new HashMap<>();
+				for (String subpopulation : SUBPOPULATIONS) {
+					iterationsInZone.put(subpopulation, uninterrupted.getIterationsInZone(subpopulation));
+				}
+				Map<String, Map<String, Map<String, String>>> criteria = new HashMap<>();
+				uninterrupted.getCriteria().forEach((subpopulation, criteriaOfSubpopulation) -> criteriaOfSubpopulation.forEach(
+						(metric, criterion) -> criteria.computeIfAbsent(subpopulation, k -> new HashMap<>()).put(metric, criterion.getState())));
+				resumed = createSubpopulationConvergence(cfg);
+				resumed.restore(uninterrupted.getValues(), criteria, iterationsInZone);
+			}
+		}
+
+		Assert.assertTrue(resumed.isConverged("person"));
+		Assert.assertFalse(resumed.isConverged("freight"));
+		Assert.assertEquals(0, resumed.getIterationsInZone("freight"));
+	}
+
+	/**
+	 * A subpopulation with strategy settings but without persons, and one whose persons have neither scored plans nor trips,
+	 * have nothing to converge and must not hold up the others.
+	 */
+	@Test
+	public final void testSubpopulationsWithoutMetricsConverge() {
+		DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+		cfg.setSlopeWindowPolicy(DynamicShutdownConfigGroup.slopeWindowOption.FIXED);
+		cfg.setMinimumWindowSize(WINDOW);
+		cfg.setIterationsInZoneToConverge(WINDOW);
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 10; i++) {
+			addPerson(population, i, "person");
+		}
+		Person stayHome = population.getFactory().createPerson(Id.createPersonId("stayHome"));
+		PopulationUtils.putSubpopulation(stayHome, "stayHome");
+		Plan plan = population.getFactory().createPlan();
+		plan.addActivity(population.getFactory().createActivityFromLinkId("home", Id.createLinkId("1")));
+		stayHome.addPlan(plan);
+		stayHome.setSelectedPlan(plan);
+		population.addPerson(stayHome);
+
+		SubpopulationConvergence convergence = new SubpopulationConvergence(cfg, MAIN_MODE_IDENTIFIER, List.of("car", "pt"),
+				List.of("person", "stayHome", "noPersons"), WINDOW);
+		for (int iteration = 0; iteration < 2 * WINDOW; iteration++) {
+			for (Person person : population.getPersons().values()) {
+				if (person != stayHome) {
+					person.getSelectedPlan().setScore(100.);
+				}
+			}
+			convergence.addIteration(population, iteration, true);
+		}
+
+		Assert.assertTrue(convergence.isConverged("person"));
+		Assert.assertTrue(convergence.isConverged("stayHome"));
+		Assert.assertTrue(convergence.isConverged("noPersons"));
+	}
+
+	private static SubpopulationConvergence createSubpopulationConvergence(DynamicShutdownConfigGroup cfg) {
+		return new SubpopulationConvergence(cfg, MAIN_MODE_IDENTIFIER, List.of("car", "pt"), SUBPOPULATIONS, WINDOW);
+	}
+
+	private static void addPerson(Population population, int number, String subpopulation) {
+		Person person = population.getFactory().createPerson(Id.createPersonId(number));
+		PopulationUtils.putSubpopulation(person, subpopulation);
+		Plan plan = population.getFactory().createPlan();
+		plan.addActivity(population.getFactory().createActivityFromLinkId("home", Id.createLinkId("1")));
+		plan.addLeg(population.getFactory().createLeg(number % 3 == 0 ? "pt" : "car"));
+		plan.addActivity(population.getFactory().createActivityFromLinkId("work", Id.createLinkId("2")));
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+	}
+
+}
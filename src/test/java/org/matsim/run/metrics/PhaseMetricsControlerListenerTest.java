@@ -0,0 +1,82 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PhaseMetricsControlerListenerTest {
+
+	private static final int ALLOCATED_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * Every phase is reported once with the iteration it belongs to, the startup with the first iteration. The allocation
+	 * and the collection within a phase are attributed to that phase.
+	 */
+	@Test
+	public final void testPhases() throws InterruptedException {
+		List<String> phases = new ArrayList<>();
+		List<PhaseMetrics> metrics = new ArrayList<>();
+		boolean[] closed = {false};
+		PhaseMetricsSink sink = new PhaseMetricsSink() {
+			@Override
+			public void record(int iteration, String phase, PhaseMetrics phaseMetrics) {
+				phases.add(iteration + " " + phase);
+				metrics.add(phaseMetrics);
+			}
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+
+		PhaseMetricsControlerListener listener = new PhaseMetricsControlerListener(Set.of(sink));
+		listener.notifyStartup(null);
+		listener.startPhase("replanning", 5);
+		// kept until the collection, so that the allocation shows in the used heap
+		List<byte[]> garbage = new ArrayList<>();
+		for (int i = 0; i < ALLOCATED_BYTES / (1024 * 1024); i++) {
+			garbage.add(new byte[1024 * 1024]);
+		}
+		listener.startPhase("mobsim", 5);
+		Thread.sleep(50);
+		listener.startPhase("scoring", 5);
+		garbage.clear();
+		System.gc();
+		listener.startPhase("iterationEnds", 5);
+		listener.finish(5);
+
+		Assert.assertEquals(List.of("5 startup", "5 replanning", "5 mobsim", "5 scoring", "5 iterationEnds"), phases);
+		Assert.assertTrue(closed[0]);
+
+		PhaseMetrics replanning = metrics.get(1);
+		Assert.assertTrue("Allocated " + replanning.getAllocatedBytes(), replanning.getAllocatedBytes() >= ALLOCATED_BYTES / 2);
+		Assert.assertTrue("Wall time " + metrics.get(2).getWallTimeMillis(), metrics.get(2).getWallTimeMillis() >= 50);
+		PhaseMetrics scoring = metrics.get(3);
+		Assert.assertTrue(scoring.getGcCount() >= 1);
+		Assert.assertTrue(scoring.getGcCollectionTimeMillis() >= 0);
+	}
+
+}
@@ -0,0 +1,61 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.scoring;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
+
+public class ActivityTypeRegistryTest {
+
+	@Test
+	public final void testIndexAndTable() {
+		Config config = ConfigUtils.createConfig();
+		// added in a different order than the index order on purpose
+		config.planCalcScore().addActivityParams(new ActivityParams("work_1200.0").setTypicalDuration(1200.).setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
+		config.planCalcScore().addActivityParams(new ActivityParams("work_600.0").setTypicalDuration(600.).setOpeningTime(6. * 3600.).setClosingTime(20. * 3600.));
+		config.planCalcScore().addActivityParams(new ActivityParams("home_600.0").setTypicalDuration(600.));
+		config.planCalcScore().addActivityParams(new ActivityParams("freight").setTypicalDuration(12. * 3600.));
+
+		ActivityTypeRegistry registry = ActivityTypeRegistry.create(config.planCalcScore());
+
+		int work600 = registry.getIndex("work_600.0");
+		int work1200 = registry.getIndex("work_1200.0");
+		Assert.assertEquals("Wrong order!", work600 + 1, work1200);
+		Assert.assertEquals("work", registry.getBaseType(work1200));
+		Assert.assertEquals(1200., registry.getDurationBucket(work1200), 0.);
+		Assert.assertEquals(registry.getBaseTypeIndex(work600), registry.getBaseTypeIndex(work1200));
+		Assert.assertTrue(Double.isNaN(registry.getDurationBucket(registry.getIndex("freight"))));
+		Assert.assertEquals(-1, registry.getIndex("unknown_600.0"));
+
+		ActivityParameterTable table = registry.createTable(config.planCalcScore().getScoringParameters(null));
+		Assert.assertEquals(1200., table.getUtilityParameters(work1200).getTypicalDuration(), 0.);
+		Assert.assertEquals(6. * 3600., table.getUtilityParameters(work1200).getOpeningTime().seconds(), 0.);
+		Assert.assertTrue(table.getUtilityParameters(registry.getIndex("home_600.0")).getOpeningTime().isUndefined());
+
+		Assert.assertSame(table.getUtilityParameters(work600), table.asMap().get("work_600.0"));
+		Assert.assertNull(table.asMap().get("unknown_600.0"));
+		Assert.assertEquals(config.planCalcScore().getActivityParams().size(), table.asMap().size());
+		Assert.assertEquals(table.asMap().size(), table.asMap().entrySet().stream().count());
+	}
+
+}
@@ -0,0 +1,203 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.run.scoring;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ActivityParams;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ModeParams;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup.ScoringParameterSet;
+import org.matsim.core.config.groups.ScenarioConfigGroup;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.scoring.functions.ActivityUtilityParameters;
+import org.matsim.core.scoring.functions.ModeUtilityParameters;
+import org.matsim.core.scoring.functions.ScoringParameters;
+import org.matsim.core.scoring.functions.ScoringParametersForPerson;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.pt.config.TransitConfigGroup;
+import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
+
+import static playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters.PERSONAL_INCOME_ATTRIBUTE_NAME;
+
+public class IndexedIncomeDependentScoringParametersTest {
+
+	/**
+	 * Every person gets the same scoring parameters as from the vsp implementation, for persons with and without income
+	 * and for subpopulations with their own scoring parameter sets.
+	 */
+	@Test
+	public final void testSameParametersAsVspImplementation() {
+		Scenario scenario = createScenario();
+		ScoringParametersForPerson expected = createInjector(scenario).getInstance(IncomeDependentUtilityOfMoneyPersonScoringParameters.class);
+		ScoringParametersForPerson actual = createInjector(scenario).getInstance(IndexedIncomeDependentScoringParameters.class);
+
+		for (Person person : scenario.getPopulation().getPersons().values()) {
+			assertSameParameters(person.getId().toString(), expected.getScoringParameters(person), actual.getScoringParameters(person));
+		}
+		// a person which is not in the population when the parameters are created
+		Person latecomer = createPerson(scenario.getPopulation(), "latecomer", "person", 1500.);
+		assertSameParameters("latecomer", expected.getScoringParameters(latecomer), actual.getScoringParameters(latecomer));
+	}
+
+	@Test
+	public final void testPersonsWithSameIncomeShareParameters() {
+		Scenario scenario = createScenario();
+		ScoringParametersForPerson parameters = createInjector(scenario).getInstance(IndexedIncomeDependentScoringParameters.class);
+		Population population = scenario.getPopulation();
+
+		ScoringParameters richPerson = parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_3000_a")));
+		Assert.assertSame(richPerson, parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_3000_b"))));
+		Assert.assertNotSame(richPerson, parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_1500_a"))));
+		Assert.assertSame(parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_none_a"))),
+				parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_none_b"))));
+
+		// the same income in another subpopulation gives other parameters
+		Assert.assertNotSame(richPerson, parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("commuter_3000_a"))));
+		Assert.assertSame(parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("commuter_3000_a"))),
+				parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("commuter_3000_b"))));
+
+		// the activity parameters are shared by all persons of a subpopulation
+		Assert.assertSame(richPerson.utilParams, parameters.getScoringParameters(population.getPersons().get(Id.createPersonId("person_none_a"))).utilParams);
+
+		Person latecomer = createPerson(population, "latecomer", "person", 3000.);
+		Assert.assertSame(richPerson, parameters.getScoringParameters(latecomer));
+	}
+
+	/**
+	 * Two subpopulations with their own activity and mode parameters, and persons with high, low and no income in each.
+	 */
+	private static Scenario createScenario() {
+		Config config = ConfigUtils.createConfig();
+		PlanCalcScoreConfigGroup scoreConfig = config.planCalcScore();
+		String[] subpopulations = { "person", "commuter" };
+		for (int i = 0; i < subpopulations.length; i++) {
+			ScoringParameterSet parameterSet = scoreConfig.getOrCreateScoringParameters(subpopulations[i]);
+			parameterSet.setMarginalUtilityOfMoney(1. + i);
+			parameterSet.setPerforming_utils_hr(6. - i);
+			parameterSet.addActivityParams(new ActivityParams("home_600.0").setTypicalDuration(600.));
+			parameterSet.addActivityParams(new ActivityParams("home_43200.0").setTypicalDuration(43200.));
+			parameterSet.addActivityParams(new ActivityParams("work_28800.0").setTypicalDuration(28800.)
+					.setOpeningTime(6. * 3600.).setClosingTime(20. * 3600. + i * 3600.).setLatestStartTime(10. * 3600.));
+			parameterSet.addActivityParams(new ActivityParams("leisure_3600.0").setTypicalDuration(3600.).setMinimalDuration(1800.));
+			parameterSet.addActivityParams(new ActivityParams("car interaction").setScoringThisActivityAtAll(false));
+			for (String mode : new String[] { TransportMode.car, TransportMode.pt, TransportMode.walk }) {
+				ModeParams modeParams = new ModeParams(mode);
+				modeParams.setConstant(-1. * i);
+				modeParams.setMarginalUtilityOfTraveling(-0.5 - i);
+				modeParams.setMonetaryDistanceRate(mode.equals(TransportMode.car) ? -0.0002 : 0.);
+				modeParams.setDailyMonetaryConstant(mode.equals(TransportMode.pt) ? -2.1 : 0.);
+				parameterSet.addModeParams(modeParams);
+			}
+		}
+
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		for (String subpopulation : subpopulations) {
+			for (String copy : new String[] { "a", "b" }) {
+				createPerson(scenario.getPopulation(), subpopulation + "_3000_" + copy, subpopulation, 3000.);
+				createPerson(scenario.getPopulation(), subpopulation + "_1500_" + copy, subpopulation, 1500.);
+				createPerson(scenario.getPopulation(), subpopulation + "_none_" + copy, subpopulation, null);
+			}
+		}
+		return scenario;
+	}
+
+	private static Person createPerson(Population population, String id, String subpopulation, Double income) {
+		Person person = population.getFactory().createPerson(Id.createPersonId(id));
+		PopulationUtils.putSubpopulation(person, subpopulation);
+		if (income != null) {
+			person.getAttributes().putAttribute(PERSONAL_INCOME_ATTRIBUTE_NAME, income);
+		}
+		if (!id.equals("latecomer")) {
+			population.addPerson(person);
+		}
+		return person;
+	}
+
+	private static Injector createInjector(Scenario scenario) {
+		return Guice.createInjector(new AbstractModule() {
+			@Override
+			protected void configure() {
+				bind(Scenario.class).toInstance(scenario);
+				bind(Config.class).toInstance(scenario.getConfig());
+				bind(Population.class).toInstance(scenario.getPopulation());
+				bind(PlanCalcScoreConfigGroup.class).toInstance(scenario.getConfig().planCalcScore());
+				bind(ScenarioConfigGroup.class).toInstance(scenario.getConfig().scenario());
+				bind(TransitConfigGroup.class).toInstance(scenario.getConfig().transit());
+			}
+		});
+	}
+
+	private static void assertSameParameters(String person, ScoringParameters expected, ScoringParameters actual) {
+		Assert.assertEquals(person, expected.marginalUtilityOfMoney, actual.marginalUtilityOfMoney, 1e-12 * Math.abs(expected.marginalUtilityOfMoney));
+		Assert.assertEquals(person, expected.marginalUtilityOfPerforming_s, actual.marginalUtilityOfPerforming_s, 0.);
+		Assert.assertEquals(person, expected.marginalUtilityOfWaiting_s, actual.marginalUtilityOfWaiting_s, 0.);
+		Assert.assertEquals(person, expected.marginalUtilityOfWaitingPt_s, actual.marginalUtilityOfWaitingPt_s, 0.);
+		Assert.assertEquals(person, expected.marginalUtilityOfLateArrival_s, actual.marginalUtilityOfLateArrival_s, 0.);
+		Assert.assertEquals(person, expected.marginalUtilityOfEarlyDeparture_s, actual.marginalUtilityOfEarlyDeparture_s, 0.);
+		Assert.assertEquals(person, expected.utilityOfLineSwitch, actual.utilityOfLineSwitch, 0.);
+		Assert.assertEquals(person, expected.abortedPlanScore, actual.abortedPlanScore, 0.);
+		Assert.assertEquals(person, expected.scoreActs, actual.scoreActs);
+
+		Assert.assertEquals(person, expected.utilParams.keySet(), actual.utilParams.keySet());
+		for (String type : expected.utilParams.keySet()) {
+			ActivityUtilityParameters expectedAct = expected.utilParams.get(type);
+			ActivityUtilityParameters actualAct = actual.utilParams.get(type);
+			String message = person + " " + type;
+			Assert.assertEquals(message, expectedAct.getType(), actualAct.getType());
+			Assert.assertEquals(message, expectedAct.isScoreAtAll(), actualAct.isScoreAtAll());
+			Assert.assertEquals(message, expectedAct.getTypicalDuration(), actualAct.getTypicalDuration(), 0.);
+			Assert.assertEquals(message, expectedAct.getZeroUtilityDuration_h(), actualAct.getZeroUtilityDuration_h(), 0.);
+			Assert.assertEquals(message, seconds(expectedAct.getOpeningTime()), seconds(actualAct.getOpeningTime()), 0.);
+			Assert.assertEquals(message, seconds(expectedAct.getClosingTime()), seconds(actualAct.getClosingTime()), 0.);
+			Assert.assertEquals(message, seconds(expectedAct.getLatestStartTime()), seconds(actualAct.getLatestStartTime()), 0.);
+			Assert.assertEquals(message, seconds(expectedAct.getEarliestEndTime()), seconds(actualAct.getEarliestEndTime()), 0.);
+			Assert.assertEquals(message, seconds(expectedAct.getMinimalDuration()), seconds(actualAct.getMinimalDuration()), 0.);
+		}
+
+		Assert.assertEquals(person, expected.modeParams.keySet(), actual.modeParams.keySet());
+		for (String mode : expected.modeParams.keySet()) {
+			ModeUtilityParameters expectedMode = expected.modeParams.get(mode);
+			ModeUtilityParameters actualMode = actual.modeParams.get(mode);
+			String message = person + " " + mode;
+			Assert.assertEquals(message, expectedMode.marginalUtilityOfTraveling_s, actualMode.marginalUtilityOfTraveling_s, 0.);
+			Assert.assertEquals(message, expectedMode.marginalUtilityOfDistance_m, actualMode.marginalUtilityOfDistance_m, 0.);
+			Assert.assertEquals(message, expectedMode.monetaryDistanceCostRate, actualMode.monetaryDistanceCostRate, 0.);
+			Assert.assertEquals(message, expectedMode.constant, actualMode.constant, 0.);
+			Assert.assertEquals(message, expectedMode.dailyMoneyConstant, actualMode.dailyMoneyConstant, 0.);
+			Assert.assertEquals(message, expectedMode.dailyUtilityConstant, actualMode.dailyUtilityConstant, 0.);
+		}
+	}
+
+	private static double seconds(OptionalTime time) {
+		return time.orElse(Double.NaN);
+	}
+
+}
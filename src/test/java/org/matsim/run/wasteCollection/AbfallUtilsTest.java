@@ -18,24 +18,55 @@
  * *********************************************************************** */
 package org.matsim.run.wasteCollection;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierCapabilities;
+import org.matsim.contrib.freight.carrier.CarrierCapabilities.FleetSize;
+import org.matsim.contrib.freight.carrier.CarrierPlan;
+import org.matsim.contrib.freight.carrier.CarrierShipment;
+import org.matsim.contrib.freight.carrier.CarrierUtils;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.contrib.freight.carrier.CarrierVehicleTypes;
 import org.matsim.contrib.freight.carrier.Carriers;
+import org.matsim.contrib.freight.carrier.ScheduledTour;
+import org.matsim.contrib.freight.carrier.Tour;
 import org.matsim.contrib.freight.utils.FreightUtils;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
 import org.opengis.feature.simple.SimpleFeature;
 
 /**
@@ -108,8 +139,182 @@ public class AbfallUtilsTest {
 	}
 
 	@Test
-	public final void testCreateMapWithLinksInDistricts() {
+	public final void testCreateMapWithLinksInDistricts() throws IOException {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(10, 50));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(90, 50));
+		Node c = NetworkUtils.createAndAddNode(network, Id.createNodeId("c"), new Coord(190, 50));
+		Node d = NetworkUtils.createAndAddNode(network, Id.createNodeId("d"), new Coord(190, 250));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 80, 10, 600, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("ba"), b, a, 80, 10, 600, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("bc"), b, c, 100, 10, 600, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("cd"), c, d, 200, 10, 600, 1);
 
+		PolygonFeatureFactory factory = new PolygonFeatureFactory.Builder().setName("districts")
+				.setCrs(MGC.getCRS(TransformationFactory.GK4)).addAttribute("Ortsteil", String.class).create();
+		List<SimpleFeature> districts = Arrays.asList(createSquare(factory, "West", 0, 0, 100),
+				createSquare(factory, "East", 100, 0, 100));
+
+		String cacheDirectory = utils.getOutputDirectory() + "cache";
+		AbfallUtils.createMapWithLinksInDistricts(districts, network.getLinks(), cacheDirectory);
+		Assert.assertEquals(Arrays.asList("ab", "ba"), AbfallUtils.linksInDistricts.get("West"));
+		Assert.assertEquals(Arrays.asList("bc"), AbfallUtils.linksInDistricts.get("East"));
+		Assert.assertEquals(3, AbfallUtils.linksInDistricts.size());
+
+		// the second call reads the cache file written by the first one
+		try (Stream<Path> files = Files.list(Paths.get(cacheDirectory))) {
+			Assert.assertEquals(1, files.count());
+		}
+		AbfallUtils.linksInDistricts = null;
+		AbfallUtils.createMapWithLinksInDistricts(districts, network.getLinks(), cacheDirectory);
+		Assert.assertEquals(Arrays.asList("ab", "ba"), AbfallUtils.linksInDistricts.get("West"));
+		Assert.assertEquals(Arrays.asList("bc"), AbfallUtils.linksInDistricts.get("East"));
+		Assert.assertEquals(3, AbfallUtils.linksInDistricts.size());
+	}
+
+	private static SimpleFeature createSquare(PolygonFeatureFactory factory, String name, double x, double y,
+			double size) {
+		Coordinate[] coordinates = new Coordinate[] { new Coordinate(x, y), new Coordinate(x + size, y),
+				new Coordinate(x + size, y + size), new Coordinate(x, y + size), new Coordinate(x, y) };
+		return factory.createPolygon(coordinates, Collections.singletonMap("Ortsteil", name), name);
+	}
+
+	/**
+	 * The carriers are solved with their own seeds and the results are added up in
+	 * the order of the carriers, so solving them in parallel gives the same plans
+	 * and counters as solving them one after another.
+	 */
+	@Test
+	public final void testSolveWithJspritIndependentOfNumberOfThreads() {
+		Scenario sequential = createJspritScenario("threads1");
+		HashMap<String, Carrier> sequentialCarrierMap = createJspritCarriers(sequential);
+		AbfallUtils.resetRunStatistics();
+		AbfallUtils.solveWithJsprit(sequential, FreightUtils.addOrGetCarriers(sequential), sequentialCarrierMap, 20,
+				1);
+		double sequentialCosts = AbfallUtils.runStatistics().costsJsprit;
+		int sequentialNoPickup = AbfallUtils.runStatistics().noPickup;
+
+		Scenario parallel = createJspritScenario("threads4");
+		HashMap<String, Carrier> parallelCarrierMap = createJspritCarriers(parallel);
+		AbfallUtils.resetRunStatistics();
+		AbfallUtils.solveWithJsprit(parallel, FreightUtils.addOrGetCarriers(parallel), parallelCarrierMap, 20, 4);
+		double parallelCosts = AbfallUtils.runStatistics().costsJsprit;
+		int parallelNoPickup = AbfallUtils.runStatistics().noPickup;
+		AbfallUtils.resetRunStatistics();
+
+		Assert.assertTrue(sequentialCosts > 0);
+		Assert.assertEquals(sequentialCosts, parallelCosts, 0);
+		Assert.assertEquals(sequentialNoPickup, parallelNoPickup);
+		Assert.assertEquals(sequentialCarrierMap.keySet(), parallelCarrierMap.keySet());
+		for (String carrierName : sequentialCarrierMap.keySet()) {
+			CarrierPlan sequentialPlan = sequentialCarrierMap.get(carrierName).getSelectedPlan();
+			CarrierPlan parallelPlan = parallelCarrierMap.get(carrierName).getSelectedPlan();
+			Assert.assertNotNull(carrierName, sequentialPlan);
+			Assert.assertNotNull(carrierName, parallelPlan);
+			Assert.assertEquals(carrierName, sequentialPlan.getScore(), parallelPlan.getScore());
+			Assert.assertEquals(carrierName, describeTours(sequentialPlan), describeTours(parallelPlan));
+		}
+	}
+
+	/**
+	 * A grid network with the vehicle type of the garbage trucks, but without
+	 * carriers.
+	 */
+	private Scenario createJspritScenario(String outputDirectory) {
+		Config config = ConfigUtils.createConfig();
+		config.controler().setOutputDirectory(utils.getOutputDirectory() + outputDirectory);
+		new File(config.controler().getOutputDirectory()).mkdirs();
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		Network network = scenario.getNetwork();
+		int size = 4;
+		Node[][] nodes = new Node[size][size];
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++)
+				nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y),
+						new Coord(300 * x, 300 * y));
+		}
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (x + 1 < size)
+					createLinksInBothDirections(network, nodes[x][y], nodes[x + 1][y]);
+				if (y + 1 < size)
+					createLinksInBothDirections(network, nodes[x][y], nodes[x][y + 1]);
+			}
+		}
+
+		VehicleType vehicleType = VehicleUtils.createVehicleType(Id.create("truck", VehicleType.class));
+		vehicleType.setMaximumVelocity(12);
+		vehicleType.getCapacity().setOther(6);
+		vehicleType.getCostInformation().setCostsPerMeter(0.001);
+		vehicleType.getCostInformation().setCostsPerSecond(0.01);
+		vehicleType.getCostInformation().setFixedCost(50.);
+		CarrierVehicleTypes vehicleTypes = new CarrierVehicleTypes();
+		vehicleTypes.getVehicleTypes().put(vehicleType.getId(), vehicleType);
+		scenario.addScenarioElement("carrierVehicleTypes", vehicleTypes);
+		return scenario;
+	}
+
+	private static void createLinksInBothDirections(Network network, Node from, Node to) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(from.getId() + "-" + to.getId()), from, to, 300, 10,
+				600, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(to.getId() + "-" + from.getId()), to, from, 300, 10,
+				600, 1);
+	}
+
+	/**
+	 * Three carriers, which share the links of the grid and bring the garbage to
+	 * the same dump.
+	 */
+	private static HashMap<String, Carrier> createJspritCarriers(Scenario scenario) {
+		Carriers carriers = FreightUtils.addOrGetCarriers(scenario);
+		CarrierVehicleTypes vehicleTypes = (CarrierVehicleTypes) scenario.getScenarioElement("carrierVehicleTypes");
+		VehicleType vehicleType = vehicleTypes.getVehicleTypes().values().iterator().next();
+		Id<Link> dump = Id.createLinkId("3_3-3_2");
+		List<Id<Link>> garbageLinks = new ArrayList<Id<Link>>(scenario.getNetwork().getLinks().keySet());
+		Collections.sort(garbageLinks);
+		HashMap<String, Carrier> carrierMap = new HashMap<String, Carrier>();
+		String[] carrierNames = { "Nord", "Mitte", "Sued" };
+		for (int i = 0; i < carrierNames.length; i++) {
+			Carrier carrier = CarrierUtils.createCarrier(Id.create("BSR_" + carrierNames[i], Carrier.class));
+			CarrierVehicle vehicle = CarrierVehicle.Builder
+					.newInstance(Id.create("Truck" + carrierNames[i], Vehicle.class), Id.createLinkId("0_0-1_0"))
+					.setType(vehicleType).setEarliestStart(6 * 3600).setLatestEnd(14 * 3600).build();
+			carrier.setCarrierCapabilities(CarrierCapabilities.Builder.newInstance().addType(vehicleType)
+					.addVehicle(vehicle).setFleetSize(FleetSize.INFINITE).build());
+			for (int j = i; j < garbageLinks.size(); j += carrierNames.length) {
+				Id<Link> garbageLink = garbageLinks.get(j);
+				CarrierShipment shipment = CarrierShipment.Builder
+						.newInstance(Id.create("Shipment_" + garbageLink, CarrierShipment.class), garbageLink, dump,
+								1 + j % 3)
+						.setPickupServiceTime(60).setDeliveryServiceTime(300).build();
+				carrier.getShipments().put(shipment.getId(), shipment);
+			}
+			carriers.addCarrier(carrier);
+			carrierMap.put(carrierNames[i], carrier);
+		}
+		return carrierMap;
+	}
+
+	private static List<String> describeTours(CarrierPlan plan) {
+		List<String> tours = new ArrayList<String>();
+		for (ScheduledTour scheduledTour : plan.getScheduledTours()) {
+			StringBuilder tour = new StringBuilder(
+					scheduledTour.getVehicle().getId() + "@" + scheduledTour.getDeparture());
+			for (Tour.TourElement element : scheduledTour.getTour().getTourElements()) {
+				if (element instanceof Tour.TourActivity) {
+					Tour.TourActivity activity = (Tour.TourActivity) element;
+					tour.append(" ").append(activity.getActivityType()).append(":").append(activity.getLocation());
+				} else if (element instanceof Tour.Leg) {
+					Tour.Leg leg = (Tour.Leg) element;
+					tour.append(" ").append(leg.getExpectedDepartureTime());
+					if (leg.getRoute() instanceof NetworkRoute)
+						tour.append(((NetworkRoute) leg.getRoute()).getLinkIds());
+				}
+			}
+			tours.add(tour.toString());
+		}
+		Collections.sort(tours);
+		return tours;
 	}
 
 	@Test
@@ -0,0 +1,207 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.run.wasteCollection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
+import org.matsim.testcases.MatsimTestUtils;
+import org.opengis.feature.simple.SimpleFeature;
+
+public class Run_AbfallBatchTest {
+
+	private static final String VEHICLE_TYPES = "scenarios/berlin-v5.5-10pct/input/wasteCollection/vehicleTypes.xml";
+	private static final int SIZE = 6;
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * Runs a Monday, when only the western district is collected, and a Tuesday,
+	 * when both districts are collected, at the same time. Every job writes its
+	 * own summaries, with only its own districts and shipments.
+	 */
+	@Test
+	public final void testConcurrentJobsWithSeparateOutputs() throws Exception {
+		String inputDirectory = utils.getOutputDirectory();
+		Path carriersFile = Paths.get(inputDirectory, "carriers.xml");
+		Files.write(carriersFile, createCarriersXml().getBytes(StandardCharsets.UTF_8));
+		Path jobsFile = Paths.get(inputDirectory, "jobs.txt");
+		Files.write(jobsFile, Arrays.asList("# day\tcarriers\tvehicle types\tjspritIterations",
+				"MO\t" + carriersFile + "\t" + VEHICLE_TYPES + "\t3", "", "DI\t" + carriersFile + "\t" + VEHICLE_TYPES
+						+ "\t3"), StandardCharsets.UTF_8);
+		String outputDirectory = utils.getOutputDirectory() + "batch";
+
+		Run_AbfallBatch.runJobs(Run_AbfallBatch.readJobs(jobsFile.toString()), outputDirectory,
+				ConfigUtils.createConfig(), createNetwork(), createDistricts(), utils.getOutputDirectory() + "cache",
+				1100, 41, false, 2, 1);
+
+		List<String> overview = Files.readAllLines(Paths.get(outputDirectory, "jobs.txt"), StandardCharsets.UTF_8);
+		Assert.assertEquals(3, overview.size());
+		Path monday = Paths.get(outputDirectory, "job001_MO");
+		Path tuesday = Paths.get(outputDirectory, "job002_DI");
+		for (Path job : Arrays.asList(monday, tuesday)) {
+			for (String output : Arrays.asList("01_ZusammenfassungShipments.txt", "01_Zusammenfassung.txt",
+					"02_SummaryOutput.txt", "jsprit_CarrierPlans.xml", "output_CarrierPlans.xml"))
+				Assert.assertTrue(job.resolve(output) + " is missing", Files.exists(job.resolve(output)));
+		}
+
+		Map<String, String> mondaySummary = readSummary(monday.resolve("01_ZusammenfassungShipments.txt"));
+		Map<String, String> tuesdaySummary = readSummary(tuesday.resolve("01_ZusammenfassungShipments.txt"));
+		Assert.assertEquals("1", mondaySummary.get("Anzahl der Abholgebiete:"));
+		Assert.assertEquals("[West]", mondaySummary.get("Abholgebiete:"));
+		Assert.assertEquals("2", tuesdaySummary.get("Anzahl der Abholgebiete:"));
+		Assert.assertEquals("[West, East]", tuesdaySummary.get("Abholgebiete:"));
+		// both days collect all garbage links of the western district, Tuesday those
+		// of the eastern district as well
+		int mondayShipments = Integer.parseInt(mondaySummary.get("Anzahl der Abholstellen:"));
+		int tuesdayShipments = Integer.parseInt(tuesdaySummary.get("Anzahl der Abholstellen:"));
+		Assert.assertTrue(mondayShipments > 0);
+		Assert.assertTrue(tuesdayShipments > mondayShipments);
+		Assert.assertEquals("1.0 t", mondaySummary.get("Die Summe des abzuholenden Mülls beträgt:"));
+		Assert.assertEquals("3.0 t", tuesdaySummary.get("Die Summe des abzuholenden Mülls beträgt:"));
+	}
+
+	/**
+	 * @return the first value after the label of every line of the summary
+	 */
+	private static Map<String, String> readSummary(Path file) throws IOException {
+		Map<String, String> summary = new HashMap<String, String>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] parts = line.trim().split("\t+");
+			if (parts.length >= 2)
+				summary.putIfAbsent(parts[0].trim(), parts[1].trim());
+		}
+		return summary;
+	}
+
+	/**
+	 * A grid of streets with a freespeed of 10 m/s. The depots and dumps, which
+	 * have the ids of the Berlin links, are faster links parallel to the grid, so
+	 * that they are no garbage links.
+	 */
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[SIZE][SIZE];
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++)
+				nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y),
+						new Coord(100 * x, 100 * y));
+		}
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				if (x + 1 < SIZE) {
+					addStreet(network, nodes[x][y], nodes[x + 1][y]);
+					addStreet(network, nodes[x + 1][y], nodes[x][y]);
+				}
+				if (y + 1 < SIZE) {
+					addStreet(network, nodes[x][y], nodes[x][y + 1]);
+					addStreet(network, nodes[x][y + 1], nodes[x][y]);
+				}
+			}
+		}
+		// depots of the carriers file
+		addFastLink(network, "42882", nodes[0][0], nodes[1][0]);
+		addFastLink(network, "116212", nodes[5][0], nodes[4][0]);
+		addFastLink(network, "27766", nodes[0][5], nodes[1][5]);
+		// depot and dump
+		addFastLink(network, AbfallUtils.linkUmladestationGradestrasse, nodes[5][5], nodes[4][5]);
+		// dumps
+		addFastLink(network, AbfallUtils.linkMhkwRuhleben, nodes[0][2], nodes[0][3]);
+		addFastLink(network, AbfallUtils.linkMpsPankow, nodes[5][2], nodes[5][3]);
+		addFastLink(network, AbfallUtils.linkMpsReinickendorf, nodes[2][0], nodes[3][0]);
+		addFastLink(network, AbfallUtils.linkGruenauerStr, nodes[2][5], nodes[3][5]);
+		return network;
+	}
+
+	private static void addStreet(Network network, Node fromNode, Node toNode) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(fromNode.getId() + "-" + toNode.getId()), fromNode,
+				toNode, 100, 10, 600, 1);
+	}
+
+	private static void addFastLink(Network network, String id, Node fromNode, Node toNode) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(id), fromNode, toNode, 100, 15, 1200, 1);
+	}
+
+	/**
+	 * The western district is collected on Monday and Tuesday by the depot
+	 * Nordring, the eastern one only on Tuesday by the depot Gradestrasse.
+	 */
+	private static List<SimpleFeature> createDistricts() {
+		PolygonFeatureFactory factory = new PolygonFeatureFactory.Builder().setName("districts")
+				.setCrs(MGC.getCRS(TransformationFactory.GK4)).addAttribute("Ortsteil", String.class)
+				.addAttribute("Depot", String.class).addAttribute("MO", Double.class).addAttribute("DI", Double.class)
+				.addAttribute("MI", Double.class).addAttribute("DO", Double.class).addAttribute("FR", Double.class)
+				.addAttribute("Mo-Ent", String.class).addAttribute("Di-Ent", String.class)
+				.addAttribute("Mi-Ent", String.class).addAttribute("Do-Ent", String.class)
+				.addAttribute("Fr-Ent", String.class).create();
+		return Arrays.asList(createDistrict(factory, "West", "Nordring", 1.0, 1.0, "Ruhleben", -10, 260),
+				createDistrict(factory, "East", "Gradestrasse", 0.0, 2.0, "Pankow", 260, 510));
+	}
+
+	private static SimpleFeature createDistrict(PolygonFeatureFactory factory, String name, String depot,
+			double monday, double tuesday, String dump, double minX, double maxX) {
+		Coordinate[] coordinates = new Coordinate[] { new Coordinate(minX, -10), new Coordinate(maxX, -10),
+				new Coordinate(maxX, 510), new Coordinate(minX, 510), new Coordinate(minX, -10) };
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("Ortsteil", name);
+		attributes.put("Depot", depot);
+		attributes.put("MO", monday);
+		attributes.put("DI", tuesday);
+		for (String day : Arrays.asList("MI", "DO", "FR"))
+			attributes.put(day, 0.0);
+		for (String dumpOfDay : Arrays.asList("Mo-Ent", "Di-Ent", "Mi-Ent", "Do-Ent", "Fr-Ent"))
+			attributes.put(dumpOfDay, dump);
+		return factory.createPolygon(coordinates, attributes, name);
+	}
+
+	private static String createCarriersXml() {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<carriers>\n");
+		String[][] depots = { { "Gradestrasse", AbfallUtils.linkUmladestationGradestrasse },
+				{ "MalmoeerStr", "116212" }, { "Forckenbeck", "27766" }, { "Nordring", "42882" } };
+		for (String[] depot : depots) {
+			xml.append("\t<carrier id=\"BSR_" + depot[0] + "\">\n\t\t<capabilities fleetSize=\"INFINITE\">\n");
+			xml.append("\t\t\t<vehicles>\n\t\t\t\t<vehicle id=\"Truck" + depot[0] + "Diesel\" depotLinkId=\""
+					+ depot[1] + "\" typeId=\"diesel_vehicle\" earliestStart=\"06:00:00\" latestEnd=\"14:00:00\"/>\n");
+			xml.append("\t\t\t</vehicles>\n\t\t</capabilities>\n\t</carrier>\n");
+		}
+		return xml.append("</carriers>\n").toString();
+	}
+}
@@ -0,0 +1,277 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.run.wasteCollection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierCapabilities;
+import org.matsim.contrib.freight.carrier.CarrierCapabilities.FleetSize;
+import org.matsim.contrib.freight.carrier.CarrierShipment;
+import org.matsim.contrib.freight.carrier.CarrierUtils;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.contrib.freight.jsprit.NetworkBasedTransportCosts;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkChangeEvent;
+import org.matsim.core.network.NetworkChangeEvent.ChangeType;
+import org.matsim.core.network.NetworkChangeEvent.ChangeValue;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
+
+public class TravelCostMatrixCacheTest {
+
+	private static final int SIZE = 5;
+	private static final double MAX_VELOCITY = 12;
+	private static final double COSTS_PER_METER = 0.001;
+	private static final double COSTS_PER_SECOND = 0.01;
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public final void testSameAsNetworkBasedTransportCosts() {
+		compareWithNetworkBasedTransportCosts(false);
+	}
+
+	@Test
+	public final void testSameAsNetworkBasedTransportCostsWithTimeVariantNetwork() {
+		compareWithNetworkBasedTransportCosts(true);
+	}
+
+	/**
+	 * Two days with different garbage links of the same district need the same
+	 * blocks, so the second day reads them from the cache directory.
+	 */
+	@Test
+	public final void testBlocksAreReusedForOtherDays() {
+		Network network = createGridNetwork(false);
+		VehicleType vehicleType = createVehicleType();
+		List<Id<Link>> district = getDistrict(network);
+		String cacheDirectory = utils.getOutputDirectory() + "cache";
+
+		Carrier monday = createCarrier(vehicleType, district.subList(0, district.size() / 2));
+		new TravelCostMatrixCache(network, false, AbfallUtils.TIME_SLICE_WIDTH, cacheDirectory)
+				.createTransportCosts(monday, getLocationGroups(district), null);
+		int files = new File(cacheDirectory).list().length;
+		Assert.assertTrue(files > 0);
+
+		Carrier tuesday = createCarrier(vehicleType, district.subList(district.size() / 2, district.size()));
+		VehicleRoutingTransportCosts costs = new TravelCostMatrixCache(network, false, AbfallUtils.TIME_SLICE_WIDTH,
+				cacheDirectory).createTransportCosts(tuesday, getLocationGroups(district), null);
+		Assert.assertEquals(files, new File(cacheDirectory).list().length);
+
+		NetworkBasedTransportCosts netBasedCosts = createNetworkBasedTransportCosts(network, vehicleType);
+		assertSameCosts(netBasedCosts, costs, getLocations(tuesday), 0);
+	}
+
+	private void compareWithNetworkBasedTransportCosts(boolean timeVariant) {
+		Network network = createGridNetwork(timeVariant);
+		VehicleType vehicleType = createVehicleType();
+		List<Id<Link>> district = getDistrict(network);
+		Carrier carrier = createCarrier(vehicleType, district);
+		String cacheDirectory = utils.getOutputDirectory() + "cache";
+
+		TravelCostMatrixCache cache = new TravelCostMatrixCache(network, timeVariant, AbfallUtils.TIME_SLICE_WIDTH,
+				cacheDirectory);
+		// without fallback, so that every pair has to come from the matrices
+		VehicleRoutingTransportCosts costs = cache.createTransportCosts(carrier, getLocationGroups(district), null);
+		NetworkBasedTransportCosts netBasedCosts = createNetworkBasedTransportCosts(network, vehicleType);
+		List<Location> locations = getLocations(carrier);
+		for (double departureTime : new double[] { 6 * 3600, 7 * 3600, 8.5 * 3600 })
+			assertSameCosts(netBasedCosts, costs, locations, departureTime);
+
+		if (timeVariant) {
+			// the change events slow down the paths after 7:00
+			com.graphhopper.jsprit.core.problem.vehicle.Vehicle vehicle = createJspritVehicle(locations.get(0));
+			double timesBefore = 0;
+			double timesAfter = 0;
+			for (Location from : locations) {
+				for (Location to : locations) {
+					timesBefore += costs.getTransportTime(from, to, 6 * 3600, null, vehicle);
+					timesAfter += costs.getTransportTime(from, to, 7 * 3600, null, vehicle);
+				}
+			}
+			Assert.assertTrue(timesAfter > timesBefore);
+		}
+
+		// a new instance reads the same matrices from the cache directory
+		VehicleRoutingTransportCosts cachedCosts = new TravelCostMatrixCache(network, timeVariant,
+				AbfallUtils.TIME_SLICE_WIDTH, cacheDirectory).createTransportCosts(carrier,
+						getLocationGroups(district), null);
+		assertSameCosts(netBasedCosts, cachedCosts, locations, 7 * 3600);
+	}
+
+	private static void assertSameCosts(NetworkBasedTransportCosts expectedCosts,
+			VehicleRoutingTransportCosts actualCosts, List<Location> locations, double departureTime) {
+		com.graphhopper.jsprit.core.problem.vehicle.Vehicle vehicle = createJspritVehicle(locations.get(0));
+		for (Location from : locations) {
+			for (Location to : locations) {
+				double expectedTime = expectedCosts.getTransportTime(from, to, departureTime, null, vehicle);
+				double expectedDistance = expectedCosts.getDistance(from, to, departureTime, vehicle);
+				String pair = from.getId() + " -> " + to.getId() + " at " + departureTime;
+				Assert.assertEquals(pair, expectedTime,
+						actualCosts.getTransportTime(from, to, departureTime, null, vehicle), 1e-4 * expectedTime);
+				Assert.assertEquals(pair, expectedDistance, actualCosts.getDistance(from, to, departureTime, vehicle),
+						1e-4 * expectedDistance);
+				Assert.assertEquals(pair, COSTS_PER_SECOND * expectedTime + COSTS_PER_METER * expectedDistance,
+						actualCosts.getTransportCost(from, to, departureTime, null, vehicle),
+						1e-4 * (COSTS_PER_SECOND * expectedTime + COSTS_PER_METER * expectedDistance));
+			}
+		}
+	}
+
+	/**
+	 * A grid with links in both directions, of different lengths and freespeeds, so
+	 * that there is only one least cost path between two links. For the time
+	 * variant network, the freespeed of every third link drops at 7:00.
+	 */
+	private static Network createGridNetwork(boolean timeVariant) {
+		Config config = ConfigUtils.createConfig();
+		config.network().setTimeVariantNetwork(timeVariant);
+		Network network = ScenarioUtils.createScenario(config).getNetwork();
+		Node[][] nodes = new Node[SIZE][SIZE];
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++)
+				nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y),
+						new Coord(200 * x, 200 * y));
+		}
+		int count = 0;
+		List<Link> slowedDownLinks = new ArrayList<Link>();
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				for (Node toNode : new Node[] { x + 1 < SIZE ? nodes[x + 1][y] : null,
+						y + 1 < SIZE ? nodes[x][y + 1] : null }) {
+					if (toNode == null)
+						continue;
+					for (Node[] direction : new Node[][] { { nodes[x][y], toNode }, { toNode, nodes[x][y] } }) {
+						count++;
+						Link link = NetworkUtils.createAndAddLink(network,
+								Id.createLinkId(direction[0].getId() + "-" + direction[1].getId()), direction[0],
+								direction[1], 200 + 37 * (count % 7) + 0.1 * count, 5 + (count * 3) % 11, 600, 1);
+						if (count % 3 == 0)
+							slowedDownLinks.add(link);
+					}
+				}
+			}
+		}
+		if (timeVariant) {
+			NetworkChangeEvent event = new NetworkChangeEvent(7 * 3600);
+			event.addLinks(slowedDownLinks);
+			event.setFreespeedChange(new ChangeValue(ChangeType.FACTOR, 0.3));
+			NetworkUtils.addNetworkChangeEvent(network, event);
+		}
+		return network;
+	}
+
+	private static VehicleType createVehicleType() {
+		VehicleType vehicleType = VehicleUtils.createVehicleType(Id.create("truck", VehicleType.class));
+		vehicleType.setMaximumVelocity(MAX_VELOCITY);
+		vehicleType.getCostInformation().setCostsPerMeter(COSTS_PER_METER);
+		vehicleType.getCostInformation().setCostsPerSecond(COSTS_PER_SECOND);
+		vehicleType.getCostInformation().setFixedCost(0.);
+		return vehicleType;
+	}
+
+	/**
+	 * @return every second link of the network as the garbage links of one
+	 *         district
+	 */
+	private static List<Id<Link>> getDistrict(Network network) {
+		List<Id<Link>> district = new ArrayList<Id<Link>>();
+		int count = 0;
+		for (Id<Link> linkId : network.getLinks().keySet()) {
+			if (count++ % 2 == 1)
+				district.add(linkId);
+		}
+		Collections.sort(district);
+		return district;
+	}
+
+	private static List<Collection<Id<Link>>> getLocationGroups(List<Id<Link>> district) {
+		return Arrays.asList(Arrays.asList(getDump()), district);
+	}
+
+	private static Id<Link> getDump() {
+		return Id.createLinkId((SIZE - 1) + "_" + (SIZE - 1) + "-" + (SIZE - 2) + "_" + (SIZE - 1));
+	}
+
+	private static Carrier createCarrier(VehicleType vehicleType, List<Id<Link>> garbageLinks) {
+		Carrier carrier = CarrierUtils.createCarrier(Id.create("carrier", Carrier.class));
+		CarrierVehicle vehicle = CarrierVehicle.Builder
+				.newInstance(Id.create("truck", Vehicle.class), Id.createLinkId("0_0-1_0")).setType(vehicleType)
+				.setEarliestStart(6 * 3600).setLatestEnd(9 * 3600).build();
+		carrier.setCarrierCapabilities(CarrierCapabilities.Builder.newInstance().addType(vehicleType)
+				.addVehicle(vehicle).setFleetSize(FleetSize.INFINITE).build());
+		for (Id<Link> garbageLink : garbageLinks) {
+			CarrierShipment shipment = CarrierShipment.Builder
+					.newInstance(Id.create("Shipment_" + garbageLink, CarrierShipment.class), garbageLink, getDump(), 1)
+					.build();
+			carrier.getShipments().put(shipment.getId(), shipment);
+		}
+		return carrier;
+	}
+
+	private static List<Location> getLocations(Carrier carrier) {
+		List<Location> locations = new ArrayList<Location>();
+		for (CarrierVehicle vehicle : carrier.getCarrierCapabilities().getCarrierVehicles().values())
+			locations.add(Location.newInstance(vehicle.getLocation().toString()));
+		for (CarrierShipment shipment : carrier.getShipments().values())
+			locations.add(Location.newInstance(shipment.getFrom().toString()));
+		locations.add(Location.newInstance(getDump().toString()));
+		return locations;
+	}
+
+	private static NetworkBasedTransportCosts createNetworkBasedTransportCosts(Network network,
+			VehicleType vehicleType) {
+		NetworkBasedTransportCosts.Builder builder = NetworkBasedTransportCosts.Builder.newInstance(network,
+				Collections.singletonList(vehicleType));
+		builder.setTimeSliceWidth(AbfallUtils.TIME_SLICE_WIDTH);
+		return builder.build();
+	}
+
+	private static com.graphhopper.jsprit.core.problem.vehicle.Vehicle createJspritVehicle(Location depot) {
+		return VehicleImpl.Builder.newInstance("truck").setStartLocation(depot)
+				.setType(VehicleTypeImpl.Builder.newInstance("truck").setMaxVelocity(MAX_VELOCITY)
+						.setCostPerDistance(COSTS_PER_METER).setCostPerTransportTime(COSTS_PER_SECOND).build())
+				.build();
+	}
+}